@@ -0,0 +1,49 @@
+package it.sanitech.outbox.admin;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * API amministrative sui topic di dead letter dei consumer Kafka del servizio.
+ *
+ * <p>
+ * Registrato da {@link it.sanitech.outbox.autoconfigure.OutboxConsumerAutoConfiguration}.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/admin/consumers/dead-letters")
+@RequiredArgsConstructor
+@PreAuthorize("hasAuthority('ROLE_ADMIN')")
+public class ConsumerDeadLetterController {
+
+    private final ConsumerDeadLetterService service;
+
+    @GetMapping
+    public List<ConsumerDeadLetterTopicDto> listTopics() {
+        return service.listTopics();
+    }
+
+    /**
+     * Ripubblica i messaggi del topic di dead letter; {@code max} limita i messaggi della singola richiesta.
+     */
+    @PostMapping("/{topic}/replay")
+    public Map<String, Integer> replay(@PathVariable String topic,
+                                       @RequestParam(required = false) Integer max) {
+        try {
+            return Map.of("replayed", service.replay(topic, max));
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, ex.getMessage());
+        }
+    }
+}
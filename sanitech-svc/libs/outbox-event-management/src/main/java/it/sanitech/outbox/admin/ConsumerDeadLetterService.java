@@ -0,0 +1,224 @@
+package it.sanitech.outbox.admin;
+
+import it.sanitech.outbox.utilities.OutboxConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Replay dei messaggi finiti nei topic di dead letter dei consumer.
+ *
+ * <p>
+ * I topic gestiti sono quelli {@code *-dlt} dei listener del servizio più quelli configurati in
+ * {@code sanitech.outbox.consumer.dead-letter-topics}. Il replay ripubblica i messaggi sul primo topic
+ * di retry dello stesso consumer group ({@code *-retry-0}), così gli altri gruppi del topic principale
+ * non li ricevono una seconda volta; gli header di retry e di dead letter sono rimossi e il ciclo
+ * di tentativi riparte da capo.
+ * </p>
+ *
+ * <p>
+ * La posizione raggiunta è salvata come offset del gruppo {@code <topic>.replay} e committata solo dopo
+ * l'ACK del broker: un replay interrotto riprende senza perdere messaggi.
+ * </p>
+ */
+@Slf4j
+public class ConsumerDeadLetterService {
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+    private static final int MAX_EMPTY_POLLS = 10;
+    private static final long SEND_TIMEOUT_MS = 30_000;
+    private static final String REPLAY_GROUP_SUFFIX = ".replay";
+    private static final List<String> DROPPED_HEADER_PREFIXES = List.of("retry_topic-", KafkaHeaders.PREFIX + "dlt-");
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final KafkaTemplate<String, byte[]> template;
+    private final KafkaListenerEndpointRegistry registry;
+    private final Collection<String> configuredTopics;
+    private final int maxRecords;
+
+    public ConsumerDeadLetterService(ConsumerFactory<String, byte[]> consumerFactory,
+                                     KafkaTemplate<String, byte[]> template,
+                                     KafkaListenerEndpointRegistry registry,
+                                     Collection<String> configuredTopics,
+                                     int maxRecords) {
+        this.consumerFactory = Objects.requireNonNull(consumerFactory, "ConsumerFactory obbligatorio");
+        this.template = Objects.requireNonNull(template, "KafkaTemplate obbligatorio");
+        this.registry = Objects.requireNonNull(registry, "KafkaListenerEndpointRegistry obbligatorio");
+        this.configuredTopics = List.copyOf(configuredTopics);
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Topic di dead letter del servizio con i messaggi in attesa di replay.
+     */
+    public List<ConsumerDeadLetterTopicDto> listTopics() {
+        List<ConsumerDeadLetterTopicDto> result = new ArrayList<>();
+        for (String topic : deadLetterTopics()) {
+            try (Consumer<String, byte[]> consumer = replayConsumer(topic)) {
+                List<TopicPartition> partitions = partitions(consumer, topic);
+                Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(Set.copyOf(partitions));
+                Map<TopicPartition, Long> begin = consumer.beginningOffsets(partitions);
+                Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+
+                long pending = 0;
+                for (TopicPartition tp : partitions) {
+                    OffsetAndMetadata done = committed.get(tp);
+                    long from = Math.max(begin.get(tp), done != null ? done.offset() : 0L);
+                    pending += Math.max(0, end.get(tp) - from);
+                }
+                result.add(new ConsumerDeadLetterTopicDto(topic, replayTopic(topic), pending));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ripubblica fino a {@code limit} messaggi del topic di dead letter, dal primo non ancora ripubblicato
+     * fino alla fine del topic al momento della richiesta.
+     *
+     * @return numero di messaggi ripubblicati
+     * @throws IllegalArgumentException se il topic non è un topic di dead letter del servizio
+     */
+    public int replay(String topic, Integer limit) {
+        if (!deadLetterTopics().contains(topic)) {
+            throw new IllegalArgumentException("Topic di dead letter sconosciuto: " + topic);
+        }
+        final int max = limit != null ? Math.min(Math.max(limit, 1), maxRecords) : maxRecords;
+        final String target = replayTopic(topic);
+
+        int replayed = 0;
+        try (Consumer<String, byte[]> consumer = replayConsumer(topic)) {
+            List<TopicPartition> partitions = partitions(consumer, topic);
+            consumer.assign(partitions);
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(Set.copyOf(partitions));
+            for (TopicPartition tp : partitions) {
+                OffsetAndMetadata done = committed.get(tp);
+                if (done != null) {
+                    consumer.seek(tp, done.offset());
+                } else {
+                    consumer.seekToBeginning(List.of(tp));
+                }
+            }
+            Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+
+            int emptyPolls = 0;
+            while (replayed < max && !caughtUp(consumer, partitions, end) && emptyPolls < MAX_EMPTY_POLLS) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty()) {
+                    emptyPolls++;
+                    continue;
+                }
+                emptyPolls = 0;
+
+                Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+                List<CompletableFuture<?>> acks = new ArrayList<>();
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+                    if (replayed >= max || record.offset() >= end.get(tp)) {
+                        continue;
+                    }
+                    acks.add(template.send(toReplay(target, record)));
+                    offsets.put(tp, new OffsetAndMetadata(record.offset() + 1));
+                    replayed++;
+                }
+                awaitAcks(acks);
+                consumer.commitSync(offsets);
+            }
+        }
+
+        log.info("Consumer: {} messaggi ripubblicati da {} su {}.", replayed, topic, target);
+        return replayed;
+    }
+
+    /**
+     * Copia del messaggio per il topic di replay, senza gli header dei tentativi precedenti.
+     */
+    static ProducerRecord<String, byte[]> toReplay(String target, ConsumerRecord<String, byte[]> record) {
+        ProducerRecord<String, byte[]> copy = new ProducerRecord<>(target, record.key(), record.value());
+        for (Header header : record.headers()) {
+            if (DROPPED_HEADER_PREFIXES.stream().noneMatch(header.key()::startsWith)) {
+                copy.headers().add(header);
+            }
+        }
+        return copy;
+    }
+
+    static String replayTopic(String deadLetterTopic) {
+        String base = deadLetterTopic.substring(0, deadLetterTopic.length() - OutboxConstants.DLT_SUFFIX.length());
+        return base + OutboxConstants.FIRST_RETRY_SUFFIX;
+    }
+
+    private Set<String> deadLetterTopics() {
+        Set<String> topics = new TreeSet<>(configuredTopics);
+        for (MessageListenerContainer container : registry.getAllListenerContainers()) {
+            String[] listened = container.getContainerProperties().getTopics();
+            if (listened == null) {
+                continue;
+            }
+            for (String topic : listened) {
+                if (topic.endsWith(OutboxConstants.DLT_SUFFIX)) {
+                    topics.add(topic);
+                }
+            }
+        }
+        return topics;
+    }
+
+    private Consumer<String, byte[]> replayConsumer(String topic) {
+        return consumerFactory.createConsumer(topic + REPLAY_GROUP_SUFFIX, null, "-replay");
+    }
+
+    private static List<TopicPartition> partitions(Consumer<String, byte[]> consumer, String topic) {
+        List<PartitionInfo> infos = consumer.partitionsFor(topic);
+        if (infos == null) {
+            return List.of();
+        }
+        return infos.stream().map(info -> new TopicPartition(topic, info.partition())).toList();
+    }
+
+    private static boolean caughtUp(Consumer<String, byte[]> consumer, List<TopicPartition> partitions,
+                                    Map<TopicPartition, Long> end) {
+        for (TopicPartition tp : partitions) {
+            if (consumer.position(tp) < end.get(tp)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void awaitAcks(List<CompletableFuture<?>> acks) {
+        try {
+            CompletableFuture.allOf(acks.toArray(CompletableFuture[]::new)).get(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replay interrotto.", ex);
+        } catch (ExecutionException | TimeoutException ex) {
+            throw new IllegalStateException("Replay: invio non confermato dal broker.", ex);
+        }
+    }
+}
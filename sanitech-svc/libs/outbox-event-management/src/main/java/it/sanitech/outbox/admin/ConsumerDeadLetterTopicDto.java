@@ -0,0 +1,12 @@
+package it.sanitech.outbox.admin;
+
+/**
+ * Topic di dead letter di un consumer, con il topic su cui vengono ripubblicati i messaggi e
+ * il numero di messaggi non ancora ripubblicati.
+ */
+public record ConsumerDeadLetterTopicDto(
+        String topic,
+        String replayTopic,
+        long pending
+) {
+}
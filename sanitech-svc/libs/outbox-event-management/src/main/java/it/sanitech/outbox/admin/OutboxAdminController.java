@@ -0,0 +1,57 @@
+package it.sanitech.outbox.admin;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+/**
+ * API amministrative per gli eventi outbox parcheggiati dopo aver esaurito i tentativi di invio.
+ *
+ * <p>
+ * Registrato da {@link it.sanitech.outbox.autoconfigure.OutboxAdminAutoConfiguration};
+ * ogni microservizio espone i propri eventi.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/admin/outbox")
+@RequiredArgsConstructor
+@PreAuthorize("hasAuthority('ROLE_ADMIN')")
+public class OutboxAdminController {
+
+    private final OutboxAdminService service;
+
+    /**
+     * Lista gli eventi parcheggiati, dal più vecchio.
+     */
+    @GetMapping("/dead-letters")
+    public Page<OutboxDeadLetterDto> listDeadLetters(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        return service.listDeadLetters(PageRequest.of(page, size, Sort.by("occurredAt", "id")));
+    }
+
+    @PostMapping("/dead-letters/{id}/replay")
+    public void replay(@PathVariable Long id) {
+        if (!service.replay(id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Evento parcheggiato non trovato: " + id);
+        }
+    }
+
+    @PostMapping("/dead-letters/replay")
+    public Map<String, Integer> replayAll() {
+        return Map.of("replayed", service.replayAll());
+    }
+}
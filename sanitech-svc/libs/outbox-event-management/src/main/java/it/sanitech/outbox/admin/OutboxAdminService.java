@@ -0,0 +1,54 @@
+package it.sanitech.outbox.admin;
+
+import it.sanitech.outbox.persistence.OutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Objects;
+
+/**
+ * Operazioni amministrative sugli eventi outbox parcheggiati (dead letter).
+ */
+@Slf4j
+public class OutboxAdminService {
+
+    private final OutboxRepository outboxRepository;
+    private final TransactionTemplate tx;
+
+    public OutboxAdminService(OutboxRepository outboxRepository, TransactionTemplate tx) {
+        this.outboxRepository = Objects.requireNonNull(outboxRepository, "OutboxRepository obbligatorio");
+        this.tx = Objects.requireNonNull(tx, "TransactionTemplate obbligatorio");
+    }
+
+    public Page<OutboxDeadLetterDto> listDeadLetters(Pageable pageable) {
+        return outboxRepository.findByDeadLetterTrueAndPublishedFalse(pageable).map(OutboxDeadLetterDto::from);
+    }
+
+    /**
+     * Rimette in circolo un evento parcheggiato: verrà ripreso dal publisher al prossimo ciclo.
+     *
+     * @return {@code true} se l'evento era parcheggiato
+     */
+    public boolean replay(Long id) {
+        Integer updated = tx.execute(status -> outboxRepository.replayDeadLetter(id));
+        boolean replayed = updated != null && updated > 0;
+        if (replayed) {
+            log.info("Outbox: evento {} rimesso in pubblicazione.", id);
+        }
+        return replayed;
+    }
+
+    /**
+     * Rimette in circolo tutti gli eventi parcheggiati.
+     *
+     * @return numero di eventi rimessi in pubblicazione
+     */
+    public int replayAll() {
+        Integer updated = tx.execute(status -> outboxRepository.replayAllDeadLetters());
+        int replayed = updated != null ? updated : 0;
+        log.info("Outbox: {} eventi parcheggiati rimessi in pubblicazione.", replayed);
+        return replayed;
+    }
+}
@@ -0,0 +1,33 @@
+package it.sanitech.outbox.admin;
+
+import it.sanitech.outbox.persistence.OutboxEvent;
+
+import java.time.Instant;
+
+/**
+ * DTO di lettura di un evento outbox parcheggiato (dead letter).
+ */
+public record OutboxDeadLetterDto(
+        Long id,
+        String aggregateType,
+        String aggregateId,
+        String eventType,
+        String topic,
+        Instant occurredAt,
+        int attempts,
+        String lastError
+) {
+
+    public static OutboxDeadLetterDto from(OutboxEvent event) {
+        return new OutboxDeadLetterDto(
+                event.getId(),
+                event.getAggregateType(),
+                event.getAggregateId(),
+                event.getEventType(),
+                event.getTopic(),
+                event.getOccurredAt(),
+                event.getAttempts(),
+                event.getLastError()
+        );
+    }
+}
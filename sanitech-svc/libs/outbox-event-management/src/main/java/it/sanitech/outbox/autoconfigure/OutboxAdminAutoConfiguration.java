@@ -0,0 +1,51 @@
+package it.sanitech.outbox.autoconfigure;
+
+import it.sanitech.outbox.admin.OutboxAdminController;
+import it.sanitech.outbox.admin.OutboxAdminService;
+import it.sanitech.outbox.boot.SanitechOutboxJpaConfiguration;
+import it.sanitech.outbox.persistence.OutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Auto-configurazione delle API amministrative sugli eventi outbox parcheggiati
+ * ({@code /api/admin/outbox/dead-letters}).
+ *
+ * <p>
+ * Attiva nei microservizi web con publisher abilitato; disattivabile con
+ * {@code sanitech.outbox.admin.enabled=false}.
+ * </p>
+ */
+@Slf4j
+@AutoConfiguration(after = SanitechOutboxJpaConfiguration.class)
+@EnableConfigurationProperties(OutboxProperties.class)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnExpression("${sanitech.outbox.publisher.enabled:false} and ${sanitech.outbox.admin.enabled:true}")
+@ConditionalOnClass({RestController.class, OutboxRepository.class, TransactionTemplate.class})
+@ConditionalOnBean(PlatformTransactionManager.class)
+public class OutboxAdminAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxAdminService outboxAdminService(OutboxRepository outboxRepository,
+                                                 PlatformTransactionManager txManager) {
+        log.debug("Outbox: creazione servizio amministrativo dead letter.");
+        return new OutboxAdminService(outboxRepository, new TransactionTemplate(txManager));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxAdminController outboxAdminController(OutboxAdminService service) {
+        return new OutboxAdminController(service);
+    }
+}
@@ -1,11 +1,18 @@
 package it.sanitech.outbox.autoconfigure;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import it.sanitech.outbox.boot.SanitechOutboxJpaConfiguration;
+import it.sanitech.outbox.codec.JacksonEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
 import it.sanitech.outbox.core.DomainEventPublisher;
+import it.sanitech.outbox.core.OutboxCommitListener;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -13,6 +20,9 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Auto-configurazione base Outbox.
  *
@@ -36,8 +46,46 @@ public class OutboxAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean(DomainEventPublisher.class)
-    public DomainEventPublisher domainEventPublisher(OutboxRepository outboxRepository, ObjectMapper objectMapper) {
+    public DomainEventPublisher domainEventPublisher(OutboxRepository outboxRepository,
+                                                     ObjectMapper objectMapper,
+                                                     OutboxProperties props,
+                                                     ObjectProvider<OutboxCommitListener> commitListeners) {
         log.debug("Outbox: registrazione DomainEventPublisher.");
-        return new DomainEventPublisher(outboxRepository, objectMapper);
+        // Il listener (fast path) vive nella configurazione del publisher: risolto in modo lazy al commit.
+        OutboxCommitListener listener = props.getPublisher().getFastPath().isEnabled()
+                ? ids -> commitListeners.ifAvailable(l -> l.onCommitted(ids))
+                : null;
+        return new DomainEventPublisher(outboxRepository, objectMapper, listener, props.isStoreEnvelope());
+    }
+
+    /**
+     * Codec dell'envelope: JSON, Smile e CBOR predefiniti più eventuali codec registrati come bean
+     * (a parità di content type prevale il bean). Usato dal publisher e dai consumer per la decodifica.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxEnvelopeCodecs outboxEnvelopeCodecs(ObjectMapper objectMapper,
+                                                     ObjectProvider<OutboxEnvelopeCodec> customCodecs) {
+        List<OutboxEnvelopeCodec> codecs = new ArrayList<>(List.of(
+                JacksonEnvelopeCodec.json(objectMapper),
+                JacksonEnvelopeCodec.smile(objectMapper),
+                JacksonEnvelopeCodec.cbor(objectMapper)));
+        customCodecs.orderedStream().forEach(codecs::add);
+        return new OutboxEnvelopeCodecs(codecs);
+    }
+
+    /**
+     * Factory dei dispatcher tipizzati usati dai consumer Kafka degli eventi outbox;
+     * {@code sanitech.outbox.consumer.parallel.*} ne imposta la modalità di elaborazione di default.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxEventDispatchers outboxEventDispatchers(OutboxEnvelopeCodecs codecs,
+                                                         ObjectMapper objectMapper,
+                                                         ObjectProvider<MeterRegistry> meterRegistry,
+                                                         OutboxProperties props) {
+        OutboxProperties.ConsumerParallel parallel = props.getConsumer().getParallel();
+        return new OutboxEventDispatchers(codecs, objectMapper, meterRegistry.getIfAvailable(),
+                parallel.isEnabled() ? parallel.getMaxInFlight() : 0);
     }
 }
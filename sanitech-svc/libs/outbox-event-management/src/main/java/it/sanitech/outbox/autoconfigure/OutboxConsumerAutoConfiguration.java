@@ -0,0 +1,101 @@
+package it.sanitech.outbox.autoconfigure;
+
+import it.sanitech.outbox.admin.ConsumerDeadLetterController;
+import it.sanitech.outbox.admin.ConsumerDeadLetterService;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.RetryableTopic;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Auto-configurazione del retry non bloccante dei consumer Kafka.
+ *
+ * <p>
+ * Registra il producer binario usato da {@link it.sanitech.outbox.consumer.OutboxRetryableTopic} per
+ * pubblicare sui topic di retry e di dead letter (i messaggi sono ripubblicati byte per byte, mentre
+ * il producer di default dei servizi serializza stringhe) e, nei servizi web, le API di replay
+ * {@code /api/admin/consumers/dead-letters}.
+ * </p>
+ */
+@Slf4j
+@AutoConfiguration(after = KafkaAutoConfiguration.class)
+@EnableConfigurationProperties(OutboxProperties.class)
+@ConditionalOnClass({KafkaTemplate.class, RetryableTopic.class})
+public class OutboxConsumerAutoConfiguration {
+
+    /**
+     * Non candidato all'autowiring per tipo: non deve competere con il {@code KafkaTemplate} del servizio.
+     */
+    @Bean(name = OutboxConstants.CONSUMER_RETRY_TEMPLATE, autowireCandidate = false)
+    @ConditionalOnMissingBean(name = OutboxConstants.CONSUMER_RETRY_TEMPLATE)
+    public KafkaTemplate<String, byte[]> outboxConsumerRetryKafkaTemplate(KafkaProperties kafkaProperties,
+                                                                           ObjectProvider<SslBundles> sslBundles) {
+        log.debug("Outbox: creazione producer per retry e dead letter dei consumer.");
+        Map<String, Object> config = kafkaProperties.buildProducerProperties(sslBundles.getIfAvailable());
+        config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(config));
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(prefix = "sanitech.outbox.admin", name = "enabled", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnClass(RestController.class)
+    @ConditionalOnBean(KafkaListenerEndpointRegistry.class)
+    static class DeadLetterAdminConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ConsumerDeadLetterService consumerDeadLetterService(KafkaProperties kafkaProperties,
+                                                                   ObjectProvider<SslBundles> sslBundles,
+                                                                   BeanFactory beanFactory,
+                                                                   KafkaListenerEndpointRegistry registry,
+                                                                   OutboxProperties props) {
+            log.debug("Outbox: creazione servizio di replay dei dead letter dei consumer.");
+            Map<String, Object> config = kafkaProperties.buildConsumerProperties(sslBundles.getIfAvailable());
+            config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+            config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+            config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+            config.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, false);
+
+            @SuppressWarnings("unchecked")
+            KafkaTemplate<String, byte[]> template =
+                    beanFactory.getBean(OutboxConstants.CONSUMER_RETRY_TEMPLATE, KafkaTemplate.class);
+            OutboxProperties.Consumer consumer = props.getConsumer();
+            return new ConsumerDeadLetterService(new DefaultKafkaConsumerFactory<>(config), template, registry,
+                    consumer.getDeadLetterTopics(), consumer.getReplayMaxRecords());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ConsumerDeadLetterController consumerDeadLetterController(ConsumerDeadLetterService service) {
+            return new ConsumerDeadLetterController(service);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package it.sanitech.outbox.autoconfigure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.sanitech.outbox.metrics.OutboxBacklogMonitor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+
+/**
+ * Auto-configurazione dei gauge sullo stato della tabella outbox (backlog, età dell'evento più vecchio,
+ * dead letter). Le metriche del publisher (timer di fase e contatori per topic) sono registrate
+ * direttamente da {@link it.sanitech.outbox.publisher.OutboxKafkaPublisher}.
+ *
+ * <p>
+ * Attiva in presenza di un {@link MeterRegistry}; disattivabile con {@code sanitech.outbox.metrics.enabled=false}.
+ * </p>
+ */
+@Slf4j
+@AutoConfiguration(
+        after = DataSourceAutoConfiguration.class,
+        afterName = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration"
+)
+@EnableScheduling
+@EnableConfigurationProperties(OutboxProperties.class)
+@ConditionalOnExpression("${sanitech.outbox.enabled:true} and ${sanitech.outbox.metrics.enabled:true}")
+@ConditionalOnClass({MeterRegistry.class, JdbcTemplate.class})
+@ConditionalOnBean({DataSource.class, MeterRegistry.class})
+public class OutboxMetricsAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxBacklogMonitor outboxBacklogMonitor(DataSource dataSource,
+                                                     OutboxProperties props,
+                                                     MeterRegistry meterRegistry) {
+        log.debug("Outbox: creazione monitor backlog (refreshMs={}).", props.getMetrics().getRefreshMs());
+        return new OutboxBacklogMonitor(new JdbcTemplate(dataSource), props, meterRegistry);
+    }
+}
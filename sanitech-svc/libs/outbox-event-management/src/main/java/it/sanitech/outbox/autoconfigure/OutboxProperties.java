@@ -1,13 +1,21 @@
 package it.sanitech.outbox.autoconfigure;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Properties della libreria Outbox.
  *
@@ -25,9 +33,27 @@ public class OutboxProperties {
      */
     private boolean enabled = true;
 
+    /**
+     * Se attivo, l'envelope Kafka viene serializzato una sola volta in fase di scrittura
+     * e salvato nella colonna {@code envelope}: il publisher invia i byte senza lavoro Jackson.
+     */
+    private boolean storeEnvelope = false;
+
     @Valid
     private Publisher publisher = new Publisher();
 
+    @Valid
+    private Retention retention = new Retention();
+
+    @Valid
+    private Admin admin = new Admin();
+
+    @Valid
+    private Metrics metrics = new Metrics();
+
+    @Valid
+    private Consumer consumer = new Consumer();
+
     @Getter
     @Setter
     public static class Publisher {
@@ -60,5 +86,424 @@ public class OutboxProperties {
          */
         @Min(100)
         private long sendTimeoutMs = 5000;
+
+        /**
+         * Modalità di invio del batch:
+         * <ul>
+         *   <li>{@code SYNC}: un invio bloccante per evento; il primo errore annulla il batch;</li>
+         *   <li>{@code PIPELINED}: invio in parallelo tra aggregati diversi e attesa congiunta degli ACK entro
+         *       {@code sendTimeoutMs}; gli eventi dello stesso aggregato partono solo dopo l'ACK del precedente
+         *       e vengono marcati come pubblicati solo gli eventi confermati.</li>
+         * </ul>
+         */
+        @NotNull
+        private SendMode sendMode = SendMode.SYNC;
+
+        /**
+         * Numero di worker di pubblicazione per istanza.
+         * Con valore maggiore di 1 si attiva la modalità multi-worker: la tabella outbox è ripartita
+         * in {@code shards} shard per hash dell'aggregato e ogni worker reclama gli shard liberi,
+         * preservando l'ordine degli eventi dello stesso aggregato.
+         */
+        @Min(1)
+        private int workers = 1;
+
+        /**
+         * Numero totale di shard (deve essere uguale su tutte le istanze del servizio).
+         * Rappresenta il massimo parallelismo di pubblicazione nel cluster.
+         */
+        @Min(1)
+        private int shards = 16;
+
+        @Valid
+        private FastPath fastPath = new FastPath();
+
+        @Valid
+        private Adaptive adaptive = new Adaptive();
+
+        @Valid
+        private Retry retry = new Retry();
+
+        @Valid
+        private Encoding encoding = new Encoding();
+
+        /**
+         * Corsie di pubblicazione dedicate: gli eventi dei topic di una corsia sono pubblicati
+         * solo dai worker della corsia, con batch e cadenza propri, e non dal publisher principale.
+         */
+        @Valid
+        private List<Lane> lanes = new ArrayList<>();
+
+        /**
+         * Topic assegnati a una corsia (esclusi dal publisher principale).
+         */
+        public List<String> laneTopics() {
+            return lanes.stream().flatMap(lane -> lane.getTopics().stream()).distinct().toList();
+        }
+    }
+
+    /**
+     * Corsia di pubblicazione: una quota di throughput riservata ad alcuni topic, indipendente
+     * dal backlog degli altri. Abbina la colonna {@code topic} dell'evento: gli eventi senza topic
+     * o con fan-out restano al publisher principale.
+     */
+    @Getter
+    @Setter
+    public static class Lane {
+
+        /**
+         * Nome della corsia (nomi dei thread e log).
+         */
+        @NotBlank
+        private String name;
+
+        /**
+         * Topic pubblicati dalla corsia.
+         */
+        @NotEmpty
+        private List<String> topics = new ArrayList<>();
+
+        /**
+         * Numero massimo di eventi per ciclo.
+         */
+        @Min(1)
+        private int batchSize = 100;
+
+        /**
+         * Ritardo fisso tra un ciclo e l'altro (ms).
+         */
+        @Min(50)
+        private long fixedDelayMs = 500;
+
+        /**
+         * Worker dedicati alla corsia su ogni istanza.
+         */
+        @Min(1)
+        private int workers = 1;
+    }
+
+    /**
+     * Fast path after-commit: gli id degli eventi appena committati vengono passati subito
+     * a una coda in-process del publisher, senza attendere il ciclo di polling.
+     * In multi-worker il fast path reclama gli shard degli eventi come i worker: gli shard occupati
+     * restano ai worker.
+     */
+    @Getter
+    @Setter
+    public static class FastPath {
+
+        private boolean enabled = false;
+
+        /**
+         * Capacità della coda in-process. Oltre questa soglia gli id vengono scartati
+         * e gli eventi sono ripresi dal polling.
+         */
+        @Min(1)
+        private int queueCapacity = 10000;
+    }
+
+    /**
+     * Polling adattivo: backoff esponenziale quando la tabella è vuota,
+     * drenaggio di più batch consecutivi quando c'è backlog. Vale solo in modalità a worker singolo.
+     *
+     * <p>
+     * Il backoff è azzerato solo dal fast path: senza fast path un evento committato dopo un periodo
+     * di inattività può attendere fino a {@code maxIdleDelayMs} prima di essere pubblicato.
+     * </p>
+     */
+    @Getter
+    @Setter
+    public static class Adaptive {
+
+        private boolean enabled = false;
+
+        /**
+         * Intervallo massimo tra due interrogazioni del DB in assenza di eventi (ms).
+         */
+        @Min(100)
+        private long maxIdleDelayMs = 30000;
+
+        /**
+         * Numero massimo di batch pieni pubblicati in un singolo ciclo.
+         */
+        @Min(1)
+        private int maxBatchesPerCycle = 10;
+    }
+
+    /**
+     * Retry per singolo evento: un invio fallito non annulla il batch, l'evento viene ripianificato
+     * con backoff esponenziale e, esauriti i tentativi, parcheggiato come dead letter.
+     */
+    @Getter
+    @Setter
+    public static class Retry {
+
+        /**
+         * Numero massimo di invii falliti prima di parcheggiare l'evento.
+         */
+        @Min(1)
+        private int maxAttempts = 12;
+
+        /**
+         * Attesa prima del secondo tentativo (ms).
+         */
+        @Min(100)
+        private long initialBackoffMs = 1000;
+
+        /**
+         * Fattore di crescita dell'attesa tra tentativi successivi.
+         */
+        @DecimalMin("1.0")
+        private double multiplier = 2.0;
+
+        /**
+         * Attesa massima tra due tentativi (ms).
+         */
+        @Min(100)
+        private long maxBackoffMs = 900000;
+    }
+
+    /**
+     * Formato dell'envelope e compressione dei messaggi, con possibilità di override per topic.
+     *
+     * <p>
+     * Esempio:
+     * <pre>{@code
+     * encoding:
+     *   content-type: application/json
+     *   topics:
+     *     "[audits.events]":
+     *       content-type: application/x-jackson-smile
+     *       compression: zstd
+     * }</pre>
+     * </p>
+     */
+    @Getter
+    @Setter
+    public static class Encoding {
+
+        /**
+         * Content type del codec di default ({@code application/json}, {@code application/x-jackson-smile},
+         * {@code application/cbor} o quello di un codec registrato come bean).
+         */
+        @NotBlank
+        private String contentType = "application/json";
+
+        /**
+         * Compressione del producer di default ({@code none}, {@code gzip}, {@code snappy}, {@code lz4}, {@code zstd}).
+         * Se vuota vale {@code spring.kafka.producer.compression-type}.
+         */
+        private String compression;
+
+        /**
+         * Override per topic.
+         */
+        @Valid
+        private Map<String, TopicEncoding> topics = new HashMap<>();
+
+        public String contentTypeFor(String topic) {
+            TopicEncoding override = topics.get(topic);
+            return override != null && override.getContentType() != null ? override.getContentType() : contentType;
+        }
+
+        public String compressionFor(String topic) {
+            TopicEncoding override = topics.get(topic);
+            return override != null && override.getCompression() != null ? override.getCompression() : compression;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class TopicEncoding {
+
+        private String contentType;
+
+        private String compression;
+    }
+
+    /**
+     * API amministrative sugli eventi parcheggiati ({@code /api/admin/outbox}).
+     */
+    @Getter
+    @Setter
+    public static class Admin {
+
+        private boolean enabled = true;
+    }
+
+    /**
+     * Gauge su backlog, età dell'evento più vecchio e dead letter ({@link it.sanitech.outbox.metrics.OutboxBacklogMonitor}).
+     */
+    @Getter
+    @Setter
+    public static class Metrics {
+
+        private boolean enabled = true;
+
+        /**
+         * Intervallo di aggiornamento dei gauge (ms).
+         */
+        @Min(1000)
+        private long refreshMs = 10000;
+
+        /**
+         * Limite del conteggio del backlog: oltre questa soglia il gauge resta al valore massimo
+         * e la query non scorre l'intero indice.
+         */
+        @Min(1)
+        private int backlogCountCap = 100000;
+    }
+
+    /**
+     * Retention della tabella outbox partizionata per mese su {@code occurred_at}.
+     */
+    @Getter
+    @Setter
+    public static class Retention {
+
+        /**
+         * Abilita il job di manutenzione (partizioni future, purge, metriche di dimensione).
+         */
+        private boolean enabled = false;
+
+        /**
+         * Età minima (giorni) oltre la quale una partizione con soli eventi pubblicati può essere rimossa.
+         */
+        @Min(1)
+        private int retentionDays = 7;
+
+        /**
+         * Cosa fare delle partizioni scadute.
+         */
+        @NotNull
+        private RetentionMode mode = RetentionMode.DROP;
+
+        /**
+         * Numero di partizioni mensili future da mantenere già create.
+         */
+        @Min(1)
+        private int premakeMonths = 2;
+
+        /**
+         * Espressione cron del job di manutenzione.
+         */
+        @NotBlank
+        private String cron = "0 15 3 * * *";
+
+        /**
+         * Dimensione dei blocchi di DELETE sulla partizione di default (o su tabella non partizionata).
+         */
+        @Min(100)
+        private int purgeBatchSize = 10000;
+
+        /**
+         * Attesa massima (ms) del lock sulla tabella outbox per le DDL di manutenzione.
+         * Creare una partizione o staccarla in presenza della partizione di default richiede ACCESS EXCLUSIVE
+         * su {@code outbox_events}: mentre la DDL è in coda, publisher e transazioni applicative che scrivono
+         * nell'outbox restano bloccati dietro di essa. Scaduta l'attesa la DDL rinuncia e riprova al ciclo successivo.
+         */
+        @Min(100)
+        private long ddlLockTimeoutMs = 3000;
+
+        /**
+         * Intervallo di aggiornamento delle metriche di dimensione tabella/backlog (ms).
+         */
+        @Min(1000)
+        private long metricsRefreshMs = 30000;
+    }
+
+    public enum RetentionMode {
+        /**
+         * Le partizioni scadute vengono eliminate.
+         */
+        DROP,
+        /**
+         * Le partizioni scadute vengono staccate e restano come tabelle autonome, da archiviare esternamente.
+         */
+        DETACH
+    }
+
+    public enum SendMode {
+        SYNC,
+        PIPELINED
+    }
+
+    /**
+     * Consumer degli eventi: retry non bloccanti su topic dedicati e dead letter per consumer group
+     * ({@link it.sanitech.outbox.consumer.OutboxRetryableTopic}).
+     *
+     * <p>
+     * I valori di {@code retry} sono letti dall'annotazione tramite placeholder: qui sono documentati
+     * e validati, i default coincidono con quelli dei placeholder.
+     * </p>
+     */
+    @Getter
+    @Setter
+    public static class Consumer {
+
+        @Valid
+        private ConsumerRetry retry = new ConsumerRetry();
+
+        /**
+         * Topic di dead letter senza listener nel servizio (es. ingestion batch) da esporre
+         * comunque nelle API di replay.
+         */
+        private List<String> deadLetterTopics = new ArrayList<>();
+
+        /**
+         * Messaggi massimi ripubblicati da una singola richiesta di replay.
+         */
+        @Min(1)
+        private int replayMaxRecords = 1000;
+
+        @Valid
+        private ConsumerParallel parallel = new ConsumerParallel();
+    }
+
+    /**
+     * Elaborazione parallela dei messaggi di una partizione: in ordine per chiave, in parallelo tra chiavi
+     * diverse, su virtual thread. Richiede listener che restituiscono il future di
+     * {@code OutboxEventDispatcher#dispatchAsync}.
+     */
+    @Getter
+    @Setter
+    public static class ConsumerParallel {
+
+        private boolean enabled = false;
+
+        /**
+         * Messaggi in elaborazione contemporanea per dispatcher; oltre, il consumer attende.
+         */
+        @Min(1)
+        private int maxInFlight = 64;
+    }
+
+    @Getter
+    @Setter
+    public static class ConsumerRetry {
+
+        /**
+         * Tentativi totali, compreso il primo sul topic principale.
+         */
+        @Min(1)
+        private int attempts = 4;
+
+        /**
+         * Attesa prima del primo retry (ms).
+         */
+        @Min(100)
+        private long delayMs = 2000;
+
+        /**
+         * Fattore di crescita dell'attesa tra retry successivi.
+         */
+        @DecimalMin("1.0")
+        private double multiplier = 5.0;
+
+        /**
+         * Attesa massima tra due retry (ms).
+         */
+        @Min(100)
+        private long maxDelayMs = 300000;
     }
 }
@@ -1,21 +1,30 @@
 package it.sanitech.outbox.autoconfigure;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.MeterRegistry;
 import it.sanitech.outbox.boot.SanitechOutboxJpaConfiguration;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
 import it.sanitech.outbox.publisher.DefaultOutboxKafkaSender;
+import it.sanitech.outbox.publisher.OutboxFastPathDispatcher;
 import it.sanitech.outbox.publisher.OutboxKafkaPublisher;
 import it.sanitech.outbox.publisher.OutboxKafkaSender;
+import it.sanitech.outbox.publisher.OutboxKafkaTemplates;
+import it.sanitech.outbox.publisher.OutboxLaneWorkers;
+import it.sanitech.outbox.publisher.OutboxShardWorkers;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.ssl.SslBundles;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -32,6 +41,7 @@ import org.springframework.transaction.support.TransactionTemplate;
 @Slf4j
 @AutoConfiguration(after = {
         SanitechOutboxJpaConfiguration.class,
+        OutboxAutoConfiguration.class,
         KafkaAutoConfiguration.class
 })
 @EnableScheduling
@@ -47,12 +57,27 @@ public class OutboxPublisherAutoConfiguration {
         return new TransactionTemplate(txManager);
     }
 
+    /**
+     * Producer binari del publisher: riusano {@code spring.kafka.producer.*} con serializer a byte.
+     */
     @Bean
     @ConditionalOnMissingBean
-    public OutboxKafkaSender outboxKafkaSender(KafkaTemplate<String, String> kafkaTemplate,
-                                                ObjectMapper objectMapper) {
-        log.debug("Outbox: creazione sender Kafka di default.");
-        return new DefaultOutboxKafkaSender(kafkaTemplate, objectMapper);
+    public OutboxKafkaTemplates outboxKafkaTemplates(KafkaProperties kafkaProperties,
+                                                     ObjectProvider<SslBundles> sslBundles) {
+        return new OutboxKafkaTemplates(kafkaProperties.buildProducerProperties(sslBundles.getIfAvailable()));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxKafkaSender outboxKafkaSender(OutboxKafkaTemplates templates,
+                                                OutboxEnvelopeCodecs codecs,
+                                                OutboxProperties props,
+                                                Environment environment) {
+        log.debug("Outbox: creazione sender Kafka di default (content-type='{}').",
+                props.getPublisher().getEncoding().getContentType());
+        // Il nome applicativo qualifica gli id outbox, generati da sequenze locali a ogni servizio.
+        String source = environment.getProperty("spring.application.name", "outbox");
+        return new DefaultOutboxKafkaSender(templates, codecs, props.getPublisher().getEncoding(), source);
     }
 
     @Bean
@@ -65,4 +90,41 @@ public class OutboxPublisherAutoConfiguration {
         log.debug("Outbox: creazione publisher Kafka schedulato.");
         return new OutboxKafkaPublisher(tx, outboxRepository, sender, props, meterRegistry);
     }
+
+    /**
+     * Modalità multi-worker: attiva solo con {@code sanitech.outbox.publisher.workers > 1}.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnExpression("${sanitech.outbox.publisher.workers:1} > 1")
+    public OutboxShardWorkers outboxShardWorkers(OutboxKafkaPublisher publisher, OutboxProperties props) {
+        log.debug("Outbox: creazione pool di worker multi-shard.");
+        return new OutboxShardWorkers(publisher, props);
+    }
+
+    /**
+     * Corsie di pubblicazione: attive se è configurata almeno una {@code sanitech.outbox.publisher.lanes[*]}.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnExpression("!'${sanitech.outbox.publisher.lanes[0].name:}'.isEmpty()")
+    public OutboxLaneWorkers outboxLaneWorkers(OutboxKafkaPublisher publisher, OutboxProperties props) {
+        log.debug("Outbox: creazione worker delle corsie di pubblicazione.");
+        return new OutboxLaneWorkers(publisher, props);
+    }
+
+    /**
+     * Fast path after-commit: attivo con {@code sanitech.outbox.publisher.fast-path.enabled=true},
+     * sia a worker singolo sia in multi-worker (reclama gli stessi shard dei worker, quindi l'ordine
+     * per aggregato resta garantito).
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnExpression("${sanitech.outbox.publisher.fast-path.enabled:false}")
+    public OutboxFastPathDispatcher outboxFastPathDispatcher(OutboxKafkaPublisher publisher,
+                                                             OutboxProperties props,
+                                                             MeterRegistry meterRegistry) {
+        log.debug("Outbox: creazione dispatcher fast path after-commit.");
+        return new OutboxFastPathDispatcher(publisher, props, meterRegistry);
+    }
 }
@@ -0,0 +1,54 @@
+package it.sanitech.outbox.autoconfigure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.sanitech.outbox.retention.OutboxRetentionJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Auto-configurazione del job di retention della tabella outbox.
+ *
+ * <p>
+ * Attiva con {@code sanitech.outbox.retention.enabled=true}. Presuppone PostgreSQL;
+ * la partizione mensile richiede la migrazione {@code outbox_partitioning} del microservizio.
+ * </p>
+ */
+@Slf4j
+@AutoConfiguration(after = {
+        DataSourceAutoConfiguration.class,
+        HibernateJpaAutoConfiguration.class
+})
+@EnableScheduling
+@EnableConfigurationProperties(OutboxProperties.class)
+@ConditionalOnProperty(prefix = "sanitech.outbox.retention", name = "enabled", havingValue = "true")
+@ConditionalOnClass({JdbcTemplate.class, TransactionTemplate.class})
+@ConditionalOnBean({DataSource.class, PlatformTransactionManager.class})
+public class OutboxRetentionAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public OutboxRetentionJob outboxRetentionJob(DataSource dataSource,
+                                                 PlatformTransactionManager txManager,
+                                                 OutboxProperties props,
+                                                 ObjectProvider<MeterRegistry> meterRegistry) {
+        log.debug("Outbox: creazione job di retention (retentionDays={}, mode={}).",
+                props.getRetention().getRetentionDays(), props.getRetention().getMode());
+        return new OutboxRetentionJob(new JdbcTemplate(dataSource), new TransactionTemplate(txManager),
+                props, meterRegistry.getIfAvailable());
+    }
+}
@@ -16,6 +16,9 @@ import org.springframework.context.annotation.Configuration;
  *   <li>{@link SanitechOutboxJpaConfiguration}: repository e entity JPA</li>
  *   <li>{@link it.sanitech.outbox.autoconfigure.OutboxAutoConfiguration}: DomainEventPublisher</li>
  *   <li>{@link it.sanitech.outbox.autoconfigure.OutboxPublisherAutoConfiguration}: Kafka publisher</li>
+ *   <li>{@link it.sanitech.outbox.autoconfigure.OutboxRetentionAutoConfiguration}: retention tabella outbox</li>
+ *   <li>{@link it.sanitech.outbox.autoconfigure.OutboxAdminAutoConfiguration}: API amministrative dead letter</li>
+ *   <li>{@link it.sanitech.outbox.autoconfigure.OutboxMetricsAutoConfiguration}: metriche backlog e lag</li>
  * </ul>
  * </p>
  */
@@ -0,0 +1,37 @@
+package it.sanitech.outbox.codec;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import it.sanitech.outbox.persistence.OutboxEvent;
+
+import java.io.IOException;
+
+/**
+ * Codifica dell'envelope Kafka di un evento outbox.
+ *
+ * <p>
+ * Il {@link #contentType()} viaggia nell'header {@code content-type} del messaggio e permette
+ * ai consumer di scegliere il decoder ({@link OutboxEnvelopeCodecs#decode}).
+ * Oltre ai codec predefiniti (JSON, Smile, CBOR) un microservizio può registrare
+ * altre implementazioni come bean.
+ * </p>
+ */
+public interface OutboxEnvelopeCodec {
+
+    /**
+     * Content type del formato (es. {@code application/json}).
+     */
+    String contentType();
+
+    byte[] encode(OutboxEvent event);
+
+    JsonNode decode(byte[] data) throws IOException;
+
+    /**
+     * Parser in streaming sull'envelope, per leggere i campi senza costruire l'albero.
+     * L'implementazione di default passa comunque da {@link #decode(byte[])}.
+     */
+    default JsonParser parser(byte[] data) throws IOException {
+        return decode(data).traverse();
+    }
+}
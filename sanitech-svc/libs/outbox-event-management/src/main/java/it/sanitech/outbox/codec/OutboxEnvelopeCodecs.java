@@ -0,0 +1,90 @@
+package it.sanitech.outbox.codec;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Registro dei codec dell'envelope, indicizzati per content type.
+ *
+ * <p>
+ * Lato producer fornisce il codec configurato per il topic; lato consumer sceglie il decoder
+ * dall'header {@code content-type} del messaggio. I messaggi senza header (prodotti prima
+ * dell'introduzione dei codec) sono decodificati come JSON.
+ * </p>
+ */
+public final class OutboxEnvelopeCodecs {
+
+    private final Map<String, OutboxEnvelopeCodec> codecs = new LinkedHashMap<>();
+
+    public OutboxEnvelopeCodecs(Collection<? extends OutboxEnvelopeCodec> codecs) {
+        Objects.requireNonNull(codecs, "codecs obbligatorio");
+        codecs.forEach(codec -> this.codecs.put(codec.contentType(), codec));
+        if (!this.codecs.containsKey(JacksonEnvelopeCodec.JSON)) {
+            throw new IllegalArgumentException("Codec " + JacksonEnvelopeCodec.JSON + " obbligatorio.");
+        }
+    }
+
+    /**
+     * Codec per il content type indicato.
+     *
+     * @throws IllegalArgumentException se nessun codec è registrato per il content type
+     */
+    public OutboxEnvelopeCodec forContentType(String contentType) {
+        OutboxEnvelopeCodec codec = codecs.get(contentType);
+        if (codec == null) {
+            throw new IllegalArgumentException("Outbox: nessun codec registrato per content type '" + contentType
+                    + "'. Disponibili: " + codecs.keySet());
+        }
+        return codec;
+    }
+
+    public Set<String> contentTypes() {
+        return codecs.keySet();
+    }
+
+    /**
+     * Decodifica il valore di un messaggio Kafka scegliendo il codec dall'header {@code content-type}.
+     */
+    public JsonNode decode(ConsumerRecord<?, byte[]> record) throws IOException {
+        return decode(record.value(), contentType(record));
+    }
+
+    /**
+     * Content type dichiarato dall'header {@code content-type} del messaggio, {@code null} se assente (JSON).
+     */
+    public static String contentType(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(OutboxConstants.HEADER_CONTENT_TYPE);
+        return header != null && header.value() != null
+                ? new String(header.value(), StandardCharsets.UTF_8)
+                : null;
+    }
+
+    /**
+     * Decodifica un envelope; con content type nullo si assume JSON.
+     */
+    public JsonNode decode(byte[] data, String contentType) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        return forContentType(contentType != null ? contentType : JacksonEnvelopeCodec.JSON).decode(data);
+    }
+
+    /**
+     * Parser in streaming sul valore di un messaggio Kafka, con il codec scelto dall'header {@code content-type}.
+     */
+    public JsonParser parser(ConsumerRecord<?, byte[]> record) throws IOException {
+        String contentType = contentType(record);
+        return forContentType(contentType != null ? contentType : JacksonEnvelopeCodec.JSON).parser(record.value());
+    }
+}
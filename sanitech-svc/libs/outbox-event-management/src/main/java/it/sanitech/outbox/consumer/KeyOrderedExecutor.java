@@ -0,0 +1,98 @@
+package it.sanitech.outbox.consumer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Esecuzione concorrente su virtual thread con ordine garantito per chiave.
+ *
+ * <p>
+ * I task con la stessa chiave (la chiave del messaggio Kafka, cioè l'aggregato) sono eseguiti uno dopo
+ * l'altro nell'ordine di {@link #submit}; task con chiavi diverse procedono in parallelo. Un task parte
+ * anche se il precedente della stessa chiave è fallito: il messaggio fallito prosegue sui topic di retry.
+ * </p>
+ *
+ * <p>
+ * I task in corso o in attesa sono al massimo {@code maxInFlight}: oltre, {@link #submit} blocca il thread
+ * del consumer, che smette di consegnare messaggi finché non se ne libera uno.
+ * </p>
+ */
+public final class KeyOrderedExecutor implements AutoCloseable {
+
+    private static final String METRICA_IN_CORSO = "sanitech.outbox.consumer.inflight";
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final ConcurrentMap<Object, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    public KeyOrderedExecutor(String name, int maxInFlight, MeterRegistry meterRegistry) {
+        Objects.requireNonNull(name, "name obbligatorio");
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight deve essere almeno 1");
+        }
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("outbox-" + name + "-", 0).factory());
+        if (meterRegistry != null) {
+            Gauge.builder(METRICA_IN_CORSO, this, KeyOrderedExecutor::inFlight)
+                    .tag("consumer", name)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Accoda il task dopo quelli con la stessa chiave ({@code null} = nessun vincolo di ordine).
+     *
+     * @return future completato all'esito del task
+     */
+    public CompletableFuture<Void> submit(Object key, Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        CompletableFuture<Void> result;
+        if (key == null) {
+            result = CompletableFuture.runAsync(task, executor);
+        } else {
+            result = tails.compute(key, (k, tail) -> tail == null
+                    ? CompletableFuture.runAsync(task, executor)
+                    : tail.handle((ignored, ex) -> null).thenRunAsync(task, executor));
+        }
+
+        final CompletableFuture<Void> submitted = result;
+        submitted.whenComplete((ignored, ex) -> {
+            if (key != null) {
+                tails.remove(key, submitted);
+            }
+            permits.release();
+        });
+        return submitted;
+    }
+
+    /**
+     * Task accodati e non ancora completati.
+     */
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Attende il completamento dei task accodati e rilascia i virtual thread.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,18 @@
+package it.sanitech.outbox.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.time.Instant;
+
+/**
+ * Intestazione dell'envelope e messaggio Kafka di origine, passati all'handler insieme al payload tipizzato.
+ *
+ * @param occurredAt istante dell'evento dichiarato dal producer, {@code null} se assente o non valido
+ */
+public record OutboxEventContext(
+        ConsumerRecord<?, byte[]> record,
+        String aggregateType,
+        String aggregateId,
+        String eventType,
+        Instant occurredAt
+) { }
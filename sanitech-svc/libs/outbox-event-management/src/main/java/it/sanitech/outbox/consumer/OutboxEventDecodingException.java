@@ -0,0 +1,11 @@
+package it.sanitech.outbox.consumer;
+
+/**
+ * Envelope non decodificabile: errore permanente, il messaggio va in dead letter senza retry.
+ */
+public class OutboxEventDecodingException extends RuntimeException {
+
+    public OutboxEventDecodingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,484 @@
+package it.sanitech.outbox.consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher tipizzato degli eventi outbox consumati da Kafka.
+ *
+ * <p>
+ * Gli handler vengono registrati per {@code (aggregateType, eventType)} con il tipo del payload;
+ * alla costruzione la tabella di routing e gli {@link ObjectReader} di ogni tipo sono precompilati,
+ * così a regime {@link #dispatch(ConsumerRecord)}:
+ * <ul>
+ *   <li>legge l'envelope in streaming, senza costruire un albero {@code JsonNode};</li>
+ *   <li>scarta gli eventi non registrati appena letto {@code eventType}, senza decodificare il payload;</li>
+ *   <li>converte il payload direttamente nel tipo dell'handler (proprietà sconosciute ignorate).</li>
+ * </ul>
+ * Se il payload precede l'intestazione nell'envelope viene bufferizzato come sequenza di token.
+ * </p>
+ *
+ * <p>
+ * Quando il producer valorizza gli header {@code outbox-event-type} / {@code outbox-aggregate-type}
+ * gli eventi non registrati sono scartati senza leggere il valore; {@link #recordFilter()} applica lo stesso
+ * controllo già nel container Kafka, prima dell'invocazione del listener:
+ * <pre>{@code
+ * @KafkaListener(topics = "...", filter = "#{__listener.recordFilter()}")
+ * }</pre>
+ * I messaggi senza header (producer precedenti) sono decisi in base al corpo.
+ * </p>
+ *
+ * <p>
+ * Con {@link Builder#parallel(int)} {@link #dispatchAsync(ConsumerRecord)} elabora i messaggi su virtual thread,
+ * in ordine per chiave e in parallelo tra chiavi diverse ({@link KeyOrderedExecutor}). Il listener restituisce
+ * il future e il container committa gli offset solo fino all'ultimo messaggio completato senza buchi:
+ * <pre>{@code
+ * @KafkaListener(topics = "...")
+ * public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+ *     return dispatcher.dispatchAsync(record);
+ * }
+ * }</pre>
+ * Il filtro del container non va usato con il listener asincrono: il suo adapter nasconde al container gli
+ * errori dei future, che non arriverebbero ai topic di retry. Lo scarto per header avviene comunque
+ * in {@link #dispatchAsync(ConsumerRecord)}, prima di occupare un thread.
+ * </p>
+ *
+ * <p>
+ * Metriche (tag {@code consumer}): {@code sanitech.outbox.consumer.handle} per route ed esito,
+ * {@code sanitech.outbox.consumer.decode}, {@code sanitech.outbox.consumer.lag}
+ * (istante di elaborazione meno timestamp del messaggio), {@code sanitech.outbox.consumer.skipped}
+ * e {@code sanitech.outbox.consumer.decode.errors}.
+ * </p>
+ */
+@Slf4j
+public final class OutboxEventDispatcher {
+
+    private static final String METRICA_HANDLE = "sanitech.outbox.consumer.handle";
+    private static final String METRICA_DECODE = "sanitech.outbox.consumer.decode";
+    private static final String METRICA_LAG = "sanitech.outbox.consumer.lag";
+    private static final String METRICA_SCARTATI = "sanitech.outbox.consumer.skipped";
+    private static final String METRICA_ERRORI_DECODIFICA = "sanitech.outbox.consumer.decode.errors";
+
+    private static final String ANY_AGGREGATE = "*";
+
+    /**
+     * Comportamento in caso di errore di decodifica o dell'handler.
+     */
+    public enum FailurePolicy {
+        /** Registra l'errore e prosegue con il messaggio successivo (comportamento storico dei consumer). */
+        LOG,
+        /**
+         * Rilancia l'errore verso il container Kafka, che applica retry e dead letter configurati
+         * ({@link OutboxRetryableTopic}); gli errori di decodifica sono {@link OutboxEventDecodingException}.
+         */
+        RETHROW
+    }
+
+    private final String consumer;
+    private final OutboxEnvelopeCodecs codecs;
+    private final FailurePolicy failurePolicy;
+    private final Map<String, Routes> routes;
+
+    private final Timer decodeTimer;
+    private final Timer lagTimer;
+    private final Counter skipped;
+    private final Counter decodeErrors;
+    private final RecordFilterStrategy<Object, Object> recordFilter;
+    private final KeyOrderedExecutor executor; // null = elaborazione sul thread del consumer
+
+    private OutboxEventDispatcher(Builder builder, Map<String, Routes> routes, MeterRegistry registry,
+                                  KeyOrderedExecutor executor) {
+        this.consumer = builder.consumer;
+        this.codecs = builder.codecs;
+        this.failurePolicy = builder.failurePolicy;
+        this.routes = routes;
+        this.decodeTimer = registry.timer(METRICA_DECODE, "consumer", consumer);
+        this.lagTimer = registry.timer(METRICA_LAG, "consumer", consumer);
+        this.skipped = registry.counter(METRICA_SCARTATI, "consumer", consumer);
+        this.decodeErrors = registry.counter(METRICA_ERRORI_DECODIFICA, "consumer", consumer);
+        this.executor = executor;
+        this.recordFilter = record -> {
+            if (rejectedByHeaders(record)) {
+                skipped.increment();
+                return true;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Filtro per il container Kafka: scarta, leggendo solo gli header, i messaggi senza handler registrato.
+     */
+    public RecordFilterStrategy<Object, Object> recordFilter() {
+        return recordFilter;
+    }
+
+    /**
+     * Decodifica il messaggio e lo consegna all'handler registrato per il suo tipo.
+     *
+     * @return {@code true} se un handler ha elaborato l'evento, {@code false} se l'evento è stato scartato
+     *         (tipo non registrato, envelope incompleto) o, con {@link FailurePolicy#LOG}, in caso di errore
+     */
+    public boolean dispatch(ConsumerRecord<?, byte[]> record) {
+        if (record.timestamp() > 0) {
+            lagTimer.record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - record.timestamp())));
+        }
+        if (record.value() == null || rejectedByHeaders(record)) {
+            skipped.increment();
+            return false;
+        }
+
+        Decoded decoded;
+        long start = System.nanoTime();
+        try {
+            decoded = decode(record);
+        } catch (Exception ex) {
+            decodeErrors.increment();
+            return fail("decodifica", record, new OutboxEventDecodingException(
+                    "Envelope non decodificabile: " + ex.getMessage(), ex));
+        } finally {
+            decodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (decoded == null) {
+            skipped.increment();
+            return false;
+        }
+
+        Route route = decoded.route;
+        long handleStart = System.nanoTime();
+        try {
+            route.handler.handle(decoded.payload, decoded.context);
+            route.success.record(System.nanoTime() - handleStart, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (Exception ex) {
+            route.failure.record(System.nanoTime() - handleStart, TimeUnit.NANOSECONDS);
+            return fail("elaborazione " + route.eventType, record, ex);
+        }
+    }
+
+    /**
+     * Come {@link #dispatch(ConsumerRecord)}, ma con {@link Builder#parallel(int)} l'elaborazione avviene
+     * su un virtual thread dopo i messaggi precedenti con la stessa chiave.
+     *
+     * @return future completato a elaborazione conclusa, o completato con l'errore rilanciato
+     *         ({@link FailurePolicy#RETHROW})
+     */
+    public CompletableFuture<Void> dispatchAsync(ConsumerRecord<?, byte[]> record) {
+        if (executor == null || record.value() == null || rejectedByHeaders(record)) {
+            try {
+                dispatch(record);
+                return CompletableFuture.completedFuture(null);
+            } catch (RuntimeException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+        return executor.submit(record.key(), () -> dispatch(record));
+    }
+
+    /**
+     * Chiude l'executor parallelo, se presente, attendendo i messaggi in elaborazione.
+     */
+    void close() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    /**
+     * Legge l'envelope; restituisce {@code null} se l'evento non ha un handler registrato.
+     */
+    private Decoded decode(ConsumerRecord<?, byte[]> record) throws Exception {
+        String aggregateType = null;
+        String aggregateId = null;
+        String eventType = null;
+        String occurredAt = null;
+        boolean aggregateSeen = false;
+        Routes candidates = null;
+        Route route = null;
+        Object payload = null;
+        boolean payloadBound = false;
+        TokenBuffer buffered = null;
+
+        try (JsonParser parser = codecs.parser(record)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("envelope non è un oggetto");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "aggregateType" -> {
+                        aggregateType = text(parser, value);
+                        aggregateSeen = true;
+                    }
+                    case "aggregateId" -> aggregateId = text(parser, value);
+                    case "eventType" -> {
+                        eventType = text(parser, value);
+                        candidates = eventType != null ? routes.get(eventType) : null;
+                        if (candidates == null) {
+                            return null;
+                        }
+                    }
+                    case "occurredAt" -> occurredAt = text(parser, value);
+                    case "payload" -> {
+                        if (value == JsonToken.VALUE_NULL) {
+                            continue;
+                        }
+                        if (candidates != null && aggregateSeen) {
+                            route = candidates.resolve(aggregateType);
+                            if (route == null) {
+                                return null;
+                            }
+                            payload = route.reader.readValue(parser);
+                            payloadBound = true;
+                        } else {
+                            buffered = new TokenBuffer(parser, null);
+                            buffered.copyCurrentStructure(parser);
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+
+        if (candidates == null) {
+            return null;
+        }
+        if (route == null) {
+            route = candidates.resolve(aggregateType);
+            if (route == null) {
+                return null;
+            }
+        }
+        if (!payloadBound) {
+            if (buffered != null) {
+                try (JsonParser replay = buffered.asParser()) {
+                    payload = route.reader.readValue(replay);
+                }
+            } else {
+                payload = route.reader.readValue(route.reader.createObjectNode());
+            }
+        }
+
+        OutboxEventContext context = new OutboxEventContext(record, aggregateType, aggregateId, eventType,
+                parseInstant(occurredAt));
+        return new Decoded(route, payload, context);
+    }
+
+    /**
+     * {@code true} se gli header dichiarano un tipo di evento (o di aggregato) senza handler registrato.
+     */
+    private boolean rejectedByHeaders(ConsumerRecord<?, ?> record) {
+        String eventType = header(record, OutboxConstants.HEADER_EVENT_TYPE);
+        if (eventType == null) {
+            return false;
+        }
+        Routes candidates = routes.get(eventType);
+        if (candidates == null) {
+            return true;
+        }
+        String aggregateType = header(record, OutboxConstants.HEADER_AGGREGATE_TYPE);
+        return aggregateType != null && candidates.resolve(aggregateType) == null;
+    }
+
+    private static String header(ConsumerRecord<?, ?> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return header != null && header.value() != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    private boolean fail(String phase, ConsumerRecord<?, byte[]> record, Exception ex) {
+        if (failurePolicy == FailurePolicy.RETHROW) {
+            log.warn("Consumer {}: errore in {} (topic={}, partition={}, offset={}), messaggio affidato al retry: {}",
+                    consumer, phase, record.topic(), record.partition(), record.offset(), ex.getMessage());
+            if (ex instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+        log.error("Consumer {}: errore in {} (topic={}, partition={}, offset={}): {}",
+                consumer, phase, record.topic(), record.partition(), record.offset(), ex.getMessage(), ex);
+        return false;
+    }
+
+    private static String text(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return parser.getValueAsString();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Instant parseInstant(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private record Decoded(Route route, Object payload, OutboxEventContext context) { }
+
+    @SuppressWarnings("rawtypes")
+    private record Route(String eventType, ObjectReader reader, OutboxEventHandler handler,
+                         Timer success, Timer failure) { }
+
+    /**
+     * Route di un {@code eventType}: per aggregateType specifico, con eventuale route valida per qualsiasi aggregato.
+     */
+    private record Routes(Map<String, Route> byAggregate, Route any) {
+
+        Route resolve(String aggregateType) {
+            Route route = aggregateType != null ? byAggregate.get(aggregateType) : null;
+            return route != null ? route : any;
+        }
+    }
+
+    /**
+     * Builder del dispatcher: si ottiene da {@link OutboxEventDispatchers#builder(String)}.
+     */
+    public static final class Builder {
+
+        private final String consumer;
+        private final OutboxEnvelopeCodecs codecs;
+        private final ObjectMapper objectMapper;
+        private final MeterRegistry meterRegistry;
+        private final Map<String, Map<String, Registration>> registrations = new HashMap<>();
+        private final OutboxEventDispatchers owner;
+        private FailurePolicy failurePolicy = FailurePolicy.LOG;
+        private int maxInFlight;
+
+        Builder(String consumer, OutboxEnvelopeCodecs codecs, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                int maxInFlight, OutboxEventDispatchers owner) {
+            this.consumer = Objects.requireNonNull(consumer, "consumer obbligatorio");
+            this.codecs = Objects.requireNonNull(codecs, "OutboxEnvelopeCodecs obbligatorio");
+            this.objectMapper = Objects.requireNonNull(objectMapper, "ObjectMapper obbligatorio");
+            this.meterRegistry = meterRegistry;
+            this.maxInFlight = maxInFlight;
+            this.owner = owner;
+        }
+
+        /**
+         * Registra un handler per l'evento {@code eventType} di qualsiasi aggregato.
+         */
+        public <T> Builder on(String eventType, Class<T> payloadType, OutboxEventHandler<? super T> handler) {
+            return on(null, eventType, payloadType, handler);
+        }
+
+        /**
+         * Registra un handler per l'evento {@code eventType} dell'aggregato {@code aggregateType}
+         * ({@code null} = qualsiasi aggregato). Una route specifica prevale su quella generica.
+         *
+         * @throws IllegalStateException se la coppia è già registrata
+         */
+        public <T> Builder on(String aggregateType, String eventType, Class<T> payloadType,
+                              OutboxEventHandler<? super T> handler) {
+            Objects.requireNonNull(eventType, "eventType obbligatorio");
+            Objects.requireNonNull(payloadType, "payloadType obbligatorio");
+            Objects.requireNonNull(handler, "handler obbligatorio");
+            String key = aggregateType != null ? aggregateType : ANY_AGGREGATE;
+            Registration previous = registrations.computeIfAbsent(eventType, k -> new HashMap<>())
+                    .putIfAbsent(key, new Registration(payloadType, handler));
+            if (previous != null) {
+                throw new IllegalStateException("Handler già registrato per " + key + "/" + eventType);
+            }
+            return this;
+        }
+
+        public Builder failurePolicy(FailurePolicy failurePolicy) {
+            this.failurePolicy = Objects.requireNonNull(failurePolicy, "failurePolicy obbligatorio");
+            return this;
+        }
+
+        /**
+         * Elaborazione parallela per chiave con al più {@code maxInFlight} messaggi in corso;
+         * {@code 0} = sequenziale sul thread del consumer. Il default viene da
+         * {@code sanitech.outbox.consumer.parallel.*}.
+         */
+        public Builder parallel(int maxInFlight) {
+            if (maxInFlight < 0) {
+                throw new IllegalArgumentException("maxInFlight non può essere negativo");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public OutboxEventDispatcher build() {
+            // Senza registry le metriche vanno su un composite vuoto, che non registra nulla.
+            MeterRegistry registry = meterRegistry != null ? meterRegistry : new CompositeMeterRegistry();
+
+            Map<String, Routes> routes = new HashMap<>();
+            registrations.forEach((eventType, byAggregate) -> {
+                Map<String, Route> specific = new HashMap<>();
+                Route any = null;
+                for (Map.Entry<String, Registration> entry : byAggregate.entrySet()) {
+                    Route route = compile(registry, entry.getKey(), eventType, entry.getValue());
+                    if (ANY_AGGREGATE.equals(entry.getKey())) {
+                        any = route;
+                    } else {
+                        specific.put(entry.getKey(), route);
+                    }
+                }
+                routes.put(eventType, new Routes(Map.copyOf(specific), any));
+            });
+            KeyOrderedExecutor executor = maxInFlight > 0
+                    ? new KeyOrderedExecutor(consumer, maxInFlight, meterRegistry)
+                    : null;
+            OutboxEventDispatcher dispatcher = new OutboxEventDispatcher(this, Map.copyOf(routes), registry, executor);
+            if (owner != null) {
+                owner.register(dispatcher);
+            }
+            return dispatcher;
+        }
+
+        private Route compile(MeterRegistry registry, String aggregateType, String eventType, Registration registration) {
+            ObjectReader reader = objectMapper.readerFor(registration.payloadType())
+                    .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+            return new Route(eventType, reader, registration.handler(),
+                    handleTimer(registry, aggregateType, eventType, "success"),
+                    handleTimer(registry, aggregateType, eventType, "failure"));
+        }
+
+        private Timer handleTimer(MeterRegistry registry, String aggregateType, String eventType, String outcome) {
+            return Timer.builder(METRICA_HANDLE)
+                    .tag("consumer", consumer)
+                    .tag("aggregateType", aggregateType)
+                    .tag("eventType", eventType)
+                    .tag("outcome", outcome)
+                    .register(registry);
+        }
+
+        private record Registration(Class<?> payloadType, OutboxEventHandler<?> handler) { }
+    }
+}
@@ -0,0 +1,57 @@
+package it.sanitech.outbox.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Punto di ingresso per creare un {@link OutboxEventDispatcher} per consumer, con codec, mapper e
+ * registry di metriche dell'applicazione.
+ *
+ * <p>
+ * Alla chiusura del contesto attende i messaggi ancora in elaborazione sui dispatcher paralleli.
+ * </p>
+ */
+public class OutboxEventDispatchers implements AutoCloseable {
+
+    private final OutboxEnvelopeCodecs codecs;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry; // opzionale
+    private final int defaultMaxInFlight;
+    private final List<OutboxEventDispatcher> dispatchers = new CopyOnWriteArrayList<>();
+
+    public OutboxEventDispatchers(OutboxEnvelopeCodecs codecs, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this(codecs, objectMapper, meterRegistry, 0);
+    }
+
+    /**
+     * @param defaultMaxInFlight messaggi in elaborazione parallela per dispatcher; {@code 0} = sequenziale
+     */
+    public OutboxEventDispatchers(OutboxEnvelopeCodecs codecs, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                  int defaultMaxInFlight) {
+        this.codecs = Objects.requireNonNull(codecs, "OutboxEnvelopeCodecs obbligatorio");
+        this.objectMapper = Objects.requireNonNull(objectMapper, "ObjectMapper obbligatorio");
+        this.meterRegistry = meterRegistry;
+        this.defaultMaxInFlight = defaultMaxInFlight;
+    }
+
+    /**
+     * @param consumer nome del consumer, usato come tag {@code consumer} delle metriche e nei log
+     */
+    public OutboxEventDispatcher.Builder builder(String consumer) {
+        return new OutboxEventDispatcher.Builder(consumer, codecs, objectMapper, meterRegistry, defaultMaxInFlight, this);
+    }
+
+    void register(OutboxEventDispatcher dispatcher) {
+        dispatchers.add(dispatcher);
+    }
+
+    @Override
+    public void close() {
+        dispatchers.forEach(OutboxEventDispatcher::close);
+    }
+}
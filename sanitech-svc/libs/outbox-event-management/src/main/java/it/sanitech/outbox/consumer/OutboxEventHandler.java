@@ -0,0 +1,12 @@
+package it.sanitech.outbox.consumer;
+
+/**
+ * Handler di un tipo di evento outbox, con payload già convertito nel tipo dichiarato alla registrazione.
+ *
+ * @param <T> tipo del payload (tipicamente un record)
+ */
+@FunctionalInterface
+public interface OutboxEventHandler<T> {
+
+    void handle(T payload, OutboxEventContext context) throws Exception;
+}
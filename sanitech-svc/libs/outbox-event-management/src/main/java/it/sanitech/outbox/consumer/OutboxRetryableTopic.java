@@ -0,0 +1,58 @@
+package it.sanitech.outbox.consumer;
+
+import it.sanitech.outbox.utilities.OutboxConstants;
+import org.springframework.core.annotation.AliasFor;
+import org.springframework.kafka.annotation.RetryableTopic;
+import org.springframework.kafka.retrytopic.TopicSuffixingStrategy;
+import org.springframework.retry.annotation.Backoff;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Retry non bloccanti e dead letter per un {@code @KafkaListener} di eventi outbox.
+ *
+ * <p>
+ * Un messaggio fallito viene ripubblicato su topic di retry con attese crescenti
+ * ({@code sanitech.outbox.consumer.retry.*}) e, esauriti i tentativi, sul topic di dead letter;
+ * la partizione principale continua a scorrere. I topic di retry sono numerati per tentativo
+ * ({@code -retry-0}, {@code -retry-1}, ...) e non per attesa, così il nome non cambia quando si
+ * modifica il backoff e il replay dalla dead letter sa sempre dove ripubblicare. Gli errori di decodifica
+ * ({@link OutboxEventDecodingException}) vanno subito in dead letter.
+ * </p>
+ *
+ * <p>
+ * I suffissi devono contenere il consumer group: più gruppi leggono lo stesso topic e ognuno
+ * deve ritentare solo i propri messaggi. Il topic di dead letter non è consumato dal servizio;
+ * i messaggi si ripubblicano con {@code POST /api/admin/consumers/dead-letters/{topic}/replay}.
+ * <pre>{@code
+ * @OutboxRetryableTopic(retryTopicSuffix = "-${...group-id}-retry", dltTopicSuffix = "-${...group-id}-dlt")
+ * }</pre>
+ * Il listener deve propagare gli errori ({@link OutboxEventDispatcher.FailurePolicy#RETHROW}).
+ * </p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@RetryableTopic(
+        attempts = "${sanitech.outbox.consumer.retry.attempts:4}",
+        backoff = @Backoff(
+                delayExpression = "${sanitech.outbox.consumer.retry.delay-ms:2000}",
+                multiplierExpression = "${sanitech.outbox.consumer.retry.multiplier:5.0}",
+                maxDelayExpression = "${sanitech.outbox.consumer.retry.max-delay-ms:300000}"),
+        kafkaTemplate = OutboxConstants.CONSUMER_RETRY_TEMPLATE,
+        topicSuffixingStrategy = TopicSuffixingStrategy.SUFFIX_WITH_INDEX_VALUE,
+        autoStartDltHandler = "false",
+        exclude = OutboxEventDecodingException.class
+)
+public @interface OutboxRetryableTopic {
+
+    @AliasFor(annotation = RetryableTopic.class, attribute = "retryTopicSuffix")
+    String retryTopicSuffix();
+
+    @AliasFor(annotation = RetryableTopic.class, attribute = "dltTopicSuffix")
+    String dltTopicSuffix();
+}
@@ -0,0 +1,31 @@
+package it.sanitech.outbox.core;
+
+import java.util.Objects;
+
+/**
+ * Descrizione di un evento di dominio da registrare in outbox insieme ad altri
+ * con {@link DomainEventPublisher#publishAll(java.util.List, ActorInfo)}.
+ *
+ * @param aggregateType tipo aggregato (es. DOCTOR, PATIENT)
+ * @param aggregateId   identificativo aggregato
+ * @param eventType     tipo evento (es. DOCTOR_CREATED)
+ * @param payload       payload dell'evento (se null, {@code {}})
+ * @param topic         topic Kafka di destinazione (se null, usa il default)
+ */
+public record DomainEvent(String aggregateType,
+                          String aggregateId,
+                          String eventType,
+                          Object payload,
+                          String topic) {
+
+    public DomainEvent {
+        Objects.requireNonNull(aggregateType, "aggregateType obbligatorio");
+        Objects.requireNonNull(aggregateId, "aggregateId obbligatorio");
+        Objects.requireNonNull(eventType, "eventType obbligatorio");
+    }
+
+    public static DomainEvent of(String aggregateType, String aggregateId, String eventType,
+                                 Object payload, String topic) {
+        return new DomainEvent(aggregateType, aggregateId, eventType, payload, topic);
+    }
+}
@@ -1,12 +1,19 @@
 package it.sanitech.outbox.core;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.Authentication;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -19,16 +26,42 @@ import java.util.Objects;
  * La pubblicazione asincrona è demandata al job schedulato
  * {@code OutboxKafkaPublisher}.
  * </p>
+ *
+ * <p>
+ * Se configurato un {@link OutboxCommitListener} (fast path), gli id degli eventi scritti
+ * vengono notificati dopo il commit della transazione di business.
+ * </p>
  */
 @Slf4j
 public final class DomainEventPublisher {
 
     private final OutboxRepository outboxRepository;
     private final ObjectMapper objectMapper;
+    private final OutboxCommitListener commitListener; // opzionale (fast path)
+    private final boolean storeEnvelope;
 
     public DomainEventPublisher(OutboxRepository outboxRepository, ObjectMapper objectMapper) {
+        this(outboxRepository, objectMapper, null, false);
+    }
+
+    public DomainEventPublisher(OutboxRepository outboxRepository,
+                                ObjectMapper objectMapper,
+                                OutboxCommitListener commitListener) {
+        this(outboxRepository, objectMapper, commitListener, false);
+    }
+
+    /**
+     * @param commitListener listener after-commit (fast path), opzionale
+     * @param storeEnvelope  se {@code true} salva anche l'envelope Kafka già serializzato
+     */
+    public DomainEventPublisher(OutboxRepository outboxRepository,
+                                ObjectMapper objectMapper,
+                                OutboxCommitListener commitListener,
+                                boolean storeEnvelope) {
         this.outboxRepository = Objects.requireNonNull(outboxRepository, "OutboxRepository obbligatorio");
         this.objectMapper = Objects.requireNonNull(objectMapper, "ObjectMapper obbligatorio");
+        this.commitListener = commitListener;
+        this.storeEnvelope = storeEnvelope;
     }
 
     /**
@@ -81,22 +114,7 @@ public final class DomainEventPublisher {
                         Object payload,
                         String topic,
                         ActorInfo actor) {
-
-        ActorInfo effectiveActor = actor != null ? actor : ActorInfo.SYSTEM;
-
-        OutboxEvent event = new OutboxEvent();
-        event.setAggregateType(Objects.requireNonNull(aggregateType, "aggregateType obbligatorio"));
-        event.setAggregateId(Objects.requireNonNull(aggregateId, "aggregateId obbligatorio"));
-        event.setEventType(Objects.requireNonNull(eventType, "eventType obbligatorio"));
-        event.setTopic(topic);
-        event.setActorType(effectiveActor.actorType());
-        event.setActorId(effectiveActor.actorId());
-        event.setActorName(effectiveActor.actorName());
-        event.setPayload(Objects.isNull(payload)
-                ? JsonNodeFactory.instance.objectNode()
-                : objectMapper.valueToTree(payload));
-
-        publish(event);
+        publish(toOutboxEvent(new DomainEvent(aggregateType, aggregateId, eventType, payload, topic), actor));
     }
 
     /**
@@ -119,10 +137,142 @@ public final class DomainEventPublisher {
         publish(aggregateType, aggregateId, eventType, payload, topic, ActorInfo.from(auth));
     }
 
+    /**
+     * Registra più eventi generati dalla stessa operazione con un'unica scrittura batch.
+     *
+     * <p>
+     * Gli id sono allocati a blocchi dalla sequenza, quindi gli INSERT vengono raggruppati
+     * in un batch JDBC eseguito al flush: N eventi costano un round trip invece di N.
+     * </p>
+     *
+     * @param events eventi da registrare, nell'ordine di pubblicazione
+     * @param actor  informazioni sull'attore che ha generato gli eventi
+     */
+    public void publishAll(List<DomainEvent> events, ActorInfo actor) {
+        Objects.requireNonNull(events, "events obbligatorio");
+        publishAll(events.stream().map(e -> toOutboxEvent(e, actor)).toList());
+    }
+
+    /**
+     * Come {@link #publishAll(List, ActorInfo)}, estraendo l'attore dall'Authentication di Spring Security.
+     */
+    public void publishAll(List<DomainEvent> events, Authentication auth) {
+        publishAll(events, ActorInfo.from(auth));
+    }
+
+    /**
+     * Registra un evento destinato a più topic con un'unica riga outbox (fan-out).
+     *
+     * <p>
+     * Il publisher invia un messaggio per ogni topic, con il payload completo o con i soli campi
+     * indicati nella rotta, e tiene traccia dei topic già consegnati: un nuovo tentativo
+     * reinvia solo ai topic mancanti.
+     * </p>
+     *
+     * @param aggregateType tipo aggregato (es. DOCTOR, PATIENT)
+     * @param aggregateId   identificativo aggregato
+     * @param eventType     tipo evento (es. DOCTOR_CREATED)
+     * @param payload       payload dell'evento (unione dei campi richiesti dai topic)
+     * @param routes        topic di destinazione, distinti, con eventuale proiezione del payload
+     * @param actor         informazioni sull'attore che ha generato l'evento
+     */
+    public void publishToTopics(String aggregateType,
+                                String aggregateId,
+                                String eventType,
+                                Object payload,
+                                List<TopicRoute> routes,
+                                ActorInfo actor) {
+        if (routes == null || routes.isEmpty()) {
+            throw new IllegalArgumentException("Almeno un topic di destinazione è obbligatorio.");
+        }
+
+        ObjectNode routing = JsonNodeFactory.instance.objectNode();
+        for (TopicRoute route : routes) {
+            if (routing.has(route.topic())) {
+                throw new IllegalArgumentException("Topic duplicato nel fan-out: " + route.topic());
+            }
+            if (route.fields() == null) {
+                routing.putNull(route.topic());
+            } else {
+                ArrayNode fields = routing.putArray(route.topic());
+                route.fields().forEach(fields::add);
+            }
+        }
+
+        OutboxEvent event = toOutboxEvent(new DomainEvent(aggregateType, aggregateId, eventType, payload, null), actor);
+        event.setRoutes(routing);
+        publish(event);
+    }
+
+    /**
+     * Come {@link #publishToTopics(String, String, String, Object, List, ActorInfo)},
+     * estraendo l'attore dall'Authentication di Spring Security.
+     */
+    public void publishToTopics(String aggregateType,
+                                String aggregateId,
+                                String eventType,
+                                Object payload,
+                                List<TopicRoute> routes,
+                                Authentication auth) {
+        publishToTopics(aggregateType, aggregateId, eventType, payload, routes, ActorInfo.from(auth));
+    }
+
+    /**
+     * Variante batch di {@link #publish(OutboxEvent)} per eventi già costruiti.
+     */
+    public void publishAll(List<OutboxEvent> events) {
+        Objects.requireNonNull(events, "events obbligatorio");
+        if (events.isEmpty()) {
+            return;
+        }
+
+        events.forEach(this::prepare);
+        List<OutboxEvent> saved = outboxRepository.saveAll(events);
+
+        log.debug("Outbox: {} eventi accodati per il salvataggio batch su DB.", saved.size());
+
+        if (commitListener != null) {
+            saved.forEach(e -> notifyAfterCommit(e.getId()));
+        }
+    }
+
     /**
      * Variante per casi avanzati in cui l'evento è già costruito.
      */
     public void publish(OutboxEvent event) {
+        prepare(event);
+
+        OutboxEvent saved = outboxRepository.save(event);
+
+        log.debug("Outbox: evento salvato su DB. id={}, aggregateType={}, eventType={}, topic={}",
+                saved.getId(), saved.getAggregateType(), saved.getEventType(), saved.getTopic());
+
+        if (commitListener != null) {
+            notifyAfterCommit(saved.getId());
+        }
+    }
+
+    private OutboxEvent toOutboxEvent(DomainEvent domainEvent, ActorInfo actor) {
+        ActorInfo effectiveActor = actor != null ? actor : ActorInfo.SYSTEM;
+
+        OutboxEvent event = new OutboxEvent();
+        event.setAggregateType(domainEvent.aggregateType());
+        event.setAggregateId(domainEvent.aggregateId());
+        event.setEventType(domainEvent.eventType());
+        event.setTopic(domainEvent.topic());
+        event.setActorType(effectiveActor.actorType());
+        event.setActorId(effectiveActor.actorId());
+        event.setActorName(effectiveActor.actorName());
+        event.setPayload(Objects.isNull(domainEvent.payload())
+                ? JsonNodeFactory.instance.objectNode()
+                : objectMapper.valueToTree(domainEvent.payload()));
+        return event;
+    }
+
+    /**
+     * Applica le policy di scrittura: payload mai nullo ed envelope pre-serializzato se richiesto.
+     */
+    private void prepare(OutboxEvent event) {
         Objects.requireNonNull(event, "OutboxEvent obbligatorio");
 
         if (event.getPayload() == null) {
@@ -130,10 +280,71 @@ public final class DomainEventPublisher {
             event.setPayload(JsonNodeFactory.instance.objectNode());
         }
 
-        OutboxEvent saved = outboxRepository.save(event);
+        if (storeEnvelope && event.getEnvelope() == null) {
+            // L'envelope include occurredAt: va fissato prima della serializzazione.
+            if (event.getOccurredAt() == null) {
+                event.setOccurredAt(Instant.now());
+            }
+            event.setEnvelope(OutboxEnvelopes.toJson(objectMapper, event));
+        }
+    }
 
-        log.debug("Outbox: evento salvato su DB. id={}, aggregateType={}, eventType={}, topic={}",
-                saved.getId(), saved.getAggregateType(), saved.getEventType(), saved.getTopic());
+    /**
+     * Accoda l'id dell'evento tra quelli da notificare al commit della transazione corrente.
+     * Una sola {@link TransactionSynchronization} per transazione raccoglie tutti gli id.
+     * Senza transazione attiva non si notifica nulla: l'evento sarà preso dal polling.
+     */
+    private void notifyAfterCommit(Long eventId) {
+        if (eventId == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Long> pending = (List<Long>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            List<Long> ids = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, ids);
+            TransactionSynchronizationManager.registerSynchronization(new PendingEventsSynchronization(ids));
+            pending = ids;
+        }
+        pending.add(eventId);
+    }
 
+    /**
+     * Sincronizzazione che consegna gli id al listener dopo il commit.
+     * Gestisce suspend/resume così che transazioni annidate (REQUIRES_NEW) abbiano una lista propria.
+     */
+    private final class PendingEventsSynchronization implements TransactionSynchronization {
+
+        private final List<Long> ids;
+
+        private PendingEventsSynchronization(List<Long> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(DomainEventPublisher.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(DomainEventPublisher.this, ids);
+        }
+
+        @Override
+        public void afterCommit() {
+            try {
+                commitListener.onCommitted(List.copyOf(ids));
+            } catch (Exception ex) {
+                log.warn("Outbox: notifica after-commit fallita per {} eventi, verranno ripresi dal polling. Causa: {}",
+                        ids.size(), ex.getMessage());
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(DomainEventPublisher.this);
+        }
     }
 }
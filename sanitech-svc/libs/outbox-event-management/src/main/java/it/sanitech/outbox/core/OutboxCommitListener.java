@@ -0,0 +1,20 @@
+package it.sanitech.outbox.core;
+
+import java.util.List;
+
+/**
+ * Callback invocata dopo il commit della transazione che ha scritto eventi outbox.
+ *
+ * <p>
+ * Usata dal fast path del publisher per prendere in carico subito gli eventi appena committati.
+ * L'implementazione deve essere non bloccante: viene eseguita nel thread che ha effettuato il commit.
+ * </p>
+ */
+@FunctionalInterface
+public interface OutboxCommitListener {
+
+    /**
+     * @param eventIds id degli eventi outbox committati, in ordine di scrittura
+     */
+    void onCommitted(List<Long> eventIds);
+}
@@ -0,0 +1,76 @@
+package it.sanitech.outbox.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.outbox.persistence.OutboxEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Serializzazione dell'envelope Kafka di un evento outbox.
+ *
+ * <p>
+ * Formato (invariato rispetto ai consumer esistenti):
+ * <pre>{@code
+ * {"aggregateType":..,"aggregateId":..,"eventType":..,
+ *  "actor":{"type":..,"id":..,"name":..},"occurredAt":..,"payload":{..}}
+ * }</pre>
+ * L'envelope è scritto in streaming con {@link JsonGenerator}, senza costruire un albero intermedio;
+ * con un mapper Smile/CBOR lo stesso modello viene prodotto in formato binario.
+ * </p>
+ */
+public final class OutboxEnvelopes {
+
+    private OutboxEnvelopes() {}
+
+    public static String toJson(ObjectMapper objectMapper, OutboxEvent event) {
+        StringWriter writer = new StringWriter(256);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(writer)) {
+            write(gen, objectMapper, event);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Errore serializzazione envelope outbox per evento " + event.getId(), ex);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Serializza l'envelope nel formato della factory del mapper (JSON, Smile, CBOR).
+     */
+    public static byte[] toBytes(ObjectMapper objectMapper, OutboxEvent event) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+            write(gen, objectMapper, event);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Errore serializzazione envelope outbox per evento " + event.getId(), ex);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(JsonGenerator gen, ObjectMapper objectMapper, OutboxEvent event) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("aggregateType", event.getAggregateType());
+        gen.writeStringField("aggregateId", event.getAggregateId());
+        gen.writeStringField("eventType", event.getEventType());
+
+        // Informazioni sull'attore per il tracciamento audit
+        gen.writeObjectFieldStart("actor");
+        gen.writeStringField("type", event.getActorType() != null ? event.getActorType() : "SYSTEM");
+        gen.writeStringField("id", event.getActorId() != null ? event.getActorId() : "system");
+        gen.writeStringField("name", event.getActorName());
+        gen.writeEndObject();
+
+        // Timestamp originale dell'evento
+        gen.writeStringField("occurredAt", event.getOccurredAt() != null ? event.getOccurredAt().toString() : null);
+
+        gen.writeFieldName("payload");
+        if (event.getPayload() != null) {
+            objectMapper.writeTree(gen, event.getPayload());
+        } else {
+            gen.writeStartObject();
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+}
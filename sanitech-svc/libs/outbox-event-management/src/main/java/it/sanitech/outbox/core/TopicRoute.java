@@ -0,0 +1,33 @@
+package it.sanitech.outbox.core;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Destinazione di un evento pubblicato su più topic con
+ * {@link DomainEventPublisher#publishToTopics(String, String, String, Object, List, ActorInfo)}.
+ *
+ * @param topic  topic Kafka di destinazione
+ * @param fields campi del payload da inviare al topic (se null, payload completo)
+ */
+public record TopicRoute(String topic, List<String> fields) {
+
+    public TopicRoute {
+        Objects.requireNonNull(topic, "topic obbligatorio");
+        fields = fields != null ? List.copyOf(fields) : null;
+    }
+
+    /**
+     * Il topic riceve il payload completo.
+     */
+    public static TopicRoute all(String topic) {
+        return new TopicRoute(topic, null);
+    }
+
+    /**
+     * Il topic riceve solo i campi indicati del payload.
+     */
+    public static TopicRoute projected(String topic, String... fields) {
+        return new TopicRoute(topic, List.of(fields));
+    }
+}
@@ -0,0 +1,79 @@
+package it.sanitech.outbox.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gauge sullo stato della tabella outbox:
+ * <ul>
+ *   <li>{@code sanitech.outbox.backlog}: eventi da pubblicare (conteggio limitato a {@code backlogCountCap});</li>
+ *   <li>{@code sanitech.outbox.oldest.age}: età dell'evento da pubblicare più vecchio, il segnale su cui allertare;</li>
+ *   <li>{@code sanitech.outbox.dead_letters}: eventi parcheggiati in attesa di replay.</li>
+ * </ul>
+ *
+ * <p>
+ * I tre valori sono letti con una sola query servita dagli indici parziali
+ * ({@code idx_outbox_unpublished}, {@code idx_outbox_dead_letter}): il costo non dipende
+ * dal volume storico della tabella e il conteggio del backlog è limitato.
+ * </p>
+ */
+@Slf4j
+public class OutboxBacklogMonitor {
+
+    public static final String METRICA_BACKLOG = "sanitech.outbox.backlog";
+    public static final String METRICA_ETA_PIU_VECCHIO = "sanitech.outbox.oldest.age";
+    public static final String METRICA_DEAD_LETTERS = "sanitech.outbox.dead_letters";
+
+    private static final String SQL_SNAPSHOT =
+            "SELECT " +
+            "(SELECT count(*) FROM (SELECT 1 FROM outbox_events " +
+            "WHERE published = false AND dead_letter = false LIMIT ?) pending) AS backlog, " +
+            "(SELECT COALESCE(EXTRACT(EPOCH FROM now() - min(occurred_at)) * 1000, 0)::bigint FROM outbox_events " +
+            "WHERE published = false AND dead_letter = false) AS oldest_age_ms, " +
+            "(SELECT count(*) FROM outbox_events WHERE dead_letter = true AND published = false) AS dead_letters";
+
+    private final JdbcTemplate jdbc;
+    private final OutboxProperties props;
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong oldestAgeMs = new AtomicLong();
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    public OutboxBacklogMonitor(JdbcTemplate jdbc, OutboxProperties props, MeterRegistry meterRegistry) {
+        this.jdbc = Objects.requireNonNull(jdbc, "JdbcTemplate obbligatorio");
+        this.props = Objects.requireNonNull(props, "OutboxProperties obbligatorio");
+        Objects.requireNonNull(meterRegistry, "MeterRegistry obbligatorio");
+
+        Gauge.builder(METRICA_BACKLOG, backlog, AtomicLong::get)
+                .description("Eventi outbox da pubblicare (parcheggiati esclusi)")
+                .register(meterRegistry);
+        TimeGauge.builder(METRICA_ETA_PIU_VECCHIO, oldestAgeMs, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Età dell'evento outbox da pubblicare più vecchio")
+                .register(meterRegistry);
+        Gauge.builder(METRICA_DEAD_LETTERS, deadLetters, AtomicLong::get)
+                .description("Eventi outbox parcheggiati dopo aver esaurito i tentativi")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${sanitech.outbox.metrics.refresh-ms:10000}")
+    public void refresh() {
+        try {
+            jdbc.query(SQL_SNAPSHOT, rs -> {
+                backlog.set(rs.getLong("backlog"));
+                oldestAgeMs.set(rs.getLong("oldest_age_ms"));
+                deadLetters.set(rs.getLong("dead_letters"));
+            }, props.getMetrics().getBacklogCountCap());
+        } catch (Exception ex) {
+            log.debug("Outbox: aggiornamento metriche backlog non riuscito. Causa: {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package it.sanitech.outbox.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metriche del publisher Outbox.
+ *
+ * <ul>
+ *   <li>timer con istogramma percentili per le fasi {@code lock}, {@code send} e {@code mark} di ogni batch;</li>
+ *   <li>contatori storici senza tag, con la semantica originale: {@code published} (eventi marcati come pubblicati)
+ *       e {@code failed} (batch la cui transazione è stata annullata);</li>
+ *   <li>contatori {@code topic.published} e {@code topic.failed} dei singoli messaggi per topic (un evento in fan-out
+ *       ne produce uno per topic) e {@code dead_lettered}, con tag {@code topic} ed {@code event_type};</li>
+ *   <li>contatore {@code partial_deliveries} degli eventi in fan-out consegnati solo ad alcuni topic, con tag
+ *       {@code event_type};</li>
+ *   <li>contatore {@code errors} degli errori di batch (transazione annullata) con tag {@code phase}.</li>
+ * </ul>
+ *
+ * <p>
+ * I contatori sono memorizzati per combinazione di tag, così il costo per evento è un lookup in mappa.
+ * Con {@code MeterRegistry} assente tutte le operazioni sono no-op.
+ * </p>
+ */
+public class OutboxPublisherMetrics {
+
+    public static final String METRICA_PUBBLICATI = "sanitech.outbox.published";
+    public static final String METRICA_FALLITI = "sanitech.outbox.failed";
+    public static final String METRICA_INVIATI_TOPIC = "sanitech.outbox.topic.published";
+    public static final String METRICA_FALLITI_TOPIC = "sanitech.outbox.topic.failed";
+    public static final String METRICA_CONSEGNE_PARZIALI = "sanitech.outbox.partial_deliveries";
+    public static final String METRICA_PARCHEGGIATI = "sanitech.outbox.dead_lettered";
+    public static final String METRICA_ERRORI = "sanitech.outbox.errors";
+    public static final String METRICA_LOCK = "sanitech.outbox.batch.lock";
+    public static final String METRICA_SEND = "sanitech.outbox.batch.send";
+    public static final String METRICA_MARK = "sanitech.outbox.batch.mark";
+
+    private static final String TAG_TOPIC = "topic";
+    private static final String TAG_EVENT_TYPE = "event_type";
+    private static final String TAG_PHASE = "phase";
+
+    private final MeterRegistry registry; // opzionale
+    private final Timer lockTimer;
+    private final Timer sendTimer;
+    private final Timer markTimer;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public OutboxPublisherMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.lockTimer = timer(METRICA_LOCK, "Durata della SELECT ... FOR UPDATE SKIP LOCKED del batch");
+        this.sendTimer = timer(METRICA_SEND, "Durata dell'invio Kafka del batch (fino all'ultimo ACK)");
+        this.markTimer = timer(METRICA_MARK, "Durata della marcatura degli eventi pubblicati");
+    }
+
+    public <T> T timeLock(Supplier<T> phase) {
+        return time(lockTimer, phase);
+    }
+
+    public <T> T timeSend(Supplier<T> phase) {
+        return time(sendTimer, phase);
+    }
+
+    public void timeMark(Runnable phase) {
+        time(markTimer, () -> {
+            phase.run();
+            return null;
+        });
+    }
+
+    /**
+     * Eventi marcati come pubblicati (tutti i topic consegnati).
+     */
+    public void published(int events) {
+        if (registry == null || events == 0) {
+            return;
+        }
+        counters.computeIfAbsent(METRICA_PUBBLICATI, key -> Counter.builder(key).register(registry)).increment(events);
+    }
+
+    /**
+     * Messaggio confermato dal broker su un topic.
+     */
+    public void topicPublished(String topic, String eventType) {
+        incrementEvent(METRICA_INVIATI_TOPIC, topic, eventType);
+    }
+
+    /**
+     * Invio fallito (o non confermato in tempo) di un messaggio su un topic.
+     */
+    public void topicFailed(String topic, String eventType) {
+        incrementEvent(METRICA_FALLITI_TOPIC, topic, eventType);
+    }
+
+    /**
+     * Evento in fan-out consegnato solo ad alcuni dei suoi topic: resta da pubblicare.
+     */
+    public void partialDelivery(String eventType) {
+        if (registry == null) {
+            return;
+        }
+        counters.computeIfAbsent(METRICA_CONSEGNE_PARZIALI + '|' + eventType,
+                key -> Counter.builder(METRICA_CONSEGNE_PARZIALI)
+                        .tag(TAG_EVENT_TYPE, String.valueOf(eventType))
+                        .register(registry)).increment();
+    }
+
+    public void deadLettered(String topic, String eventType) {
+        incrementEvent(METRICA_PARCHEGGIATI, topic, eventType);
+    }
+
+    /**
+     * Errore che ha annullato la transazione di un batch (es. DB non raggiungibile).
+     * Incrementa anche il contatore storico {@code failed}.
+     *
+     * @param phase percorso di pubblicazione: {@code poll}, {@code fast_path}, {@code shard} o {@code lane}
+     */
+    public void batchError(String phase) {
+        if (registry == null) {
+            return;
+        }
+        counters.computeIfAbsent(METRICA_FALLITI, key -> Counter.builder(key).register(registry)).increment();
+        counters.computeIfAbsent(METRICA_ERRORI + '|' + phase,
+                key -> Counter.builder(METRICA_ERRORI).tag(TAG_PHASE, phase).register(registry)).increment();
+    }
+
+    private void incrementEvent(String name, String topic, String eventType) {
+        if (registry == null) {
+            return;
+        }
+        counters.computeIfAbsent(name + '|' + topic + '|' + eventType,
+                key -> Counter.builder(name)
+                        .tag(TAG_TOPIC, String.valueOf(topic))
+                        .tag(TAG_EVENT_TYPE, String.valueOf(eventType))
+                        .register(registry)).increment();
+    }
+
+    private Timer timer(String name, String description) {
+        if (registry == null) {
+            return null;
+        }
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static <T> T time(Timer timer, Supplier<T> phase) {
+        if (timer == null) {
+            return phase.get();
+        }
+        long start = System.nanoTime();
+        try {
+            return phase.get();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
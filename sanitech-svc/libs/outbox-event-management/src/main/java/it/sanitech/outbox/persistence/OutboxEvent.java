@@ -11,6 +11,7 @@ import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -44,7 +45,8 @@ import java.time.Instant;
 @Entity
 @Table(name = "outbox_events",
         indexes = {
-                @Index(name = "idx_outbox_unpublished", columnList = "published, occurred_at")
+                // Su DB è un indice parziale (WHERE published = false AND dead_letter = false), non esprimibile via JPA.
+                @Index(name = "idx_outbox_unpublished", columnList = "occurred_at, id")
         })
 public class OutboxEvent {
 
@@ -54,8 +56,19 @@ public class OutboxEvent {
      */
     public static final String ENTITY_PACKAGE = "it.sanitech.outbox.persistence";
 
+    /**
+     * Numero di id riservati per ogni chiamata alla sequenza (deve coincidere con il suo INCREMENT BY).
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    /**
+     * Id allocato da sequenza a blocchi (ottimizzatore pooled): a differenza di IDENTITY
+     * consente a Hibernate di raggruppare gli INSERT in batch JDBC.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_events_id_gen")
+    @SequenceGenerator(name = "outbox_events_id_gen", sequenceName = "outbox_events_id_seq",
+            allocationSize = ID_ALLOCATION_SIZE)
     @Column(name = "id", nullable = false, updatable = false)
     private Long id;
 
@@ -75,6 +88,23 @@ public class OutboxEvent {
     @Column(name = "topic", length = 128)
     private String topic;
 
+    /**
+     * Instradamento multi-topic (fan-out): oggetto JSON {@code {topic: [campi] | null}}.
+     * Se presente, l'evento è inviato a ogni topic indicato con il payload ridotto ai campi elencati
+     * (intero se {@code null}) e il campo {@link #topic} viene ignorato.
+     */
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "routes", columnDefinition = "jsonb")
+    private JsonNode routes;
+
+    /**
+     * Topic del fan-out già confermati dal broker: dopo una consegna parziale
+     * i tentativi successivi inviano solo i topic mancanti.
+     */
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "delivered_topics", columnDefinition = "jsonb")
+    private JsonNode deliveredTopics;
+
     /**
      * Tipo di attore che ha generato l'evento (es. ADMIN, DOCTOR, PATIENT, SYSTEM).
      */
@@ -102,6 +132,13 @@ public class OutboxEvent {
     @Builder.Default
     private JsonNode payload = JsonNodeFactory.instance.objectNode();
 
+    /**
+     * Envelope Kafka già serializzato in fase di scrittura (opzionale, {@code sanitech.outbox.store-envelope}).
+     * Se presente, il publisher lo invia senza ricostruirlo dal payload.
+     */
+    @Column(name = "envelope", columnDefinition = "text")
+    private String envelope;
+
     @Column(name = "occurred_at", nullable = false, updatable = false)
     @Builder.Default
     private Instant occurredAt = Instant.now();
@@ -113,6 +150,33 @@ public class OutboxEvent {
     @Column(name = "published_at")
     private Instant publishedAt;
 
+    /**
+     * Numero di invii falliti.
+     */
+    @Column(name = "attempts", nullable = false)
+    @Builder.Default
+    private int attempts = 0;
+
+    /**
+     * Istante minimo del prossimo tentativo di invio; nullo se l'evento è pubblicabile subito.
+     */
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    /**
+     * Causa dell'ultimo invio fallito.
+     */
+    @Column(name = "last_error", length = 1024)
+    private String lastError;
+
+    /**
+     * Evento parcheggiato dopo aver esaurito i tentativi: non viene più prelevato dal publisher
+     * finché non è ripubblicato dalle API amministrative.
+     */
+    @Column(name = "dead_letter", nullable = false)
+    @Builder.Default
+    private boolean deadLetter = false;
+
     @PrePersist
     void ensureDefaults() {
         if (payload == null) {
@@ -123,6 +187,26 @@ public class OutboxEvent {
         }
     }
 
+    /**
+     * Copia non gestita dell'evento con il payload sostituito: usata per serializzare
+     * la proiezione destinata a un singolo topic del fan-out. L'envelope non viene copiato.
+     */
+    public OutboxEvent withPayload(JsonNode projectedPayload) {
+        return OutboxEvent.builder()
+                .id(id)
+                .aggregateType(aggregateType)
+                .aggregateId(aggregateId)
+                .eventType(eventType)
+                .topic(topic)
+                .actorType(actorType)
+                .actorId(actorId)
+                .actorName(actorName)
+                .payload(projectedPayload)
+                .occurredAt(occurredAt)
+                .attempts(attempts)
+                .build();
+    }
+
     public static OutboxEvent newUnpublished(String aggregateType,
                                              String aggregateId,
                                              String eventType,
@@ -1,5 +1,7 @@
 package it.sanitech.outbox.persistence;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -12,20 +14,242 @@ import java.util.List;
  * Repository Outbox.
  *
  * Nota fondamentale: lockBatch usa FOR UPDATE SKIP LOCKED e deve essere invocato DENTRO transazione.
+ *
+ * Gli eventi in backoff ({@code next_attempt_at} futuro) o parcheggiati ({@code dead_letter}) non vengono prelevati.
  */
 public interface OutboxRepository extends JpaRepository<OutboxEvent, Long> {
 
-    @Query(value = "SELECT * " +
-            "FROM outbox_events " +
-            "WHERE published = false " +
-            "ORDER BY occurred_at " +
+    /**
+     * Condizione di prelievo di un evento {@code o}: non pubblicato, non parcheggiato, con backoff scaduto
+     * e senza eventi precedenti dello stesso aggregato in attesa di retry o parcheggiati
+     * (che devono essere consegnati prima per preservare l'ordine dell'aggregato).
+     */
+    String PUBLISHABLE = "o.published = false " +
+            "AND o.dead_letter = false " +
+            "AND (o.next_attempt_at IS NULL OR o.next_attempt_at <= now()) " +
+            "AND NOT EXISTS (SELECT 1 FROM outbox_events b " +
+            "WHERE b.published = false " +
+            "AND b.aggregate_type = o.aggregate_type " +
+            "AND b.aggregate_id = o.aggregate_id " +
+            "AND (b.occurred_at, b.id) < (o.occurred_at, o.id) " +
+            "AND (b.dead_letter = true OR b.next_attempt_at > now())) ";
+
+    /**
+     * Condizione di corsia: l'evento {@code o} ha come topic uno di quelli della corsia ({@code :topics})
+     * oppure, se ha un fan-out ({@code routes}, con topic NULL), almeno una destinazione tra quei topic.
+     * La corsia pubblica allora tutte le destinazioni dell'evento.
+     */
+    String ON_LANE = "(o.topic IN (:topics) " +
+            "OR (o.routes IS NOT NULL AND EXISTS (SELECT 1 FROM jsonb_object_keys(o.routes) AS r(topic) " +
+            "WHERE r.topic IN (:topics)))) ";
+
+    /**
+     * Negazione di {@link #ON_LANE} sui topic di tutte le corsie ({@code :excludedTopics}):
+     * gli eventi che nessuna corsia preleva.
+     */
+    String OFF_LANES = "(o.topic IS NULL OR o.topic NOT IN (:excludedTopics)) " +
+            "AND (o.routes IS NULL OR NOT EXISTS (SELECT 1 FROM jsonb_object_keys(o.routes) AS r(topic) " +
+            "WHERE r.topic IN (:excludedTopics))) ";
+
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE " + PUBLISHABLE +
+            "ORDER BY o.occurred_at, o.id " +
             "LIMIT :batchSize " +
             "FOR UPDATE SKIP LOCKED", nativeQuery = true)
     List<OutboxEvent> lockBatch(@Param("batchSize") int batchSize);
 
+    /**
+     * Condizione aggiuntiva del fast path: l'evento {@code o} è il primo non pubblicato del suo aggregato.
+     * Un evento con un predecessore ancora da pubblicare (in lavorazione altrove o non ancora raggiunto
+     * dal polling) resta al polling, che lo invierà dopo il predecessore.
+     */
+    String FIRST_UNPUBLISHED = "NOT EXISTS (SELECT 1 FROM outbox_events p " +
+            "WHERE p.published = false " +
+            "AND p.aggregate_type = o.aggregate_type " +
+            "AND p.aggregate_id = o.aggregate_id " +
+            "AND (p.occurred_at, p.id) < (o.occurred_at, o.id)) ";
+
+    /**
+     * Shard (su {@code shardCount}) degli eventi indicati ancora da pubblicare: il fast path ne reclama
+     * gli advisory lock prima di bloccare le righe.
+     */
+    @Query(value = "SELECT DISTINCT (hashtext(o.aggregate_type || ':' || o.aggregate_id) & 2147483647) % :shardCount " +
+            "FROM outbox_events o " +
+            "WHERE o.id IN (:ids) AND o.published = false", nativeQuery = true)
+    List<Integer> findShardsByIds(@Param("ids") List<Long> ids, @Param("shardCount") int shardCount);
+
+    /**
+     * Blocca gli eventi indicati ancora da pubblicare (fast path after-commit), limitati agli shard
+     * di cui il chiamante detiene l'advisory lock e ai primi non pubblicati del loro aggregato.
+     * Le righe già bloccate da un altro publisher vengono saltate.
+     */
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE o.id IN (:ids) " +
+            "AND " + PUBLISHABLE +
+            "AND " + FIRST_UNPUBLISHED +
+            "AND (hashtext(o.aggregate_type || ':' || o.aggregate_id) & 2147483647) % :shardCount IN (:shards) " +
+            "ORDER BY o.occurred_at, o.id " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockByIds(@Param("ids") List<Long> ids,
+                                @Param("shardCount") int shardCount,
+                                @Param("shards") List<Integer> shards);
+
+    /**
+     * Variante di {@link #lockByIds(List, int, List)} che esclude i topic assegnati alle corsie di pubblicazione.
+     */
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE o.id IN (:ids) " +
+            "AND " + OFF_LANES +
+            "AND " + PUBLISHABLE +
+            "AND " + FIRST_UNPUBLISHED +
+            "AND (hashtext(o.aggregate_type || ':' || o.aggregate_id) & 2147483647) % :shardCount IN (:shards) " +
+            "ORDER BY o.occurred_at, o.id " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockByIdsExcluding(@Param("ids") List<Long> ids,
+                                         @Param("excludedTopics") List<String> excludedTopics,
+                                         @Param("shardCount") int shardCount,
+                                         @Param("shards") List<Integer> shards);
+
+    /**
+     * Variante di {@link #lockBatch(int)} ristretta a uno shard: gli eventi sono ripartiti per hash
+     * di {@code (aggregate_type, aggregate_id)}, quindi tutti gli eventi di un aggregato cadono
+     * nello stesso shard. L'ordinamento per {@code (occurred_at, id)} preserva l'ordine di scrittura.
+     */
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE " + PUBLISHABLE +
+            "AND (hashtext(o.aggregate_type || ':' || o.aggregate_id) & 2147483647) % :shardCount = :shard " +
+            "ORDER BY o.occurred_at, o.id " +
+            "LIMIT :batchSize " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockShardBatch(@Param("shardCount") int shardCount,
+                                     @Param("shard") int shard,
+                                     @Param("batchSize") int batchSize);
+
+    /**
+     * Variante di {@link #lockShardBatch(int, int, int)} per una corsia di pubblicazione:
+     * preleva solo gli eventi della corsia ({@link #ON_LANE}).
+     */
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE " + ON_LANE +
+            "AND " + PUBLISHABLE +
+            "AND (hashtext(o.aggregate_type || ':' || o.aggregate_id) & 2147483647) % :shardCount = :shard " +
+            "ORDER BY o.occurred_at, o.id " +
+            "LIMIT :batchSize " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockLaneShardBatch(@Param("topics") List<String> topics,
+                                         @Param("shardCount") int shardCount,
+                                         @Param("shard") int shard,
+                                         @Param("batchSize") int batchSize);
+
+    /**
+     * Variante di {@link #lockBatch(int)} che esclude gli eventi delle corsie di pubblicazione ({@link #OFF_LANES}).
+     * Gli eventi senza topic (topic di default) e quelli con fan-out senza topic di corsia restano qui.
+     */
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE " + OFF_LANES +
+            "AND " + PUBLISHABLE +
+            "ORDER BY o.occurred_at, o.id " +
+            "LIMIT :batchSize " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockBatchExcluding(@Param("excludedTopics") List<String> excludedTopics,
+                                         @Param("batchSize") int batchSize);
+
+    /**
+     * Variante di {@link #lockShardBatch(int, int, int)} che esclude i topic assegnati alle corsie.
+     */
+    @Query(value = "SELECT o.* " +
+            "FROM outbox_events o " +
+            "WHERE " + OFF_LANES +
+            "AND " + PUBLISHABLE +
+            "AND (hashtext(o.aggregate_type || ':' || o.aggregate_id) & 2147483647) % :shardCount = :shard " +
+            "ORDER BY o.occurred_at, o.id " +
+            "LIMIT :batchSize " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockShardBatchExcluding(@Param("excludedTopics") List<String> excludedTopics,
+                                              @Param("shardCount") int shardCount,
+                                              @Param("shard") int shard,
+                                              @Param("batchSize") int batchSize);
+
+    /**
+     * Tenta di reclamare uno shard con un advisory lock transazionale (rilasciato al commit/rollback).
+     * Garantisce che in tutto il cluster un solo worker alla volta pubblichi gli eventi di uno shard.
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:namespace, :shard)", nativeQuery = true)
+    Boolean tryLockShard(@Param("namespace") int namespace, @Param("shard") int shard);
+
+    /**
+     * Marca come pubblicati gli eventi indicati.
+     * L'intervallo di {@code occurred_at} degli eventi consente di escludere le partizioni mensili
+     * che non possono contenerli: con il solo {@code id} l'UPDATE interrogherebbe ogni partizione.
+     */
     @Modifying(clearAutomatically = true, flushAutomatically = true)
     @Query(value = "UPDATE outbox_events " +
             "SET published = true, published_at = :publishedAt " +
-            "WHERE id IN (:ids)", nativeQuery = true)
-    void markPublished(@Param("ids") List<Long> ids, @Param("publishedAt") Instant publishedAt);
+            "WHERE id IN (:ids) " +
+            "AND occurred_at BETWEEN :fromOccurredAt AND :toOccurredAt", nativeQuery = true)
+    void markPublished(@Param("ids") List<Long> ids,
+                       @Param("fromOccurredAt") Instant fromOccurredAt,
+                       @Param("toOccurredAt") Instant toOccurredAt,
+                       @Param("publishedAt") Instant publishedAt);
+
+    /**
+     * Registra un invio fallito: aggiorna contatore, prossimo tentativo e causa,
+     * parcheggiando l'evento se ha esaurito i tentativi.
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "UPDATE outbox_events " +
+            "SET attempts = :attempts, next_attempt_at = :nextAttemptAt, last_error = :lastError, dead_letter = :deadLetter " +
+            "WHERE id = :id AND occurred_at = :occurredAt", nativeQuery = true)
+    void recordFailure(@Param("id") Long id,
+                       @Param("occurredAt") Instant occurredAt,
+                       @Param("attempts") int attempts,
+                       @Param("nextAttemptAt") Instant nextAttemptAt,
+                       @Param("lastError") String lastError,
+                       @Param("deadLetter") boolean deadLetter);
+
+    /**
+     * Registra i topic del fan-out già consegnati di un evento non ancora completamente pubblicato.
+     *
+     * @param deliveredTopics array JSON dei topic confermati
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "UPDATE outbox_events " +
+            "SET delivered_topics = CAST(:deliveredTopics AS jsonb) " +
+            "WHERE id = :id AND occurred_at = :occurredAt", nativeQuery = true)
+    void recordDeliveredTopics(@Param("id") Long id,
+                               @Param("occurredAt") Instant occurredAt,
+                               @Param("deliveredTopics") String deliveredTopics);
+
+    /**
+     * Eventi parcheggiati (dead letter) ancora da pubblicare.
+     */
+    Page<OutboxEvent> findByDeadLetterTrueAndPublishedFalse(Pageable pageable);
+
+    /**
+     * Rimette in circolo un evento parcheggiato azzerando i tentativi.
+     *
+     * @return 1 se l'evento era parcheggiato, 0 altrimenti
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "UPDATE outbox_events " +
+            "SET dead_letter = false, attempts = 0, next_attempt_at = NULL " +
+            "WHERE id = :id AND dead_letter = true AND published = false", nativeQuery = true)
+    int replayDeadLetter(@Param("id") Long id);
+
+    /**
+     * Rimette in circolo tutti gli eventi parcheggiati.
+     *
+     * @return numero di eventi ripubblicabili
+     */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "UPDATE outbox_events " +
+            "SET dead_letter = false, attempts = 0, next_attempt_at = NULL " +
+            "WHERE dead_letter = true AND published = false", nativeQuery = true)
+    int replayAllDeadLetters();
 }
@@ -1,70 +1,128 @@
 package it.sanitech.outbox.publisher;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
 import it.sanitech.outbox.persistence.OutboxEvent;
+import it.sanitech.outbox.utilities.OutboxConstants;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Sender di default basato su KafkaTemplate.
+ *
+ * <p>
+ * Per ogni topic risolve codec e compressione da {@code sanitech.outbox.publisher.encoding}
+ * e aggiunge al messaggio l'header {@code content-type} del codec e l'header {@code outbox-event-id}
+ * ({@code <source>:<id>}), stabile tra ripubblicazioni dello stesso evento.
+ * </p>
+ *
+ * <p>
+ * Riporta inoltre negli header {@code outbox-event-type}, {@code outbox-aggregate-type},
+ * {@code outbox-actor-type} e {@code outbox-occurred-at} i campi di intestazione dell'envelope,
+ * usati dai consumer per filtrare i messaggi senza decodificarli.
+ * </p>
  */
 @Slf4j
 public class DefaultOutboxKafkaSender implements OutboxKafkaSender {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper objectMapper;
+    private final OutboxKafkaTemplates templates;
+    private final OutboxEnvelopeCodecs codecs;
+    private final OutboxProperties.Encoding encoding;
+    private final String source;
+    private final Map<String, TopicChannel> channels = new ConcurrentHashMap<>();
 
-    public DefaultOutboxKafkaSender(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper objectMapper) {
-        this.kafkaTemplate = Objects.requireNonNull(kafkaTemplate, "KafkaTemplate obbligatorio");
-        this.objectMapper = Objects.requireNonNull(objectMapper, "ObjectMapper obbligatorio");
+    public DefaultOutboxKafkaSender(OutboxKafkaTemplates templates,
+                                    OutboxEnvelopeCodecs codecs,
+                                    OutboxProperties.Encoding encoding,
+                                    String source) {
+        this.templates = Objects.requireNonNull(templates, "OutboxKafkaTemplates obbligatorio");
+        this.codecs = Objects.requireNonNull(codecs, "OutboxEnvelopeCodecs obbligatorio");
+        this.encoding = Objects.requireNonNull(encoding, "Encoding obbligatorio");
+        this.source = Objects.requireNonNull(source, "source obbligatorio");
+
+        // Content type sconosciuti segnalati all'avvio e non al primo invio.
+        codecs.forContentType(encoding.getContentType());
+        encoding.getTopics().keySet().forEach(topic -> codecs.forContentType(encoding.contentTypeFor(topic)));
     }
 
     @Override
     public void sendSync(String topic, OutboxEvent event, long timeoutMs) {
         Objects.requireNonNull(event, "OutboxEvent obbligatorio");
-        String key = event.getId() != null ? event.getId().toString() : null;
-        String message = buildEnvelope(event);
 
         try {
-            kafkaTemplate.send(topic, key, message).get(timeoutMs, TimeUnit.MILLISECONDS);
-            log.debug("Outbox: evento {} inviato su topic='{}' (key='{}').", event.getId(), topic, key);
+            send(topic, event).get(timeoutMs, TimeUnit.MILLISECONDS);
+            log.debug("Outbox: evento {} inviato su topic='{}' (key='{}').", event.getId(), topic, messageKey(event));
         } catch (Exception ex) {
             throw new IllegalStateException("Outbox: invio Kafka fallito per evento " + event.getId()
                     + " su topic '" + topic + "'.", ex);
         }
     }
 
-    private String buildEnvelope(OutboxEvent event) {
-        ObjectNode envelope = objectMapper.createObjectNode();
-        envelope.put("aggregateType", event.getAggregateType());
-        envelope.put("aggregateId", event.getAggregateId());
-        envelope.put("eventType", event.getEventType());
+    @Override
+    public CompletableFuture<Void> sendAsync(String topic, OutboxEvent event) {
+        Objects.requireNonNull(event, "OutboxEvent obbligatorio");
 
-        // Aggiungi informazioni sull'attore per il tracciamento audit
-        ObjectNode actor = objectMapper.createObjectNode();
-        actor.put("type", event.getActorType() != null ? event.getActorType() : "SYSTEM");
-        actor.put("id", event.getActorId() != null ? event.getActorId() : "system");
-        actor.put("name", event.getActorName());
-        envelope.set("actor", actor);
+        return send(topic, event)
+                .thenAccept(result -> log.debug("Outbox: evento {} confermato su topic='{}' (key='{}').",
+                        event.getId(), topic, messageKey(event)));
+    }
 
-        // Timestamp originale dell'evento
-        envelope.put("occurredAt", event.getOccurredAt() != null
-                ? event.getOccurredAt().toString()
-                : null);
+    private CompletableFuture<SendResult<String, byte[]>> send(String topic, OutboxEvent event) {
+        TopicChannel channel = channels.computeIfAbsent(topic, this::resolveChannel);
 
-        envelope.set("payload", event.getPayload() != null
-                ? event.getPayload()
-                : objectMapper.createObjectNode());
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, messageKey(event), channel.codec().encode(event));
+        record.headers().add(OutboxConstants.HEADER_CONTENT_TYPE, channel.contentTypeHeader());
+        if (event.getId() != null) {
+            record.headers().add(OutboxConstants.HEADER_EVENT_ID,
+                    (source + ':' + event.getId()).getBytes(StandardCharsets.UTF_8));
+        }
+        addHeader(record, OutboxConstants.HEADER_EVENT_TYPE, event.getEventType());
+        addHeader(record, OutboxConstants.HEADER_AGGREGATE_TYPE, event.getAggregateType());
+        addHeader(record, OutboxConstants.HEADER_ACTOR_TYPE, event.getActorType());
+        addHeader(record, OutboxConstants.HEADER_OCCURRED_AT,
+                event.getOccurredAt() != null ? event.getOccurredAt().toString() : null);
+        return channel.template().send(record);
+    }
 
-        try {
-            return objectMapper.writeValueAsString(envelope);
-        } catch (JsonProcessingException ex) {
-            throw new IllegalStateException("Errore serializzazione envelope outbox per evento " + event.getId(), ex);
+    private static void addHeader(ProducerRecord<String, byte[]> record, String name, String value) {
+        if (value != null) {
+            record.headers().add(name, value.getBytes(StandardCharsets.UTF_8));
         }
     }
+
+    private TopicChannel resolveChannel(String topic) {
+        OutboxEnvelopeCodec codec = codecs.forContentType(encoding.contentTypeFor(topic));
+        return new TopicChannel(codec,
+                codec.contentType().getBytes(StandardCharsets.UTF_8),
+                templates.forCompression(encoding.compressionFor(topic)));
+    }
+
+    /**
+     * Chiave del messaggio: l'id dell'aggregato, così tutti gli eventi dello stesso aggregato
+     * finiscono sulla stessa partizione e mantengono l'ordine (es. APPOINTMENT_BOOKED → APPOINTMENT_CANCELLED).
+     */
+    private static String messageKey(OutboxEvent event) {
+        if (event.getAggregateId() != null) {
+            return event.getAggregateId();
+        }
+        return event.getId() != null ? event.getId().toString() : null;
+    }
+
+    /**
+     * Codec e producer risolti per un topic.
+     */
+    private record TopicChannel(OutboxEnvelopeCodec codec,
+                                byte[] contentTypeHeader,
+                                KafkaTemplate<String, byte[]> template) {
+    }
 }
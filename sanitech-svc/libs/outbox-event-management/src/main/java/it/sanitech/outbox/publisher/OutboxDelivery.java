@@ -0,0 +1,95 @@
+package it.sanitech.outbox.publisher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.sanitech.outbox.persistence.OutboxEvent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Singolo messaggio Kafka da inviare per un evento outbox.
+ *
+ * <p>
+ * Un evento con {@code routes} (fan-out) produce un messaggio per ogni topic non ancora consegnato,
+ * eventualmente con payload proiettato; un evento semplice produce un solo messaggio.
+ * </p>
+ *
+ * @param event   riga outbox di origine
+ * @param topic   topic di destinazione
+ * @param message evento da serializzare (la riga stessa o una sua copia con payload proiettato)
+ */
+record OutboxDelivery(OutboxEvent event, String topic, OutboxEvent message) {
+
+    /**
+     * Espande il batch nei messaggi da inviare, nell'ordine del batch.
+     */
+    static List<OutboxDelivery> expand(List<OutboxEvent> batch, String defaultTopic) {
+        List<OutboxDelivery> deliveries = new ArrayList<>(batch.size());
+        for (OutboxEvent e : batch) {
+            JsonNode routes = e.getRoutes();
+            if (routes == null || !routes.isObject() || routes.isEmpty()) {
+                deliveries.add(new OutboxDelivery(e, resolveTargetTopic(e, defaultTopic), e));
+                continue;
+            }
+
+            Set<String> delivered = deliveredTopics(e);
+            Iterator<Map.Entry<String, JsonNode>> it = routes.fields();
+            while (it.hasNext()) {
+                Map.Entry<String, JsonNode> route = it.next();
+                if (delivered.contains(route.getKey())) {
+                    continue;
+                }
+                JsonNode fields = route.getValue();
+                OutboxEvent message = fields != null && fields.isArray()
+                        ? e.withPayload(project(e.getPayload(), fields))
+                        : e;
+                deliveries.add(new OutboxDelivery(e, route.getKey(), message));
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * Topic già consegnati dell'evento (vuoto se nessuno).
+     */
+    static Set<String> deliveredTopics(OutboxEvent event) {
+        Set<String> delivered = new HashSet<>();
+        JsonNode node = event.getDeliveredTopics();
+        if (node != null && node.isArray()) {
+            node.forEach(topic -> delivered.add(topic.asText()));
+        }
+        return delivered;
+    }
+
+    /**
+     * Determina il topic Kafka di destinazione per un evento semplice.
+     * Se l'evento ha un topic specifico lo usa, altrimenti usa il default.
+     */
+    static String resolveTargetTopic(OutboxEvent event, String defaultTopic) {
+        String eventTopic = event.getTopic();
+        if (eventTopic != null && !eventTopic.isBlank()) {
+            return eventTopic;
+        }
+        return defaultTopic;
+    }
+
+    private static JsonNode project(JsonNode payload, JsonNode fields) {
+        ObjectNode projected = JsonNodeFactory.instance.objectNode();
+        if (payload == null) {
+            return projected;
+        }
+        for (JsonNode field : fields) {
+            String name = field.asText();
+            if (payload.has(name)) {
+                projected.set(name, payload.get(name));
+            }
+        }
+        return projected;
+    }
+}
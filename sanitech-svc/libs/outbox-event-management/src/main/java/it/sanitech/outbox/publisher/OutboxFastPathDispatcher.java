@@ -0,0 +1,110 @@
+package it.sanitech.outbox.publisher;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import it.sanitech.outbox.core.OutboxCommitListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Fast path after-commit dell'Outbox.
+ *
+ * <p>
+ * Riceve dal {@link it.sanitech.outbox.core.DomainEventPublisher} gli id degli eventi appena
+ * committati e li pubblica da un thread dedicato, raggruppandoli fino a {@code batchSize}.
+ * La latenza end-to-end scende così dal ciclo di polling al tempo di un round trip verso Kafka.
+ * </p>
+ *
+ * <p>
+ * La coda è limitata: se piena gli id vengono scartati e il polling viene risvegliato,
+ * quindi nessun evento va perso.
+ * </p>
+ */
+@Slf4j
+public class OutboxFastPathDispatcher implements OutboxCommitListener, SmartLifecycle {
+
+    private static final String METRICA_SCARTATI = "sanitech.outbox.fastpath.dropped";
+
+    private final OutboxKafkaPublisher publisher;
+    private final OutboxProperties props;
+    private final MeterRegistry meterRegistry; // opzionale
+    private final BlockingQueue<Long> queue;
+
+    private volatile Thread worker;
+
+    public OutboxFastPathDispatcher(OutboxKafkaPublisher publisher,
+                                    OutboxProperties props,
+                                    MeterRegistry meterRegistry) {
+        this.publisher = Objects.requireNonNull(publisher, "OutboxKafkaPublisher obbligatorio");
+        this.props = Objects.requireNonNull(props, "OutboxProperties obbligatorio");
+        this.meterRegistry = meterRegistry;
+        this.queue = new LinkedBlockingQueue<>(props.getPublisher().getFastPath().getQueueCapacity());
+    }
+
+    @Override
+    public void onCommitted(List<Long> eventIds) {
+        int dropped = 0;
+        for (Long id : eventIds) {
+            if (!queue.offer(id)) {
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.debug("Outbox: coda fast path piena, {} eventi demandati al polling.", dropped);
+            if (meterRegistry != null) {
+                meterRegistry.counter(METRICA_SCARTATI).increment(dropped);
+            }
+            publisher.wakeUp();
+        }
+    }
+
+    @Override
+    public void start() {
+        Thread thread = new Thread(this::drainLoop, "outbox-fast-path");
+        thread.setDaemon(true);
+        this.worker = thread;
+        thread.start();
+        log.info("Outbox: fast path after-commit attivo (queueCapacity={}).",
+                props.getPublisher().getFastPath().getQueueCapacity());
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = this.worker;
+        this.worker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return worker != null;
+    }
+
+    private void drainLoop() {
+        final int batchSize = props.getPublisher().getBatchSize();
+        List<Long> ids = new ArrayList<>(batchSize);
+
+        while (worker == Thread.currentThread()) {
+            try {
+                ids.add(queue.take());
+                queue.drainTo(ids, batchSize - 1);
+                publisher.publishIds(List.copyOf(ids));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                log.warn("Outbox: errore nel fast path, gli eventi verranno ripresi dal polling. Causa: {}", ex.getMessage());
+            } finally {
+                ids.clear();
+            }
+        }
+    }
+}
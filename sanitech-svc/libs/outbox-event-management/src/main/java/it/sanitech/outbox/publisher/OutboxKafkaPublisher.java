@@ -1,33 +1,60 @@
 package it.sanitech.outbox.publisher;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import io.micrometer.core.instrument.MeterRegistry;
 import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import it.sanitech.outbox.metrics.OutboxPublisherMetrics;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
+import it.sanitech.outbox.utilities.OutboxConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Publisher Outbox.
  *
  * Regola chiave: la SELECT ... FOR UPDATE SKIP LOCKED deve avvenire DENTRO transazione.
+ *
+ * <p>
+ * Un invio fallito non annulla il batch: l'evento viene ripianificato con backoff esponenziale
+ * ({@code next_attempt_at}) e, esauriti i tentativi, parcheggiato come dead letter. Gli eventi
+ * successivi dello stesso aggregato attendono quello fallito; gli altri proseguono normalmente.
+ * </p>
  */
 @Slf4j
 public class OutboxKafkaPublisher {
 
-    private static final String METRICA_PUBBLICATI = "sanitech.outbox.published";
-    private static final String METRICA_FALLITI = "sanitech.outbox.failed";
+    private static final int MAX_ERROR_LENGTH = 1024;
+    private static final int MAX_BACKOFF_EXPONENT = 10;
 
     private final TransactionTemplate tx;
     private final OutboxRepository outboxRepository;
     private final OutboxKafkaSender sender;
     private final OutboxProperties props;
-    private final MeterRegistry meterRegistry; // opzionale
+    private final OutboxPublisherMetrics metrics;
+
+    /**
+     * Stato del polling adattivo (acceduto solo dal thread dello scheduler, salvo {@link #wakeUp()}).
+     */
+    private volatile long nextPollAtMs = 0L;
+    private volatile int idleCycles = 0;
 
     public OutboxKafkaPublisher(TransactionTemplate tx,
                                 OutboxRepository outboxRepository,
@@ -38,7 +65,7 @@ public class OutboxKafkaPublisher {
         this.outboxRepository = Objects.requireNonNull(outboxRepository, "OutboxRepository obbligatorio");
         this.sender = Objects.requireNonNull(sender, "OutboxKafkaSender obbligatorio");
         this.props = Objects.requireNonNull(props, "OutboxProperties obbligatorio");
-        this.meterRegistry = meterRegistry;
+        this.metrics = new OutboxPublisherMetrics(meterRegistry);
     }
 
     @Scheduled(fixedDelayString = "${sanitech.outbox.publisher.fixed-delay-ms:2000}")
@@ -47,60 +74,445 @@ public class OutboxKafkaPublisher {
             log.trace("Outbox: publisher disabilitato da configurazione, salto esecuzione.");
             return;
         }
+        if (props.getPublisher().getWorkers() > 1) {
+            log.trace("Outbox: modalità multi-worker attiva, la pubblicazione è gestita da OutboxShardWorkers.");
+            return;
+        }
+
+        OutboxProperties.Adaptive adaptive = props.getPublisher().getAdaptive();
+        if (!adaptive.isEnabled()) {
+            pollOnce();
+            return;
+        }
+
+        // Polling adattivo: in idle si saltano i cicli con backoff esponenziale,
+        // con backlog si drenano più batch consecutivi senza attendere il ciclo successivo.
+        if (System.currentTimeMillis() < nextPollAtMs) {
+            return;
+        }
 
         final int batchSize = props.getPublisher().getBatchSize();
-        final long timeoutMs = props.getPublisher().getSendTimeoutMs();
-        final String defaultTopic = props.getPublisher().getTopic();
+        int locked = pollOnce();
+        for (int drained = 1; locked >= batchSize && drained < adaptive.getMaxBatchesPerCycle(); drained++) {
+            locked = pollOnce();
+        }
+
+        if (locked > 0) {
+            idleCycles = 0;
+            nextPollAtMs = 0L;
+        } else {
+            idleCycles = Math.min(idleCycles + 1, MAX_BACKOFF_EXPONENT);
+            long backoffMs = Math.min(props.getPublisher().getFixedDelayMs() << idleCycles, adaptive.getMaxIdleDelayMs());
+            nextPollAtMs = System.currentTimeMillis() + backoffMs;
+        }
+    }
+
+    /**
+     * Azzera il backoff del polling adattivo: il prossimo ciclo schedulato interroga subito il DB.
+     * Usato dal fast path quando non riesce a prendere in carico un evento appena committato.
+     */
+    public void wakeUp() {
+        idleCycles = 0;
+        nextPollAtMs = 0L;
+    }
+
+    /**
+     * Pubblica gli eventi indicati (fast path after-commit).
+     *
+     * <p>
+     * Come i worker, il fast path reclama con advisory lock gli shard degli eventi (in modalità a worker
+     * singolo l'intera tabella è un unico shard, condiviso con il polling): nessun altro publisher può avere
+     * in volo un evento dello stesso aggregato. Sono inviati solo gli eventi primi non pubblicati del proprio
+     * aggregato e fuori dalle corsie; gli altri, gli shard occupati e le righe bloccate restano al polling,
+     * che è la rete di sicurezza per qualunque evento non inviato qui.
+     * </p>
+     *
+     * @return numero di eventi marcati come pubblicati
+     */
+    public int publishIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+
+        final int shardCount = props.getPublisher().getWorkers() > 1 ? props.getPublisher().getShards() : 1;
+        final List<String> laneTopics = props.getPublisher().laneTopics();
+
+        try {
+            Integer published = tx.execute(status -> {
+                List<Integer> shards = outboxRepository.findShardsByIds(ids, shardCount).stream()
+                        .filter(shard -> Boolean.TRUE.equals(outboxRepository.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, shard)))
+                        .toList();
+                if (shards.isEmpty()) {
+                    return 0;
+                }
+                return processBatch(metrics.timeLock(() -> laneTopics.isEmpty()
+                        ? outboxRepository.lockByIds(ids, shardCount, shards)
+                        : outboxRepository.lockByIdsExcluding(ids, laneTopics, shardCount, shards)));
+            });
+            int count = published != null ? published : 0;
+            if (count < ids.size()) {
+                wakeUp();
+            }
+            return count;
+        } catch (Exception ex) {
+            metrics.batchError("fast_path");
+            log.warn("Outbox: fast path fallito per {} eventi, verranno ripresi dal polling. Causa: {}",
+                    ids.size(), ex.getMessage());
+            wakeUp();
+            return 0;
+        }
+    }
+
+    /**
+     * Un ciclo di polling: blocca un batch e lo pubblica.
+     *
+     * @return numero di eventi prelevati dal DB (0 se nessuno o in caso di errore)
+     */
+    private int pollOnce() {
+        final int batchSize = props.getPublisher().getBatchSize();
+        final List<String> laneTopics = props.getPublisher().laneTopics();
+        final boolean fastPath = props.getPublisher().getFastPath().isEnabled();
+        final int[] locked = {0};
 
         try {
             tx.executeWithoutResult(status -> {
+                // 0) Con un solo worker la tabella è un unico shard, condiviso con il fast path: se il fast path
+                //    sta inviando si salta il ciclo, così i due non inviano insieme eventi dello stesso aggregato.
+                //    Senza fast path il lock non serve e le repliche continuano a lavorare in parallelo.
+                if (fastPath && !Boolean.TRUE.equals(outboxRepository.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 0))) {
+                    return;
+                }
+
                 // 1) LOCK + lettura batch (SKIP LOCKED efficace perché siamo in transazione)
-                List<OutboxEvent> batch = outboxRepository.lockBatch(batchSize);
+                // Con corsie configurate i loro topic sono esclusi: li pubblicano i worker della corsia.
+                List<OutboxEvent> batch = metrics.timeLock(() -> laneTopics.isEmpty()
+                        ? outboxRepository.lockBatch(batchSize)
+                        : outboxRepository.lockBatchExcluding(laneTopics, batchSize));
+                locked[0] = batch.size();
+                processBatch(batch);
+            });
+            return locked[0];
+        } catch (Exception ex) {
+            metrics.batchError("poll");
+            log.error("Outbox: errore durante la pubblicazione del batch. La transazione è stata annullata. Causa: {}",
+                    ex.getMessage(), ex);
+            return 0;
+        }
+    }
 
-                if (batch.isEmpty()) {
-                    log.trace("Outbox: nessun evento da pubblicare.");
-                    return;
+    /**
+     * Pubblica un batch di uno shard della tabella outbox (modalità multi-worker).
+     *
+     * <p>
+     * Lo shard è reclamato con un advisory lock transazionale PostgreSQL: in tutto il cluster
+     * al più un worker alla volta elabora un dato shard, così gli eventi dello stesso aggregato
+     * (che cadono sempre nello stesso shard) vengono inviati nell'ordine di {@code occurred_at}.
+     * Se lo shard è già in lavorazione altrove il metodo ritorna senza fare nulla.
+     * </p>
+     *
+     * @param shard      indice dello shard, in {@code [0, shardCount)}
+     * @param shardCount numero totale di shard
+     * @return numero di eventi marcati come pubblicati
+     */
+    public int publishShard(int shard, int shardCount) {
+        final int batchSize = props.getPublisher().getBatchSize();
+        final List<String> laneTopics = props.getPublisher().laneTopics();
+
+        return publishClaimedShard(OutboxConstants.SHARD_LOCK_NAMESPACE, shard, "shard", () -> laneTopics.isEmpty()
+                ? outboxRepository.lockShardBatch(shardCount, shard, batchSize)
+                : outboxRepository.lockShardBatchExcluding(laneTopics, shardCount, shard, batchSize));
+    }
+
+    /**
+     * Pubblica un batch di uno shard di una corsia ({@code sanitech.outbox.publisher.lanes[laneIndex]}).
+     *
+     * <p>
+     * Come {@link #publishShard(int, int)}, ma limitato ai topic della corsia e con il suo batch size.
+     * Gli shard di ogni corsia hanno advisory lock propri, quindi le corsie non si contendono i lock
+     * con il publisher principale.
+     * </p>
+     *
+     * @return numero di eventi marcati come pubblicati
+     */
+    public int publishLaneShard(int laneIndex, int shard, int shardCount) {
+        final OutboxProperties.Lane lane = props.getPublisher().getLanes().get(laneIndex);
+
+        return publishClaimedShard(OutboxConstants.LANE_LOCK_NAMESPACE + laneIndex, shard, "lane", () ->
+                outboxRepository.lockLaneShardBatch(lane.getTopics(), shardCount, shard, lane.getBatchSize()));
+    }
+
+    private int publishClaimedShard(int lockNamespace, int shard, String phase, Supplier<List<OutboxEvent>> lock) {
+        try {
+            Integer published = tx.execute(status -> {
+                if (!Boolean.TRUE.equals(outboxRepository.tryLockShard(lockNamespace, shard))) {
+                    log.trace("Outbox: shard {} già in lavorazione su un altro worker.", shard);
+                    return 0;
                 }
+                return processBatch(metrics.timeLock(lock));
+            });
+            return published != null ? published : 0;
+        } catch (Exception ex) {
+            metrics.batchError(phase);
+            log.error("Outbox: errore durante la pubblicazione dello shard {} ({}). La transazione è stata annullata. Causa: {}",
+                    shard, phase, ex.getMessage(), ex);
+            return 0;
+        }
+    }
 
-                log.debug("Outbox: prelevati {} eventi da pubblicare (batchSize={}, timeoutMs={}, defaultTopic='{}').",
-                        batch.size(), batchSize, timeoutMs, defaultTopic);
+    /**
+     * Invia il batch già bloccato, registra gli invii falliti e marca come pubblicati gli eventi confermati.
+     * Deve essere invocato dentro la transazione che detiene i lock delle righe.
+     *
+     * <p>
+     * Un evento è pubblicato quando tutti i suoi messaggi (uno per topic in caso di fan-out) sono confermati.
+     * Dopo un evento non confermato non vengono marcati gli eventi successivi dello stesso aggregato.
+     * </p>
+     *
+     * @return numero di eventi marcati come pubblicati
+     */
+    private int processBatch(List<OutboxEvent> batch) {
+        if (batch.isEmpty()) {
+            log.trace("Outbox: nessun evento da pubblicare.");
+            return 0;
+        }
+
+        final long timeoutMs = props.getPublisher().getSendTimeoutMs();
+        final String defaultTopic = props.getPublisher().getTopic();
+
+        log.debug("Outbox: prelevati {} eventi da pubblicare (timeoutMs={}, defaultTopic='{}').",
+                batch.size(), timeoutMs, defaultTopic);
+
+        // 2) Invio Kafka di un messaggio per ogni topic ancora da consegnare: sincrono oppure pipelined.
+        List<OutboxDelivery> deliveries = OutboxDelivery.expand(batch, defaultTopic);
+        Map<OutboxDelivery, Throwable> failures = new LinkedHashMap<>();
+        Set<OutboxDelivery> acknowledged = metrics.timeSend(() ->
+                props.getPublisher().getSendMode() == OutboxProperties.SendMode.PIPELINED
+                        ? sendPipelined(deliveries, timeoutMs, failures)
+                        : sendSequential(deliveries, timeoutMs, failures));
+
+        Map<OutboxEvent, List<OutboxDelivery>> deliveriesByEvent = new LinkedHashMap<>();
+        for (OutboxDelivery d : deliveries) {
+            deliveriesByEvent.computeIfAbsent(d.event(), e -> new ArrayList<>()).add(d);
+        }
+
+        // 3) Esito per evento, nell'ordine del batch.
+        List<Long> publishedIds = new ArrayList<>(batch.size());
+        Instant fromOccurredAt = null;
+        Instant toOccurredAt = null;
+        Map<OutboxEvent, OutboxDelivery> failedEvents = new LinkedHashMap<>();
+        Set<String> blockedAggregates = new HashSet<>();
 
-                // 2) Invio Kafka sincrono con timeout. Se fallisce -> eccezione -> rollback.
-                for (OutboxEvent e : batch) {
-                    String targetTopic = resolveTargetTopic(e, defaultTopic);
-                    sender.sendSync(targetTopic, e, timeoutMs);
+        for (OutboxEvent e : batch) {
+            List<OutboxDelivery> pending = deliveriesByEvent.getOrDefault(e, List.of());
+            List<OutboxDelivery> acked = pending.stream().filter(acknowledged::contains).toList();
+            pending.stream().filter(failures::containsKey).findFirst().ifPresent(d -> failedEvents.put(e, d));
+
+            String aggregate = aggregateKey(e);
+            if (blockedAggregates.contains(aggregate)) {
+                // Verrà reinviato dopo l'evento precedente dello stesso aggregato.
+                continue;
+            }
+            acked.forEach(d -> metrics.topicPublished(d.topic(), e.getEventType()));
+
+            if (acked.size() == pending.size()) {
+                publishedIds.add(e.getId());
+                if (fromOccurredAt == null || e.getOccurredAt().isBefore(fromOccurredAt)) {
+                    fromOccurredAt = e.getOccurredAt();
+                }
+                if (toOccurredAt == null || e.getOccurredAt().isAfter(toOccurredAt)) {
+                    toOccurredAt = e.getOccurredAt();
                 }
+            } else {
+                blockedAggregates.add(aggregate);
+                if (!acked.isEmpty()) {
+                    recordDeliveredTopics(e, acked);
+                    metrics.partialDelivery(e.getEventType());
+                }
+            }
+        }
+
+        failures.keySet().forEach(d -> metrics.topicFailed(d.topic(), d.event().getEventType()));
+        if (!failedEvents.isEmpty()) {
+            recordFailures(failedEvents, failures);
+        }
+
+        if (publishedIds.isEmpty()) {
+            log.warn("Outbox: nessun evento del batch confermato dal broker, nulla da marcare.");
+            return 0;
+        }
+
+        // 4) Marca come pubblicati solo dopo ACK
+        // L'intervallo di occurred_at limita l'UPDATE alle partizioni mensili del batch.
+        final Instant from = fromOccurredAt;
+        final Instant to = toOccurredAt;
+        metrics.timeMark(() -> outboxRepository.markPublished(publishedIds, from, to, Instant.now()));
+        metrics.published(publishedIds.size());
+
+        log.debug("Outbox: pubblicazione completata. Eventi marcati come pubblicati: {}.", publishedIds.size());
+        return publishedIds.size();
+    }
+
+    /**
+     * Salva i topic del fan-out confermati, così il prossimo tentativo invia solo quelli mancanti.
+     */
+    private void recordDeliveredTopics(OutboxEvent event, List<OutboxDelivery> acked) {
+        Set<String> delivered = new LinkedHashSet<>(OutboxDelivery.deliveredTopics(event));
+        acked.forEach(d -> delivered.add(d.topic()));
+
+        ArrayNode json = JsonNodeFactory.instance.arrayNode();
+        delivered.forEach(json::add);
+        outboxRepository.recordDeliveredTopics(event.getId(), event.getOccurredAt(), json.toString());
+    }
+
+    /**
+     * Invio sincrono messaggio per messaggio: un round trip verso il broker per ogni messaggio.
+     * Un invio fallito viene aggiunto a {@code failures} e i messaggi successivi dello stesso
+     * aggregato non vengono inviati; il resto del batch prosegue.
+     */
+    private Set<OutboxDelivery> sendSequential(List<OutboxDelivery> deliveries, long timeoutMs,
+                                               Map<OutboxDelivery, Throwable> failures) {
+        Set<OutboxDelivery> acknowledged = new HashSet<>(deliveries.size() * 2);
+        Set<String> blockedAggregates = new HashSet<>();
+
+        for (OutboxDelivery d : deliveries) {
+            String aggregate = aggregateKey(d.event());
+            if (blockedAggregates.contains(aggregate)) {
+                continue;
+            }
+            try {
+                sender.sendSync(d.topic(), d.message(), timeoutMs);
+                acknowledged.add(d);
+            } catch (Exception ex) {
+                failures.put(d, ex);
+                blockedAggregates.add(aggregate);
+            }
+        }
+        return acknowledged;
+    }
 
-                // 3) Marca come pubblicati solo dopo ACK
-                outboxRepository.markPublished(
-                        batch.stream().map(OutboxEvent::getId).toList(),
-                        Instant.now()
-                );
+    /**
+     * Invio pipelined a turni: ogni turno accoda sul producer l'evento successivo di ciascun aggregato
+     * (con tutti i suoi messaggi di fan-out) e ne attende insieme gli ACK. Un aggregato passa al turno
+     * seguente solo se l'evento precedente è stato confermato, quindi il pipelining avviene tra aggregati
+     * diversi e l'ordine di ciascun aggregato è lo stesso della modalità sincrona.
+     *
+     * <p>
+     * Tutti i turni condividono un'unica scadenza ({@code timeoutMs} per l'intero batch); scaduta, i turni
+     * rimanenti non vengono inviati e restano per il ciclo successivo. Restituisce i soli messaggi confermati;
+     * quelli falliti o non confermati in tempo vengono aggiunti a {@code failures}.
+     * </p>
+     */
+    private Set<OutboxDelivery> sendPipelined(List<OutboxDelivery> deliveries, long timeoutMs,
+                                              Map<OutboxDelivery, Throwable> failures) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Set<OutboxDelivery> acknowledged = new HashSet<>(deliveries.size() * 2);
+        Set<String> blockedAggregates = new HashSet<>();
 
-                if (meterRegistry != null) {
-                    meterRegistry.counter(METRICA_PUBBLICATI).increment(batch.size());
+        for (List<OutboxDelivery> round : rounds(deliveries)) {
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+
+            Map<OutboxDelivery, CompletableFuture<Void>> inFlight = new LinkedHashMap<>(round.size() * 2);
+            for (OutboxDelivery d : round) {
+                if (blockedAggregates.contains(aggregateKey(d.event()))) {
+                    continue;
                 }
+                try {
+                    inFlight.put(d, sender.sendAsync(d.topic(), d.message()));
+                } catch (Exception ex) {
+                    inFlight.put(d, CompletableFuture.failedFuture(ex));
+                }
+            }
 
-                log.debug("Outbox: pubblicazione completata. Eventi marcati come pubblicati: {}.", batch.size());
-            });
-        } catch (Exception ex) {
-            if (meterRegistry != null) {
-                meterRegistry.counter(METRICA_FALLITI).increment();
+            for (Map.Entry<OutboxDelivery, CompletableFuture<Void>> entry : inFlight.entrySet()) {
+                long remainingNanos = Math.max(0L, deadline - System.nanoTime());
+                try {
+                    entry.getValue().get(remainingNanos, TimeUnit.NANOSECONDS);
+                    acknowledged.add(entry.getKey());
+                    continue;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Outbox: attesa ACK interrotta.", ex);
+                } catch (ExecutionException ex) {
+                    failures.put(entry.getKey(), ex.getCause() != null ? ex.getCause() : ex);
+                } catch (Exception ex) {
+                    failures.put(entry.getKey(), ex);
+                }
+                blockedAggregates.add(aggregateKey(entry.getKey().event()));
             }
-            log.error("Outbox: errore durante la pubblicazione del batch. La transazione è stata annullata. Causa: {}",
-                    ex.getMessage(), ex);
         }
+        return acknowledged;
     }
 
     /**
-     * Determina il topic Kafka di destinazione per l'evento.
-     * Se l'evento ha un topic specifico lo usa, altrimenti usa il default.
+     * Suddivide i messaggi in turni: il turno {@code k} contiene i messaggi del {@code k}-esimo evento
+     * di ogni aggregato, nell'ordine del batch.
      */
-    private String resolveTargetTopic(OutboxEvent event, String defaultTopic) {
-        String eventTopic = event.getTopic();
-        if (eventTopic != null && !eventTopic.isBlank()) {
-            return eventTopic;
+    private static List<List<OutboxDelivery>> rounds(List<OutboxDelivery> deliveries) {
+        List<List<OutboxDelivery>> rounds = new ArrayList<>();
+        Map<String, OutboxEvent> currentEvent = new HashMap<>();
+        Map<String, Integer> currentRound = new HashMap<>();
+
+        for (OutboxDelivery d : deliveries) {
+            String aggregate = aggregateKey(d.event());
+            int round = currentRound.getOrDefault(aggregate, -1);
+            if (currentEvent.get(aggregate) != d.event()) {
+                round++;
+                currentEvent.put(aggregate, d.event());
+                currentRound.put(aggregate, round);
+            }
+            if (round == rounds.size()) {
+                rounds.add(new ArrayList<>());
+            }
+            rounds.get(round).add(d);
         }
-        return defaultTopic;
+        return rounds;
+    }
+
+    /**
+     * Registra gli eventi con almeno un invio fallito: incrementa i tentativi e ripianifica ogni evento con backoff
+     * esponenziale, oppure lo parcheggia come dead letter se ha esaurito i tentativi.
+     */
+    private void recordFailures(Map<OutboxEvent, OutboxDelivery> failedEvents,
+                                Map<OutboxDelivery, Throwable> failures) {
+        final OutboxProperties.Retry retry = props.getPublisher().getRetry();
+        final Instant now = Instant.now();
+        for (Map.Entry<OutboxEvent, OutboxDelivery> entry : failedEvents.entrySet()) {
+            OutboxEvent e = entry.getKey();
+            int attempts = e.getAttempts() + 1;
+            boolean deadLetter = attempts >= retry.getMaxAttempts();
+            Instant nextAttemptAt = deadLetter ? null : now.plusMillis(backoffMs(attempts, retry));
+            String error = describe(failures.get(entry.getValue()));
+
+            outboxRepository.recordFailure(e.getId(), e.getOccurredAt(), attempts, nextAttemptAt, error, deadLetter);
+
+            if (deadLetter) {
+                metrics.deadLettered(entry.getValue().topic(), e.getEventType());
+                log.error("Outbox: evento {} ({}) parcheggiato dopo {} tentativi falliti. Causa: {}",
+                        e.getId(), e.getEventType(), attempts, error);
+            } else {
+                log.warn("Outbox: invio Kafka fallito per evento {} (tentativo {}), nuovo tentativo alle {}. Causa: {}",
+                        e.getId(), attempts, nextAttemptAt, error);
+            }
+        }
+    }
+
+    /**
+     * Attesa prima del tentativo successivo: {@code initialBackoffMs * multiplier^(attempts-1)},
+     * limitata a {@code maxBackoffMs}.
+     */
+    static long backoffMs(int attempts, OutboxProperties.Retry retry) {
+        double delay = retry.getInitialBackoffMs() * Math.pow(retry.getMultiplier(), Math.max(0, attempts - 1));
+        return (long) Math.min(delay, retry.getMaxBackoffMs());
+    }
+
+    private static String describe(Throwable error) {
+        String message = error.getClass().getSimpleName() + ": " + error.getMessage();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    private static String aggregateKey(OutboxEvent event) {
+        return event.getAggregateType() + ':' + event.getAggregateId();
     }
 }
@@ -2,9 +2,23 @@ package it.sanitech.outbox.publisher;
 
 import it.sanitech.outbox.persistence.OutboxEvent;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Astrazione di invio Kafka per rendere testabile il publisher.
  */
 public interface OutboxKafkaSender {
+
     void sendSync(String topic, OutboxEvent event, long timeoutMs);
+
+    /**
+     * Invio non bloccante: accoda il messaggio sul producer e restituisce un future
+     * completato all'ACK del broker (o eccezionalmente in caso di errore).
+     *
+     * <p>
+     * Usato dal publisher in modalità {@code PIPELINED} per inviare l'intero batch
+     * e attendere gli ACK in un'unica passata.
+     * </p>
+     */
+    CompletableFuture<Void> sendAsync(String topic, OutboxEvent event);
 }
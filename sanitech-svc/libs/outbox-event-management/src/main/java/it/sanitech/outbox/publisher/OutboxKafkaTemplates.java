@@ -0,0 +1,67 @@
+package it.sanitech.outbox.publisher;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * KafkaTemplate binari del publisher outbox, uno per tipo di compressione.
+ *
+ * <p>
+ * In Kafka la compressione è una proprietà del producer: per comprimere i topic in modo diverso
+ * serve un producer per ciascun algoritmo. I producer sono creati al primo utilizzo, condividono
+ * il resto della configurazione {@code spring.kafka.producer.*} e serializzano il valore come byte,
+ * così il formato dell'envelope è scelto dal codec.
+ * </p>
+ */
+@Slf4j
+public class OutboxKafkaTemplates implements DisposableBean {
+
+    private static final String DEFAULT = "";
+
+    private final Map<String, Object> producerProperties;
+    private final Map<String, DefaultKafkaProducerFactory<String, byte[]>> factories = new ConcurrentHashMap<>();
+    private final Map<String, KafkaTemplate<String, byte[]>> templates = new ConcurrentHashMap<>();
+
+    public OutboxKafkaTemplates(Map<String, Object> producerProperties) {
+        Objects.requireNonNull(producerProperties, "producerProperties obbligatorio");
+        this.producerProperties = new HashMap<>(producerProperties);
+        this.producerProperties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        this.producerProperties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+    }
+
+    /**
+     * Template per la compressione indicata; con valore nullo usa la configurazione del producer.
+     */
+    public KafkaTemplate<String, byte[]> forCompression(String compression) {
+        String key = compression != null ? compression : DEFAULT;
+        return templates.computeIfAbsent(key, this::createTemplate);
+    }
+
+    private KafkaTemplate<String, byte[]> createTemplate(String compression) {
+        Map<String, Object> config = new HashMap<>(producerProperties);
+        if (!compression.isEmpty()) {
+            config.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+        }
+        DefaultKafkaProducerFactory<String, byte[]> factory = new DefaultKafkaProducerFactory<>(config);
+        factories.put(compression, factory);
+        log.debug("Outbox: creato producer Kafka (compression='{}').", compression.isEmpty() ? "default" : compression);
+        return new KafkaTemplate<>(factory);
+    }
+
+    @Override
+    public void destroy() {
+        factories.values().forEach(DefaultKafkaProducerFactory::destroy);
+        factories.clear();
+        templates.clear();
+    }
+}
@@ -0,0 +1,112 @@
+package it.sanitech.outbox.publisher;
+
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker delle corsie di pubblicazione ({@code sanitech.outbox.publisher.lanes}).
+ *
+ * <p>
+ * Ogni corsia ha un pool di thread proprio, con cadenza e numero di worker configurati, che pubblica
+ * solo i topic della corsia ({@link OutboxKafkaPublisher#publishLaneShard(int, int, int)}).
+ * Un backlog sugli altri topic (es. import massivo su {@code audits.events}) non rallenta quindi
+ * i topic urgenti. Come in {@link OutboxShardWorkers}, l'ordine per aggregato è garantito
+ * dall'esclusività degli shard.
+ * </p>
+ */
+@Slf4j
+public class OutboxLaneWorkers implements SmartLifecycle {
+
+    private final OutboxKafkaPublisher publisher;
+    private final OutboxProperties props;
+
+    private final List<ScheduledExecutorService> executors = new ArrayList<>();
+    private volatile boolean running;
+
+    public OutboxLaneWorkers(OutboxKafkaPublisher publisher, OutboxProperties props) {
+        this.publisher = Objects.requireNonNull(publisher, "OutboxKafkaPublisher obbligatorio");
+        this.props = Objects.requireNonNull(props, "OutboxProperties obbligatorio");
+    }
+
+    @Override
+    public synchronized void start() {
+        List<OutboxProperties.Lane> lanes = props.getPublisher().getLanes();
+        for (int l = 0; l < lanes.size(); l++) {
+            final int laneIndex = l;
+            final OutboxProperties.Lane lane = lanes.get(l);
+            final int workers = lane.getWorkers();
+
+            ScheduledExecutorService pool = Executors.newScheduledThreadPool(workers, laneThreadFactory(lane.getName()));
+            for (int w = 0; w < workers; w++) {
+                final int worker = w;
+                pool.scheduleWithFixedDelay(() -> runCycle(laneIndex, worker, workers),
+                        0, lane.getFixedDelayMs(), TimeUnit.MILLISECONDS);
+            }
+            executors.add(pool);
+
+            log.info("Outbox: corsia '{}' avviata con {} worker su topic {} (fixedDelayMs={}, batchSize={}).",
+                    lane.getName(), workers, lane.getTopics(), lane.getFixedDelayMs(), lane.getBatchSize());
+        }
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (ScheduledExecutorService pool : executors) {
+            pool.shutdown();
+        }
+        try {
+            for (ScheduledExecutorService pool : executors) {
+                if (!pool.awaitTermination(props.getPublisher().getSendTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                    pool.shutdownNow();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            executors.forEach(ScheduledExecutorService::shutdownNow);
+        }
+        executors.clear();
+        running = false;
+        log.info("Outbox: corsie di pubblicazione arrestate.");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Un ciclo di un worker di corsia: tenta ogni shard una volta, partendo da un offset
+     * proporzionale all'indice del worker.
+     */
+    void runCycle(int laneIndex, int worker, int workers) {
+        if (!props.isEnabled() || !props.getPublisher().isEnabled()) {
+            return;
+        }
+        final int shards = props.getPublisher().getShards();
+        final int offset = worker * shards / workers;
+
+        for (int i = 0; i < shards; i++) {
+            publisher.publishLaneShard(laneIndex, (offset + i) % shards, shards);
+        }
+    }
+
+    private static ThreadFactory laneThreadFactory(String laneName) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "outbox-lane-" + laneName + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
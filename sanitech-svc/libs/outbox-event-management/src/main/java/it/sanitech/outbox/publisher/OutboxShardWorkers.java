@@ -0,0 +1,101 @@
+package it.sanitech.outbox.publisher;
+
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool di worker per la pubblicazione Outbox in modalità multi-worker.
+ *
+ * <p>
+ * Ogni worker, a ogni ciclo, scorre tutti gli shard partendo da un offset diverso e pubblica
+ * un batch per ogni shard che riesce a reclamare ({@link OutboxKafkaPublisher#publishShard(int, int)}).
+ * Il throughput scala con il numero di worker e di istanze fino al numero di shard configurato,
+ * mentre l'ordine per aggregato resta garantito dall'esclusività dello shard.
+ * </p>
+ */
+@Slf4j
+public class OutboxShardWorkers implements SmartLifecycle {
+
+    private final OutboxKafkaPublisher publisher;
+    private final OutboxProperties props;
+
+    private volatile ScheduledExecutorService executor;
+
+    public OutboxShardWorkers(OutboxKafkaPublisher publisher, OutboxProperties props) {
+        this.publisher = Objects.requireNonNull(publisher, "OutboxKafkaPublisher obbligatorio");
+        this.props = Objects.requireNonNull(props, "OutboxProperties obbligatorio");
+    }
+
+    @Override
+    public void start() {
+        final int workers = props.getPublisher().getWorkers();
+        final long fixedDelayMs = props.getPublisher().getFixedDelayMs();
+
+        ScheduledExecutorService pool = Executors.newScheduledThreadPool(workers, workerThreadFactory());
+        for (int w = 0; w < workers; w++) {
+            final int worker = w;
+            pool.scheduleWithFixedDelay(() -> runCycle(worker, workers), 0, fixedDelayMs, TimeUnit.MILLISECONDS);
+        }
+        this.executor = pool;
+
+        log.info("Outbox: avviati {} worker di pubblicazione su {} shard (fixedDelayMs={}).",
+                workers, props.getPublisher().getShards(), fixedDelayMs);
+    }
+
+    @Override
+    public void stop() {
+        ScheduledExecutorService pool = this.executor;
+        if (pool == null) {
+            return;
+        }
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(props.getPublisher().getSendTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+        }
+        this.executor = null;
+        log.info("Outbox: worker di pubblicazione arrestati.");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return executor != null;
+    }
+
+    /**
+     * Un ciclo di un worker: tenta ogni shard una volta, partendo da un offset proporzionale
+     * all'indice del worker per distribuire gli shard tra i worker della stessa istanza.
+     */
+    void runCycle(int worker, int workers) {
+        if (!props.isEnabled() || !props.getPublisher().isEnabled()) {
+            return;
+        }
+        final int shards = props.getPublisher().getShards();
+        final int offset = worker * shards / workers;
+
+        for (int i = 0; i < shards; i++) {
+            publisher.publishShard((offset + i) % shards, shards);
+        }
+    }
+
+    private static ThreadFactory workerThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "outbox-worker-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
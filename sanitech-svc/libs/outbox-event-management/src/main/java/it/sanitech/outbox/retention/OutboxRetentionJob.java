@@ -0,0 +1,344 @@
+package it.sanitech.outbox.retention;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Job di manutenzione della tabella outbox.
+ *
+ * <p>
+ * Con tabella partizionata per mese (migrazione {@code outbox_partitioning}):
+ * <ul>
+ *   <li>crea in anticipo le partizioni mensili future;</li>
+ *   <li>stacca le partizioni più vecchie della retention che non contengono eventi da pubblicare,
+ *       poi le elimina o le rinomina per l'archiviazione;</li>
+ *   <li>ripulisce a blocchi gli eventi pubblicati scaduti nella partizione di default.</li>
+ * </ul>
+ * Con tabella non partizionata si limita alla DELETE a blocchi degli eventi pubblicati scaduti.
+ * </p>
+ *
+ * <p>
+ * Lock: senza partizione di default le partizioni sono staccate con {@code DETACH PARTITION ... CONCURRENTLY},
+ * che non blocca le scritture sull'outbox. La partizione di default creata dalle migrazioni impedisce
+ * {@code CONCURRENTLY}: in quel caso il distacco, come la creazione delle partizioni future, prende
+ * ACCESS EXCLUSIVE su {@code outbox_events} e blocca per la sua durata publisher e transazioni applicative
+ * che scrivono nell'outbox. L'attesa del lock è limitata da {@code ddl-lock-timeout-ms}.
+ * </p>
+ *
+ * <p>
+ * Se la partizione di un mese non è stata creata in tempo, i suoi eventi finiscono nella partizione
+ * di default e la {@code CREATE TABLE ... PARTITION OF} fallirebbe. In quel caso il job stacca la partizione
+ * di default, crea quella del mese, vi sposta gli eventi e riattacca la default, in un'unica transazione
+ * che tiene ACCESS EXCLUSIVE su {@code outbox_events} per la durata dello spostamento.
+ * </p>
+ *
+ * <p>
+ * Espone inoltre le metriche {@code sanitech.outbox.table.rows} (stima da statistiche)
+ * e {@code sanitech.outbox.table.bytes}; backlog ed età degli eventi sono esposti da
+ * {@link it.sanitech.outbox.metrics.OutboxBacklogMonitor}.
+ * </p>
+ */
+@Slf4j
+public class OutboxRetentionJob {
+
+    private static final String TABLE = "outbox_events";
+    private static final String DEFAULT_PARTITION = "outbox_events_default";
+    private static final Pattern MONTHLY_PARTITION = Pattern.compile("outbox_events_(\\d{6})");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final String METRICA_RIGHE = "sanitech.outbox.table.rows";
+    private static final String METRICA_BYTE = "sanitech.outbox.table.bytes";
+
+    private static final String SQL_IS_PARTITIONED =
+            "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('" + TABLE + "'))";
+    private static final String SQL_PARTITIONS =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = '" + TABLE + "'::regclass";
+    private static final String SQL_HAS_DEFAULT_PARTITION =
+            "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table " +
+            "WHERE partrelid = '" + TABLE + "'::regclass AND partdefid <> 0)";
+    private static final String SQL_MONTH_IN_DEFAULT =
+            "SELECT to_regclass(?) IS NULL AND EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION +
+            " WHERE occurred_at >= ?::timestamptz AND occurred_at < ?::timestamptz)";
+    private static final String SQL_TRY_LOCK = "SELECT pg_try_advisory_xact_lock(?)";
+    private static final String SQL_TRY_SESSION_LOCK =
+            "SELECT pg_try_advisory_lock(" + OutboxConstants.RETENTION_LOCK_KEY + ")";
+    private static final String SQL_SESSION_UNLOCK =
+            "SELECT pg_advisory_unlock(" + OutboxConstants.RETENTION_LOCK_KEY + ")";
+    private static final String SQL_TABLE_ROWS =
+            "SELECT COALESCE(SUM(GREATEST(c.reltuples, 0)), 0)::bigint FROM pg_class c " +
+            "WHERE c.oid = '" + TABLE + "'::regclass " +
+            "OR c.oid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = '" + TABLE + "'::regclass)";
+    private static final String SQL_TABLE_BYTES =
+            "SELECT COALESCE(SUM(pg_total_relation_size(c.oid)), 0)::bigint FROM pg_class c " +
+            "WHERE c.oid = '" + TABLE + "'::regclass " +
+            "OR c.oid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = '" + TABLE + "'::regclass)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final OutboxProperties props;
+
+    private final AtomicLong tableRows = new AtomicLong();
+    private final AtomicLong tableBytes = new AtomicLong();
+
+    public OutboxRetentionJob(JdbcTemplate jdbc,
+                              TransactionTemplate tx,
+                              OutboxProperties props,
+                              MeterRegistry meterRegistry) {
+        this.jdbc = Objects.requireNonNull(jdbc, "JdbcTemplate obbligatorio");
+        this.tx = Objects.requireNonNull(tx, "TransactionTemplate obbligatorio");
+        this.props = Objects.requireNonNull(props, "OutboxProperties obbligatorio");
+
+        if (meterRegistry != null) {
+            meterRegistry.gauge(METRICA_RIGHE, tableRows);
+            meterRegistry.gauge(METRICA_BYTE, tableBytes);
+        }
+    }
+
+    /**
+     * All'avvio garantisce la presenza delle partizioni future, senza attendere il primo cron.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            if (isPartitioned()) {
+                ensureFuturePartitions();
+            }
+        } catch (Exception ex) {
+            log.warn("Outbox: creazione partizioni all'avvio non riuscita. Causa: {}", ex.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${sanitech.outbox.retention.cron:0 15 3 * * *}")
+    public void runMaintenance() {
+        final Instant cutoff = Instant.now().minus(props.getRetention().getRetentionDays(), ChronoUnit.DAYS);
+
+        try {
+            if (isPartitioned()) {
+                ensureFuturePartitions();
+                removeExpiredPartitions(cutoff);
+                purgePublished(DEFAULT_PARTITION, cutoff);
+            } else {
+                purgePublished(TABLE, cutoff);
+            }
+        } catch (Exception ex) {
+            log.error("Outbox: errore durante la manutenzione della tabella outbox. Causa: {}", ex.getMessage(), ex);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${sanitech.outbox.retention.metrics-refresh-ms:30000}")
+    public void refreshMetrics() {
+        try {
+            tableRows.set(queryForLong(SQL_TABLE_ROWS));
+            tableBytes.set(queryForLong(SQL_TABLE_BYTES));
+        } catch (Exception ex) {
+            log.debug("Outbox: aggiornamento metriche dimensione non riuscito. Causa: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Crea le partizioni del mese corrente e dei successivi {@code premakeMonths} mesi.
+     */
+    public void ensureFuturePartitions() {
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        final boolean hasDefault = Boolean.TRUE.equals(jdbc.queryForObject(SQL_HAS_DEFAULT_PARTITION, Boolean.class));
+        for (int i = 0; i <= props.getRetention().getPremakeMonths(); i++) {
+            YearMonth month = current.plusMonths(i);
+            String partition = TABLE + "_" + month.format(PARTITION_SUFFIX);
+            String from = month.atDay(1).toString();
+            String to = month.plusMonths(1).atDay(1).toString();
+            String bounds = " FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+            try {
+                runExclusive(() -> {
+                    if (hasDefault && Boolean.TRUE.equals(jdbc.queryForObject(SQL_MONTH_IN_DEFAULT, Boolean.class, partition, from, to))) {
+                        moveMonthOutOfDefault(partition, bounds, from, to);
+                    } else {
+                        jdbc.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + TABLE + bounds);
+                    }
+                });
+            } catch (Exception ex) {
+                // Tipicamente: lock su outbox_events non ottenuto entro ddl-lock-timeout-ms. Si riprova al prossimo ciclo;
+                // finché la partizione manca, gli eventi del mese restano nella default.
+                log.error("Outbox: impossibile creare la partizione {}, gli eventi del mese restano in {}. Causa: {}",
+                        partition, DEFAULT_PARTITION, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Crea la partizione di un mese i cui eventi sono già nella partizione di default e ve li sposta.
+     * Va eseguito dentro {@link #runExclusive(Runnable)}: tutti i passi sono nella stessa transazione.
+     */
+    private void moveMonthOutOfDefault(String partition, String bounds, String from, String to) {
+        String range = " WHERE occurred_at >= '" + from + "' AND occurred_at < '" + to + "'";
+        jdbc.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + DEFAULT_PARTITION);
+        jdbc.execute("CREATE TABLE " + partition + " PARTITION OF " + TABLE + bounds);
+        int moved = jdbc.update("INSERT INTO " + partition + " SELECT * FROM " + DEFAULT_PARTITION + range);
+        jdbc.update("DELETE FROM " + DEFAULT_PARTITION + range);
+        jdbc.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+        log.warn("Outbox: {} eventi spostati dalla partizione di default alla nuova partizione {}.", moved, partition);
+    }
+
+    /**
+     * Rimuove le partizioni mensili interamente più vecchie del cutoff e senza eventi da pubblicare.
+     * La partizione viene prima staccata, poi eliminata o rinominata: una volta staccata è una tabella
+     * autonoma e la DROP/RENAME non prende lock su {@code outbox_events}.
+     */
+    public void removeExpiredPartitions(Instant cutoff) {
+        List<String> partitions = jdbc.queryForList(SQL_PARTITIONS, String.class);
+        final boolean concurrently = !Boolean.TRUE.equals(jdbc.queryForObject(SQL_HAS_DEFAULT_PARTITION, Boolean.class));
+
+        for (String partition : partitions) {
+            Matcher matcher = MONTHLY_PARTITION.matcher(partition);
+            if (!matcher.matches()) {
+                continue;
+            }
+            YearMonth month = YearMonth.parse(matcher.group(1), PARTITION_SUFFIX);
+            Instant upperBound = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            if (upperBound.isAfter(cutoff)) {
+                continue;
+            }
+
+            boolean hasPending = Boolean.TRUE.equals(jdbc.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM " + partition + " WHERE published = false)", Boolean.class));
+            if (hasPending) {
+                log.warn("Outbox: partizione {} scaduta ma contiene eventi non pubblicati, non rimossa.", partition);
+                continue;
+            }
+
+            final boolean archive = props.getRetention().getMode() == OutboxProperties.RetentionMode.DETACH;
+            final String archived = "outbox_archive_" + matcher.group(1);
+            List<String> ddl = List.of(
+                    "ALTER TABLE " + TABLE + " DETACH PARTITION " + partition + (concurrently ? " CONCURRENTLY" : ""),
+                    archive
+                            ? "ALTER TABLE " + partition + " RENAME TO " + archived
+                            : "DROP TABLE IF EXISTS " + partition);
+
+            try {
+                boolean done = concurrently
+                        ? runExclusiveAutocommit(ddl)
+                        : runExclusive(() -> ddl.forEach(jdbc::execute));
+                if (!done) {
+                    continue;
+                }
+            } catch (Exception ex) {
+                // Tipicamente: lock su outbox_events non ottenuto entro ddl-lock-timeout-ms.
+                log.warn("Outbox: impossibile rimuovere la partizione {}, nuovo tentativo al prossimo ciclo. Causa: {}",
+                        partition, ex.getMessage());
+                continue;
+            }
+            if (archive) {
+                log.info("Outbox: partizione {} staccata e archiviata come {}.", partition, archived);
+            } else {
+                log.info("Outbox: partizione {} eliminata (retention {} giorni).",
+                        partition, props.getRetention().getRetentionDays());
+            }
+        }
+    }
+
+    /**
+     * Elimina a blocchi gli eventi pubblicati prima del cutoff; ogni blocco è una transazione breve.
+     */
+    public void purgePublished(String table, Instant cutoff) {
+        final int batch = props.getRetention().getPurgeBatchSize();
+        final String sql = "DELETE FROM " + table + " WHERE id IN (" +
+                "SELECT id FROM " + table + " WHERE published = true AND published_at < ? LIMIT ?)";
+
+        long total = 0;
+        int deleted;
+        do {
+            Integer count = tx.execute(status -> jdbc.update(sql, Timestamp.from(cutoff), batch));
+            deleted = count != null ? count : 0;
+            total += deleted;
+        } while (deleted >= batch);
+
+        if (total > 0) {
+            log.info("Outbox: eliminati {} eventi pubblicati prima di {} da {}.", total, cutoff, table);
+        }
+    }
+
+    /**
+     * Esegue un'operazione DDL in transazione, solo se questa istanza ottiene il lock di manutenzione.
+     * L'attesa dei lock di tabella è limitata da {@code ddl-lock-timeout-ms}.
+     *
+     * @return {@code true} se l'operazione è stata eseguita
+     */
+    private boolean runExclusive(Runnable ddl) {
+        Boolean done = tx.execute(status -> {
+            Boolean locked = jdbc.queryForObject(SQL_TRY_LOCK, Boolean.class, OutboxConstants.RETENTION_LOCK_KEY);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.debug("Outbox: manutenzione in corso su un'altra istanza, operazione saltata.");
+                return false;
+            }
+            jdbc.execute("SET LOCAL lock_timeout = '" + props.getRetention().getDdlLockTimeoutMs() + "ms'");
+            ddl.run();
+            return true;
+        });
+        return Boolean.TRUE.equals(done);
+    }
+
+    /**
+     * Esegue le DDL fuori transazione (richiesto da {@code DETACH PARTITION ... CONCURRENTLY}) su un'unica
+     * connessione, sotto il lock di manutenzione di sessione.
+     *
+     * @return {@code true} se le DDL sono state eseguite
+     */
+    private boolean runExclusiveAutocommit(List<String> ddl) {
+        Boolean done = jdbc.execute((ConnectionCallback<Boolean>) con -> {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(true);
+            try (Statement st = con.createStatement()) {
+                boolean locked;
+                try (ResultSet rs = st.executeQuery(SQL_TRY_SESSION_LOCK)) {
+                    locked = rs.next() && rs.getBoolean(1);
+                }
+                if (!locked) {
+                    log.debug("Outbox: manutenzione in corso su un'altra istanza, operazione saltata.");
+                    return false;
+                }
+                try {
+                    for (String sql : ddl) {
+                        st.execute(sql);
+                    }
+                } finally {
+                    st.execute(SQL_SESSION_UNLOCK);
+                }
+                return true;
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        });
+        return Boolean.TRUE.equals(done);
+    }
+
+    private boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbc.queryForObject(SQL_IS_PARTITIONED, Boolean.class));
+    }
+
+    private long queryForLong(String sql) {
+        Long value = jdbc.queryForObject(sql, Long.class);
+        return value != null ? value : 0L;
+    }
+}
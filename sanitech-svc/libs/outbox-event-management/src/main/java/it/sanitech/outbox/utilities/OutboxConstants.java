@@ -12,4 +12,53 @@ public final class OutboxConstants {
     public static final String PUBLISHER_PREFIX = CONFIG_PREFIX + ".publisher";
 
     public static final String DEFAULT_TOPIC = "domain-events";
+
+    /**
+     * Namespace (prima chiave) degli advisory lock PostgreSQL usati per reclamare gli shard
+     * della tabella outbox in modalità multi-worker. La seconda chiave è l'indice dello shard.
+     */
+    public static final int SHARD_LOCK_NAMESPACE = 0x0B0C;
+
+    /**
+     * Namespace degli advisory lock degli shard delle corsie di pubblicazione:
+     * la corsia {@code i} usa {@code LANE_LOCK_NAMESPACE + i}.
+     */
+    public static final int LANE_LOCK_NAMESPACE = 0x0B0C_0100;
+
+    /**
+     * Chiave dell'advisory lock che serializza la manutenzione (retention) tra le istanze.
+     */
+    public static final long RETENTION_LOCK_KEY = 0x0B0C_0001L;
+
+    /**
+     * Header Kafka con il content type dell'envelope ({@link it.sanitech.outbox.codec.OutboxEnvelopeCodec}).
+     */
+    public static final String HEADER_CONTENT_TYPE = "content-type";
+
+    /**
+     * Header Kafka con l'identificativo univoco dell'evento outbox, nella forma {@code <servizio>:<id>}:
+     * resta invariato se lo stesso evento viene ripubblicato e permette ai consumer di scartare i duplicati.
+     */
+    public static final String HEADER_EVENT_ID = "outbox-event-id";
+
+    /**
+     * Header Kafka con i campi di intestazione dell'envelope, duplicati fuori dal corpo del messaggio:
+     * i consumer possono scartare gli eventi non di interesse senza decodificare il valore.
+     */
+    public static final String HEADER_EVENT_TYPE = "outbox-event-type";
+    public static final String HEADER_AGGREGATE_TYPE = "outbox-aggregate-type";
+    public static final String HEADER_ACTOR_TYPE = "outbox-actor-type";
+    public static final String HEADER_OCCURRED_AT = "outbox-occurred-at";
+
+    /**
+     * Nome del KafkaTemplate binario usato per pubblicare sui topic di retry e di dead letter dei consumer.
+     */
+    public static final String CONSUMER_RETRY_TEMPLATE = "outboxConsumerRetryKafkaTemplate";
+
+    /**
+     * Suffisso dei topic di dead letter dei consumer ({@code <topic>-<group>-dlt}); il replay ripubblica
+     * sul primo topic di retry dello stesso gruppo ({@code <topic>-<group>-retry-0}).
+     */
+    public static final String DLT_SUFFIX = "-dlt";
+    public static final String FIRST_RETRY_SUFFIX = "-retry-0";
 }
@@ -0,0 +1,134 @@
+package it.sanitech.outbox.bench;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.sanitech.outbox.core.OutboxEnvelopes;
+import it.sanitech.outbox.persistence.OutboxEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronto JMH tra i due percorsi di pubblicazione dell'envelope outbox.
+ *
+ * <ul>
+ *   <li>{@code publish*}: lavoro svolto dal publisher sul percorso critico (righe in lock);</li>
+ *   <li>{@code write*}: lavoro svolto da {@code DomainEventPublisher} nella transazione di business.</li>
+ * </ul>
+ *
+ * <p>
+ * Esecuzione:
+ * <pre>{@code
+ * mvn -pl libs/outbox-event-management test-compile exec:java \
+ *     -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=OutboxEnvelopeBenchmark
+ * }</pre>
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutboxEnvelopeBenchmark {
+
+    private ObjectMapper objectMapper;
+    private Map<String, Object> payload;
+    private OutboxEvent event;
+    private OutboxEvent preSerialized;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        payload = Map.of(
+                "appointmentId", 4711L,
+                "patientId", 42L,
+                "doctorId", 7L,
+                "departmentCode", "CARD",
+                "startsAt", "2026-10-17T09:30:00Z",
+                "mode", "IN_PERSON",
+                "status", "BOOKED");
+
+        event = newEvent(objectMapper.valueToTree(payload));
+        preSerialized = newEvent(event.getPayload());
+        preSerialized.setEnvelope(OutboxEnvelopes.toJson(objectMapper, event));
+    }
+
+    private static OutboxEvent newEvent(JsonNode payload) {
+        return OutboxEvent.builder()
+                .id(1L)
+                .aggregateType("APPOINTMENT")
+                .aggregateId("4711")
+                .eventType("APPOINTMENT_BOOKED")
+                .actorType("PATIENT")
+                .actorId("patient@example.org")
+                .actorName("patient@example.org")
+                .occurredAt(Instant.parse("2026-10-17T08:00:00Z"))
+                .payload(payload)
+                .build();
+    }
+
+    /**
+     * Percorso storico: envelope ricostruito come albero e serializzato a ogni pubblicazione.
+     */
+    @Benchmark
+    public String publishTreeEnvelope() throws JsonProcessingException {
+        ObjectNode envelope = objectMapper.createObjectNode();
+        envelope.put("aggregateType", event.getAggregateType());
+        envelope.put("aggregateId", event.getAggregateId());
+        envelope.put("eventType", event.getEventType());
+        ObjectNode actor = objectMapper.createObjectNode();
+        actor.put("type", event.getActorType());
+        actor.put("id", event.getActorId());
+        actor.put("name", event.getActorName());
+        envelope.set("actor", actor);
+        envelope.put("occurredAt", event.getOccurredAt().toString());
+        envelope.set("payload", event.getPayload());
+        return objectMapper.writeValueAsString(envelope);
+    }
+
+    /**
+     * Envelope serializzato in streaming a ogni pubblicazione (senza albero intermedio).
+     */
+    @Benchmark
+    public String publishStreamingEnvelope() {
+        return OutboxEnvelopes.toJson(objectMapper, event);
+    }
+
+    /**
+     * Envelope pre-serializzato in scrittura: il publisher non esegue lavoro Jackson.
+     */
+    @Benchmark
+    public String publishPreSerialized() {
+        return preSerialized.getEnvelope();
+    }
+
+    /**
+     * Costo in scrittura con sola colonna jsonb.
+     */
+    @Benchmark
+    public JsonNode writePayloadOnly() {
+        return objectMapper.valueToTree(payload);
+    }
+
+    /**
+     * Costo in scrittura con colonna jsonb e envelope pre-serializzato.
+     */
+    @Benchmark
+    public String writePayloadAndEnvelope() {
+        return OutboxEnvelopes.toJson(objectMapper, newEvent(objectMapper.valueToTree(payload)));
+    }
+}
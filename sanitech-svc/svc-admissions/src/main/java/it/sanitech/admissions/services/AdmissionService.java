@@ -18,6 +18,7 @@ import it.sanitech.commons.security.SecurityUtils;
 import it.sanitech.commons.utilities.AppConstants;
 import it.sanitech.admissions.utilities.AppConstants.Outbox;
 import it.sanitech.outbox.core.DomainEventPublisher;
+import it.sanitech.outbox.core.TopicRoute;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -28,6 +29,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -120,52 +122,37 @@ public class AdmissionService {
         String doctorName = doctorInfo != null ? doctorInfo.fullName() : null;
         String doctorEmail = doctorInfo != null ? doctorInfo.email() : null;
 
-        // 1. Evento audit (payload minimale, invariato)
-        Map<String, Object> auditPayload = new HashMap<>();
-        auditPayload.put("admissionId", saved.getId());
-        auditPayload.put("patientId", saved.getPatientId());
-        auditPayload.put("departmentCode", saved.getDepartmentCode());
-        auditPayload.put("admittedAt", saved.getAdmittedAt().toString());
-        auditPayload.put("dischargedAt", saved.getDischargedAt().toString());
+        // Un'unica riga outbox: audit, payments e notifications ricevono ciascuno la propria proiezione.
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("admissionId", saved.getId());
+        payload.put("sourceId", saved.getId());
+        payload.put("sourceType", "ADMISSION");
+        payload.put("notificationType", "ADMISSION_DISCHARGED");
+        payload.put("patientId", saved.getPatientId());
+        payload.put("patientName", patientName);
+        payload.put("patientEmail", patientEmail);
+        payload.put("departmentCode", saved.getDepartmentCode());
+        payload.put("doctorName", doctorName);
+        payload.put("doctorEmail", doctorEmail);
+        payload.put("admittedAt", saved.getAdmittedAt().toString());
+        payload.put("dischargedAt", saved.getDischargedAt().toString());
         if (saved.getAttendingDoctorId() != null) {
-            auditPayload.put("attendingDoctorId", saved.getAttendingDoctorId());
+            payload.put("attendingDoctorId", saved.getAttendingDoctorId());
         }
 
-        domainEvents.publish(AGGREGATE_TYPE, String.valueOf(saved.getId()), EVT_DISCHARGED,
-                auditPayload, Outbox.TOPIC_AUDITS_EVENTS, auth);
-
-        // 2. Evento payments (payload arricchito per fatturazione)
-        Map<String, Object> paymentsPayload = new HashMap<>();
-        paymentsPayload.put("sourceId", saved.getId());
-        paymentsPayload.put("sourceType", "ADMISSION");
-        paymentsPayload.put("patientId", saved.getPatientId());
-        paymentsPayload.put("patientName", patientName);
-        paymentsPayload.put("patientEmail", patientEmail);
-        paymentsPayload.put("departmentCode", saved.getDepartmentCode());
-        paymentsPayload.put("admittedAt", saved.getAdmittedAt().toString());
-        paymentsPayload.put("dischargedAt", saved.getDischargedAt().toString());
-        if (saved.getAttendingDoctorId() != null) {
-            paymentsPayload.put("attendingDoctorId", saved.getAttendingDoctorId());
-            paymentsPayload.put("doctorName", doctorName);
-        }
-
-        domainEvents.publish(AGGREGATE_TYPE, String.valueOf(saved.getId()), EVT_DISCHARGED,
-                paymentsPayload, Outbox.TOPIC_PAYMENTS_EVENTS, auth);
-
-        // 3. Evento notifications (email a medico e paziente)
-        Map<String, Object> notificationsPayload = new HashMap<>();
-        notificationsPayload.put("notificationType", "ADMISSION_DISCHARGED");
-        notificationsPayload.put("sourceId", saved.getId());
-        notificationsPayload.put("departmentCode", saved.getDepartmentCode());
-        notificationsPayload.put("patientName", patientName);
-        notificationsPayload.put("patientEmail", patientEmail);
-        notificationsPayload.put("doctorName", doctorName);
-        notificationsPayload.put("doctorEmail", doctorEmail);
-        notificationsPayload.put("admittedAt", saved.getAdmittedAt().toString());
-        notificationsPayload.put("dischargedAt", saved.getDischargedAt().toString());
-
-        domainEvents.publish(AGGREGATE_TYPE, String.valueOf(saved.getId()), EVT_DISCHARGED,
-                notificationsPayload, Outbox.TOPIC_NOTIFICATIONS_EVENTS, auth);
+        domainEvents.publishToTopics(AGGREGATE_TYPE, String.valueOf(saved.getId()), EVT_DISCHARGED, payload, List.of(
+                // 1. audit (payload minimale, invariato)
+                TopicRoute.projected(Outbox.TOPIC_AUDITS_EVENTS,
+                        "admissionId", "patientId", "departmentCode", "admittedAt", "dischargedAt", "attendingDoctorId"),
+                // 2. payments (payload arricchito per fatturazione)
+                TopicRoute.projected(Outbox.TOPIC_PAYMENTS_EVENTS,
+                        "sourceId", "sourceType", "patientId", "patientName", "patientEmail", "departmentCode",
+                        "admittedAt", "dischargedAt", "attendingDoctorId", "doctorName"),
+                // 3. notifications (email a medico e paziente)
+                TopicRoute.projected(Outbox.TOPIC_NOTIFICATIONS_EVENTS,
+                        "notificationType", "sourceId", "departmentCode", "patientName", "patientEmail",
+                        "doctorName", "doctorEmail", "admittedAt", "dischargedAt")
+        ), auth);
 
         return mapper.toDto(saved);
     }
@@ -0,0 +1,29 @@
+-- V15__outbox_retry_state.sql
+-- Stato di retry per singolo evento outbox: un evento che fallisce non blocca più il batch.
+-- Dopo max-attempts tentativi l'evento viene parcheggiato (dead letter) e può essere
+-- ripubblicato dall'endpoint amministrativo /api/admin/outbox/dead-letters.
+
+ALTER TABLE outbox_events
+    ADD COLUMN IF NOT EXISTS attempts        INTEGER     NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS next_attempt_at TIMESTAMPTZ,
+    ADD COLUMN IF NOT EXISTS last_error      VARCHAR(1024),
+    ADD COLUMN IF NOT EXISTS dead_letter     BOOLEAN     NOT NULL DEFAULT FALSE;
+
+COMMENT ON COLUMN outbox_events.attempts IS 'Numero di invii falliti';
+COMMENT ON COLUMN outbox_events.next_attempt_at IS 'Istante minimo del prossimo tentativo (backoff esponenziale). NULL = subito';
+COMMENT ON COLUMN outbox_events.last_error IS 'Causa dell''ultimo invio fallito';
+COMMENT ON COLUMN outbox_events.dead_letter IS 'Evento parcheggiato dopo il numero massimo di tentativi';
+
+-- L'indice dei pendenti esclude gli eventi parcheggiati.
+DROP INDEX IF EXISTS idx_outbox_unpublished;
+CREATE INDEX IF NOT EXISTS idx_outbox_unpublished
+    ON outbox_events (occurred_at, id) WHERE published = false AND dead_letter = false;
+
+-- Eventi pendenti per aggregato: usato dalla modalità multi-worker per non superare
+-- un evento precedente dello stesso aggregato in attesa di retry.
+CREATE INDEX IF NOT EXISTS idx_outbox_pending_aggregate
+    ON outbox_events (aggregate_type, aggregate_id, occurred_at) WHERE published = false;
+
+-- Elenco dei dead letter per l'endpoint amministrativo.
+CREATE INDEX IF NOT EXISTS idx_outbox_dead_letter
+    ON outbox_events (occurred_at) WHERE dead_letter = true AND published = false;
@@ -0,0 +1,7 @@
+-- V16__outbox_id_sequence_pooled.sql
+-- Gli id degli eventi outbox sono allocati da Hibernate a blocchi di 50 dalla sequenza
+-- (ottimizzatore pooled): più eventi nella stessa transazione vengono inseriti con un
+-- unico batch JDBC invece di un INSERT ... RETURNING per evento.
+-- L'incremento deve coincidere con allocationSize di OutboxEvent.
+
+ALTER SEQUENCE outbox_events_id_seq INCREMENT BY 50;
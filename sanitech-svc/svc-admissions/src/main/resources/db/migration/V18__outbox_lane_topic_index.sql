@@ -0,0 +1,6 @@
+-- V18__outbox_lane_topic_index.sql
+-- Corsie di pubblicazione (sanitech.outbox.publisher.lanes): ogni corsia preleva solo gli eventi
+-- dei propri topic. L'indice per topic evita che una corsia urgente scorra il backlog degli altri topic.
+
+CREATE INDEX IF NOT EXISTS idx_outbox_pending_topic
+    ON outbox_events (topic, occurred_at, id) WHERE published = false AND dead_letter = false;
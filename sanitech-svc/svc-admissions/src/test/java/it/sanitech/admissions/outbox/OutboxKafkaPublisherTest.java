@@ -1,23 +1,33 @@
 package it.sanitech.admissions.outbox;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import it.sanitech.outbox.autoconfigure.OutboxProperties;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
 import it.sanitech.outbox.publisher.OutboxKafkaPublisher;
 import it.sanitech.outbox.publisher.OutboxKafkaSender;
+import it.sanitech.outbox.utilities.OutboxConstants;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -61,7 +71,137 @@ class OutboxKafkaPublisherTest {
         publisher.publishBatch();
 
         verify(sender).sendSync(props.getPublisher().getTopic(), evt, props.getPublisher().getSendTimeoutMs());
-        verify(outboxRepository).markPublished(eq(List.of(1L)), any());
+        verify(outboxRepository).markPublished(eq(List.of(1L)), any(), any(), any());
         assertThat(evt.isPublished()).isFalse();
     }
+
+    @Test
+    void publishBatch_fansOutToEveryTopicAndRecordsPartialDelivery() {
+        OutboxRepository outboxRepository = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.setEnabled(true);
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setSendTimeoutMs(1000);
+        props.getPublisher().setTopic("admissions.events");
+
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode routes = mapper.createObjectNode();
+        routes.putArray("audits.events").add("admissionId");
+        routes.putNull("payments.events");
+
+        OutboxEvent evt = OutboxEvent.builder()
+                .id(1L)
+                .aggregateType("ADMISSION")
+                .aggregateId("1")
+                .eventType("ADMISSION_DISCHARGED")
+                .payload(mapper.createObjectNode().put("admissionId", 1).put("patientName", "Mario Rossi"))
+                .routes(routes)
+                .occurredAt(Instant.now())
+                .published(false)
+                .build();
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+
+        when(outboxRepository.lockBatch(100)).thenReturn(List.of(evt));
+        doThrow(new IllegalStateException("broker non disponibile"))
+                .when(sender).sendSync(eq("payments.events"), any(), anyLong());
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, outboxRepository, sender, props, registry);
+        publisher.publishBatch();
+
+        ArgumentCaptor<OutboxEvent> auditMessage = ArgumentCaptor.forClass(OutboxEvent.class);
+        verify(sender).sendSync(eq("audits.events"), auditMessage.capture(), anyLong());
+        assertThat(auditMessage.getValue().getPayload().has("admissionId")).isTrue();
+        assertThat(auditMessage.getValue().getPayload().has("patientName")).isFalse();
+        verify(sender).sendSync("payments.events", evt, 1000);
+
+        verify(outboxRepository).recordDeliveredTopics(eq(1L), any(), eq("[\"audits.events\"]"));
+        verify(outboxRepository).recordFailure(eq(1L), any(), eq(1), any(), any(), eq(false));
+        verify(outboxRepository, never()).markPublished(any(), any(), any(), any());
+        assertThat(registry.get("sanitech.outbox.partial_deliveries").counter().count()).isEqualTo(1.0);
+        assertThat(registry.find("sanitech.outbox.published").counter()).isNull();
+
+        // Al nuovo tentativo viene inviato solo il topic mancante.
+        evt.setDeliveredTopics(mapper.createArrayNode().add("audits.events"));
+        evt.setAttempts(1);
+        reset(sender);
+        publisher.publishBatch();
+
+        verify(sender).sendSync("payments.events", evt, 1000);
+        verify(sender, never()).sendSync(eq("audits.events"), any(), anyLong());
+        verify(outboxRepository).markPublished(eq(List.of(1L)), any(), any(), any());
+        assertThat(registry.get("sanitech.outbox.published").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void lane_publishes_fan_out_events_with_a_lane_destination_to_every_topic() {
+        OutboxRepository outboxRepository = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setSendTimeoutMs(1000);
+        props.getPublisher().setTopic("admissions.events");
+        OutboxProperties.Lane urgent = new OutboxProperties.Lane();
+        urgent.setName("urgent");
+        urgent.setTopics(List.of("notifications.events"));
+        urgent.setBatchSize(20);
+        props.getPublisher().setLanes(List.of(urgent));
+
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode routes = mapper.createObjectNode();
+        routes.putNull("admissions.events");
+        routes.putNull("notifications.events");
+
+        OutboxEvent evt = OutboxEvent.builder()
+                .id(7L)
+                .aggregateType("ADMISSION")
+                .aggregateId("3")
+                .eventType("ADMISSION_DISCHARGED")
+                .payload(mapper.createObjectNode().put("admissionId", 3))
+                .routes(routes)
+                .occurredAt(Instant.now())
+                .published(false)
+                .build();
+
+        when(tx.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        when(outboxRepository.tryLockShard(OutboxConstants.LANE_LOCK_NAMESPACE, 1)).thenReturn(true);
+        when(outboxRepository.lockLaneShardBatch(List.of("notifications.events"), 4, 1, 20)).thenReturn(List.of(evt));
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, outboxRepository, sender, props, new SimpleMeterRegistry());
+
+        assertThat(publisher.publishLaneShard(0, 1, 4)).isEqualTo(1);
+        verify(sender).sendSync("notifications.events", evt, 1000);
+        verify(sender).sendSync("admissions.events", evt, 1000);
+        verify(outboxRepository).markPublished(eq(List.of(7L)), any(), any(), any());
+
+        // Le query delle corsie prelevano gli eventi con fan-out verso i loro topic, le altre li escludono.
+        assertThat(OutboxRepository.ON_LANE).contains("jsonb_object_keys(o.routes)");
+        assertThat(queryOf("lockLaneShardBatch")).contains(OutboxRepository.ON_LANE);
+        assertThat(queryOf("lockBatchExcluding")).contains(OutboxRepository.OFF_LANES);
+        assertThat(queryOf("lockShardBatchExcluding")).contains(OutboxRepository.OFF_LANES);
+        assertThat(queryOf("lockByIdsExcluding")).contains(OutboxRepository.OFF_LANES);
+    }
+
+    private static String queryOf(String method) {
+        return Arrays.stream(OutboxRepository.class.getMethods())
+                .filter(m -> m.getName().equals(method))
+                .findFirst()
+                .orElseThrow()
+                .getAnnotation(Query.class)
+                .value();
+    }
 }
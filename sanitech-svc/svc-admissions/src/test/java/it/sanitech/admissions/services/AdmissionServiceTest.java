@@ -20,7 +20,9 @@ import it.sanitech.admissions.services.mapper.AdmissionMapper;
 import it.sanitech.commons.exception.ConflictException;
 import it.sanitech.commons.security.DeptGuard;
 import it.sanitech.outbox.core.DomainEventPublisher;
+import it.sanitech.outbox.core.TopicRoute;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import org.junit.jupiter.api.Test;
@@ -178,14 +180,17 @@ class AdmissionServiceTest {
         assertThat(admissionCaptor.getValue().getStatus()).isEqualTo(AdmissionStatus.DISCHARGED);
 
         verify(deptGuard).checkCanManage("WARD", auth);
-        verify(domainEvents).publish(
-                eq("ADMISSION"),
-                eq("5"),
-                eq("ADMISSION_DISCHARGED"),
-                any(Map.class),
-                eq("audits.events"),
-                (org.springframework.security.core.Authentication) any()
-        );
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<TopicRoute>> routesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(domainEvents).publishToTopics(eq("ADMISSION"), eq("5"), eq("ADMISSION_DISCHARGED"),
+                any(), routesCaptor.capture(), eq(auth));
+        assertThat(routesCaptor.getValue())
+                .extracting(TopicRoute::topic)
+                .containsExactly("audits.events", "payments.events", "notifications.events");
+        assertThat(routesCaptor.getValue().get(0).fields())
+                .contains("admissionId")
+                .doesNotContain("patientName", "patientEmail");
     }
 
     @Test
@@ -1,6 +1,8 @@
 package it.sanitech.audit;
 
+import it.sanitech.audit.archive.AuditArchiveProperties;
 import it.sanitech.audit.ingestion.AuditIngestionProperties;
+import it.sanitech.audit.partitions.AuditPartitionProperties;
 import it.sanitech.commons.boot.EnableSanitechPlatform;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import org.springframework.boot.SpringApplication;
@@ -19,7 +21,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
  */
 @SpringBootApplication
 @EnableSanitechPlatform
-@EnableConfigurationProperties(AuditIngestionProperties.class)
+@EnableConfigurationProperties({AuditIngestionProperties.class, AuditPartitionProperties.class, AuditArchiveProperties.class})
 @EnableScheduling
 @EntityScan(basePackages = {
         "it.sanitech.audit.repositories.entities",
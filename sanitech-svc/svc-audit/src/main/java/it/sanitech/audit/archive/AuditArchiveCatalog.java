@@ -0,0 +1,67 @@
+package it.sanitech.audit.archive;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Catalogo dei mesi archiviati ({@code audit_archives}): per ogni partizione eliminata dal DB registra
+ * l'intervallo coperto e l'oggetto S3 che la contiene, così la lettura sa quali file aprire senza
+ * elencare il bucket.
+ */
+@Repository
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "sanitech.audit.archive", name = "enabled", havingValue = "true")
+public class AuditArchiveCatalog {
+
+    private static final String INSERT_SQL = "INSERT INTO audit_archives " +
+            "(range_start, range_end, object_key, event_count, size_bytes) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (range_start) DO NOTHING";
+
+    private static final String OVERLAPPING_SQL = "SELECT range_start, range_end, object_key, event_count " +
+            "FROM audit_archives WHERE range_end > ? AND range_start <= ? ORDER BY range_start DESC";
+
+    private static final String ARCHIVED_UNTIL_SQL = "SELECT max(range_end) FROM audit_archives";
+
+    private final JdbcTemplate jdbc;
+
+    /**
+     * Mese archiviato: intervallo {@code [rangeStart, rangeEnd)} contenuto nell'oggetto {@code objectKey}.
+     */
+    public record ArchivedRange(Instant rangeStart, Instant rangeEnd, String objectKey, long eventCount) { }
+
+    public void record(ArchivedRange range, long sizeBytes) {
+        jdbc.update(INSERT_SQL,
+                Timestamp.from(range.rangeStart()),
+                Timestamp.from(range.rangeEnd()),
+                range.objectKey(),
+                range.eventCount(),
+                sizeBytes);
+    }
+
+    /**
+     * Mesi archiviati che si sovrappongono a {@code [from, to]}, dal più recente.
+     */
+    public List<ArchivedRange> overlapping(Instant from, Instant to) {
+        return jdbc.query(OVERLAPPING_SQL, (rs, rowNum) -> new ArchivedRange(
+                        rs.getTimestamp("range_start").toInstant(),
+                        rs.getTimestamp("range_end").toInstant(),
+                        rs.getString("object_key"),
+                        rs.getLong("event_count")),
+                Timestamp.from(from), Timestamp.from(to));
+    }
+
+    /**
+     * Fine del mese archiviato più recente: gli eventi precedenti non sono più nel DB.
+     */
+    public Optional<Instant> archivedUntil() {
+        Timestamp until = jdbc.queryForObject(ARCHIVED_UNTIL_SQL, Timestamp.class);
+        return Optional.ofNullable(until).map(Timestamp::toInstant);
+    }
+}
@@ -0,0 +1,38 @@
+package it.sanitech.audit.archive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.net.URI;
+
+/**
+ * Client S3 (compatibile MinIO) dell'archivio freddo, creato solo con archiviazione abilitata.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "sanitech.audit.archive", name = "enabled", havingValue = "true")
+public class AuditArchiveConfig {
+
+    @Bean
+    public S3Client auditArchiveS3Client(AuditArchiveProperties props) {
+        AuditArchiveProperties.S3 s3 = props.getS3();
+
+        S3Configuration s3cfg = S3Configuration.builder()
+                .pathStyleAccessEnabled(s3.isPathStyleAccess())
+                .build();
+
+        return S3Client.builder()
+                .endpointOverride(URI.create(s3.getEndpoint()))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(s3.getAccessKey(), s3.getSecretKey())
+                ))
+                .serviceConfiguration(s3cfg)
+                .region(Region.of(s3.getRegion()))
+                .build();
+    }
+}
@@ -0,0 +1,237 @@
+package it.sanitech.audit.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.sanitech.audit.services.dto.AuditEventDto;
+import it.sanitech.audit.services.export.AuditExportFormat;
+import it.sanitech.audit.services.export.AuditExportWriter;
+import it.sanitech.audit.utilities.AppConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archiviazione a freddo delle partizioni mensili di {@code audit_events}.
+ *
+ * <p>
+ * Ogni notte le partizioni più vecchie di {@code archiveAfterMonths} (ancora collegate o già staccate dal
+ * job delle partizioni come {@code audit_events_archive_YYYYMM}) vengono esportate in NDJSON gzip su S3/MinIO,
+ * registrate in {@code audit_archives} ed eliminate dal DB. La tabella calda e i backup restano così
+ * limitati agli ultimi mesi; gli eventi archiviati restano consultabili tramite {@link AuditArchiveReader}.
+ * </p>
+ *
+ * <p>
+ * L'export legge la partizione con un cursore lato server senza bloccarla. Il DROP avviene solo dopo il
+ * caricamento verificato dell'oggetto e solo se, con la tabella bloccata, il numero di righe coincide con
+ * quello esportato: eventi arrivati in ritardo durante l'export rimandano il mese all'esecuzione successiva.
+ * La fase finale usa lo stesso advisory lock della manutenzione partizioni.
+ * </p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "sanitech.audit.archive", name = "enabled", havingValue = "true")
+public class AuditArchiveJob {
+
+    private static final Pattern MONTHLY_TABLE = Pattern.compile("audit_events_(?:archive_)?(\\d{6})");
+    private static final DateTimeFormatter MONTH_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    // Partizioni collegate e tabelle già staccate: i nomi sono poi validati da MONTHLY_TABLE.
+    private static final String SQL_CANDIDATES = "SELECT c.relname FROM pg_class c " +
+            "WHERE c.relkind = 'r' AND pg_table_is_visible(c.oid) " +
+            "AND c.relname ~ '^audit_events_(archive_)?[0-9]{6}$'";
+    private static final String SQL_TRY_LOCK = "SELECT pg_try_advisory_xact_lock(?)";
+    private static final String SQL_EXISTS = "SELECT to_regclass(?) IS NOT NULL";
+    private static final String SQL_ROWS = "SELECT id, occurred_at, source, actor_type, actor_id, action, " +
+            "resource_type, resource_id, outcome, ip, trace_id, details FROM %s ORDER BY occurred_at, id";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AuditArchiveStore store;
+    private final AuditArchiveCatalog catalog;
+    private final AuditArchiveProperties props;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock = Clock.systemUTC();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            store.ensureBucket();
+        } catch (Exception ex) {
+            log.warn("Audit: verifica del bucket di archivio non riuscita. Causa: {}", ex.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${sanitech.audit.archive.cron:0 0 4 * * *}")
+    public void runArchival() {
+        YearMonth oldestKept = YearMonth.now(clock).minusMonths(props.getArchiveAfterMonths());
+        Map<YearMonth, String> candidates;
+        try {
+            candidates = eligibleTables(jdbc.queryForList(SQL_CANDIDATES, String.class), oldestKept);
+        } catch (Exception ex) {
+            log.error("Audit: elenco delle partizioni da archiviare non riuscito. Causa: {}", ex.getMessage(), ex);
+            return;
+        }
+
+        // Un mese alla volta, dal più vecchio: un errore non blocca gli altri.
+        candidates.forEach((month, table) -> {
+            try {
+                archive(table, month);
+            } catch (Exception ex) {
+                log.error("Audit: archiviazione di {} non riuscita. Causa: {}", table, ex.getMessage(), ex);
+            }
+        });
+    }
+
+    /**
+     * Tabelle mensili interamente precedenti a {@code oldestKept}, per mese crescente.
+     */
+    static Map<YearMonth, String> eligibleTables(List<String> tables, YearMonth oldestKept) {
+        Map<YearMonth, String> eligible = new TreeMap<>();
+        for (String table : tables) {
+            Matcher matcher = MONTHLY_TABLE.matcher(table);
+            if (!matcher.matches()) {
+                continue;
+            }
+            YearMonth month = YearMonth.parse(matcher.group(1), MONTH_SUFFIX);
+            if (month.isBefore(oldestKept)) {
+                eligible.putIfAbsent(month, table);
+            }
+        }
+        return eligible;
+    }
+
+    static String objectKey(String prefix, YearMonth month) {
+        return prefix + month.getYear() + "/audit_events_" + month.format(MONTH_SUFFIX) + ".ndjson.gz";
+    }
+
+    void archive(String table, YearMonth month) throws IOException {
+        Path file = Files.createTempFile("audit-archive-", ".ndjson.gz");
+        try {
+            long count = exportTo(table, file);
+            Instant start = month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            Instant end = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+            AuditArchiveCatalog.ArchivedRange range = null;
+            long size = 0;
+            if (count > 0) {
+                range = new AuditArchiveCatalog.ArchivedRange(start, end, objectKey(props.getKeyPrefix(), month), count);
+                size = store.upload(range.objectKey(), file);
+            }
+
+            if (dropArchived(table, count, range, size)) {
+                meterRegistry.counter(AppConstants.Audit.METRIC_AUDIT_ARCHIVED).increment(count);
+                log.info("Audit: {} archiviata ({} eventi, {} byte) ed eliminata dal DB.", table, count, size);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Scrive le righe della tabella in NDJSON gzip, nello stesso formato dell'export.
+     */
+    private long exportTo(String table, Path file) {
+        AtomicLong count = new AtomicLong();
+        tx.executeWithoutResult(status -> {
+            try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), FILE_BUFFER_SIZE);
+                 AuditExportWriter writer = AuditExportWriter.open(AuditExportFormat.NDJSON, out, objectMapper)) {
+                jdbc.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(String.format(SQL_ROWS, table));
+                    ps.setFetchSize(AppConstants.Audit.EXPORT_FETCH_SIZE);
+                    return ps;
+                }, rs -> {
+                    try {
+                        writer.write(toDto(rs));
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    count.incrementAndGet();
+                });
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+        return count.get();
+    }
+
+    /**
+     * Registra il mese nel catalogo ed elimina la tabella, se nel frattempo non è cambiata.
+     */
+    private boolean dropArchived(String table, long exported, AuditArchiveCatalog.ArchivedRange range, long size) {
+        Boolean dropped = tx.execute(status -> {
+            Boolean locked = jdbc.queryForObject(SQL_TRY_LOCK, Boolean.class, AppConstants.Audit.PARTITION_LOCK_KEY);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.debug("Audit: manutenzione partizioni in corso su un'altra istanza, {} rimandata.", table);
+                return false;
+            }
+            if (!Boolean.TRUE.equals(jdbc.queryForObject(SQL_EXISTS, Boolean.class, table))) {
+                return false;
+            }
+            jdbc.execute("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+            Long current = jdbc.queryForObject("SELECT count(*) FROM " + table, Long.class);
+            if (current == null || current != exported) {
+                log.warn("Audit: {} modificata durante l'archiviazione ({} righe, {} esportate), rimandata.",
+                        table, current, exported);
+                return false;
+            }
+            if (range != null) {
+                catalog.record(range, size);
+            }
+            jdbc.execute("DROP TABLE " + table);
+            return true;
+        });
+        return Boolean.TRUE.equals(dropped);
+    }
+
+    private AuditEventDto toDto(ResultSet rs) throws SQLException {
+        String details = rs.getString("details");
+        try {
+            return new AuditEventDto(
+                    rs.getLong("id"),
+                    rs.getTimestamp("occurred_at").toInstant(),
+                    rs.getString("source"),
+                    rs.getString("actor_type"),
+                    rs.getString("actor_id"),
+                    rs.getString("action"),
+                    rs.getString("resource_type"),
+                    rs.getString("resource_id"),
+                    rs.getString("outcome"),
+                    rs.getString("ip"),
+                    rs.getString("trace_id"),
+                    details == null ? null : objectMapper.readTree(details));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
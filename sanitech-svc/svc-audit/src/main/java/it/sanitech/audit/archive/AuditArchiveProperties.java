@@ -0,0 +1,150 @@
+package it.sanitech.audit.archive;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configurazione dell'archivio freddo: partizioni mensili di {@code audit_events} esportate su S3/MinIO
+ * come NDJSON compresso e poi eliminate da Postgres.
+ */
+@ConfigurationProperties(prefix = "sanitech.audit.archive")
+public class AuditArchiveProperties {
+
+    /**
+     * Abilita job di archiviazione e lettura degli eventi archiviati.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Mesi dopo i quali una partizione viene archiviata ed eliminata dal DB (oltre al mese corrente).
+     */
+    private int archiveAfterMonths = 12;
+
+    /**
+     * Prefisso delle chiavi degli oggetti nel bucket.
+     */
+    private String keyPrefix = "audit-events/";
+
+    /**
+     * Numero di file archiviati letti in parallelo da una ricerca.
+     */
+    private int readParallelism = 4;
+
+    private final S3 s3 = new S3();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getArchiveAfterMonths() {
+        return archiveAfterMonths;
+    }
+
+    public void setArchiveAfterMonths(int archiveAfterMonths) {
+        this.archiveAfterMonths = archiveAfterMonths;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public int getReadParallelism() {
+        return readParallelism;
+    }
+
+    public void setReadParallelism(int readParallelism) {
+        this.readParallelism = readParallelism;
+    }
+
+    public S3 getS3() {
+        return s3;
+    }
+
+    /**
+     * Connessione S3/MinIO, con gli stessi parametri dello storage di {@code svc-docs}.
+     */
+    public static class S3 {
+
+        /** Endpoint HTTP di S3/MinIO (es. {@code http://localhost:9000}). */
+        private String endpoint = "http://localhost:9000";
+
+        /** Region (obbligatoria per AWS SDK; per MinIO può essere un valore qualsiasi). */
+        private String region = "us-east-1";
+
+        private String accessKey = "minio";
+
+        private String secretKey = "minio123";
+
+        /** Bucket dell'archivio audit. */
+        private String bucket = "sanitech-audit-archive";
+
+        /** Abilita path-style (consigliato per MinIO). */
+        private boolean pathStyleAccess = true;
+
+        /** Se true, crea il bucket all'avvio se non esiste (solo per ambienti controllati). */
+        private boolean autoCreateBucket = false;
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public void setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        public String getAccessKey() {
+            return accessKey;
+        }
+
+        public void setAccessKey(String accessKey) {
+            this.accessKey = accessKey;
+        }
+
+        public String getSecretKey() {
+            return secretKey;
+        }
+
+        public void setSecretKey(String secretKey) {
+            this.secretKey = secretKey;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        public boolean isPathStyleAccess() {
+            return pathStyleAccess;
+        }
+
+        public void setPathStyleAccess(boolean pathStyleAccess) {
+            this.pathStyleAccess = pathStyleAccess;
+        }
+
+        public boolean isAutoCreateBucket() {
+            return autoCreateBucket;
+        }
+
+        public void setAutoCreateBucket(boolean autoCreateBucket) {
+            this.autoCreateBucket = autoCreateBucket;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package it.sanitech.audit.archive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import it.sanitech.audit.repositories.spec.AuditEventSpecifications;
+import it.sanitech.audit.services.AuditCursor;
+import it.sanitech.audit.services.dto.AuditEventDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lettura degli eventi archiviati su S3/MinIO.
+ *
+ * <p>
+ * Il catalogo indica quali mesi archiviati si sovrappongono all'intervallo richiesto; i file
+ * corrispondenti sono letti in parallelo (fino a {@code readParallelism}) in streaming, filtrati
+ * e ridotti agli ultimi {@code limit} eventi per file, così la memoria resta proporzionale al limite
+ * e non alla dimensione dell'archivio.
+ * </p>
+ * <p>
+ * Non espone un'API propria: la ricerca a cursore e l'export di {@code AuditService} lo consultano quando
+ * {@code from} precede {@link #archivedUntil()}, applicando gli stessi filtri (anche su {@code details}).
+ * </p>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "sanitech.audit.archive", name = "enabled", havingValue = "true")
+public class AuditArchiveReader implements DisposableBean {
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /** Ordine dei risultati, come la ricerca a cursore: dal più recente. */
+    private static final Comparator<AuditEventDto> NEWEST_FIRST = Comparator
+            .comparing(AuditEventDto::occurredAt)
+            .thenComparing(AuditEventDto::id)
+            .reversed();
+
+    private final AuditArchiveCatalog catalog;
+    private final AuditArchiveStore store;
+    private final ObjectReader reader;
+    private final ExecutorService executor;
+
+    public AuditArchiveReader(AuditArchiveCatalog catalog,
+                              AuditArchiveStore store,
+                              ObjectMapper objectMapper,
+                              AuditArchiveProperties props) {
+        this.catalog = catalog;
+        this.store = store;
+        this.reader = objectMapper.readerFor(AuditEventDto.class);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(props.getReadParallelism(), runnable -> {
+            Thread thread = new Thread(runnable, "audit-archive-reader-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fine del mese archiviato più recente, vedi {@link AuditArchiveCatalog#archivedUntil()}.
+     */
+    public Optional<Instant> archivedUntil() {
+        return catalog.archivedUntil();
+    }
+
+    /**
+     * Eventi archiviati che soddisfano i filtri (inclusi quelli su {@code details}) nell'intervallo
+     * {@code [from, to]}, dal più recente.
+     *
+     * @param to     estremo superiore, {@code null} per "fino ad ora"
+     * @param before cursore della ricerca: solo eventi che lo seguono in ordine decrescente, {@code null} per nessuno
+     */
+    @Bulkhead(name = "auditExport")
+    public List<AuditEventDto> search(
+            String actorId,
+            String action,
+            String resourceType,
+            String resourceId,
+            String outcome,
+            Instant from,
+            Instant to,
+            Map<String, String> details,
+            AuditCursor before,
+            int limit
+    ) {
+        Objects.requireNonNull(from, "from obbligatorio");
+        Instant upper = to != null ? to : Instant.now();
+        AuditEventDto after = before == null ? null : cursorKey(before);
+        Predicate<AuditEventDto> filter = filter(actorId, action, resourceType, resourceId, outcome, from, upper, details)
+                .and(e -> after == null || NEWEST_FIRST.compare(e, after) > 0);
+
+        List<AuditArchiveCatalog.ArchivedRange> ranges = catalog.overlapping(from, upper);
+        List<CompletableFuture<Deque<AuditEventDto>>> scans = ranges.stream()
+                .map(range -> CompletableFuture.supplyAsync(() -> scan(range.objectKey(), filter, limit), executor))
+                .toList();
+
+        List<AuditEventDto> merged = new ArrayList<>();
+        try {
+            scans.forEach(scan -> merged.addAll(scan.join()));
+        } catch (CompletionException ex) {
+            scans.forEach(scan -> scan.cancel(true));
+            throw new IllegalStateException("Lettura dell'archivio audit non riuscita: " + ex.getCause().getMessage(), ex.getCause());
+        }
+
+        log.debug("Audit: ricerca in archivio su {} file, {} eventi candidati.", ranges.size(), merged.size());
+        return merged.stream().sorted(NEWEST_FIRST).limit(limit).toList();
+    }
+
+    /**
+     * Passa a {@code consumer} gli eventi archiviati che soddisfano i filtri, in ordine {@code (occurredAt, id)}
+     * crescente, per l'export.
+     *
+     * <p>
+     * I file sono letti uno alla volta in streaming, dal mese più vecchio: la memoria non dipende dal numero
+     * di eventi. Il bulkhead è quello dell'export chiamante.
+     * </p>
+     *
+     * @return numero di eventi passati a {@code consumer}
+     */
+    public long forEach(
+            String actorId,
+            String action,
+            String resourceType,
+            String resourceId,
+            String outcome,
+            Instant from,
+            Instant to,
+            Map<String, String> details,
+            Consumer<AuditEventDto> consumer
+    ) {
+        Objects.requireNonNull(from, "from obbligatorio");
+        Instant upper = to != null ? to : Instant.now();
+        Predicate<AuditEventDto> filter = filter(actorId, action, resourceType, resourceId, outcome, from, upper, details);
+
+        List<AuditArchiveCatalog.ArchivedRange> ranges = new ArrayList<>(catalog.overlapping(from, upper));
+        Collections.reverse(ranges);
+
+        long count = 0;
+        for (AuditArchiveCatalog.ArchivedRange range : ranges) {
+            try (InputStream in = new GZIPInputStream(store.open(range.objectKey()), FILE_BUFFER_SIZE);
+                 MappingIterator<AuditEventDto> events = reader.readValues(in)) {
+                while (events.hasNextValue()) {
+                    AuditEventDto event = events.nextValue();
+                    if (filter.test(event)) {
+                        consumer.accept(event);
+                        count++;
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Lettura di " + range.objectKey() + " non riuscita", ex);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Legge un file (ordinato per {@code occurredAt} crescente) e restituisce gli ultimi {@code limit} eventi
+     * che soddisfano il filtro.
+     */
+    Deque<AuditEventDto> scan(String key, Predicate<AuditEventDto> filter, int limit) {
+        Deque<AuditEventDto> newest = new ArrayDeque<>(Math.min(limit, 1024) + 1);
+        try (InputStream in = new GZIPInputStream(store.open(key), FILE_BUFFER_SIZE);
+             MappingIterator<AuditEventDto> events = reader.readValues(in)) {
+            while (events.hasNextValue()) {
+                AuditEventDto event = events.nextValue();
+                if (filter.test(event)) {
+                    newest.addLast(event);
+                    if (newest.size() > limit) {
+                        newest.removeFirst();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Lettura di " + key + " non riuscita", ex);
+        }
+        return newest;
+    }
+
+    private static Predicate<AuditEventDto> filter(
+            String actorId,
+            String action,
+            String resourceType,
+            String resourceId,
+            String outcome,
+            Instant from,
+            Instant upper,
+            Map<String, String> details
+    ) {
+        Predicate<JsonNode> detailsMatch = AuditEventSpecifications.detailsMatch(details);
+        return e -> !e.occurredAt().isBefore(from) && !e.occurredAt().isAfter(upper)
+                && matches(actorId, e.actorId())
+                && matches(action, e.action())
+                && matches(resourceType, e.resourceType())
+                && matches(resourceId, e.resourceId())
+                && matches(outcome, e.outcome())
+                && detailsMatch.test(e.details());
+    }
+
+    private static AuditEventDto cursorKey(AuditCursor cursor) {
+        return new AuditEventDto(cursor.id(), cursor.occurredAt(), null, null, null, null, null, null, null, null, null, null);
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return expected == null || expected.equals(actual);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
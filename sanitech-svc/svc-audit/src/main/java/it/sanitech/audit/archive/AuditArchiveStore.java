@@ -0,0 +1,81 @@
+package it.sanitech.audit.archive;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Accesso agli oggetti dell'archivio freddo su S3/MinIO.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "sanitech.audit.archive", name = "enabled", havingValue = "true")
+public class AuditArchiveStore {
+
+    private static final String CONTENT_TYPE = "application/gzip";
+
+    private final S3Client auditArchiveS3Client;
+    private final AuditArchiveProperties props;
+
+    /**
+     * Crea il bucket se assente e se consentito da {@code auto-create-bucket}.
+     */
+    public void ensureBucket() {
+        String bucket = props.getS3().getBucket();
+        try {
+            auditArchiveS3Client.headBucket(HeadBucketRequest.builder().bucket(bucket).build());
+        } catch (NoSuchBucketException ex) {
+            if (!props.getS3().isAutoCreateBucket()) {
+                throw new IllegalStateException("Bucket dell'archivio audit non presente: " + bucket, ex);
+            }
+            log.warn("Audit: bucket di archivio non presente, creazione in corso: {}", bucket);
+            auditArchiveS3Client.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+        }
+    }
+
+    /**
+     * Carica il file e verifica che l'oggetto salvato abbia la stessa dimensione.
+     *
+     * @return dimensione in byte dell'oggetto
+     */
+    public long upload(String key, Path file) throws IOException {
+        long size = Files.size(file);
+        auditArchiveS3Client.putObject(PutObjectRequest.builder()
+                        .bucket(props.getS3().getBucket())
+                        .key(key)
+                        .contentType(CONTENT_TYPE)
+                        .build(),
+                RequestBody.fromFile(file));
+
+        Long stored = auditArchiveS3Client.headObject(HeadObjectRequest.builder()
+                .bucket(props.getS3().getBucket())
+                .key(key)
+                .build()).contentLength();
+        if (stored == null || stored != size) {
+            throw new IOException("Oggetto di archivio " + key + " incompleto: " + stored + " byte su " + size);
+        }
+        return size;
+    }
+
+    public InputStream open(String key) {
+        return auditArchiveS3Client.getObject(GetObjectRequest.builder()
+                .bucket(props.getS3().getBucket())
+                .key(key)
+                .build());
+    }
+}
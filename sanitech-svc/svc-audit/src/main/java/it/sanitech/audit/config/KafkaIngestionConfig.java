@@ -0,0 +1,90 @@
+package it.sanitech.audit.config;
+
+import it.sanitech.audit.ingestion.AuditIngestionProperties;
+import it.sanitech.audit.utilities.AppConstants;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
+
+import java.util.Map;
+
+/**
+ * Container factory del listener batch di ingestion audit.
+ *
+ * <p>
+ * Riusa la configurazione {@code spring.kafka.consumer.*} con {@code max.poll.records} e concorrenza
+ * da {@code sanitech.audit.ingestion.batch.*}; gli offset sono committati a fine batch ({@code AckMode.BATCH}).
+ * </p>
+ *
+ * <p>
+ * Un listener batch non può usare i topic di retry non bloccanti: un batch che fallisce viene ritentato
+ * sul posto con attese esponenziali e, esauriti i tentativi, i suoi messaggi vanno sul topic di dead letter
+ * ({@code sanitech.audit.ingestion.dead-letter.*}) così la partizione non resta ferma. Il replay li ripubblica
+ * sul topic di retry, che il listener batch legge insieme ai topic di ingestion.
+ * </p>
+ */
+@Configuration
+@ConditionalOnExpression("${sanitech.audit.ingestion.enabled:true} and ${sanitech.audit.ingestion.batch.enabled:true}")
+public class KafkaIngestionConfig {
+
+    @Bean(name = AppConstants.Audit.BATCH_LISTENER_FACTORY)
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> auditBatchListenerContainerFactory(
+            KafkaProperties kafkaProperties,
+            ObjectProvider<SslBundles> sslBundles,
+            AuditIngestionProperties props,
+            BeanFactory beanFactory) {
+        Map<String, Object> consumerProps = kafkaProperties.buildConsumerProperties(sslBundles.getIfAvailable());
+        consumerProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, props.getBatch().getMaxPollRecords());
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(consumerProps));
+        factory.setBatchListener(true);
+        factory.setConcurrency(props.getBatch().getConcurrency());
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        factory.setCommonErrorHandler(deadLetterErrorHandler(props.getDeadLetter(), beanFactory));
+        return factory;
+    }
+
+    @Bean
+    public NewTopic auditIngestionDeadLetterTopic(AuditIngestionProperties props) {
+        return TopicBuilder.name(props.getDeadLetter().getTopic()).build();
+    }
+
+    @Bean
+    public NewTopic auditIngestionRetryTopic(AuditIngestionProperties props) {
+        return TopicBuilder.name(props.getDeadLetter().getRetryTopic()).build();
+    }
+
+    private static DefaultErrorHandler deadLetterErrorHandler(AuditIngestionProperties.DeadLetter deadLetter,
+                                                              BeanFactory beanFactory) {
+        // Producer binario della libreria outbox: i messaggi finiscono in dead letter byte per byte.
+        @SuppressWarnings("unchecked")
+        KafkaTemplate<String, byte[]> template =
+                beanFactory.getBean(OutboxConstants.CONSUMER_RETRY_TEMPLATE, KafkaTemplate.class);
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(template,
+                (record, ex) -> new TopicPartition(deadLetter.getTopic(), -1));
+
+        ExponentialBackOffWithMaxRetries backOff = new ExponentialBackOffWithMaxRetries(deadLetter.getMaxRetries());
+        backOff.setInitialInterval(deadLetter.getInitialIntervalMs());
+        backOff.setMultiplier(2.0);
+        backOff.setMaxInterval(deadLetter.getMaxIntervalMs());
+        return new DefaultErrorHandler(recoverer, backOff);
+    }
+}
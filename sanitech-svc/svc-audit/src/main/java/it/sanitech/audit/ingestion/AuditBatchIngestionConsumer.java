@@ -0,0 +1,62 @@
+package it.sanitech.audit.ingestion;
+
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import it.sanitech.audit.utilities.AppConstants;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumer Kafka di ingestion in modalità batch (default).
+ * <p>
+ * Ogni poll del consumer arriva come lista: i messaggi vengono convertiti con
+ * {@link AuditEnvelopeMapper} e scritti con un unico insert batch, scartando i messaggi riconsegnati
+ * ({@link IdempotentAuditWriter}).
+ * Il container committa gli offset solo dopo il ritorno del metodo: se la scrittura fallisce
+ * il batch viene ritentato dall'error handler e, esauriti i tentativi, finisce in dead letter
+ * ({@code sanitech.audit.ingestion.dead-letter.*}), senza perdere eventi.
+ * </p>
+ * <p>
+ * Concorrenza e dimensione del batch: {@code sanitech.audit.ingestion.batch.*}.
+ * </p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnExpression("${sanitech.audit.ingestion.enabled:true} and ${sanitech.audit.ingestion.batch.enabled:true}")
+public class AuditBatchIngestionConsumer {
+
+    private final AuditEnvelopeMapper envelopeMapper;
+    private final IdempotentAuditWriter writer;
+    private final MeterRegistry meterRegistry;
+
+    @KafkaListener(
+            topics = {"${sanitech.audit.ingestion.topics}", "${sanitech.audit.ingestion.dead-letter.retry-topic:audit.ingestion-retry-0}"},
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = AppConstants.Audit.BATCH_LISTENER_FACTORY
+    )
+    public void onBatch(List<ConsumerRecord<String, byte[]>> records) {
+        List<AuditEvent> events = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, byte[]> record : records) {
+            try {
+                events.add(envelopeMapper.toAuditEvent(record));
+            } catch (Exception ex) {
+                // Un messaggio non convertibile non deve bloccare il batch: logghiamo e proseguiamo.
+                log.warn("Ingestion audit fallita (topic={}, offset={}): {}", record.topic(), record.offset(), ex.getMessage());
+            }
+        }
+
+        // Un errore di scrittura propaga: offset non committati, il batch viene riconsegnato.
+        int inserted = writer.write(events);
+        meterRegistry.counter(AppConstants.Audit.METRIC_AUDIT_INGESTED).increment(inserted);
+
+        log.debug("Audit batch ingested: {} eventi su {} messaggi.", inserted, records.size());
+    }
+}
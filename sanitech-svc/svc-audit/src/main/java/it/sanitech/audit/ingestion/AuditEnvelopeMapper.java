@@ -0,0 +1,211 @@
+package it.sanitech.audit.ingestion;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import it.sanitech.audit.utilities.AppConstants;
+import it.sanitech.outbox.codec.JacksonEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Conversione di un messaggio Kafka in {@link AuditEvent}, condivisa dai consumer di ingestion.
+ * <p>
+ * L'envelope Kafka atteso ha la seguente struttura:
+ * <pre>{@code
+ * {
+ *   "aggregateType": "DOCTOR",
+ *   "aggregateId": "123",
+ *   "eventType": "DOCTOR_CREATED",
+ *   "actor": {
+ *     "type": "ADMIN",
+ *     "id": "admin@sanitech.it",
+ *     "name": "Admin User"
+ *   },
+ *   "occurredAt": "2026-02-03T10:00:00Z",
+ *   "payload": { ... }
+ * }
+ * }</pre>
+ * </p>
+ * <p>
+ * Dei messaggi JSON vengono letti in streaming ({@link JsonParser}) solo i campi di intestazione,
+ * saltando il {@code payload} senza materializzarlo; il testo originale del messaggio è conservato così com'è
+ * in {@code details} ({@link AuditEvent#getDetailsJson()}), senza albero né riserializzazione.
+ * I formati binari (Smile/CBOR) sono decodificati con il codec e convertiti in JSON.
+ * </p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AuditEnvelopeMapper {
+
+    private static final String DEFAULT_ACTOR_TYPE = "SYSTEM";
+    private static final String DEFAULT_ACTOR_ID = "system";
+
+    private final ObjectMapper objectMapper;
+    private final OutboxEnvelopeCodecs envelopeCodecs;
+
+    /**
+     * Costruisce l'evento di audit dal messaggio; non lancia eccezioni per envelope malformati.
+     */
+    public AuditEvent toAuditEvent(ConsumerRecord<String, byte[]> record) {
+        EnvelopeHeader header = EnvelopeHeader.EMPTY;
+        String detailsJson = null;
+
+        byte[] value = record.value();
+        if (value != null) {
+            String contentType = OutboxEnvelopeCodecs.contentType(record);
+            try {
+                if (contentType == null || JacksonEnvelopeCodec.JSON.equals(contentType)) {
+                    header = readHeader(objectMapper.getFactory().createParser(value));
+                    detailsJson = new String(value, StandardCharsets.UTF_8);
+                } else {
+                    JsonNode envelope = envelopeCodecs.decode(value, contentType);
+                    header = readHeader(objectMapper.treeAsTokens(envelope));
+                    detailsJson = objectMapper.writeValueAsString(envelope);
+                }
+            } catch (Exception ex) {
+                // Messaggio non decodificabile: conservato come testo grezzo.
+                header = EnvelopeHeader.EMPTY;
+                detailsJson = rawDetails(value);
+            }
+        }
+
+        return AuditEvent.builder()
+                .occurredAt(parseOccurredAt(header.occurredAt(), record))
+                .source(AppConstants.Audit.SOURCE_KAFKA)
+                .actorType(header.actorType() != null ? header.actorType() : DEFAULT_ACTOR_TYPE)
+                .actorId(header.actorId() != null ? header.actorId() : DEFAULT_ACTOR_ID)
+                // L'eventType è usato direttamente come action (es. DOCTOR_CREATED) per filtrare per tipo evento.
+                .action(header.eventType() != null ? header.eventType() : "UNKNOWN")
+                .resourceType(header.aggregateType() != null ? header.aggregateType() : record.topic())
+                .resourceId(header.aggregateId() != null ? header.aggregateId() : record.key())
+                .outcome(AppConstants.Audit.OUTCOME_SUCCESS)
+                .detailsJson(detailsJson)
+                .ingestKey(ingestKey(record))
+                .build();
+    }
+
+    /**
+     * Chiave di idempotenza: id dell'evento outbox a monte (header {@code outbox-event-id}) qualificato dal topic,
+     * così una ripubblicazione dello stesso evento è riconosciuta anche con offset diverso; in assenza
+     * dell'header, la posizione del messaggio {@code topic/partizione/offset}.
+     */
+    static String ingestKey(ConsumerRecord<?, ?> record) {
+        Header eventId = record.headers().lastHeader(OutboxConstants.HEADER_EVENT_ID);
+        if (eventId != null && eventId.value() != null) {
+            return new String(eventId.value(), StandardCharsets.UTF_8) + '@' + record.topic();
+        }
+        return record.topic() + '/' + record.partition() + '/' + record.offset();
+    }
+
+    /**
+     * Legge i campi di intestazione dell'envelope in un'unica passata sui token; gli altri campi
+     * (tipicamente {@code payload}) vengono saltati ma comunque validati dal parser, così il testo
+     * conservato in {@code details} è JSON ben formato.
+     */
+    static EnvelopeHeader readHeader(JsonParser parser) throws IOException {
+        try (parser) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Envelope non è un oggetto JSON");
+            }
+            String eventType = null;
+            String aggregateType = null;
+            String aggregateId = null;
+            String occurredAt = null;
+            String actorType = null;
+            String actorId = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "eventType" -> eventType = scalar(parser, token);
+                    case "aggregateType" -> aggregateType = scalar(parser, token);
+                    case "aggregateId" -> aggregateId = scalar(parser, token);
+                    case "occurredAt" -> occurredAt = scalar(parser, token);
+                    case "actor" -> {
+                        if (token != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            break;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String actorField = parser.currentName();
+                            JsonToken actorToken = parser.nextToken();
+                            switch (actorField) {
+                                case "type" -> actorType = scalar(parser, actorToken);
+                                case "id" -> actorId = scalar(parser, actorToken);
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Contenuto inatteso dopo l'envelope");
+            }
+            return new EnvelopeHeader(eventType, aggregateType, aggregateId, occurredAt, actorType, actorId);
+        }
+    }
+
+    /**
+     * Valore testuale di un campo scalare; {@code null} per null, oggetti e array.
+     */
+    private static String scalar(JsonParser parser, JsonToken token) throws IOException {
+        if (token.isScalarValue()) {
+            return token == JsonToken.VALUE_NULL ? null : parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * Timestamp originale dell'evento; se assente o non valido si usa il timestamp del record Kafka,
+     * stabile tra le riconsegne (fa parte del vincolo di idempotenza), e solo in mancanza l'istante corrente.
+     */
+    private static Instant parseOccurredAt(String occurredAt, ConsumerRecord<?, ?> record) {
+        if (occurredAt != null) {
+            try {
+                return Instant.parse(occurredAt);
+            } catch (Exception e) {
+                log.debug("Impossibile parsare occurredAt: {}", occurredAt);
+            }
+        }
+        return record.timestamp() >= 0 ? Instant.ofEpochMilli(record.timestamp()) : Instant.now();
+    }
+
+    private String rawDetails(byte[] value) {
+        try {
+            return objectMapper.writeValueAsString(
+                    objectMapper.createObjectNode().put("raw", new String(value, StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Serializzazione del messaggio grezzo non riuscita", ex);
+        }
+    }
+
+    /**
+     * Campi di intestazione dell'envelope usati per indicizzare l'evento di audit.
+     */
+    record EnvelopeHeader(String eventType,
+                          String aggregateType,
+                          String aggregateId,
+                          String occurredAt,
+                          String actorType,
+                          String actorId) {
+
+        static final EnvelopeHeader EMPTY = new EnvelopeHeader(null, null, null, null, null, null);
+    }
+}
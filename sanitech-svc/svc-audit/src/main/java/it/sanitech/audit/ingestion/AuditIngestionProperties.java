@@ -18,6 +18,21 @@ public class AuditIngestionProperties {
      */
     private String topics;
 
+    /**
+     * Modalità batch del listener.
+     */
+    private final Batch batch = new Batch();
+
+    /**
+     * Scarto dei messaggi riconsegnati.
+     */
+    private final Dedupe dedupe = new Dedupe();
+
+    /**
+     * Retry e dead letter del listener batch.
+     */
+    private final DeadLetter deadLetter = new DeadLetter();
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -33,4 +48,182 @@ public class AuditIngestionProperties {
     public void setTopics(String topics) {
         this.topics = topics;
     }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Dedupe getDedupe() {
+        return dedupe;
+    }
+
+    public DeadLetter getDeadLetter() {
+        return deadLetter;
+    }
+
+    /**
+     * Ingestion a batch: ogni poll viene decodificato e scritto con un unico insert batch JDBC;
+     * gli offset sono committati solo dopo la scrittura.
+     */
+    public static class Batch {
+
+        /**
+         * Se false si usa il listener a singolo messaggio ({@link AuditIngestionConsumer}).
+         */
+        private boolean enabled = true;
+
+        /**
+         * Numero di consumer concorrenti (non oltre il numero di partizioni dei topic).
+         */
+        private int concurrency = 3;
+
+        /**
+         * Numero massimo di messaggi per poll, cioè per batch scritto su DB.
+         */
+        private int maxPollRecords = 500;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        public int getMaxPollRecords() {
+            return maxPollRecords;
+        }
+
+        public void setMaxPollRecords(int maxPollRecords) {
+            this.maxPollRecords = maxPollRecords;
+        }
+    }
+
+    /**
+     * Deduplica dell'ingestion: un filtro probabilistico in memoria sulle chiavi già scritte evita la
+     * verifica su DB per le chiavi mai viste; il vincolo univoco su {@code ingest_key} resta la garanzia finale.
+     */
+    public static class Dedupe {
+
+        /**
+         * Se false non si usa il filtro e i duplicati sono scartati solo dal vincolo univoco.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Chiavi per generazione del filtro: raggiunta la soglia il filtro ruota e dimentica la generazione
+         * più vecchia, così la memoria resta limitata (circa 1,2 MB per milione di chiavi all'1%).
+         */
+        private int expectedKeys = 1_000_000;
+
+        /**
+         * Probabilità di falso positivo, cioè di una verifica su DB non necessaria.
+         */
+        private double falsePositiveRate = 0.01;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getExpectedKeys() {
+            return expectedKeys;
+        }
+
+        public void setExpectedKeys(int expectedKeys) {
+            this.expectedKeys = expectedKeys;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+    }
+
+    /**
+     * Messaggi che il listener batch non riesce a scrivere: dopo i tentativi bloccanti sul batch
+     * vengono pubblicati sul topic di dead letter e la partizione prosegue. Il replay
+     * ({@code /api/admin/consumers/dead-letters}) li ripubblica sul topic di retry, letto dallo stesso listener.
+     */
+    public static class DeadLetter {
+
+        /**
+         * Topic di dead letter comune a tutti i topic di ingestion.
+         */
+        private String topic = "audit.ingestion-dlt";
+
+        /**
+         * Topic su cui il replay ripubblica i messaggi; deve corrispondere a {@code topic} con suffisso {@code -retry-0}.
+         */
+        private String retryTopic = "audit.ingestion-retry-0";
+
+        /**
+         * Tentativi sul batch dopo il primo, prima della dead letter.
+         */
+        private int maxRetries = 4;
+
+        /**
+         * Attesa prima del primo tentativo (ms), raddoppiata ai successivi.
+         */
+        private long initialIntervalMs = 1000;
+
+        /**
+         * Attesa massima tra due tentativi (ms).
+         */
+        private long maxIntervalMs = 30000;
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        public String getRetryTopic() {
+            return retryTopic;
+        }
+
+        public void setRetryTopic(String retryTopic) {
+            this.retryTopic = retryTopic;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public long getInitialIntervalMs() {
+            return initialIntervalMs;
+        }
+
+        public void setInitialIntervalMs(long initialIntervalMs) {
+            this.initialIntervalMs = initialIntervalMs;
+        }
+
+        public long getMaxIntervalMs() {
+            return maxIntervalMs;
+        }
+
+        public void setMaxIntervalMs(long maxIntervalMs) {
+            this.maxIntervalMs = maxIntervalMs;
+        }
+    }
 }
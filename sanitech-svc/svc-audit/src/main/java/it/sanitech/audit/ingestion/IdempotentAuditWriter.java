@@ -0,0 +1,91 @@
+package it.sanitech.audit.ingestion;
+
+import it.sanitech.audit.repositories.AuditEventBatchWriter;
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import it.sanitech.audit.utilities.AppConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Scrittura idempotente degli eventi ingeriti da Kafka, condivisa dai consumer di ingestion.
+ *
+ * <p>
+ * Per ogni batch:
+ * <ol>
+ *   <li>scarta le chiavi ripetute nello stesso poll;</li>
+ *   <li>le chiavi che il filtro in memoria ({@link IngestionKeyFilter}) non ha mai visto vanno dritte all'insert;
+ *       solo le altre (riconsegne recenti o falsi positivi) sono verificate con un'unica SELECT per batch;</li>
+ *   <li>l'insert usa {@code ON CONFLICT DO NOTHING} sul vincolo univoco di {@code ingest_key}, che copre i duplicati
+ *       non noti al filtro (es. riconsegne dopo riavvio o rebalance verso un'altra istanza).</li>
+ * </ol>
+ * </p>
+ */
+@Slf4j
+@Component
+public class IdempotentAuditWriter {
+
+    private final AuditEventBatchWriter writer;
+    private final IngestionKeyFilter filter; // null se la deduplica in memoria è disabilitata
+    private final Counter duplicates;
+
+    public IdempotentAuditWriter(AuditEventBatchWriter writer,
+                                 AuditIngestionProperties props,
+                                 MeterRegistry meterRegistry) {
+        this.writer = writer;
+        AuditIngestionProperties.Dedupe dedupe = props.getDedupe();
+        this.filter = dedupe.isEnabled()
+                ? new IngestionKeyFilter(dedupe.getExpectedKeys(), dedupe.getFalsePositiveRate())
+                : null;
+        this.duplicates = meterRegistry.counter(AppConstants.Audit.METRIC_AUDIT_DUPLICATES);
+    }
+
+    /**
+     * Scrive gli eventi non ancora presenti.
+     *
+     * @return numero di eventi inviati all'insert (esclusi i duplicati riconosciuti prima della scrittura)
+     */
+    public int write(List<AuditEvent> events) {
+        List<AuditEvent> fresh = new ArrayList<>(events.size());
+        List<AuditEvent> suspects = new ArrayList<>();
+        Set<String> batchKeys = new HashSet<>();
+
+        for (AuditEvent event : events) {
+            String key = event.getIngestKey();
+            if (key == null) {
+                fresh.add(event);
+            } else if (!batchKeys.add(key)) {
+                duplicates.increment();
+            } else if (filter != null && filter.mightContain(key)) {
+                suspects.add(event);
+            } else {
+                fresh.add(event);
+            }
+        }
+
+        if (!suspects.isEmpty()) {
+            Set<String> existing = writer.existingKeys(suspects);
+            for (AuditEvent event : suspects) {
+                if (existing.contains(event.getIngestKey())) {
+                    duplicates.increment();
+                    log.debug("Ingestion audit: evento {} già presente, scartato.", event.getIngestKey());
+                } else {
+                    fresh.add(event);
+                }
+            }
+        }
+
+        int written = writer.insertAll(fresh);
+
+        if (filter != null) {
+            fresh.stream().map(AuditEvent::getIngestKey).filter(key -> key != null).forEach(filter::put);
+        }
+        return written;
+    }
+}
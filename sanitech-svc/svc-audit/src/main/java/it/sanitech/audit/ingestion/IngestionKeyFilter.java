@@ -0,0 +1,91 @@
+package it.sanitech.audit.ingestion;
+
+/**
+ * Filtro di Bloom a due generazioni sulle chiavi di ingestion già scritte.
+ *
+ * <p>
+ * {@link #mightContain(String)} restituisce {@code false} solo per chiavi sicuramente mai registrate
+ * (nessun falso negativo finché la chiave è nelle ultime due generazioni); un {@code true} va confermato su DB.
+ * Quando la generazione corrente raggiunge {@code expectedKeys} chiavi diventa la precedente e quella
+ * più vecchia viene scartata: memoria e tasso di falsi positivi restano limitati a regime.
+ * </p>
+ *
+ * <p>
+ * Thread-safe: i metodi sono sincronizzati, il costo è trascurabile rispetto alla scrittura su DB.
+ * </p>
+ */
+final class IngestionKeyFilter {
+
+    private final int expectedKeys;
+    private final long bitCount;
+    private final int hashCount;
+
+    private long[] current;
+    private long[] previous;
+    private int currentKeys;
+
+    IngestionKeyFilter(int expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1) {
+            throw new IllegalArgumentException("expectedKeys deve essere positivo");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate deve essere compreso tra 0 e 1 esclusi");
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.expectedKeys = expectedKeys;
+        this.bitCount = Math.max(64, bits);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * ln2));
+        this.current = new long[(int) ((bitCount + 63) >>> 6)];
+    }
+
+    synchronized boolean mightContain(String key) {
+        long hash = hash64(key);
+        return test(current, hash) || (previous != null && test(previous, hash));
+    }
+
+    synchronized void put(String key) {
+        if (currentKeys >= expectedKeys) {
+            previous = current;
+            current = new long[previous.length];
+            currentKeys = 0;
+        }
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            current[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        currentKeys++;
+    }
+
+    private boolean test(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a a 64 bit sui caratteri della chiave, con mixing finale di MurmurHash3 per distribuire i bit alti.
+     */
+    private static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
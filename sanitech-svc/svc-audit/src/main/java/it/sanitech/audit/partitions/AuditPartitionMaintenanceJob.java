@@ -0,0 +1,182 @@
+package it.sanitech.audit.partitions;
+
+import it.sanitech.audit.utilities.AppConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Manutenzione delle partizioni mensili di {@code audit_events} (migrazione {@code audit_events_partitioning}).
+ *
+ * <p>
+ * Crea in anticipo le partizioni dei mesi futuri, così gli insert non finiscono nella partizione
+ * di default, e stacca quelle più vecchie di {@code detachAfterMonths}: il DETACH è un'operazione
+ * sui soli metadati, la tabella staccata resta disponibile come {@code audit_events_archive_YYYYMM}
+ * per l'archiviazione o il DROP.
+ * </p>
+ *
+ * <p>
+ * Le operazioni DDL sono serializzate tra le istanze con un advisory lock transazionale.
+ * </p>
+ *
+ * <p>
+ * Se la partizione di un mese non è stata creata in tempo, i suoi eventi finiscono nella partizione
+ * di default e la {@code CREATE TABLE ... PARTITION OF} fallirebbe. In quel caso il job stacca la partizione
+ * di default, crea quella del mese, vi sposta gli eventi e riattacca la default, in un'unica transazione
+ * che tiene ACCESS EXCLUSIVE su {@code audit_events} per la durata dello spostamento.
+ * </p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "sanitech.audit.partitions", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class AuditPartitionMaintenanceJob {
+
+    static final String TABLE = "audit_events";
+    static final String ARCHIVE_PREFIX = "audit_events_archive_";
+    static final String DEFAULT_PARTITION = TABLE + "_default";
+
+    private static final Pattern MONTHLY_PARTITION = Pattern.compile(TABLE + "_(\\d{6})");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final String SQL_PARTITIONS =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = '" + TABLE + "'::regclass";
+    private static final String SQL_TRY_LOCK = "SELECT pg_try_advisory_xact_lock(?)";
+    private static final String SQL_MONTH_IN_DEFAULT =
+            "SELECT to_regclass(?) IS NULL AND EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION +
+            " WHERE occurred_at >= ?::timestamptz AND occurred_at < ?::timestamptz)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AuditPartitionProperties props;
+    private final Clock clock = Clock.systemUTC();
+
+    /**
+     * All'avvio garantisce la presenza delle partizioni future, senza attendere il primo cron.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            ensureFuturePartitions();
+        } catch (Exception ex) {
+            log.warn("Audit: creazione partizioni all'avvio non riuscita. Causa: {}", ex.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${sanitech.audit.partitions.cron:0 30 3 * * *}")
+    public void runMaintenance() {
+        try {
+            ensureFuturePartitions();
+            detachExpiredPartitions();
+        } catch (Exception ex) {
+            log.error("Audit: errore durante la manutenzione delle partizioni. Causa: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Crea le partizioni del mese corrente e dei successivi {@code premakeMonths} mesi.
+     * I limiti sono in UTC, come quelli creati dalla migrazione.
+     */
+    void ensureFuturePartitions() {
+        YearMonth current = YearMonth.now(clock);
+        for (int i = 0; i <= props.getPremakeMonths(); i++) {
+            YearMonth month = current.plusMonths(i);
+            String partition = partitionName(month);
+            String from = lowerBound(month);
+            String to = lowerBound(month.plusMonths(1));
+            String bounds = " FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+            try {
+                runExclusive(() -> {
+                    if (Boolean.TRUE.equals(jdbc.queryForObject(SQL_MONTH_IN_DEFAULT, Boolean.class, partition, from, to))) {
+                        moveMonthOutOfDefault(partition, bounds, from, to);
+                    } else {
+                        jdbc.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + TABLE + bounds);
+                    }
+                });
+            } catch (Exception ex) {
+                // Finché la partizione manca, gli eventi del mese restano nella default: pruning e archiviazione non li vedono.
+                log.error("Audit: impossibile creare la partizione {}, gli eventi del mese restano in {}. Causa: {}",
+                        partition, DEFAULT_PARTITION, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Crea la partizione di un mese i cui eventi sono già nella partizione di default e ve li sposta.
+     * Va eseguito dentro {@link #runExclusive(Runnable)}: tutti i passi sono nella stessa transazione.
+     */
+    private void moveMonthOutOfDefault(String partition, String bounds, String from, String to) {
+        String range = " WHERE occurred_at >= '" + from + "' AND occurred_at < '" + to + "'";
+        jdbc.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + DEFAULT_PARTITION);
+        jdbc.execute("CREATE TABLE " + partition + " PARTITION OF " + TABLE + bounds);
+        int moved = jdbc.update("INSERT INTO " + partition + " SELECT * FROM " + DEFAULT_PARTITION + range);
+        jdbc.update("DELETE FROM " + DEFAULT_PARTITION + range);
+        jdbc.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+        log.warn("Audit: {} eventi spostati dalla partizione di default alla nuova partizione {}.", moved, partition);
+    }
+
+    /**
+     * Stacca le partizioni mensili interamente precedenti alla finestra di {@code detachAfterMonths} mesi.
+     */
+    void detachExpiredPartitions() {
+        if (props.getDetachAfterMonths() <= 0) {
+            return;
+        }
+        YearMonth oldestKept = YearMonth.now(clock).minusMonths(props.getDetachAfterMonths());
+
+        for (String partition : jdbc.queryForList(SQL_PARTITIONS, String.class)) {
+            Matcher matcher = MONTHLY_PARTITION.matcher(partition);
+            if (!matcher.matches()) {
+                continue;
+            }
+            YearMonth month = YearMonth.parse(matcher.group(1), PARTITION_SUFFIX);
+            if (!month.isBefore(oldestKept)) {
+                continue;
+            }
+
+            String archived = ARCHIVE_PREFIX + matcher.group(1);
+            runExclusive(() -> {
+                jdbc.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition);
+                jdbc.execute("ALTER TABLE " + partition + " RENAME TO " + archived);
+            });
+            log.info("Audit: partizione {} staccata e archiviata come {}.", partition, archived);
+        }
+    }
+
+    /**
+     * Esegue un'operazione DDL in transazione, solo se questa istanza ottiene il lock di manutenzione.
+     */
+    private void runExclusive(Runnable ddl) {
+        tx.executeWithoutResult(status -> {
+            Boolean locked = jdbc.queryForObject(SQL_TRY_LOCK, Boolean.class, AppConstants.Audit.PARTITION_LOCK_KEY);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.debug("Audit: manutenzione partizioni in corso su un'altra istanza, operazione saltata.");
+                return;
+            }
+            ddl.run();
+        });
+    }
+
+    static String partitionName(YearMonth month) {
+        return TABLE + "_" + month.format(PARTITION_SUFFIX);
+    }
+
+    private static String lowerBound(YearMonth month) {
+        return month.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC).toString();
+    }
+}
@@ -0,0 +1,50 @@
+package it.sanitech.audit.partitions;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configurazione della manutenzione delle partizioni mensili di {@code audit_events}.
+ */
+@ConfigurationProperties(prefix = "sanitech.audit.partitions")
+public class AuditPartitionProperties {
+
+    /**
+     * Abilita il job di manutenzione delle partizioni.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Numero di mesi futuri per cui creare in anticipo la partizione (oltre al mese corrente).
+     */
+    private int premakeMonths = 3;
+
+    /**
+     * Mesi dopo i quali una partizione viene staccata dalla tabella e rinominata
+     * {@code audit_events_archive_YYYYMM}; 0 disabilita lo stacco.
+     */
+    private int detachAfterMonths = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getPremakeMonths() {
+        return premakeMonths;
+    }
+
+    public void setPremakeMonths(int premakeMonths) {
+        this.premakeMonths = premakeMonths;
+    }
+
+    public int getDetachAfterMonths() {
+        return detachAfterMonths;
+    }
+
+    public void setDetachAfterMonths(int detachAfterMonths) {
+        this.detachAfterMonths = detachAfterMonths;
+    }
+}
@@ -0,0 +1,140 @@
+package it.sanitech.audit.repositories;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Scrittura massiva degli eventi di audit.
+ *
+ * <p>
+ * Evita il ciclo di vita JPA (persist, id IDENTITY letto riga per riga, dirty checking): ogni blocco di
+ * {@link #CHUNK_SIZE} eventi è un'unica {@code INSERT ... SELECT FROM unnest(...)} con un array per colonna,
+ * cioè un round trip per blocco invece di N.
+ * Le righe con {@code ingest_key} già presente vengono ignorate dal vincolo univoco ({@code ON CONFLICT DO NOTHING});
+ * le righe effettivamente inserite, restituite da {@code RETURNING}, aggiornano i contatori orari
+ * ({@link AuditRollupRepository}) nella stessa transazione.
+ * </p>
+ */
+@Repository
+@RequiredArgsConstructor
+public class AuditEventBatchWriter {
+
+    static final int CHUNK_SIZE = 500;
+
+    private static final String INSERT_SQL = "INSERT INTO audit_events " +
+            "(occurred_at, source, actor_type, actor_id, action, resource_type, resource_id, outcome, ip, trace_id, details, created_at, ingest_key) " +
+            "SELECT t.occurred_at, t.source, t.actor_type, t.actor_id, t.action, t.resource_type, t.resource_id, t.outcome, " +
+            "t.ip, t.trace_id, CAST(t.details AS jsonb), ?, t.ingest_key " +
+            "FROM unnest(?::timestamptz[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], " +
+            "?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::text[], ?::varchar[]) " +
+            "AS t(occurred_at, source, actor_type, actor_id, action, resource_type, resource_id, outcome, ip, trace_id, details, ingest_key) " +
+            "ON CONFLICT (ingest_key, occurred_at) DO NOTHING " +
+            "RETURNING occurred_at, action, resource_type, outcome, actor_type";
+
+    // Il range su occurred_at limita la ricerca alle partizioni interessate.
+    private static final String EXISTING_KEYS_SQL = "SELECT ingest_key FROM audit_events " +
+            "WHERE occurred_at BETWEEN ? AND ? AND ingest_key = ANY (?)";
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper objectMapper;
+    private final AuditRollupRepository rollups;
+
+    /**
+     * Inserisce gli eventi e aggiorna i contatori orari in un'unica transazione.
+     *
+     * @return numero di eventi effettivamente inseriti (esclusi quelli ignorati per conflitto su {@code ingest_key})
+     */
+    @Transactional
+    public int insertAll(List<AuditEvent> events) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+        final Timestamp now = Timestamp.from(Instant.now());
+
+        List<AuditRollupKey> inserted = new ArrayList<>(events.size());
+        for (int start = 0; start < events.size(); start += CHUNK_SIZE) {
+            List<AuditEvent> chunk = events.subList(start, Math.min(start + CHUNK_SIZE, events.size()));
+            inserted.addAll(jdbc.query(
+                    con -> insertStatement(con, chunk, now),
+                    (rs, rowNum) -> AuditRollupKey.of(
+                            rs.getTimestamp(1).toInstant(), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5))));
+        }
+
+        rollups.increment(inserted);
+        return inserted.size();
+    }
+
+    /**
+     * Chiavi di ingestion già presenti tra quelle degli eventi indicati, con un'unica query.
+     */
+    @Transactional(readOnly = true)
+    public Set<String> existingKeys(List<AuditEvent> events) {
+        Instant min = events.stream().map(AuditEvent::getOccurredAt).min(Comparator.naturalOrder()).orElseThrow();
+        Instant max = events.stream().map(AuditEvent::getOccurredAt).max(Comparator.naturalOrder()).orElseThrow();
+        String[] keys = events.stream().map(AuditEvent::getIngestKey).toArray(String[]::new);
+
+        return new HashSet<>(jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(EXISTING_KEYS_SQL);
+            ps.setTimestamp(1, Timestamp.from(min));
+            ps.setTimestamp(2, Timestamp.from(max));
+            ps.setArray(3, con.createArrayOf("varchar", keys));
+            return ps;
+        }, (rs, rowNum) -> rs.getString(1)));
+    }
+
+    private PreparedStatement insertStatement(Connection con, List<AuditEvent> chunk, Timestamp now) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(INSERT_SQL);
+        ps.setTimestamp(1, now);
+        ps.setArray(2, con.createArrayOf("timestamptz", chunk.stream()
+                .map(e -> Timestamp.from(e.getOccurredAt() != null ? e.getOccurredAt() : now.toInstant()))
+                .toArray(Timestamp[]::new)));
+        ps.setArray(3, column(con, chunk, AuditEvent::getSource));
+        ps.setArray(4, column(con, chunk, AuditEvent::getActorType));
+        ps.setArray(5, column(con, chunk, AuditEvent::getActorId));
+        ps.setArray(6, column(con, chunk, AuditEvent::getAction));
+        ps.setArray(7, column(con, chunk, AuditEvent::getResourceType));
+        ps.setArray(8, column(con, chunk, AuditEvent::getResourceId));
+        ps.setArray(9, column(con, chunk, AuditEvent::getOutcome));
+        ps.setArray(10, column(con, chunk, AuditEvent::getIp));
+        ps.setArray(11, column(con, chunk, AuditEvent::getTraceId));
+        ps.setArray(12, con.createArrayOf("text", chunk.stream().map(this::detailsJson).toArray(String[]::new)));
+        ps.setArray(13, column(con, chunk, AuditEvent::getIngestKey));
+        return ps;
+    }
+
+    private static java.sql.Array column(Connection con, List<AuditEvent> chunk, Function<AuditEvent, String> getter)
+            throws SQLException {
+        return con.createArrayOf("varchar", chunk.stream().map(getter).toArray(String[]::new));
+    }
+
+    private String detailsJson(AuditEvent e) {
+        if (e.getDetailsJson() != null) {
+            return e.getDetailsJson();
+        }
+        if (e.getDetails() == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(e.getDetails());
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Serializzazione details non riuscita per evento audit " + e.getAction(), ex);
+        }
+    }
+}
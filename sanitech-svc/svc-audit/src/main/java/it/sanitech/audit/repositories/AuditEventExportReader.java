@@ -0,0 +1,63 @@
+package it.sanitech.audit.repositories;
+
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Repository;
+
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Lettura in streaming degli eventi di audit per l'export.
+ *
+ * <p>
+ * La query usa le stesse {@link Specification} della ricerca e un fetch size JDBC: dentro una transazione
+ * il driver PostgreSQL apre un cursore lato server e trasferisce le righe a blocchi, quindi la memoria
+ * usata non dipende dal numero di eventi esportati. Ogni entity viene staccata dal persistence context
+ * subito dopo l'uso, così anche la sessione JPA resta di dimensione costante.
+ * </p>
+ */
+@Repository
+public class AuditEventExportReader {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Scorre gli eventi che soddisfano {@code spec} in ordine {@code (occurredAt, id)} crescente.
+     * Deve essere invocato in una transazione (il cursore vive quanto la transazione).
+     *
+     * @return numero di eventi letti
+     */
+    public long forEach(Specification<AuditEvent> spec, int fetchSize, Consumer<AuditEvent> action) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<AuditEvent> query = cb.createQuery(AuditEvent.class);
+        Root<AuditEvent> root = query.from(AuditEvent.class);
+
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.orderBy(cb.asc(root.get("occurredAt")), cb.asc(root.get("id")));
+
+        long count = 0;
+        try (Stream<AuditEvent> rows = entityManager.createQuery(query)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream()) {
+            for (AuditEvent event : (Iterable<AuditEvent>) rows::iterator) {
+                action.accept(event);
+                entityManager.detach(event);
+                count++;
+            }
+        }
+        return count;
+    }
+}
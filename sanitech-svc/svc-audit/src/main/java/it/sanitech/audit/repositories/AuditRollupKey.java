@@ -0,0 +1,50 @@
+package it.sanitech.audit.repositories;
+
+import it.sanitech.audit.repositories.entities.AuditEvent;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+
+/**
+ * Chiave di una riga di {@code audit_rollups_hourly}: ora UTC e dimensioni dell'evento.
+ *
+ * <p>
+ * {@code resourceType} assente è rappresentato dalla stringa vuota, perché fa parte della chiave primaria.
+ * </p>
+ */
+public record AuditRollupKey(Instant bucketStart,
+                             String action,
+                             String resourceType,
+                             String outcome,
+                             String actorType) implements Comparable<AuditRollupKey> {
+
+    /**
+     * Ordine totale usato per aggiornare le righe sempre nella stessa sequenza ed evitare deadlock
+     * tra consumer concorrenti.
+     */
+    private static final Comparator<AuditRollupKey> ORDER = Comparator
+            .comparing(AuditRollupKey::bucketStart)
+            .thenComparing(AuditRollupKey::action)
+            .thenComparing(AuditRollupKey::resourceType)
+            .thenComparing(AuditRollupKey::outcome)
+            .thenComparing(AuditRollupKey::actorType);
+
+    public static AuditRollupKey of(Instant occurredAt, String action, String resourceType, String outcome, String actorType) {
+        return new AuditRollupKey(
+                occurredAt.truncatedTo(ChronoUnit.HOURS),
+                action,
+                resourceType != null ? resourceType : "",
+                outcome,
+                actorType);
+    }
+
+    public static AuditRollupKey of(AuditEvent event) {
+        return of(event.getOccurredAt(), event.getAction(), event.getResourceType(), event.getOutcome(), event.getActorType());
+    }
+
+    @Override
+    public int compareTo(AuditRollupKey other) {
+        return ORDER.compare(this, other);
+    }
+}
@@ -0,0 +1,90 @@
+package it.sanitech.audit.repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Accesso a {@code audit_rollups_hourly}: contatori orari per azione, tipo risorsa, esito e tipo attore.
+ *
+ * <p>
+ * I contatori sono incrementati nella stessa transazione che scrive gli eventi, quindi restano coerenti
+ * con {@code audit_events}; le interrogazioni leggono solo la tabella di sintesi.
+ * </p>
+ */
+@Repository
+@RequiredArgsConstructor
+public class AuditRollupRepository {
+
+    private static final String UPSERT_SQL = "INSERT INTO audit_rollups_hourly " +
+            "(bucket_start, action, resource_type, outcome, actor_type, event_count) VALUES (?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (bucket_start, action, resource_type, outcome, actor_type) " +
+            "DO UPDATE SET event_count = audit_rollups_hourly.event_count + EXCLUDED.event_count";
+
+    private final JdbcTemplate jdbc;
+
+    /**
+     * Incrementa i contatori con un unico batch; va invocato dentro la transazione di scrittura degli eventi.
+     */
+    public void increment(Map<AuditRollupKey, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<AuditRollupKey, Long>> rows = new ArrayList<>(new TreeMap<>(deltas).entrySet());
+
+        jdbc.batchUpdate(UPSERT_SQL, rows, rows.size(), (ps, row) -> {
+            AuditRollupKey key = row.getKey();
+            ps.setTimestamp(1, Timestamp.from(key.bucketStart()));
+            ps.setString(2, key.action());
+            ps.setString(3, key.resourceType());
+            ps.setString(4, key.outcome());
+            ps.setString(5, key.actorType());
+            ps.setLong(6, row.getValue());
+        });
+    }
+
+    public void increment(List<AuditRollupKey> keys) {
+        increment(keys.stream().collect(Collectors.groupingBy(key -> key, Collectors.counting())));
+    }
+
+    /**
+     * Somma dei contatori per bucket e dimensioni richieste.
+     *
+     * @param bucketExpression espressione SQL del bucket su {@code bucket_start} (ora o giorno)
+     * @param groupColumns     colonne di raggruppamento (già validate dal chiamante)
+     * @param filters          filtri di uguaglianza colonna → valore (colonne già validate dal chiamante)
+     * @param rowMapper        mapping di una riga con colonne {@code bucket}, colonne di raggruppamento e {@code event_count}
+     */
+    public <T> List<T> aggregate(String bucketExpression,
+                                 List<String> groupColumns,
+                                 Map<String, String> filters,
+                                 Instant from,
+                                 Instant to,
+                                 RowMapper<T> rowMapper) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(bucketExpression).append(" AS bucket");
+        groupColumns.forEach(column -> sql.append(", ").append(column));
+        sql.append(", SUM(event_count) AS event_count FROM audit_rollups_hourly WHERE bucket_start >= ? AND bucket_start < ?");
+
+        List<Object> args = new ArrayList<>();
+        args.add(Timestamp.from(from));
+        args.add(Timestamp.from(to));
+        filters.forEach((column, value) -> {
+            sql.append(" AND ").append(column).append(" = ?");
+            args.add(value);
+        });
+
+        String grouping = groupColumns.isEmpty() ? "" : ", " + String.join(", ", groupColumns);
+        sql.append(" GROUP BY bucket").append(grouping).append(" ORDER BY bucket").append(grouping);
+
+        return jdbc.query(sql.toString(), rowMapper, args.toArray());
+    }
+}
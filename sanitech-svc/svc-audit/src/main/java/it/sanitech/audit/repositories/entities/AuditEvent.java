@@ -17,12 +17,19 @@ import java.time.Instant;
  *   <li>eventi consumati da Kafka (es. domain events dagli altri microservizi).</li>
  * </ul>
  * </p>
+ *
+ * <p>
+ * La tabella è partizionata per mese su {@code occurred_at} con indice BRIN su ogni partizione
+ * (vedi migrazione {@code audit_events_partitioning}); la chiave primaria fisica è {@code (id, occurred_at)}.
+ * {@code details} ha un indice GIN {@code jsonb_path_ops} per i filtri di contenimento (migrazione
+ * {@code audit_details_gin}), non esprimibile con {@link Index}.
+ * </p>
  */
 @Entity
 @Table(name = "audit_events", indexes = {
-        @Index(name = "idx_audit_occurred_at", columnList = "occurred_at"),
-        @Index(name = "idx_audit_actor_id", columnList = "actor_id"),
-        @Index(name = "idx_audit_resource", columnList = "resource_type, resource_id")
+        @Index(name = "idx_audit_occurred_at_id", columnList = "occurred_at DESC, id DESC"),
+        @Index(name = "idx_audit_actor_occurred", columnList = "actor_id, occurred_at DESC, id DESC"),
+        @Index(name = "idx_audit_resource_occurred", columnList = "resource_type, resource_id, occurred_at DESC, id DESC")
 })
 @Getter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
@@ -69,6 +76,19 @@ public class AuditEvent {
     @Column(name = "details", columnDefinition = "jsonb")
     private JsonNode details;
 
+    /**
+     * Chiave di idempotenza dell'ingestion Kafka, univoca insieme a {@code occurredAt}; {@code null} per eventi da API.
+     */
+    @Column(name = "ingest_key", length = 255, updatable = false)
+    private String ingestKey;
+
+    /**
+     * {@code details} già serializzato in JSON (es. messaggio Kafka originale): se presente viene scritto
+     * così com'è da {@link it.sanitech.audit.repositories.AuditEventBatchWriter}, senza passare dall'albero.
+     */
+    @Transient
+    private String detailsJson;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
@@ -1,15 +1,34 @@
 package it.sanitech.audit.repositories.spec;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import it.sanitech.audit.repositories.entities.AuditEvent;
+import it.sanitech.audit.utilities.AppConstants;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
 import org.springframework.data.jpa.domain.Specification;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Specifiche JPA per costruire query dinamiche sugli eventi audit.
  */
 public final class AuditEventSpecifications {
 
+    private static final Pattern PATH_SEGMENT = Pattern.compile("[A-Za-z0-9_\\-]{1,64}");
+    private static final ObjectMapper SCALAR_READER = JsonMapper.builder()
+            .enable(DeserializationFeature.FAIL_ON_TRAILING_TOKENS)
+            .build();
+
     private AuditEventSpecifications() {}
 
     public static Specification<AuditEvent> actorIdEquals(String actorId) {
@@ -39,4 +58,163 @@ public final class AuditEventSpecifications {
     public static Specification<AuditEvent> occurredTo(Instant to) {
         return (root, query, cb) -> to == null ? null : cb.lessThanOrEqualTo(root.get("occurredAt"), to);
     }
+
+    /**
+     * Predicato keyset: eventi che seguono {@code (occurredAt, id)} nell'ordine decrescente.
+     * Il limite ridondante {@code occurredAt <= ?} permette di usare l'indice su {@code (occurred_at, id)}
+     * come range scan, anziché valutare l'OR su tutte le righe.
+     */
+    public static Specification<AuditEvent> before(Instant occurredAt, Long id) {
+        return (root, query, cb) -> occurredAt == null ? null : cb.and(
+                cb.lessThanOrEqualTo(root.get("occurredAt"), occurredAt),
+                cb.or(
+                        cb.lessThan(root.get("occurredAt"), occurredAt),
+                        cb.lessThan(root.get("id"), id)
+                ));
+    }
+
+    /**
+     * Filtri di contenimento su {@code details}: ogni voce {@code percorso → valore} (es.
+     * {@code payload.patientId → 123}) diventa {@code details @> '{"payload":{"patientId":123}}'}, risolto
+     * dall'indice GIN {@code jsonb_path_ops}; più voci sono in AND.
+     *
+     * <p>
+     * Un valore numerico o booleano corrisponde sia al tipo JSON sia alla stringa ({@code 123} o {@code "123"}),
+     * perché i producer non sono uniformi; gli altri valori corrispondono solo come stringa.
+     * I documenti sono costruiti subito, così un percorso non valido è segnalato al chiamante e non durante
+     * l'esecuzione della query.
+     * </p>
+     *
+     * @throws IllegalArgumentException se un percorso non è valido o i filtri superano il limite
+     */
+    public static Specification<AuditEvent> detailsContain(Map<String, String> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return (root, query, cb) -> null;
+        }
+        if (filters.size() > AppConstants.Audit.DETAILS_FILTER_MAX) {
+            throw new IllegalArgumentException("Troppi filtri su details: massimo " + AppConstants.Audit.DETAILS_FILTER_MAX + ".");
+        }
+
+        List<List<String>> alternatives = new ArrayList<>();
+        filters.forEach((path, value) -> alternatives.add(containmentDocuments(path, value)));
+
+        return (root, query, cb) -> cb.and(alternatives.stream()
+                .map(documents -> cb.or(documents.stream()
+                        .map(document -> contains(root, cb, document))
+                        .toArray(Predicate[]::new)))
+                .toArray(Predicate[]::new));
+    }
+
+    private static Predicate contains(Root<AuditEvent> root, CriteriaBuilder cb, String document) {
+        return cb.isTrue(cb.function(JsonbFunctionContributor.JSONB_CONTAINS, Boolean.class,
+                root.get("details"), cb.literal(document)));
+    }
+
+    /**
+     * Equivalente in memoria di {@link #detailsContain}, per gli eventi letti dall'archivio: stessi documenti
+     * e stessa semantica di {@code @>} (oggetti contenuti ricorsivamente, scalari uguali, numeri per valore).
+     *
+     * @throws IllegalArgumentException se un percorso non è valido o i filtri superano il limite
+     */
+    public static java.util.function.Predicate<JsonNode> detailsMatch(Map<String, String> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return details -> true;
+        }
+        if (filters.size() > AppConstants.Audit.DETAILS_FILTER_MAX) {
+            throw new IllegalArgumentException("Troppi filtri su details: massimo " + AppConstants.Audit.DETAILS_FILTER_MAX + ".");
+        }
+
+        List<List<JsonNode>> alternatives = new ArrayList<>();
+        filters.forEach((path, value) -> alternatives.add(containmentNodes(path, value)));
+
+        return details -> details != null && alternatives.stream()
+                .allMatch(documents -> documents.stream().anyMatch(document -> jsonbContains(details, document)));
+    }
+
+    /**
+     * Contenimento {@code target @> document} di PostgreSQL, limitato ai documenti prodotti dai filtri
+     * (scalari annidati in oggetti).
+     */
+    static boolean jsonbContains(JsonNode target, JsonNode document) {
+        if (document.isObject()) {
+            if (!target.isObject()) {
+                return false;
+            }
+            var fields = document.fields();
+            while (fields.hasNext()) {
+                var field = fields.next();
+                JsonNode value = target.get(field.getKey());
+                if (value == null || !jsonbContains(value, field.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (document.isArray()) {
+            if (!target.isArray()) {
+                return false;
+            }
+            for (JsonNode element : document) {
+                boolean found = false;
+                for (JsonNode candidate : target) {
+                    if (jsonbContains(candidate, element)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (document.isNumber()) {
+            return target.isNumber() && target.decimalValue().compareTo(document.decimalValue()) == 0;
+        }
+        return document.equals(target);
+    }
+
+    static List<String> containmentDocuments(String path, String value) {
+        return containmentNodes(path, value).stream().map(JsonNode::toString).toList();
+    }
+
+    private static List<JsonNode> containmentNodes(String path, String value) {
+        String[] segments = path == null ? new String[0] : path.split("\\.", -1);
+        if (segments.length == 0 || segments.length > AppConstants.Audit.DETAILS_FILTER_MAX_DEPTH) {
+            throw new IllegalArgumentException("Percorso details non valido: " + path);
+        }
+        for (String segment : segments) {
+            if (!PATH_SEGMENT.matcher(segment).matches()) {
+                throw new IllegalArgumentException("Percorso details non valido: " + path);
+            }
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Valore mancante per il filtro details." + path);
+        }
+
+        JsonNode text = JsonNodeFactory.instance.textNode(value);
+        JsonNode typed = scalar(value);
+        return typed == null
+                ? List.of(document(segments, text))
+                : List.of(document(segments, typed), document(segments, text));
+    }
+
+    private static JsonNode scalar(String value) {
+        try {
+            JsonNode node = SCALAR_READER.readTree(value);
+            return node != null && (node.isNumber() || node.isBoolean()) ? node : null;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    private static JsonNode document(String[] segments, JsonNode leaf) {
+        JsonNode node = leaf;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            ObjectNode parent = JsonNodeFactory.instance.objectNode();
+            parent.set(segments[i], node);
+            node = parent;
+        }
+        return node;
+    }
 }
@@ -0,0 +1,27 @@
+package it.sanitech.audit.repositories.spec;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Registra in Hibernate la funzione {@value #JSONB_CONTAINS}, resa in SQL con l'operatore {@code @>}.
+ *
+ * <p>
+ * La funzione PostgreSQL {@code jsonb_contains(a, b)} è equivalente ma non è indicizzabile: solo l'operatore
+ * permette al planner di usare l'indice GIN {@code jsonb_path_ops} su {@code details}.
+ * Registrata tramite {@code META-INF/services/org.hibernate.boot.model.FunctionContributor}.
+ * </p>
+ */
+public class JsonbFunctionContributor implements FunctionContributor {
+
+    public static final String JSONB_CONTAINS = "jsonb_contains_op";
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        functionContributions.getFunctionRegistry().registerPattern(
+                JSONB_CONTAINS,
+                "(?1 @> cast(?2 as jsonb))",
+                functionContributions.getTypeConfiguration().getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN));
+    }
+}
@@ -0,0 +1,55 @@
+package it.sanitech.audit.services;
+
+import it.sanitech.audit.repositories.entities.AuditEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Posizione di continuazione della ricerca a cursore: chiave {@code (occurred_at, id)} dell'ultimo
+ * evento restituito.
+ *
+ * <p>
+ * Il client la riceve come token opaco (Base64 URL-safe) e la rimanda invariata per la pagina
+ * successiva, insieme agli stessi filtri.
+ * </p>
+ */
+public record AuditCursor(Instant occurredAt, Long id) {
+
+    private static final char SEPARATOR = '|';
+
+    public AuditCursor {
+        Objects.requireNonNull(occurredAt, "occurredAt obbligatorio");
+        Objects.requireNonNull(id, "id obbligatorio");
+    }
+
+    public static AuditCursor of(AuditEvent event) {
+        return new AuditCursor(event.getOccurredAt(), event.getId());
+    }
+
+    public String encode() {
+        String raw = occurredAt.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodifica un token prodotto da {@link #encode()}.
+     *
+     * @throws IllegalArgumentException se il token non è valido
+     */
+    public static AuditCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Cursore non valido.");
+            }
+            return new AuditCursor(Instant.parse(raw.substring(0, separator)), Long.valueOf(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new IllegalArgumentException("Cursore non valido.", ex);
+        }
+    }
+}
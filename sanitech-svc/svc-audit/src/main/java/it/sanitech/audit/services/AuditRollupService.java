@@ -0,0 +1,154 @@
+package it.sanitech.audit.services;
+
+import it.sanitech.audit.repositories.AuditRollupRepository;
+import it.sanitech.audit.services.dto.AuditRollupDto;
+import it.sanitech.audit.utilities.AppConstants;
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Consultazione dei contatori orari pre-aggregati ({@code audit_rollups_hourly}) per le dashboard.
+ *
+ * <p>
+ * Le query leggono solo la tabella di sintesi: il costo dipende dal numero di ore e combinazioni di
+ * dimensioni nell'intervallo, non dal volume di eventi. I bucket inclusi sono quelli che iniziano in
+ * {@code [from, to)}.
+ * </p>
+ */
+@Service
+@RequiredArgsConstructor
+public class AuditRollupService {
+
+    /** Ampiezza del bucket restituito. */
+    public enum Granularity {
+        HOUR("bucket_start", Duration.ofDays(AppConstants.Audit.ROLLUP_MAX_HOURLY_DAYS)),
+        DAY("date_trunc('day', bucket_start AT TIME ZONE 'UTC') AT TIME ZONE 'UTC'",
+                Duration.ofDays(AppConstants.Audit.ROLLUP_MAX_DAILY_DAYS));
+
+        private final String bucketExpression;
+        private final Duration maxRange;
+
+        Granularity(String bucketExpression, Duration maxRange) {
+            this.bucketExpression = bucketExpression;
+            this.maxRange = maxRange;
+        }
+
+        /**
+         * @throws IllegalArgumentException se la granularità non è supportata
+         */
+        public static Granularity parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException("Granularità non supportata: " + value);
+            }
+        }
+    }
+
+    /** Dimensioni di raggruppamento; il nome di colonna non proviene mai dall'input. */
+    public enum Dimension {
+        ACTION("action"),
+        RESOURCE_TYPE("resource_type"),
+        OUTCOME("outcome"),
+        ACTOR_TYPE("actor_type");
+
+        private final String column;
+
+        Dimension(String column) {
+            this.column = column;
+        }
+
+        /**
+         * Accetta sia il nome enum ({@code RESOURCE_TYPE}) sia il nome del campo ({@code resourceType}).
+         *
+         * @throws IllegalArgumentException se la dimensione non è supportata
+         */
+        public static Dimension parse(String value) {
+            String normalized = value.trim().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+            try {
+                return valueOf(normalized);
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException("Dimensione di raggruppamento non supportata: " + value);
+            }
+        }
+    }
+
+    private final AuditRollupRepository repository;
+
+    /**
+     * Conteggi per bucket nell'intervallo, raggruppati per le dimensioni richieste e filtrati per uguaglianza
+     * sulle dimensioni valorizzate.
+     *
+     * @throws IllegalArgumentException se l'intervallo è vuoto o supera il limite della granularità
+     */
+    @Transactional(readOnly = true)
+    @Bulkhead(name = "auditRead")
+    public List<AuditRollupDto> rollups(
+            Instant from,
+            Instant to,
+            Granularity granularity,
+            Set<Dimension> groupBy,
+            String action,
+            String resourceType,
+            String outcome,
+            String actorType
+    ) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("L'intervallo richiesto è vuoto: 'from' deve precedere 'to'.");
+        }
+        if (Duration.between(from, to).compareTo(granularity.maxRange) > 0) {
+            throw new IllegalArgumentException("Intervallo troppo ampio per granularità " + granularity
+                    + ": massimo " + granularity.maxRange.toDays() + " giorni.");
+        }
+
+        Set<Dimension> dimensions = groupBy.isEmpty() ? EnumSet.noneOf(Dimension.class) : EnumSet.copyOf(groupBy);
+        List<String> columns = dimensions.stream().map(d -> d.column).toList();
+
+        Map<String, String> filters = new LinkedHashMap<>();
+        putIfPresent(filters, Dimension.ACTION, action);
+        putIfPresent(filters, Dimension.RESOURCE_TYPE, resourceType);
+        putIfPresent(filters, Dimension.OUTCOME, outcome);
+        putIfPresent(filters, Dimension.ACTOR_TYPE, actorType);
+
+        return repository.aggregate(granularity.bucketExpression, columns, filters, from, to, rowMapper(dimensions));
+    }
+
+    private static void putIfPresent(Map<String, String> filters, Dimension dimension, String value) {
+        if (value != null && !value.isBlank()) {
+            filters.put(dimension.column, value.trim());
+        }
+    }
+
+    private static RowMapper<AuditRollupDto> rowMapper(Set<Dimension> dimensions) {
+        return (rs, rowNum) -> new AuditRollupDto(
+                rs.getTimestamp("bucket").toInstant(),
+                column(rs, dimensions, Dimension.ACTION),
+                column(rs, dimensions, Dimension.RESOURCE_TYPE),
+                column(rs, dimensions, Dimension.OUTCOME),
+                column(rs, dimensions, Dimension.ACTOR_TYPE),
+                rs.getLong("event_count"));
+    }
+
+    private static String column(ResultSet rs, Set<Dimension> dimensions, Dimension dimension) throws SQLException {
+        if (!dimensions.contains(dimension)) {
+            return null;
+        }
+        String value = rs.getString(dimension.column);
+        // resource_type assente è memorizzato come stringa vuota (chiave primaria).
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
@@ -2,11 +2,18 @@ package it.sanitech.audit.services;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.archive.AuditArchiveReader;
+import it.sanitech.audit.repositories.AuditEventExportReader;
 import it.sanitech.audit.repositories.AuditEventRepository;
+import it.sanitech.audit.repositories.AuditRollupKey;
+import it.sanitech.audit.repositories.AuditRollupRepository;
 import it.sanitech.audit.repositories.entities.AuditEvent;
 import it.sanitech.audit.repositories.spec.AuditEventSpecifications;
 import it.sanitech.audit.services.dto.AuditEventCreateDto;
+import it.sanitech.audit.services.dto.AuditEventCursorPageDto;
 import it.sanitech.audit.services.dto.AuditEventDto;
+import it.sanitech.audit.services.export.AuditExportFormat;
+import it.sanitech.audit.services.export.AuditExportWriter;
 import it.sanitech.audit.services.mapper.AuditEventMapper;
 import it.sanitech.audit.utilities.AppConstants;
 import it.sanitech.commons.exception.NotFoundException;
@@ -14,30 +21,52 @@ import it.sanitech.outbox.core.DomainEventPublisher;
 import io.github.resilience4j.bulkhead.annotation.Bulkhead;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Service applicativo del bounded context "Audit".
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class AuditService {
 
     private static final String AGGREGATE_TYPE = "AUDIT_EVENT";
 
+    /** Ordine della ricerca a cursore, allineato all'indice {@code (occurred_at DESC, id DESC)}. */
+    private static final Sort KEYSET_SORT = Sort.by(Sort.Order.desc("occurredAt"), Sort.Order.desc("id"));
+    private static final Comparator<AuditEventDto> KEYSET_ORDER = Comparator
+            .comparing(AuditEventDto::occurredAt)
+            .thenComparing(AuditEventDto::id)
+            .reversed();
+
     private final AuditEventRepository repository;
+    private final AuditEventExportReader exportReader;
+    private final AuditRollupRepository rollupRepository;
     private final AuditEventMapper mapper;
     private final ObjectMapper objectMapper;
     private final DomainEventPublisher domainEventPublisher;
     private final MeterRegistry meterRegistry;
+    /** Presente solo con l'archiviazione su object storage abilitata. */
+    private final ObjectProvider<AuditArchiveReader> archiveReader;
 
     @Transactional
     public AuditEventDto recordFromApi(AuditEventCreateDto dto, Authentication auth, String clientIp) {
@@ -63,6 +92,7 @@ public class AuditService {
                 .details(details)
                 .build());
 
+        rollupRepository.increment(List.of(AuditRollupKey.of(saved)));
         meterRegistry.counter(AppConstants.Audit.METRIC_AUDIT_EVENTS_SAVED).increment();
 
         // Pubblicazione opzionale verso Kafka via Outbox (per pipeline analytics / SIEM).
@@ -95,6 +125,18 @@ public class AuditService {
         return mapper.toDto(evt);
     }
 
+    /**
+     * Ricerca paginata con filtri sulle colonne e, tramite {@code details}, filtri di contenimento sul payload
+     * ({@code percorso → valore}, vedi {@link AuditEventSpecifications#detailsContain}).
+     *
+     * <p>
+     * Legge solo il DB: un {@code from} che precede i mesi archiviati è rifiutato, perché offset e totale
+     * non si possono calcolare sull'archivio senza leggerlo per intero. Per quei periodi si usano
+     * {@link #searchAfter} o {@link #export}.
+     * </p>
+     *
+     * @throws IllegalArgumentException se {@code from} precede la fine dei mesi archiviati
+     */
     @Transactional(readOnly = true)
     @Bulkhead(name = "auditRead")
     public Page<AuditEventDto> search(
@@ -105,17 +147,171 @@ public class AuditService {
             String outcome,
             Instant from,
             Instant to,
+            Map<String, String> details,
             Pageable pageable
     ) {
-        var spec = AuditEventSpecifications.actorIdEquals(actorId)
+        Instant archivedUntil = archivedUntil(from);
+        if (archivedUntil != null) {
+            throw new IllegalArgumentException("Il periodo richiesto comprende eventi archiviati (fino a " + archivedUntil
+                    + "): usare la ricerca a cursore o l'export, che li includono.");
+        }
+        var spec = filter(actorId, action, resourceType, resourceId, outcome, from, to, details);
+
+        return repository.findAll(spec, pageable).map(mapper::toDto);
+    }
+
+    /**
+     * Ricerca a cursore (keyset) in ordine {@code (occurredAt, id)} decrescente.
+     *
+     * <p>
+     * A differenza di {@link #search} non esegue il {@code count(*)} e non scarta righe per l'offset:
+     * ogni pagina legge {@code size + 1} righe dall'indice, indipendentemente dalla profondità.
+     * </p>
+     * <p>
+     * Se {@code from} precede la fine dei mesi archiviati, la pagina unisce le righe del DB agli eventi
+     * dell'archivio con gli stessi filtri e lo stesso cursore. L'archivio è letto solo quando la pagina
+     * può contenerne eventi, cioè quando le righe del DB non bastano a riempirla con eventi successivi
+     * ai mesi archiviati.
+     * </p>
+     *
+     * @param cursor token restituito dalla pagina precedente, {@code null} per la prima pagina
+     */
+    @Transactional(readOnly = true)
+    @Bulkhead(name = "auditRead")
+    public AuditEventCursorPageDto searchAfter(
+            String actorId,
+            String action,
+            String resourceType,
+            String resourceId,
+            String outcome,
+            Instant from,
+            Instant to,
+            Map<String, String> details,
+            String cursor,
+            int size
+    ) {
+        if (size < 1) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere positiva.");
+        }
+        AuditCursor after = (cursor == null || cursor.isBlank()) ? null : AuditCursor.decode(cursor);
+
+        var spec = filter(actorId, action, resourceType, resourceId, outcome, from, to, details);
+        if (after != null) {
+            spec = spec.and(AuditEventSpecifications.before(after.occurredAt(), after.id()));
+        }
+
+        // Una riga in più indica se esiste una pagina successiva, senza contare il totale.
+        List<AuditEvent> rows = repository.findBy(spec, q -> q.sortBy(KEYSET_SORT).limit(size + 1).all());
+        List<AuditEventDto> events = rows.stream().map(mapper::toDto).toList();
+
+        Instant archivedUntil = archivedUntil(from);
+        if (archivedUntil != null && (rows.size() <= size || rows.get(size).getOccurredAt().isBefore(archivedUntil))) {
+            List<AuditEventDto> archived = archiveReader.getObject().search(actorId, action, resourceType, resourceId,
+                    outcome, from, to, details, after, size + 1);
+            events = Stream.concat(events.stream(), archived.stream())
+                    .sorted(KEYSET_ORDER)
+                    .limit(size + 1)
+                    .toList();
+        }
+
+        boolean hasNext = events.size() > size;
+        List<AuditEventDto> page = hasNext ? events.subList(0, size) : events;
+
+        AuditEventDto last = hasNext ? page.get(page.size() - 1) : null;
+        String nextCursor = last != null ? new AuditCursor(last.occurredAt(), last.id()).encode() : null;
+        return new AuditEventCursorPageDto(page, nextCursor);
+    }
+
+    /**
+     * Esporta in streaming gli eventi che soddisfano gli stessi filtri di {@link #search},
+     * in ordine {@code (occurredAt, id)} crescente, scrivendoli direttamente su {@code out}.
+     *
+     * <p>
+     * La connessione resta impegnata solo per la durata dell'export (cursore lato server) e il bulkhead
+     * {@code auditExport} limita gli export concorrenti, così da non esaurire il pool delle ricerche.
+     * Lo stream {@code out} non viene chiuso.
+     * </p>
+     * <p>
+     * Se {@code from} precede la fine dei mesi archiviati, gli eventi dell'archivio che soddisfano gli stessi
+     * filtri sono scritti per primi, dal mese più vecchio, seguiti dalle righe del DB.
+     * </p>
+     *
+     * @return numero di eventi esportati
+     */
+    @Transactional(readOnly = true)
+    @Bulkhead(name = "auditExport")
+    public long export(
+            String actorId,
+            String action,
+            String resourceType,
+            String resourceId,
+            String outcome,
+            Instant from,
+            Instant to,
+            Map<String, String> details,
+            AuditExportFormat format,
+            OutputStream out
+    ) throws IOException {
+        var spec = filter(actorId, action, resourceType, resourceId, outcome, from, to, details);
+
+        boolean archived = archivedUntil(from) != null;
+
+        long count = 0;
+        try (AuditExportWriter writer = AuditExportWriter.open(format, out, objectMapper)) {
+            if (archived) {
+                count += archiveReader.getObject().forEach(actorId, action, resourceType, resourceId, outcome,
+                        from, to, details, event -> write(writer, event));
+            }
+            count += exportReader.forEach(spec, AppConstants.Audit.EXPORT_FETCH_SIZE,
+                    event -> write(writer, mapper.toDto(event)));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        log.info("Audit: export {} completato, {} eventi (from={}, to={}, archivio={}).", format, count, from, to, archived);
+        return count;
+    }
+
+    private static void write(AuditExportWriter writer, AuditEventDto event) {
+        try {
+            writer.write(event);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Fine dei mesi archiviati se {@code from} la precede (l'intervallo richiesto include l'archivio),
+     * altrimenti {@code null}. Senza {@code from} la ricerca resta sul DB, come prima dell'archiviazione.
+     */
+    private Instant archivedUntil(Instant from) {
+        AuditArchiveReader reader = archiveReader.getIfAvailable();
+        if (reader == null || from == null) {
+            return null;
+        }
+        return reader.archivedUntil()
+                .filter(from::isBefore)
+                .orElse(null);
+    }
+
+    private static Specification<AuditEvent> filter(
+            String actorId,
+            String action,
+            String resourceType,
+            String resourceId,
+            String outcome,
+            Instant from,
+            Instant to,
+            Map<String, String> details
+    ) {
+        return AuditEventSpecifications.actorIdEquals(actorId)
                 .and(AuditEventSpecifications.actionEquals(action))
                 .and(AuditEventSpecifications.resourceTypeEquals(resourceType))
                 .and(AuditEventSpecifications.resourceIdEquals(resourceId))
                 .and(AuditEventSpecifications.outcomeEquals(outcome))
                 .and(AuditEventSpecifications.occurredFrom(from))
-                .and(AuditEventSpecifications.occurredTo(to));
-
-        return repository.findAll(spec, pageable).map(mapper::toDto);
+                .and(AuditEventSpecifications.occurredTo(to))
+                .and(AuditEventSpecifications.detailsContain(details));
     }
 
     private static String resolveActorType(Authentication auth) {
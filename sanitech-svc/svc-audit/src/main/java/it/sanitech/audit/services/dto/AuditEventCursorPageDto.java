@@ -0,0 +1,12 @@
+package it.sanitech.audit.services.dto;
+
+import java.util.List;
+
+/**
+ * Pagina della ricerca a cursore: eventi in ordine {@code occurredAt} decrescente e token per la
+ * pagina successiva ({@code null} se non ci sono altri risultati). Non include il totale.
+ */
+public record AuditEventCursorPageDto(
+        List<AuditEventDto> content,
+        String nextCursor
+) { }
@@ -0,0 +1,16 @@
+package it.sanitech.audit.services.dto;
+
+import java.time.Instant;
+
+/**
+ * Conteggio aggregato di eventi audit in un bucket (ora o giorno UTC).
+ * Le dimensioni non richieste nel raggruppamento sono {@code null}.
+ */
+public record AuditRollupDto(
+        Instant bucket,
+        String action,
+        String resourceType,
+        String outcome,
+        String actorType,
+        long count
+) { }
@@ -0,0 +1,44 @@
+package it.sanitech.audit.services.export;
+
+import java.util.Locale;
+
+/**
+ * Formati supportati dall'export degli eventi audit.
+ */
+public enum AuditExportFormat {
+
+    /** Un oggetto JSON per riga ({@code application/x-ndjson}). */
+    NDJSON("application/x-ndjson", "ndjson"),
+
+    /** CSV con riga di intestazione (RFC 4180); {@code details} è serializzato come JSON. */
+    CSV("text/csv", "csv");
+
+    private final String mediaType;
+    private final String extension;
+
+    AuditExportFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public String mediaType() {
+        return mediaType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * Risolve il formato dal parametro di richiesta (case-insensitive).
+     *
+     * @throws IllegalArgumentException se il formato non è supportato
+     */
+    public static AuditExportFormat parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Formato di export non supportato: " + value);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package it.sanitech.audit.services.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.services.dto.AuditEventDto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Scrittura incrementale degli eventi audit su uno stream di output.
+ *
+ * <p>
+ * {@link #close()} svuota i buffer ma non chiude lo stream sottostante, che resta del chiamante.
+ * </p>
+ */
+public interface AuditExportWriter extends Closeable {
+
+    void write(AuditEventDto event) throws IOException;
+
+    static AuditExportWriter open(AuditExportFormat format, OutputStream out, ObjectMapper objectMapper) throws IOException {
+        return switch (format) {
+            case NDJSON -> new NdjsonAuditExportWriter(out, objectMapper);
+            case CSV -> new CsvAuditExportWriter(out, objectMapper);
+        };
+    }
+}
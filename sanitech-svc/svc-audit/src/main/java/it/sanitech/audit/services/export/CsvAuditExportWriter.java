@@ -0,0 +1,66 @@
+package it.sanitech.audit.services.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.services.dto.AuditEventDto;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Export CSV (RFC 4180, UTF-8, fine riga CRLF) con riga di intestazione.
+ */
+class CsvAuditExportWriter implements AuditExportWriter {
+
+    private static final String HEADER =
+            "id,occurredAt,source,actorType,actorId,action,resourceType,resourceId,outcome,ip,traceId,details";
+
+    private final Writer out;
+    private final ObjectMapper objectMapper;
+
+    CsvAuditExportWriter(OutputStream out, ObjectMapper objectMapper) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.objectMapper = objectMapper;
+        this.out.write(HEADER);
+        this.out.write("\r\n");
+    }
+
+    @Override
+    public void write(AuditEventDto e) throws IOException {
+        out.write(String.valueOf(e.id()));
+        field(e.occurredAt() != null ? e.occurredAt().toString() : null);
+        field(e.source());
+        field(e.actorType());
+        field(e.actorId());
+        field(e.action());
+        field(e.resourceType());
+        field(e.resourceId());
+        field(e.outcome());
+        field(e.ip());
+        field(e.traceId());
+        field(e.details() != null ? objectMapper.writeValueAsString(e.details()) : null);
+        out.write("\r\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+
+    private void field(String value) throws IOException {
+        out.write(',');
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -0,0 +1,39 @@
+package it.sanitech.audit.services.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import it.sanitech.audit.services.dto.AuditEventDto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Export NDJSON: un {@link AuditEventDto} serializzato per riga con un unico {@link JsonGenerator}.
+ */
+class NdjsonAuditExportWriter implements AuditExportWriter {
+
+    private final JsonGenerator generator;
+    private final ObjectWriter writer;
+
+    NdjsonAuditExportWriter(OutputStream out, ObjectMapper objectMapper) throws IOException {
+        this.generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.generator.setRootValueSeparator(null);
+        // Nessun flush per riga: lo stream viene svuotato a blocchi dal buffer del generator.
+        this.writer = objectMapper.writerFor(AuditEventDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @Override
+    public void write(AuditEventDto event) throws IOException {
+        writer.writeValue(generator, event);
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -21,6 +21,9 @@ public class AppConstants {
     public static class ApiPath {
         public static final String API_BASE = "/api";
         public static final String AUDIT_EVENTS = "/audit/events";
+        public static final String AUDIT_EVENTS_CURSOR = AUDIT_EVENTS + "/cursor";
+        public static final String AUDIT_EVENTS_EXPORT = AUDIT_EVENTS + "/export";
+        public static final String AUDIT_ROLLUPS = "/audit/rollups";
     }
 
     @UtilityClass
@@ -29,6 +32,39 @@ public class AppConstants {
         /** Metric: eventi audit salvati. */
         public static final String METRIC_AUDIT_EVENTS_SAVED = "audit.events.saved.count";
 
+        /** Metric: eventi audit scritti dall'ingestion Kafka a batch. */
+        public static final String METRIC_AUDIT_INGESTED = "audit.events.ingested.count";
+
+        /** Metric: messaggi Kafka riconsegnati scartati prima della scrittura. */
+        public static final String METRIC_AUDIT_DUPLICATES = "audit.events.duplicates.count";
+
+        /** Metric: eventi audit archiviati su object storage ed eliminati dal DB. */
+        public static final String METRIC_AUDIT_ARCHIVED = "audit.events.archived.count";
+
+        /** Container factory del listener batch di ingestion. */
+        public static final String BATCH_LISTENER_FACTORY = "auditBatchListenerContainerFactory";
+
+        /** Chiave dell'advisory lock che serializza la manutenzione delle partizioni tra le istanze. */
+        public static final long PARTITION_LOCK_KEY = 0x0A0D_0001L;
+
+        /** Dimensione di default e massima della pagina nella ricerca a cursore. */
+        public static final int CURSOR_DEFAULT_SIZE = 50;
+        public static final int CURSOR_MAX_SIZE = 500;
+
+        /** Righe trasferite per round trip dal cursore lato server durante l'export. */
+        public static final int EXPORT_FETCH_SIZE = 1000;
+
+        /** Prefisso dei parametri di ricerca che filtrano per contenimento su {@code details}. */
+        public static final String DETAILS_FILTER_PREFIX = "details.";
+
+        /** Numero massimo di filtri su {@code details} per richiesta e profondità massima del percorso. */
+        public static final int DETAILS_FILTER_MAX = 5;
+        public static final int DETAILS_FILTER_MAX_DEPTH = 8;
+
+        /** Ampiezza massima, in giorni, dell'intervallo interrogabile sui contatori orari e giornalieri. */
+        public static final int ROLLUP_MAX_HOURLY_DAYS = 31;
+        public static final int ROLLUP_MAX_DAILY_DAYS = 366;
+
         public static final String SOURCE_API = "api";
         public static final String SOURCE_KAFKA = "kafka";
 
@@ -1,8 +1,12 @@
 package it.sanitech.audit.web;
 
+import it.sanitech.audit.services.AuditRollupService;
 import it.sanitech.audit.services.AuditService;
 import it.sanitech.audit.services.dto.AuditEventCreateDto;
+import it.sanitech.audit.services.dto.AuditEventCursorPageDto;
 import it.sanitech.audit.services.dto.AuditEventDto;
+import it.sanitech.audit.services.dto.AuditRollupDto;
+import it.sanitech.audit.services.export.AuditExportFormat;
 import it.sanitech.audit.utilities.AppConstants;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import jakarta.servlet.http.HttpServletRequest;
@@ -11,11 +15,23 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * API per la registrazione e consultazione degli eventi di audit.
@@ -25,7 +41,11 @@ import java.time.Instant;
 @RequestMapping(AppConstants.ApiPath.API_BASE)
 public class AuditController {
 
+    private static final String GZIP_MEDIA_TYPE = "application/gzip";
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
     private final AuditService service;
+    private final AuditRollupService rollupService;
 
     /**
      * Registra un evento audit (tipicamente chiamata server-to-server).
@@ -39,6 +59,14 @@ public class AuditController {
 
     /**
      * Ricerca paginata (admin / audit.read).
+     * <p>
+     * I parametri {@code details.<percorso>=<valore>} (es. {@code details.payload.patientId=123}) filtrano per
+     * contenimento sul payload JSON; valgono anche per la ricerca a cursore e per l'export.
+     * </p>
+     * <p>
+     * Un {@code from} precedente ai mesi archiviati su object storage restituisce 400: quei periodi si
+     * consultano con la ricerca a cursore o con l'export, che leggono anche l'archivio.
+     * </p>
      */
     @GetMapping(AppConstants.ApiPath.AUDIT_EVENTS)
     @RateLimiter(name = "auditApi")
@@ -51,9 +79,107 @@ public class AuditController {
             @RequestParam(required = false) String outcome,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam MultiValueMap<String, String> params,
             Pageable pageable
     ) {
-        return service.search(actorId, action, resourceType, resourceId, outcome, from, to, pageable);
+        return service.search(actorId, action, resourceType, resourceId, outcome, from, to, detailsFilters(params), pageable);
+    }
+
+    /**
+     * Ricerca a cursore senza conteggio totale (admin / audit.read).
+     * <p>
+     * Restituisce gli eventi dal più recente e un {@code nextCursor} opaco da passare come {@code cursor}
+     * (con gli stessi filtri) per la pagina successiva; {@code size} è limitato a
+     * {@value AppConstants.Audit#CURSOR_MAX_SIZE}. Con {@code from} precedente ai mesi archiviati include
+     * gli eventi dell'archivio.
+     * </p>
+     */
+    @GetMapping(AppConstants.ApiPath.AUDIT_EVENTS_CURSOR)
+    @RateLimiter(name = "auditApi")
+    @PreAuthorize("hasRole('ADMIN') or hasAuthority('SCOPE_audit.read')")
+    public AuditEventCursorPageDto searchAfter(
+            @RequestParam(required = false) String actorId,
+            @RequestParam(required = false) String action,
+            @RequestParam(required = false) String resourceType,
+            @RequestParam(required = false) String resourceId,
+            @RequestParam(required = false) String outcome,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + AppConstants.Audit.CURSOR_DEFAULT_SIZE) int size,
+            @RequestParam MultiValueMap<String, String> params
+    ) {
+        return service.searchAfter(actorId, action, resourceType, resourceId, outcome, from, to, detailsFilters(params), cursor,
+                Math.min(size, AppConstants.Audit.CURSOR_MAX_SIZE));
+    }
+
+    /**
+     * Export in streaming (NDJSON o CSV, opzionalmente gzip) con gli stessi filtri della ricerca.
+     * <p>
+     * Gli eventi sono scritti sulla risposta man mano che vengono letti dal DB (e, con {@code from} precedente
+     * ai mesi archiviati, dall'archivio), senza bufferizzare l'export in memoria.
+     * </p>
+     */
+    @GetMapping(AppConstants.ApiPath.AUDIT_EVENTS_EXPORT)
+    @RateLimiter(name = "auditApi")
+    @PreAuthorize("hasRole('ADMIN') or hasAuthority('SCOPE_audit.read')")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) String actorId,
+            @RequestParam(required = false) String action,
+            @RequestParam(required = false) String resourceType,
+            @RequestParam(required = false) String resourceId,
+            @RequestParam(required = false) String outcome,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestParam MultiValueMap<String, String> params
+    ) {
+        AuditExportFormat exportFormat = AuditExportFormat.parse(format);
+        Map<String, String> details = detailsFilters(params);
+        String filename = "audit-events." + exportFormat.extension() + (gzip ? ".gz" : "");
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream compressed = new GZIPOutputStream(out, EXPORT_BUFFER_SIZE);
+                service.export(actorId, action, resourceType, resourceId, outcome, from, to, details, exportFormat, compressed);
+                compressed.finish();
+            } else {
+                service.export(actorId, action, resourceType, resourceId, outcome, from, to, details, exportFormat, out);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(gzip ? GZIP_MEDIA_TYPE : exportFormat.mediaType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
+
+    /**
+     * Conteggi aggregati per ora o giorno UTC dai contatori pre-aggregati (admin / audit.read).
+     * <p>
+     * {@code groupBy} accetta {@code action}, {@code resourceType}, {@code outcome}, {@code actorType};
+     * senza {@code groupBy} restituisce il totale per bucket.
+     * </p>
+     */
+    @GetMapping(AppConstants.ApiPath.AUDIT_ROLLUPS)
+    @RateLimiter(name = "auditApi")
+    @PreAuthorize("hasRole('ADMIN') or hasAuthority('SCOPE_audit.read')")
+    public List<AuditRollupDto> rollups(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(defaultValue = "hour") String granularity,
+            @RequestParam(required = false) List<String> groupBy,
+            @RequestParam(required = false) String action,
+            @RequestParam(required = false) String resourceType,
+            @RequestParam(required = false) String outcome,
+            @RequestParam(required = false) String actorType
+    ) {
+        Set<AuditRollupService.Dimension> dimensions = groupBy == null ? Set.of()
+                : groupBy.stream().map(AuditRollupService.Dimension::parse).collect(Collectors.toSet());
+        return rollupService.rollups(from, to, AuditRollupService.Granularity.parse(granularity), dimensions,
+                action, resourceType, outcome, actorType);
     }
 
     /**
@@ -66,6 +192,19 @@ public class AuditController {
         return service.getById(id);
     }
 
+    /**
+     * Estrae i filtri {@code details.<percorso>} dai parametri di richiesta, togliendo il prefisso.
+     */
+    private static Map<String, String> detailsFilters(MultiValueMap<String, String> params) {
+        Map<String, String> filters = new LinkedHashMap<>();
+        params.forEach((name, values) -> {
+            if (name.startsWith(AppConstants.Audit.DETAILS_FILTER_PREFIX) && !values.isEmpty()) {
+                filters.put(name.substring(AppConstants.Audit.DETAILS_FILTER_PREFIX.length()), values.get(0));
+            }
+        });
+        return filters;
+    }
+
     private static String clientIp(HttpServletRequest request) {
         // In presenza di gateway/ingress, usare X-Forwarded-For.
         String xff = request.getHeader("X-Forwarded-For");
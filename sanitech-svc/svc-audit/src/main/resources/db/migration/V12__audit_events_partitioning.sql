@@ -0,0 +1,74 @@
+-- V12__audit_events_partitioning.sql
+-- Converte audit_events in tabella partizionata per mese su occurred_at.
+-- Le query con intervallo from/to leggono solo le partizioni interessate (partition pruning);
+-- le partizioni future sono create dal job AuditPartitionMaintenanceJob, quelle oltre la
+-- retention configurata vengono staccate (DETACH) senza DELETE di massa.
+-- Tutti gli eventi esistenti vengono migrati: l'audit è storico e non va perso.
+
+ALTER TABLE audit_events RENAME TO audit_events_legacy;
+ALTER TABLE audit_events_legacy RENAME CONSTRAINT audit_events_pkey TO audit_events_legacy_pkey;
+ALTER INDEX IF EXISTS idx_audit_occurred_at RENAME TO idx_audit_occurred_at_legacy;
+ALTER INDEX IF EXISTS idx_audit_actor_id RENAME TO idx_audit_actor_id_legacy;
+ALTER INDEX IF EXISTS idx_audit_resource RENAME TO idx_audit_resource_legacy;
+ALTER SEQUENCE audit_events_id_seq OWNED BY NONE;
+
+CREATE TABLE audit_events (
+  id            BIGINT       NOT NULL DEFAULT nextval('audit_events_id_seq'),
+  occurred_at   TIMESTAMPTZ  NOT NULL DEFAULT NOW(),
+  source        VARCHAR(64)  NOT NULL,
+  actor_type    VARCHAR(32)  NOT NULL,
+  actor_id      VARCHAR(128),
+  action        VARCHAR(64)  NOT NULL,
+  resource_type VARCHAR(64),
+  resource_id   VARCHAR(128),
+  outcome       VARCHAR(32)  NOT NULL,
+  ip            VARCHAR(64),
+  trace_id      VARCHAR(64),
+  details       JSONB,
+  created_at    TIMESTAMPTZ  NOT NULL DEFAULT NOW(),
+  PRIMARY KEY (id, occurred_at)
+) PARTITION BY RANGE (occurred_at);
+
+ALTER SEQUENCE audit_events_id_seq OWNED BY audit_events.id;
+
+-- Partizione di default: raccoglie eventi fuori dai range mensili (es. occurred_at anomali dai producer).
+CREATE TABLE audit_events_default PARTITION OF audit_events DEFAULT;
+
+-- Partizioni mensili dal mese del primo evento esistente fino al mese successivo a quello corrente;
+-- le seguenti sono create dal job di manutenzione.
+DO $$
+DECLARE
+    first_month DATE := COALESCE(
+        (SELECT date_trunc('month', MIN(occurred_at) AT TIME ZONE 'UTC')::date FROM audit_events_legacy),
+        date_trunc('month', NOW() AT TIME ZONE 'UTC')::date);
+    last_month  DATE := (date_trunc('month', NOW() AT TIME ZONE 'UTC') + INTERVAL '1 month')::date;
+    month_start DATE := first_month;
+BEGIN
+    WHILE month_start <= last_month LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF audit_events FOR VALUES FROM (%L) TO (%L)',
+                       'audit_events_' || to_char(month_start, 'YYYYMM'),
+                       month_start::timestamp AT TIME ZONE 'UTC',
+                       (month_start + INTERVAL '1 month')::timestamp AT TIME ZONE 'UTC');
+        month_start := (month_start + INTERVAL '1 month')::date;
+    END LOOP;
+END $$;
+
+-- Indici definiti sulla tabella padre: PostgreSQL li crea come indici locali su ogni partizione,
+-- incluse quelle create in seguito.
+-- BRIN su occurred_at: gli eventi arrivano in ordine di tempo, quindi ogni blocco copre un intervallo
+-- ristretto e l'indice occupa pochi KB per partizione invece di una B-tree grande quanto i dati.
+CREATE INDEX IF NOT EXISTS idx_audit_occurred_at_brin ON audit_events USING brin (occurred_at) WITH (pages_per_range = 32);
+CREATE INDEX IF NOT EXISTS idx_audit_actor_id ON audit_events (actor_id);
+CREATE INDEX IF NOT EXISTS idx_audit_resource ON audit_events (resource_type, resource_id);
+
+-- Copia in ordine di occurred_at per mantenere la correlazione fisica su cui si basa il BRIN.
+INSERT INTO audit_events (id, occurred_at, source, actor_type, actor_id, action, resource_type, resource_id,
+                          outcome, ip, trace_id, details, created_at)
+SELECT id, occurred_at, source, actor_type, actor_id, action, resource_type, resource_id,
+       outcome, ip, trace_id, details, created_at
+FROM audit_events_legacy
+ORDER BY occurred_at, id;
+
+DROP TABLE audit_events_legacy;
+
+ANALYZE audit_events;
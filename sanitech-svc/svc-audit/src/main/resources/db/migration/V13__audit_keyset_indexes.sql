@@ -0,0 +1,15 @@
+-- V13__audit_keyset_indexes.sql
+-- Indici per la ricerca a cursore (keyset) su (occurred_at, id) in ordine decrescente.
+-- Con ORDER BY occurred_at DESC, id DESC LIMIT n PostgreSQL legge le partizioni in ordine
+-- (dalla più recente) e si ferma dopo n righe: il costo di una pagina non dipende dalla profondità.
+-- Il BRIN resta per le scansioni di intervalli ampi; gli indici per attore e risorsa vengono
+-- estesi con la chiave di ordinamento così anche le ricerche filtrate restano a costo O(pagina).
+
+CREATE INDEX IF NOT EXISTS idx_audit_occurred_at_id ON audit_events (occurred_at DESC, id DESC);
+
+DROP INDEX IF EXISTS idx_audit_actor_id;
+CREATE INDEX IF NOT EXISTS idx_audit_actor_occurred ON audit_events (actor_id, occurred_at DESC, id DESC);
+
+DROP INDEX IF EXISTS idx_audit_resource;
+CREATE INDEX IF NOT EXISTS idx_audit_resource_occurred
+    ON audit_events (resource_type, resource_id, occurred_at DESC, id DESC);
@@ -0,0 +1,13 @@
+-- V14__audit_ingest_key.sql
+-- Chiave di idempotenza dell'ingestion Kafka: id dell'evento outbox a monte (header outbox-event-id)
+-- qualificato dal topic, oppure topic/partizione/offset per i messaggi senza header.
+-- Il vincolo univoco include occurred_at perché su tabella partizionata deve contenere la chiave di
+-- partizione: l'ingestion ricava occurred_at dall'envelope (o dal timestamp del record), quindi una
+-- riconsegna dello stesso messaggio produce la stessa coppia e l'INSERT ... ON CONFLICT DO NOTHING la scarta.
+-- Gli eventi registrati via API hanno chiave NULL e non sono soggetti al vincolo.
+
+ALTER TABLE audit_events ADD COLUMN IF NOT EXISTS ingest_key VARCHAR(255);
+
+COMMENT ON COLUMN audit_events.ingest_key IS 'Chiave di idempotenza dell''ingestion Kafka (NULL per eventi da API)';
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_audit_ingest_key ON audit_events (ingest_key, occurred_at);
@@ -0,0 +1,30 @@
+-- V15__audit_rollups_hourly.sql
+-- Contatori orari pre-aggregati per le dashboard: numero di eventi per ora UTC, azione, tipo risorsa,
+-- esito e tipo attore. Sono incrementati nella stessa transazione che inserisce gli eventi, quindi
+-- le query di sintesi leggono poche migliaia di righe invece di scansionare audit_events.
+-- La tabella non è partizionata né soggetta al DETACH delle partizioni: le serie storiche restano
+-- disponibili anche dopo l'archiviazione degli eventi di dettaglio.
+-- resource_type assente è memorizzato come stringa vuota perché fa parte della chiave primaria.
+
+CREATE TABLE IF NOT EXISTS audit_rollups_hourly (
+  bucket_start  TIMESTAMPTZ  NOT NULL,
+  action        VARCHAR(64)  NOT NULL,
+  resource_type VARCHAR(64)  NOT NULL DEFAULT '',
+  outcome       VARCHAR(32)  NOT NULL,
+  actor_type    VARCHAR(32)  NOT NULL,
+  event_count   BIGINT       NOT NULL,
+  PRIMARY KEY (bucket_start, action, resource_type, outcome, actor_type)
+);
+
+COMMENT ON TABLE audit_rollups_hourly IS 'Conteggio orario degli eventi audit per azione, tipo risorsa, esito e tipo attore';
+
+-- Popolamento iniziale dagli eventi esistenti.
+INSERT INTO audit_rollups_hourly (bucket_start, action, resource_type, outcome, actor_type, event_count)
+SELECT date_trunc('hour', occurred_at AT TIME ZONE 'UTC') AT TIME ZONE 'UTC',
+       action, COALESCE(resource_type, ''), outcome, actor_type, count(*)
+FROM audit_events
+GROUP BY 1, 2, 3, 4, 5
+ON CONFLICT (bucket_start, action, resource_type, outcome, actor_type)
+DO UPDATE SET event_count = audit_rollups_hourly.event_count + EXCLUDED.event_count;
+
+ANALYZE audit_rollups_hourly;
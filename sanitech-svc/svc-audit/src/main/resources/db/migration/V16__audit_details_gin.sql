@@ -0,0 +1,10 @@
+-- V16__audit_details_gin.sql
+-- Indice GIN con operator class jsonb_path_ops su details: supporta solo l'operatore di contenimento @>,
+-- ma è più compatto e più rapido di jsonb_ops perché indicizza un hash per ogni percorso chiave→valore.
+-- I filtri details.<percorso>=<valore> della ricerca diventano details @> '{...}' e il planner risolve
+-- il contenimento con un bitmap scan sull'indice, invece di leggere e decodificare ogni payload.
+-- Definito sulla tabella padre: PostgreSQL crea l'indice locale su ogni partizione, incluse quelle future.
+-- Su tabella partizionata CREATE INDEX CONCURRENTLY non è disponibile: con molti dati conviene creare prima
+-- gli indici sulle singole partizioni (CONCURRENTLY) e poi quello sul padre, che li riutilizza.
+
+CREATE INDEX IF NOT EXISTS idx_audit_details_gin ON audit_events USING gin (details jsonb_path_ops);
@@ -0,0 +1,16 @@
+-- V17__audit_archives.sql
+-- Catalogo dell'archivio freddo: una riga per mese di audit_events esportato su S3/MinIO (NDJSON gzip)
+-- ed eliminato dal DB dal job AuditArchiveJob. La lettura degli eventi archiviati usa il catalogo per
+-- sapere quali oggetti aprire per un intervallo, senza elencare il bucket.
+-- I contatori orari di audit_rollups_hourly non vengono toccati dall'archiviazione.
+
+CREATE TABLE IF NOT EXISTS audit_archives (
+  range_start  TIMESTAMPTZ  PRIMARY KEY,
+  range_end    TIMESTAMPTZ  NOT NULL,
+  object_key   VARCHAR(512) NOT NULL,
+  event_count  BIGINT       NOT NULL,
+  size_bytes   BIGINT       NOT NULL,
+  archived_at  TIMESTAMPTZ  NOT NULL DEFAULT NOW()
+);
+
+COMMENT ON TABLE audit_archives IS 'Mesi di audit_events archiviati su object storage (intervallo [range_start, range_end))';
@@ -0,0 +1,8 @@
+-- V7__outbox_envelope_column.sql
+-- Envelope Kafka già serializzato in fase di scrittura (sanitech.outbox.store-envelope=true).
+-- Se valorizzato, il publisher lo invia così com'è senza ricostruirlo dal payload jsonb.
+
+ALTER TABLE outbox_events
+    ADD COLUMN IF NOT EXISTS envelope TEXT;
+
+COMMENT ON COLUMN outbox_events.envelope IS 'Envelope Kafka pre-serializzato (opzionale). Se NULL viene costruito in pubblicazione.';
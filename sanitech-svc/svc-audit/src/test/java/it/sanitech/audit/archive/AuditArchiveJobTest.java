@@ -0,0 +1,175 @@
+package it.sanitech.audit.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.sanitech.audit.utilities.AppConstants;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class AuditArchiveJobTest {
+
+    private static final String TABLE = "audit_events_202301";
+    private static final String KEY = "audit-events/2023/audit_events_202301.ndjson.gz";
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final JdbcTemplate jdbc = Mockito.mock(JdbcTemplate.class);
+    private final AuditArchiveStore store = Mockito.mock(AuditArchiveStore.class);
+    private final AuditArchiveCatalog catalog = Mockito.mock(AuditArchiveCatalog.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AuditArchiveJob job() {
+        return new AuditArchiveJob(jdbc, new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+                store, catalog, new AuditArchiveProperties(), objectMapper, meterRegistry);
+    }
+
+    @Test
+    void eligibleTablesIncludesAttachedAndDetachedMonthsBeforeThreshold() {
+        var eligible = AuditArchiveJob.eligibleTables(List.of(
+                "audit_events_202301",
+                "audit_events_archive_202212",
+                "audit_events_202302",
+                "audit_events_default",
+                "audit_events_2023011"), YearMonth.of(2023, 2));
+
+        assertThat(eligible).containsExactly(
+                Map.entry(YearMonth.of(2022, 12), "audit_events_archive_202212"),
+                Map.entry(YearMonth.of(2023, 1), "audit_events_202301"));
+    }
+
+    @Test
+    void objectKeyGroupsFilesByYear() {
+        assertThat(AuditArchiveJob.objectKey("audit-events/", YearMonth.of(2023, 4)))
+                .isEqualTo("audit-events/2023/audit_events_202304.ndjson.gz");
+    }
+
+    @Test
+    void archiveUploadsExportThenRecordsAndDropsWhenCountMatches() throws Exception {
+        exportRows(2);
+        stubLockAndExists();
+        when(jdbc.queryForObject("SELECT count(*) FROM " + TABLE, Long.class)).thenReturn(2L);
+        List<String> uploaded = new ArrayList<>();
+        when(store.upload(eq(KEY), any(Path.class))).thenAnswer(invocation -> {
+            uploaded.addAll(readGzipLines(invocation.getArgument(1)));
+            return 321L;
+        });
+
+        job().archive(TABLE, YearMonth.of(2023, 1));
+
+        assertThat(uploaded).hasSize(2);
+        assertThat(objectMapper.readTree(uploaded.get(0)).get("id").asLong()).isEqualTo(1L);
+        assertThat(objectMapper.readTree(uploaded.get(1)).get("details").get("k").asInt()).isEqualTo(1);
+
+        var order = inOrder(store, jdbc, catalog);
+        order.verify(store).upload(eq(KEY), any(Path.class));
+        order.verify(jdbc).queryForObject(startsWith("SELECT pg_try_advisory_xact_lock"), eq(Boolean.class), eq(AppConstants.Audit.PARTITION_LOCK_KEY));
+        order.verify(jdbc).execute("LOCK TABLE " + TABLE + " IN ACCESS EXCLUSIVE MODE");
+        order.verify(jdbc).queryForObject("SELECT count(*) FROM " + TABLE, Long.class);
+        ArgumentCaptor<AuditArchiveCatalog.ArchivedRange> range = ArgumentCaptor.forClass(AuditArchiveCatalog.ArchivedRange.class);
+        order.verify(catalog).record(range.capture(), eq(321L));
+        order.verify(jdbc).execute("DROP TABLE " + TABLE);
+
+        assertThat(range.getValue()).isEqualTo(new AuditArchiveCatalog.ArchivedRange(
+                Instant.parse("2023-01-01T00:00:00Z"), Instant.parse("2023-02-01T00:00:00Z"), KEY, 2L));
+        assertThat(meterRegistry.get(AppConstants.Audit.METRIC_AUDIT_ARCHIVED).counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void archiveKeepsTableWhenRowsChangedDuringExport() throws Exception {
+        exportRows(2);
+        stubLockAndExists();
+        when(jdbc.queryForObject("SELECT count(*) FROM " + TABLE, Long.class)).thenReturn(3L);
+        when(store.upload(eq(KEY), any(Path.class))).thenReturn(321L);
+
+        job().archive(TABLE, YearMonth.of(2023, 1));
+
+        verify(store).upload(eq(KEY), any(Path.class));
+        verify(catalog, never()).record(any(), Mockito.anyLong());
+        verify(jdbc, never()).execute(startsWith("DROP TABLE"));
+        assertThat(meterRegistry.find(AppConstants.Audit.METRIC_AUDIT_ARCHIVED).counter()).isNull();
+    }
+
+    @Test
+    void archiveDropsEmptyMonthWithoutUploadOrCatalogEntry() throws Exception {
+        exportRows(0);
+        stubLockAndExists();
+        when(jdbc.queryForObject("SELECT count(*) FROM " + TABLE, Long.class)).thenReturn(0L);
+
+        job().archive(TABLE, YearMonth.of(2023, 1));
+
+        verify(store, never()).upload(anyString(), any(Path.class));
+        verify(catalog, never()).record(any(), Mockito.anyLong());
+        verify(jdbc).execute("DROP TABLE " + TABLE);
+    }
+
+    @Test
+    void archiveIsPostponedWhenPartitionMaintenanceHoldsTheLock() throws Exception {
+        exportRows(1);
+        when(jdbc.queryForObject(startsWith("SELECT pg_try_advisory_xact_lock"), eq(Boolean.class), any())).thenReturn(false);
+        when(store.upload(eq(KEY), any(Path.class))).thenReturn(100L);
+
+        job().archive(TABLE, YearMonth.of(2023, 1));
+
+        verify(jdbc, never()).execute(anyString());
+        verify(catalog, never()).record(any(), Mockito.anyLong());
+    }
+
+    private void stubLockAndExists() {
+        when(jdbc.queryForObject(startsWith("SELECT pg_try_advisory_xact_lock"), eq(Boolean.class), any())).thenReturn(true);
+        when(jdbc.queryForObject(startsWith("SELECT to_regclass"), eq(Boolean.class), eq(TABLE))).thenReturn(true);
+    }
+
+    /** Simula il cursore dell'export: righe con id 1..rows, l'ultima con {@code details}. */
+    private void exportRows(int rows) throws Exception {
+        ResultSet rs = Mockito.mock(ResultSet.class);
+        when(rs.getTimestamp("occurred_at")).thenReturn(Timestamp.from(Instant.parse("2023-01-05T00:00:00Z")));
+        when(rs.getString("source")).thenReturn(AppConstants.Audit.SOURCE_KAFKA);
+        when(rs.getString("action")).thenReturn("SYNC");
+        when(rs.getString("outcome")).thenReturn(AppConstants.Audit.OUTCOME_SUCCESS);
+
+        Mockito.doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (long id = 1; id <= rows; id++) {
+                when(rs.getLong("id")).thenReturn(id);
+                when(rs.getString("details")).thenReturn(id == rows ? "{\"k\":1}" : null);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbc).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    private static List<String> readGzipLines(Path file) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            return reader.lines().toList();
+        }
+    }
+}
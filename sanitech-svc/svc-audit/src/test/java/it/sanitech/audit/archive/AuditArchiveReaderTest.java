@@ -0,0 +1,135 @@
+package it.sanitech.audit.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.services.AuditCursor;
+import it.sanitech.audit.services.dto.AuditEventDto;
+import it.sanitech.audit.services.export.AuditExportFormat;
+import it.sanitech.audit.services.export.AuditExportWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class AuditArchiveReaderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Test
+    void searchMergesArchivedFilesNewestFirstWithFiltersAndLimit() throws Exception {
+        AuditArchiveCatalog catalog = Mockito.mock(AuditArchiveCatalog.class);
+        AuditArchiveStore store = Mockito.mock(AuditArchiveStore.class);
+        AuditArchiveProperties props = new AuditArchiveProperties();
+        props.setReadParallelism(2);
+
+        when(catalog.overlapping(any(), any())).thenReturn(List.of(
+                range("2023-02-01T00:00:00Z", "2023-03-01T00:00:00Z", "feb"),
+                range("2023-01-01T00:00:00Z", "2023-02-01T00:00:00Z", "jan")));
+        when(store.open("jan")).thenAnswer(invocation -> gzip(
+                event(1L, "2023-01-05T00:00:00Z", "DENIED"),
+                event(2L, "2023-01-20T00:00:00Z", "DENIED")));
+        when(store.open("feb")).thenAnswer(invocation -> gzip(
+                event(3L, "2023-02-02T00:00:00Z", "SUCCESS"),
+                event(4L, "2023-02-03T00:00:00Z", "DENIED"),
+                event(5L, "2023-02-27T00:00:00Z", "DENIED")));
+
+        AuditArchiveReader reader = new AuditArchiveReader(catalog, store, objectMapper, props);
+        try {
+            List<AuditEventDto> result = reader.search(null, null, null, null, "DENIED",
+                    Instant.parse("2023-01-10T00:00:00Z"), Instant.parse("2023-02-10T00:00:00Z"), null, null, 2);
+
+            assertThat(result).extracting(AuditEventDto::id).containsExactly(4L, 2L);
+        } finally {
+            reader.destroy();
+        }
+    }
+
+    @Test
+    void searchAppliesDetailsFiltersAndContinuesAfterCursor() throws Exception {
+        AuditArchiveCatalog catalog = Mockito.mock(AuditArchiveCatalog.class);
+        AuditArchiveStore store = Mockito.mock(AuditArchiveStore.class);
+
+        when(catalog.overlapping(any(), any())).thenReturn(List.of(
+                range("2023-01-01T00:00:00Z", "2023-02-01T00:00:00Z", "jan")));
+        when(store.open("jan")).thenAnswer(invocation -> gzip(
+                event(1L, "2023-01-05T00:00:00Z", "SUCCESS", "{\"payload\":{\"patientId\":123}}"),
+                event(2L, "2023-01-06T00:00:00Z", "SUCCESS", "{\"payload\":{\"patientId\":\"123\",\"x\":1}}"),
+                event(3L, "2023-01-07T00:00:00Z", "SUCCESS", "{\"payload\":{\"patientId\":124}}"),
+                event(4L, "2023-01-08T00:00:00Z", "SUCCESS", null),
+                event(5L, "2023-01-09T00:00:00Z", "SUCCESS", "{\"payload\":{\"patientId\":123.0}}")));
+
+        AuditArchiveReader reader = new AuditArchiveReader(catalog, store, objectMapper, new AuditArchiveProperties());
+        try {
+            Map<String, String> details = Map.of("payload.patientId", "123");
+            Instant from = Instant.parse("2023-01-01T00:00:00Z");
+
+            assertThat(reader.search(null, null, null, null, null, from, null, details, null, 10))
+                    .extracting(AuditEventDto::id).containsExactly(5L, 2L, 1L);
+            assertThat(reader.search(null, null, null, null, null, from, null, details,
+                    new AuditCursor(Instant.parse("2023-01-09T00:00:00Z"), 5L), 10))
+                    .extracting(AuditEventDto::id).containsExactly(2L, 1L);
+        } finally {
+            reader.destroy();
+        }
+    }
+
+    @Test
+    void forEachStreamsArchivedMonthsOldestFirst() throws Exception {
+        AuditArchiveCatalog catalog = Mockito.mock(AuditArchiveCatalog.class);
+        AuditArchiveStore store = Mockito.mock(AuditArchiveStore.class);
+
+        when(catalog.overlapping(any(), any())).thenReturn(List.of(
+                range("2023-02-01T00:00:00Z", "2023-03-01T00:00:00Z", "feb"),
+                range("2023-01-01T00:00:00Z", "2023-02-01T00:00:00Z", "jan")));
+        when(store.open("jan")).thenAnswer(invocation -> gzip(
+                event(1L, "2023-01-05T00:00:00Z", "DENIED"),
+                event(2L, "2023-01-20T00:00:00Z", "SUCCESS")));
+        when(store.open("feb")).thenAnswer(invocation -> gzip(
+                event(3L, "2023-02-02T00:00:00Z", "DENIED")));
+
+        AuditArchiveReader reader = new AuditArchiveReader(catalog, store, objectMapper, new AuditArchiveProperties());
+        try {
+            List<Long> ids = new ArrayList<>();
+            long count = reader.forEach(null, null, null, null, "DENIED",
+                    Instant.parse("2023-01-01T00:00:00Z"), null, null, e -> ids.add(e.id()));
+
+            assertThat(count).isEqualTo(2);
+            assertThat(ids).containsExactly(1L, 3L);
+        } finally {
+            reader.destroy();
+        }
+    }
+
+    private static AuditArchiveCatalog.ArchivedRange range(String start, String end, String key) {
+        return new AuditArchiveCatalog.ArchivedRange(Instant.parse(start), Instant.parse(end), key, 0L);
+    }
+
+    private static AuditEventDto event(long id, String occurredAt, String outcome) {
+        return new AuditEventDto(id, Instant.parse(occurredAt), "kafka", "SERVICE", "svc", "SYNC",
+                null, null, outcome, null, null, null);
+    }
+
+    private AuditEventDto event(long id, String occurredAt, String outcome, String details) throws Exception {
+        return new AuditEventDto(id, Instant.parse(occurredAt), "kafka", "SERVICE", "svc", "SYNC",
+                null, null, outcome, null, null, details == null ? null : objectMapper.readTree(details));
+    }
+
+    private ByteArrayInputStream gzip(AuditEventDto... events) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes);
+             AuditExportWriter writer = AuditExportWriter.open(AuditExportFormat.NDJSON, out, objectMapper)) {
+            for (AuditEventDto event : events) {
+                writer.write(event);
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
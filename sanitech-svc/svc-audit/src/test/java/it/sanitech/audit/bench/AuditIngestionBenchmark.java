@@ -0,0 +1,99 @@
+package it.sanitech.audit.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.ingestion.AuditEnvelopeMapper;
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import it.sanitech.outbox.codec.JacksonEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronto JMH tra i due percorsi di ingestion di un messaggio audit, fino alla stringa scritta in {@code details}.
+ *
+ * <ul>
+ *   <li>{@code treeIngestion}: percorso storico, albero {@link JsonNode} completo, campi letti dall'albero
+ *       e riserializzazione per la colonna jsonb;</li>
+ *   <li>{@code streamingIngestion}: {@link AuditEnvelopeMapper}, campi di intestazione letti in streaming
+ *       e messaggio originale conservato così com'è.</li>
+ * </ul>
+ *
+ * <p>
+ * Per l'allocazione per evento usare il profiler GC di JMH ({@code -prof gc}):
+ * <pre>{@code
+ * mvn -pl svc-audit test-compile exec:java \
+ *     -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main \
+ *     -Dexec.args="AuditIngestionBenchmark -prof gc"
+ * }</pre>
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditIngestionBenchmark {
+
+    private ObjectMapper objectMapper;
+    private AuditEnvelopeMapper envelopeMapper;
+    private ConsumerRecord<String, byte[]> record;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        envelopeMapper = new AuditEnvelopeMapper(objectMapper,
+                new OutboxEnvelopeCodecs(List.of(JacksonEnvelopeCodec.json(objectMapper))));
+
+        String envelope = "{\"aggregateType\":\"APPOINTMENT\",\"aggregateId\":\"4711\",\"eventType\":\"APPOINTMENT_COMPLETED\","
+                + "\"actor\":{\"type\":\"DOCTOR\",\"id\":\"doctor@sanitech.it\",\"name\":\"Dott. Rossi\"},"
+                + "\"occurredAt\":\"2026-10-17T08:00:00Z\","
+                + "\"payload\":{\"appointmentId\":4711,\"patientId\":42,\"doctorId\":7,\"departmentCode\":\"CARD\","
+                + "\"startsAt\":\"2026-10-17T09:30:00Z\",\"mode\":\"IN_PERSON\",\"status\":\"COMPLETED\","
+                + "\"notes\":[\"controllo\",\"follow-up a 30 giorni\"],\"vitals\":{\"hr\":72,\"bp\":\"120/80\"}}}";
+        record = new ConsumerRecord<>("audits.events", 0, 0L, "4711", envelope.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Percorso storico: albero completo e riserializzazione di {@code details}.
+     */
+    @Benchmark
+    public String treeIngestion() throws IOException {
+        JsonNode envelope = objectMapper.readTree(record.value());
+        JsonNode actor = envelope.get("actor");
+        AuditEvent event = AuditEvent.builder()
+                .occurredAt(Instant.parse(envelope.get("occurredAt").asText()))
+                .actorType(actor.get("type").asText())
+                .actorId(actor.get("id").asText())
+                .action(envelope.get("eventType").asText())
+                .resourceType(envelope.get("aggregateType").asText())
+                .resourceId(envelope.get("aggregateId").asText())
+                .details(envelope)
+                .build();
+        return objectMapper.writeValueAsString(event.getDetails());
+    }
+
+    /**
+     * Percorso in streaming: nessun albero, {@code details} è il messaggio originale.
+     */
+    @Benchmark
+    public String streamingIngestion() {
+        return envelopeMapper.toAuditEvent(record).getDetailsJson();
+    }
+}
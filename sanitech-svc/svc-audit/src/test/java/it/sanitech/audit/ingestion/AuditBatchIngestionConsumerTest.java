@@ -0,0 +1,175 @@
+package it.sanitech.audit.ingestion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.repositories.AuditEventBatchWriter;
+import it.sanitech.audit.repositories.entities.AuditEvent;
+import it.sanitech.audit.utilities.AppConstants;
+import it.sanitech.outbox.codec.JacksonEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+import it.sanitech.outbox.persistence.OutboxEvent;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+class AuditBatchIngestionConsumerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OutboxEnvelopeCodecs codecs = new OutboxEnvelopeCodecs(List.of(
+            JacksonEnvelopeCodec.json(objectMapper),
+            JacksonEnvelopeCodec.smile(objectMapper)));
+
+    @Test
+    void onBatchWritesTheWholePollWithOneBatchInsert() throws Exception {
+        AuditEventBatchWriter writer = Mockito.mock(AuditEventBatchWriter.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        when(writer.insertAll(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+
+        AuditBatchIngestionConsumer consumer = new AuditBatchIngestionConsumer(
+                new AuditEnvelopeMapper(objectMapper, codecs), idempotent(writer, meterRegistry), meterRegistry);
+
+        String json = "{\"aggregateType\":\"DOCTOR\",\"aggregateId\":\"7\",\"eventType\":\"DOCTOR_CREATED\","
+                + "\"actor\":{\"type\":\"ADMIN\",\"id\":\"admin@sanitech.it\"},\"occurredAt\":\"2026-02-03T10:00:00Z\"}";
+        ConsumerRecord<String, byte[]> jsonRecord =
+                new ConsumerRecord<>("audits.events", 0, 10L, "7", json.getBytes(StandardCharsets.UTF_8));
+
+        ConsumerRecord<String, byte[]> smileRecord = new ConsumerRecord<>("audits.events", 0, 11L, "8",
+                JacksonEnvelopeCodec.smile(objectMapper).encode(
+                        OutboxEvent.builder()
+                                .aggregateType("PATIENT").aggregateId("8").eventType("PATIENT_UPDATED").build()));
+        smileRecord.headers().add(OutboxConstants.HEADER_CONTENT_TYPE,
+                JacksonEnvelopeCodec.SMILE.getBytes(StandardCharsets.UTF_8));
+
+        consumer.onBatch(List.of(jsonRecord, smileRecord));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AuditEvent>> captor = ArgumentCaptor.forClass(List.class);
+        verify(writer).insertAll(captor.capture());
+        assertThat(captor.getValue())
+                .extracting(AuditEvent::getAction, AuditEvent::getResourceId, AuditEvent::getActorType)
+                .containsExactly(
+                        tuple("DOCTOR_CREATED", "7", "ADMIN"),
+                        tuple("PATIENT_UPDATED", "8", "SYSTEM"));
+        assertThat(captor.getValue()).allSatisfy(e -> assertThat(e.getSource()).isEqualTo(AppConstants.Audit.SOURCE_KAFKA));
+        assertThat(meterRegistry.counter(AppConstants.Audit.METRIC_AUDIT_INGESTED).count()).isEqualTo(2.0);
+
+        // JSON conservato byte per byte, Smile convertito in JSON.
+        assertThat(captor.getValue().get(0).getDetailsJson()).isEqualTo(json);
+        assertThat(captor.getValue().get(0).getDetails()).isNull();
+        assertThat(objectMapper.readTree(captor.getValue().get(1).getDetailsJson()).get("eventType").asText())
+                .isEqualTo("PATIENT_UPDATED");
+    }
+
+    @Test
+    void mapperSkipsPayloadAndKeepsMalformedMessagesAsRawText() throws Exception {
+        AuditEnvelopeMapper mapper = new AuditEnvelopeMapper(objectMapper, codecs);
+
+        String json = "{\"payload\":{\"eventType\":\"NESTED\",\"items\":[1,{\"a\":null}]},"
+                + "\"aggregateId\":42,\"actor\":{\"name\":\"x\",\"id\":\"u1\"},\"eventType\":\"VISIT_CLOSED\"}";
+        AuditEvent parsed = mapper.toAuditEvent(
+                new ConsumerRecord<>("televisit.events", 0, 1L, "k", json.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(parsed.getAction()).isEqualTo("VISIT_CLOSED");
+        assertThat(parsed.getResourceId()).isEqualTo("42");
+        assertThat(parsed.getResourceType()).isEqualTo("televisit.events");
+        assertThat(parsed.getActorId()).isEqualTo("u1");
+        assertThat(parsed.getActorType()).isEqualTo("SYSTEM");
+        assertThat(parsed.getDetailsJson()).isEqualTo(json);
+
+        String truncated = "{\"eventType\":\"X\",\"payload\":{\"a\":";
+        AuditEvent raw = mapper.toAuditEvent(
+                new ConsumerRecord<>("televisit.events", 0, 2L, "k", truncated.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(raw.getAction()).isEqualTo("UNKNOWN");
+        assertThat(objectMapper.readTree(raw.getDetailsJson()).get("raw").asText()).isEqualTo(truncated);
+    }
+
+    @Test
+    void onBatchPropagatesWriteFailuresSoOffsetsAreNotCommitted() {
+        AuditEventBatchWriter writer = Mockito.mock(AuditEventBatchWriter.class);
+        when(writer.insertAll(anyList())).thenThrow(new IllegalStateException("db down"));
+
+        AuditBatchIngestionConsumer consumer = new AuditBatchIngestionConsumer(
+                new AuditEnvelopeMapper(objectMapper, codecs), idempotent(writer, new SimpleMeterRegistry()),
+                new SimpleMeterRegistry());
+
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("audits.events", 0, 1L, "1",
+                "{\"eventType\":\"X\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> consumer.onBatch(List.of(record))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void redeliveredRecordsAreDroppedWithOneLookupOnlyForKeysSeenBefore() {
+        AuditEventBatchWriter writer = Mockito.mock(AuditEventBatchWriter.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        when(writer.insertAll(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+        when(writer.existingKeys(anyList())).thenReturn(Set.of("svc-scheduling:1@audits.events"));
+
+        AuditBatchIngestionConsumer consumer = new AuditBatchIngestionConsumer(
+                new AuditEnvelopeMapper(objectMapper, codecs), idempotent(writer, meterRegistry), meterRegistry);
+
+        ConsumerRecord<String, byte[]> first = withEventId(record(10L), "svc-scheduling:1");
+        ConsumerRecord<String, byte[]> second = withEventId(record(11L), "svc-scheduling:2");
+        consumer.onBatch(List.of(first, second, first));
+
+        // Poll successivo dopo un rebalance: stesso evento a monte ripubblicato con offset diverso, più uno nuovo.
+        ConsumerRecord<String, byte[]> republished = withEventId(record(12L), "svc-scheduling:1");
+        ConsumerRecord<String, byte[]> withoutHeader = record(13L);
+        consumer.onBatch(List.of(republished, withoutHeader));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AuditEvent>> inserted = ArgumentCaptor.forClass(List.class);
+        verify(writer, Mockito.times(2)).insertAll(inserted.capture());
+        assertThat(inserted.getAllValues().get(0)).extracting(AuditEvent::getIngestKey)
+                .containsExactly("svc-scheduling:1@audits.events", "svc-scheduling:2@audits.events");
+        assertThat(inserted.getAllValues().get(1)).extracting(AuditEvent::getIngestKey)
+                .containsExactly("audits.events/0/13");
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AuditEvent>> looked = ArgumentCaptor.forClass(List.class);
+        verify(writer).existingKeys(looked.capture());
+        assertThat(looked.getValue()).extracting(AuditEvent::getIngestKey)
+                .containsExactly("svc-scheduling:1@audits.events");
+        assertThat(meterRegistry.counter(AppConstants.Audit.METRIC_AUDIT_DUPLICATES).count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void keyFilterHasNoFalseNegativesAcrossOneRotation() {
+        IngestionKeyFilter filter = new IngestionKeyFilter(1_000, 0.01);
+        for (int i = 0; i < 2_000; i++) {
+            filter.put("key-" + i);
+        }
+
+        assertThat(IntStream.range(0, 2_000).allMatch(i -> filter.mightContain("key-" + i))).isTrue();
+        long falsePositives = IntStream.range(10_000, 20_000).filter(i -> filter.mightContain("key-" + i)).count();
+        assertThat(falsePositives).isLessThan(500);
+    }
+
+    private IdempotentAuditWriter idempotent(AuditEventBatchWriter writer, SimpleMeterRegistry meterRegistry) {
+        return new IdempotentAuditWriter(writer, new AuditIngestionProperties(), meterRegistry);
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset) {
+        return new ConsumerRecord<>("audits.events", 0, offset, "k",
+                "{\"eventType\":\"X\",\"occurredAt\":\"2026-02-03T10:00:00Z\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ConsumerRecord<String, byte[]> withEventId(ConsumerRecord<String, byte[]> record, String eventId) {
+        record.headers().add(OutboxConstants.HEADER_EVENT_ID, eventId.getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+}
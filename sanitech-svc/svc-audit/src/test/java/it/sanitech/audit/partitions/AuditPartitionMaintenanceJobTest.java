@@ -0,0 +1,100 @@
+package it.sanitech.audit.partitions;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class AuditPartitionMaintenanceJobTest {
+
+    private final JdbcTemplate jdbc = Mockito.mock(JdbcTemplate.class);
+    private final TransactionTemplate tx = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+    private final AuditPartitionProperties props = new AuditPartitionProperties();
+
+    @Test
+    void ensureFuturePartitionsCreatesCurrentAndPremadeMonthsWithUtcBounds() {
+        props.setPremakeMonths(1);
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(true);
+
+        new AuditPartitionMaintenanceJob(jdbc, tx, props).ensureFuturePartitions();
+
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        verify(jdbc).execute("CREATE TABLE IF NOT EXISTS " + AuditPartitionMaintenanceJob.partitionName(current)
+                + " PARTITION OF audit_events FOR VALUES FROM ('" + current.atDay(1) + "T00:00Z') TO ('"
+                + current.plusMonths(1).atDay(1) + "T00:00Z')");
+        verify(jdbc).execute(Mockito.startsWith("CREATE TABLE IF NOT EXISTS "
+                + AuditPartitionMaintenanceJob.partitionName(current.plusMonths(1)) + " "));
+    }
+
+    @Test
+    void ensureFuturePartitionsMovesRowsOfTheMonthOutOfTheDefaultPartition() {
+        props.setPremakeMonths(0);
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        String partition = AuditPartitionMaintenanceJob.partitionName(current);
+        String from = current.atDay(1) + "T00:00Z";
+        String to = current.plusMonths(1).atDay(1) + "T00:00Z";
+        String range = " WHERE occurred_at >= '" + from + "' AND occurred_at < '" + to + "'";
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(true);
+        when(jdbc.queryForObject(contains("audit_events_default"), eq(Boolean.class), eq(partition), eq(from), eq(to)))
+                .thenReturn(true);
+
+        new AuditPartitionMaintenanceJob(jdbc, tx, props).ensureFuturePartitions();
+
+        InOrder order = Mockito.inOrder(jdbc);
+        order.verify(jdbc).execute("ALTER TABLE audit_events DETACH PARTITION audit_events_default");
+        order.verify(jdbc).execute("CREATE TABLE " + partition + " PARTITION OF audit_events FOR VALUES FROM ('"
+                + from + "') TO ('" + to + "')");
+        order.verify(jdbc).update("INSERT INTO " + partition + " SELECT * FROM audit_events_default" + range);
+        order.verify(jdbc).update("DELETE FROM audit_events_default" + range);
+        order.verify(jdbc).execute("ALTER TABLE audit_events ATTACH PARTITION audit_events_default DEFAULT");
+        verify(jdbc, never()).execute(Mockito.startsWith("CREATE TABLE IF NOT EXISTS"));
+    }
+
+    @Test
+    void detachExpiredPartitionsDetachesOnlyMonthsOutsideTheWindow() {
+        props.setDetachAfterMonths(2);
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        String expired = AuditPartitionMaintenanceJob.partitionName(current.minusMonths(3));
+        String kept = AuditPartitionMaintenanceJob.partitionName(current.minusMonths(2));
+        when(jdbc.queryForList(anyString(), eq(String.class)))
+                .thenReturn(List.of("audit_events_default", expired, kept));
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(true);
+
+        new AuditPartitionMaintenanceJob(jdbc, tx, props).detachExpiredPartitions();
+
+        verify(jdbc).execute("ALTER TABLE audit_events DETACH PARTITION " + expired);
+        verify(jdbc).execute("ALTER TABLE " + expired + " RENAME TO "
+                + AuditPartitionMaintenanceJob.ARCHIVE_PREFIX + expired.substring(expired.length() - 6));
+        verify(jdbc, never()).execute("ALTER TABLE audit_events DETACH PARTITION " + kept);
+        verify(jdbc, never()).execute("ALTER TABLE audit_events DETACH PARTITION audit_events_default");
+    }
+
+    @Test
+    void detachIsDisabledByDefault() {
+        new AuditPartitionMaintenanceJob(jdbc, tx, props).detachExpiredPartitions();
+
+        verify(jdbc, never()).queryForList(anyString(), eq(String.class));
+    }
+
+    @Test
+    void ddlIsSkippedWhenAnotherInstanceHoldsTheLock() {
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(false);
+
+        new AuditPartitionMaintenanceJob(jdbc, tx, props).ensureFuturePartitions();
+
+        verify(jdbc, never()).execute(anyString());
+    }
+}
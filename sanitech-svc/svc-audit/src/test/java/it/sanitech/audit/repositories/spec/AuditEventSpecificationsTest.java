@@ -0,0 +1,48 @@
+package it.sanitech.audit.repositories.spec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class AuditEventSpecificationsTest {
+
+    @Test
+    void containmentDocumentsNestPathAndMatchScalarsAlsoAsStrings() {
+        assertThat(AuditEventSpecifications.containmentDocuments("payload.patientId", "123"))
+                .containsExactly("{\"payload\":{\"patientId\":123}}", "{\"payload\":{\"patientId\":\"123\"}}");
+        assertThat(AuditEventSpecifications.containmentDocuments("departmentCode", "CARD\"IO"))
+                .containsExactly("{\"departmentCode\":\"CARD\\\"IO\"}");
+        assertThat(AuditEventSpecifications.containmentDocuments("payload.id", "123 456"))
+                .containsExactly("{\"payload\":{\"id\":\"123 456\"}}");
+    }
+
+    @Test
+    void detailsContainRejectsInvalidPathsEagerly() {
+        assertThatThrownBy(() -> AuditEventSpecifications.detailsContain(Map.of("payload..id", "1")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AuditEventSpecifications.detailsContain(Map.of("payload.id'--", "1")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AuditEventSpecifications.detailsContain(Map.of(
+                "a", "1", "b", "1", "c", "1", "d", "1", "e", "1", "f", "1")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void detailsMatchFollowsJsonbContainment() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode details = mapper.readTree("{\"payload\":{\"patientId\":123,\"tags\":[\"a\"]},\"departmentCode\":\"CARD\"}");
+
+        assertThat(AuditEventSpecifications.detailsMatch(Map.of("payload.patientId", "123.0", "departmentCode", "CARD"))
+                .test(details)).isTrue();
+        assertThat(AuditEventSpecifications.detailsMatch(Map.of("payload.patientId", "123", "departmentCode", "CHIR"))
+                .test(details)).isFalse();
+        assertThat(AuditEventSpecifications.detailsMatch(Map.of("payload.tags", "a")).test(details)).isFalse();
+        assertThat(AuditEventSpecifications.detailsMatch(Map.of("payload", "x")).test(details)).isFalse();
+        assertThat(AuditEventSpecifications.detailsMatch(Map.of("payload.patientId", "123")).test(null)).isFalse();
+        assertThat(AuditEventSpecifications.detailsMatch(Map.of()).test(null)).isTrue();
+    }
+}
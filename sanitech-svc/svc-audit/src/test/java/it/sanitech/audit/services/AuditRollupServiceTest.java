@@ -0,0 +1,63 @@
+package it.sanitech.audit.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import it.sanitech.audit.repositories.AuditRollupKey;
+import it.sanitech.audit.repositories.AuditRollupRepository;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class AuditRollupServiceTest {
+
+    private static final Instant FROM = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    void rollupsPassesWhitelistedColumnsAndFilters() {
+        AuditRollupRepository repository = Mockito.mock(AuditRollupRepository.class);
+        AuditRollupService service = new AuditRollupService(repository);
+
+        service.rollups(FROM, FROM.plusSeconds(86_400), AuditRollupService.Granularity.HOUR,
+                Set.of(AuditRollupService.Dimension.OUTCOME, AuditRollupService.Dimension.RESOURCE_TYPE),
+                "LOGIN", null, " ", "USER");
+
+        verify(repository).aggregate(eq("bucket_start"), eq(List.of("resource_type", "outcome")),
+                eq(Map.of("action", "LOGIN", "actor_type", "USER")), eq(FROM), eq(FROM.plusSeconds(86_400)), any());
+    }
+
+    @Test
+    void rollupsRejectsEmptyOrTooWideRanges() {
+        AuditRollupRepository repository = Mockito.mock(AuditRollupRepository.class);
+        AuditRollupService service = new AuditRollupService(repository);
+
+        assertThatThrownBy(() -> service.rollups(FROM, FROM, AuditRollupService.Granularity.DAY, Set.of(),
+                null, null, null, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.rollups(FROM, FROM.plusSeconds(32L * 86_400), AuditRollupService.Granularity.HOUR,
+                Set.of(), null, null, null, null)).isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void dimensionParseAcceptsFieldAndEnumNames() {
+        assertThat(AuditRollupService.Dimension.parse("resourceType")).isEqualTo(AuditRollupService.Dimension.RESOURCE_TYPE);
+        assertThat(AuditRollupService.Dimension.parse("ACTOR_TYPE")).isEqualTo(AuditRollupService.Dimension.ACTOR_TYPE);
+        assertThatThrownBy(() -> AuditRollupService.Dimension.parse("ip; DROP TABLE audit_events"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rollupKeyTruncatesToHourAndNormalizesMissingResourceType() {
+        AuditRollupKey key = AuditRollupKey.of(Instant.parse("2024-01-01T10:59:59Z"), "LOGIN", null, "SUCCESS", "USER");
+
+        assertThat(key.bucketStart()).isEqualTo(Instant.parse("2024-01-01T10:00:00Z"));
+        assertThat(key.resourceType()).isEmpty();
+    }
+}
@@ -3,29 +3,42 @@ package it.sanitech.audit.services;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.audit.archive.AuditArchiveReader;
+import it.sanitech.audit.repositories.AuditEventExportReader;
 import it.sanitech.audit.repositories.AuditEventRepository;
+import it.sanitech.audit.repositories.AuditRollupKey;
+import it.sanitech.audit.repositories.AuditRollupRepository;
 import it.sanitech.audit.repositories.entities.AuditEvent;
 import it.sanitech.audit.services.dto.AuditEventCreateDto;
+import it.sanitech.audit.services.dto.AuditEventCursorPageDto;
 import it.sanitech.audit.services.dto.AuditEventDto;
+import it.sanitech.audit.services.export.AuditExportFormat;
 import it.sanitech.audit.services.mapper.AuditEventMapper;
 import it.sanitech.audit.utilities.AppConstants;
 import it.sanitech.commons.exception.NotFoundException;
 import it.sanitech.outbox.core.DomainEventPublisher;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
@@ -44,8 +57,9 @@ class AuditServiceTest {
         ObjectMapper objectMapper = new ObjectMapper();
         DomainEventPublisher publisher = Mockito.mock(DomainEventPublisher.class);
         MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AuditRollupRepository rollupRepository = Mockito.mock(AuditRollupRepository.class);
 
-        AuditService service = new AuditService(repository, mapper, objectMapper, publisher, meterRegistry);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class), rollupRepository, mapper, objectMapper, publisher, meterRegistry, archive(null));
 
         AuditEventCreateDto dto = new AuditEventCreateDto("LOGIN", "USER", "42", null, Map.of("ip", "127.0.0.1"));
         Authentication auth = new TestingAuthenticationToken("alice", "pwd", "ROLE_ADMIN");
@@ -92,6 +106,8 @@ class AuditServiceTest {
         assertThat(saved.getActorId()).isEqualTo("alice");
         assertThat(saved.getIp()).isEqualTo("10.0.0.1");
         assertThat(saved.getOccurredAt()).isNotNull();
+        verify(rollupRepository).increment(List.of(AuditRollupKey.of(saved.getOccurredAt(), "LOGIN", "USER",
+                AppConstants.Audit.OUTCOME_SUCCESS, "USER")));
 
         verify(publisher).publish(eq("AUDIT_EVENT"), anyString(), eq("AUDIT_RECORDED"), any(Map.class));
     }
@@ -104,7 +120,7 @@ class AuditServiceTest {
         DomainEventPublisher publisher = Mockito.mock(DomainEventPublisher.class);
         MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
-        AuditService service = new AuditService(repository, mapper, objectMapper, publisher, meterRegistry);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class), Mockito.mock(AuditRollupRepository.class), mapper, objectMapper, publisher, meterRegistry, archive(null));
 
         when(repository.findById(9L)).thenReturn(Optional.empty());
 
@@ -120,7 +136,7 @@ class AuditServiceTest {
         DomainEventPublisher publisher = Mockito.mock(DomainEventPublisher.class);
         MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
-        AuditService service = new AuditService(repository, mapper, objectMapper, publisher, meterRegistry);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class), Mockito.mock(AuditRollupRepository.class), mapper, objectMapper, publisher, meterRegistry, archive(null));
 
         AuditEvent event = AuditEvent.builder()
                 .id(3L)
@@ -163,7 +179,7 @@ class AuditServiceTest {
         DomainEventPublisher publisher = Mockito.mock(DomainEventPublisher.class);
         MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
-        AuditService service = new AuditService(repository, mapper, objectMapper, publisher, meterRegistry);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class), Mockito.mock(AuditRollupRepository.class), mapper, objectMapper, publisher, meterRegistry, archive(null));
 
         AuditEvent event = AuditEvent.builder()
                 .id(5L)
@@ -200,10 +216,231 @@ class AuditServiceTest {
                 AppConstants.Audit.OUTCOME_SUCCESS,
                 null,
                 null,
+                Map.of("payload.patientId", "123"),
                 PageRequest.of(0, 20)
         );
 
         assertThat(result.getContent()).hasSize(1);
         verify(repository).findAll(Mockito.<Specification<AuditEvent>>any(), any(Pageable.class));
     }
+
+    @Test
+    void searchAfterReturnsNextCursorOnlyWhenMoreRowsExist() {
+        AuditEventRepository repository = Mockito.mock(AuditEventRepository.class);
+        AuditEventMapper mapper = Mockito.mock(AuditEventMapper.class);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class), Mockito.mock(AuditRollupRepository.class), mapper, new ObjectMapper(),
+                Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(null));
+
+        List<AuditEvent> rows = List.of(
+                keysetEvent(30L, "2024-01-03T00:00:00Z"),
+                keysetEvent(20L, "2024-01-02T00:00:00Z"),
+                keysetEvent(10L, "2024-01-01T00:00:00Z"));
+        when(repository.findBy(Mockito.<Specification<AuditEvent>>any(), any())).thenReturn(rows, rows.subList(2, 3));
+        when(mapper.toDto(any(AuditEvent.class))).thenAnswer(invocation -> {
+            AuditEvent e = invocation.getArgument(0);
+            return new AuditEventDto(e.getId(), e.getOccurredAt(), e.getSource(), e.getActorType(), e.getActorId(),
+                    e.getAction(), e.getResourceType(), e.getResourceId(), e.getOutcome(), e.getIp(),
+                    e.getTraceId(), e.getDetails());
+        });
+
+        AuditEventCursorPageDto first = service.searchAfter(null, null, null, null, null, null, null, null, null, 2);
+
+        assertThat(first.content()).extracting(AuditEventDto::id).containsExactly(30L, 20L);
+        assertThat(AuditCursor.decode(first.nextCursor()))
+                .isEqualTo(new AuditCursor(Instant.parse("2024-01-02T00:00:00Z"), 20L));
+
+        AuditEventCursorPageDto last = service.searchAfter(null, null, null, null, null, null, null, null, first.nextCursor(), 2);
+
+        assertThat(last.content()).extracting(AuditEventDto::id).containsExactly(10L);
+        assertThat(last.nextCursor()).isNull();
+    }
+
+    @Test
+    void searchAfterRejectsMalformedCursor() {
+        AuditService service = new AuditService(Mockito.mock(AuditEventRepository.class),
+                Mockito.mock(AuditEventExportReader.class), Mockito.mock(AuditRollupRepository.class),
+                Mockito.mock(AuditEventMapper.class), new ObjectMapper(),
+                Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(null));
+
+        assertThatThrownBy(() -> service.searchAfter(null, null, null, null, null, null, null, null, "not-a-cursor", 10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static AuditEvent keysetEvent(long id, String occurredAt) {
+        return AuditEvent.builder()
+                .id(id)
+                .occurredAt(Instant.parse(occurredAt))
+                .source(AppConstants.Audit.SOURCE_KAFKA)
+                .actorType("SERVICE")
+                .action("SYNC")
+                .outcome(AppConstants.Audit.OUTCOME_SUCCESS)
+                .build();
+    }
+
+    @Test
+    void exportStreamsNdjsonAndCsvRows() throws Exception {
+        AuditEventExportReader exportReader = Mockito.mock(AuditEventExportReader.class);
+        AuditEventMapper mapper = Mockito.mock(AuditEventMapper.class);
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        AuditService service = new AuditService(Mockito.mock(AuditEventRepository.class), exportReader, Mockito.mock(AuditRollupRepository.class), mapper,
+                objectMapper, Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(null));
+
+        AuditEvent event = keysetEvent(7L, "2024-01-01T00:00:00Z").toBuilder()
+                .actorId("svc,\"quoted\"")
+                .details(objectMapper.readTree("{\"k\":1}"))
+                .build();
+        when(exportReader.forEach(Mockito.<Specification<AuditEvent>>any(), anyInt(), any())).thenAnswer(invocation -> {
+            Consumer<AuditEvent> action = invocation.getArgument(2);
+            action.accept(event);
+            action.accept(event);
+            return 2L;
+        });
+        when(mapper.toDto(event)).thenReturn(new AuditEventDto(event.getId(), event.getOccurredAt(), event.getSource(),
+                event.getActorType(), event.getActorId(), event.getAction(), null, null, event.getOutcome(),
+                null, null, event.getDetails()));
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        long count = service.export(null, null, null, null, null, null, null, null, AuditExportFormat.NDJSON, ndjson);
+
+        assertThat(count).isEqualTo(2);
+        String[] lines = ndjson.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readTree(lines[0]).get("actorId").asText()).isEqualTo("svc,\"quoted\"");
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        service.export(null, null, null, null, null, null, null, null, AuditExportFormat.CSV, csv);
+
+        assertThat(csv.toString(StandardCharsets.UTF_8).split("\r\n"))
+                .hasSize(3)
+                .contains("7,2024-01-01T00:00:00Z,kafka,SERVICE,\"svc,\"\"quoted\"\"\",SYNC,,,SUCCESS,,,\"{\"\"k\"\":1}\"");
+    }
+
+    @Test
+    void searchRejectsRangesThatStartInArchivedMonths() {
+        AuditEventRepository repository = Mockito.mock(AuditEventRepository.class);
+        AuditArchiveReader archiveReader = Mockito.mock(AuditArchiveReader.class);
+        when(archiveReader.archivedUntil()).thenReturn(Optional.of(Instant.parse("2024-01-01T00:00:00Z")));
+        when(repository.findAll(Mockito.<Specification<AuditEvent>>any(), any(Pageable.class))).thenReturn(Page.empty());
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class),
+                Mockito.mock(AuditRollupRepository.class), Mockito.mock(AuditEventMapper.class), new ObjectMapper(),
+                Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(archiveReader));
+
+        assertThatThrownBy(() -> service.search(null, null, null, null, null,
+                Instant.parse("2023-12-15T00:00:00Z"), null, null, PageRequest.of(0, 20)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("archiviati");
+        verifyNoInteractions(repository);
+
+        service.search(null, null, null, null, null, Instant.parse("2024-01-01T00:00:00Z"), null, null, PageRequest.of(0, 20));
+        verify(repository).findAll(Mockito.<Specification<AuditEvent>>any(), any(Pageable.class));
+    }
+
+    @Test
+    void searchAfterContinuesIntoArchiveWhenDbRowsDoNotFillThePage() {
+        AuditEventRepository repository = Mockito.mock(AuditEventRepository.class);
+        AuditEventMapper mapper = Mockito.mock(AuditEventMapper.class);
+        AuditArchiveReader archiveReader = Mockito.mock(AuditArchiveReader.class);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class),
+                Mockito.mock(AuditRollupRepository.class), mapper, new ObjectMapper(),
+                Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(archiveReader));
+
+        Instant from = Instant.parse("2023-12-01T00:00:00Z");
+        Map<String, String> details = Map.of("payload.patientId", "123");
+        when(archiveReader.archivedUntil()).thenReturn(Optional.of(Instant.parse("2024-01-01T00:00:00Z")));
+        when(repository.findBy(Mockito.<Specification<AuditEvent>>any(), any()))
+                .thenReturn(List.of(keysetEvent(30L, "2024-01-02T00:00:00Z")));
+        when(mapper.toDto(any(AuditEvent.class))).thenAnswer(invocation -> dto(invocation.getArgument(0)));
+        when(archiveReader.search(null, null, null, null, null, from, null, details, null, 3)).thenReturn(List.of(
+                dto(keysetEvent(20L, "2023-12-20T00:00:00Z")),
+                dto(keysetEvent(10L, "2023-12-10T00:00:00Z"))));
+
+        AuditEventCursorPageDto first = service.searchAfter(null, null, null, null, null, from, null, details, null, 2);
+
+        assertThat(first.content()).extracting(AuditEventDto::id).containsExactly(30L, 20L);
+        assertThat(AuditCursor.decode(first.nextCursor()))
+                .isEqualTo(new AuditCursor(Instant.parse("2023-12-20T00:00:00Z"), 20L));
+
+        // La pagina successiva prosegue nell'archivio con lo stesso cursore.
+        AuditCursor after = AuditCursor.decode(first.nextCursor());
+        when(repository.findBy(Mockito.<Specification<AuditEvent>>any(), any())).thenReturn(List.of());
+        when(archiveReader.search(null, null, null, null, null, from, null, details, after, 3))
+                .thenReturn(List.of(dto(keysetEvent(10L, "2023-12-10T00:00:00Z"))));
+
+        AuditEventCursorPageDto last = service.searchAfter(null, null, null, null, null, from, null, details, first.nextCursor(), 2);
+
+        assertThat(last.content()).extracting(AuditEventDto::id).containsExactly(10L);
+        assertThat(last.nextCursor()).isNull();
+    }
+
+    @Test
+    void searchAfterSkipsArchiveWhenDbRowsFillThePageAfterArchivedMonths() {
+        AuditEventRepository repository = Mockito.mock(AuditEventRepository.class);
+        AuditEventMapper mapper = Mockito.mock(AuditEventMapper.class);
+        AuditArchiveReader archiveReader = Mockito.mock(AuditArchiveReader.class);
+        AuditService service = new AuditService(repository, Mockito.mock(AuditEventExportReader.class),
+                Mockito.mock(AuditRollupRepository.class), mapper, new ObjectMapper(),
+                Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(archiveReader));
+
+        when(archiveReader.archivedUntil()).thenReturn(Optional.of(Instant.parse("2024-01-01T00:00:00Z")));
+        when(repository.findBy(Mockito.<Specification<AuditEvent>>any(), any())).thenReturn(List.of(
+                keysetEvent(30L, "2024-01-03T00:00:00Z"),
+                keysetEvent(20L, "2024-01-02T00:00:00Z"),
+                keysetEvent(10L, "2024-01-01T00:00:00Z")));
+        when(mapper.toDto(any(AuditEvent.class))).thenAnswer(invocation -> dto(invocation.getArgument(0)));
+
+        AuditEventCursorPageDto page = service.searchAfter(null, null, null, null, null,
+                Instant.parse("2023-06-01T00:00:00Z"), null, null, null, 2);
+
+        assertThat(page.content()).extracting(AuditEventDto::id).containsExactly(30L, 20L);
+        assertThat(page.nextCursor()).isNotNull();
+        verify(archiveReader, never()).search(any(), any(), any(), any(), any(), any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void exportWritesArchivedEventsBeforeDbRows() throws Exception {
+        AuditEventExportReader exportReader = Mockito.mock(AuditEventExportReader.class);
+        AuditEventMapper mapper = Mockito.mock(AuditEventMapper.class);
+        AuditArchiveReader archiveReader = Mockito.mock(AuditArchiveReader.class);
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        AuditService service = new AuditService(Mockito.mock(AuditEventRepository.class), exportReader,
+                Mockito.mock(AuditRollupRepository.class), mapper, objectMapper,
+                Mockito.mock(DomainEventPublisher.class), new SimpleMeterRegistry(), archive(archiveReader));
+
+        Instant from = Instant.parse("2023-12-01T00:00:00Z");
+        AuditEvent recent = keysetEvent(30L, "2024-01-02T00:00:00Z");
+        when(archiveReader.archivedUntil()).thenReturn(Optional.of(Instant.parse("2024-01-01T00:00:00Z")));
+        when(archiveReader.forEach(any(), any(), any(), any(), any(), eq(from), any(), any(), any())).thenAnswer(invocation -> {
+            Consumer<AuditEventDto> action = invocation.getArgument(8);
+            action.accept(dto(keysetEvent(10L, "2023-12-10T00:00:00Z")));
+            return 1L;
+        });
+        when(exportReader.forEach(Mockito.<Specification<AuditEvent>>any(), anyInt(), any())).thenAnswer(invocation -> {
+            Consumer<AuditEvent> action = invocation.getArgument(2);
+            action.accept(recent);
+            return 1L;
+        });
+        when(mapper.toDto(recent)).thenReturn(dto(recent));
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        long count = service.export(null, null, null, null, null, from, null, null, AuditExportFormat.NDJSON, ndjson);
+
+        assertThat(count).isEqualTo(2);
+        String[] lines = ndjson.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(objectMapper.readTree(lines[0]).get("id").asLong()).isEqualTo(10L);
+        assertThat(objectMapper.readTree(lines[1]).get("id").asLong()).isEqualTo(30L);
+    }
+
+    private static AuditEventDto dto(AuditEvent e) {
+        return new AuditEventDto(e.getId(), e.getOccurredAt(), e.getSource(), e.getActorType(), e.getActorId(),
+                e.getAction(), e.getResourceType(), e.getResourceId(), e.getOutcome(), e.getIp(),
+                e.getTraceId(), e.getDetails());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ObjectProvider<AuditArchiveReader> archive(AuditArchiveReader reader) {
+        ObjectProvider<AuditArchiveReader> provider = Mockito.mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(reader);
+        when(provider.getObject()).thenReturn(reader);
+        return provider;
+    }
 }
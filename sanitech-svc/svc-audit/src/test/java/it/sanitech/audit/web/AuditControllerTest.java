@@ -2,19 +2,33 @@ package it.sanitech.audit.web;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import it.sanitech.audit.services.AuditRollupService;
 import it.sanitech.audit.services.AuditService;
+import it.sanitech.audit.services.dto.AuditEventCursorPageDto;
 import it.sanitech.audit.services.dto.AuditEventDto;
+import it.sanitech.audit.services.dto.AuditRollupDto;
+import it.sanitech.audit.services.export.AuditExportFormat;
 import it.sanitech.audit.utilities.AppConstants;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +45,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @WebMvcTest(
         controllers = AuditController.class,
@@ -45,6 +60,9 @@ class AuditControllerTest {
     @MockBean
     private AuditService auditService;
 
+    @MockBean
+    private AuditRollupService rollupService;
+
     @Test
     void recordPassesClientIpAndReturnsDto() throws Exception {
         String path = AppConstants.ApiPath.API_BASE + AppConstants.ApiPath.AUDIT_EVENTS;
@@ -101,18 +119,20 @@ class AuditControllerTest {
                 null
         );
         Page<AuditEventDto> page = new PageImpl<>(List.of(dto), PageRequest.of(0, 1), 1);
-        when(auditService.search(any(), any(), any(), any(), any(), any(), any(), any(Pageable.class)))
+        when(auditService.search(any(), any(), any(), any(), any(), any(), any(), any(), any(Pageable.class)))
                 .thenReturn(page);
 
         mockMvc.perform(get(path)
                         .param("actorId", "svc-directory")
                         .param("action", "SYNC")
-                        .param("outcome", "SUCCESS"))
+                        .param("outcome", "SUCCESS")
+                        .param("details.payload.patientId", "123"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.content[0].id").value(11));
 
         ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
-        verify(auditService).search(eq("svc-directory"), eq("SYNC"), any(), any(), eq("SUCCESS"), any(), any(), pageableCaptor.capture());
+        verify(auditService).search(eq("svc-directory"), eq("SYNC"), any(), any(), eq("SUCCESS"), any(), any(),
+                eq(Map.of("payload.patientId", "123")), pageableCaptor.capture());
         assertThat(pageableCaptor.getValue().getPageSize()).isEqualTo(20);
     }
 
@@ -139,4 +159,73 @@ class AuditControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.action").value("UPDATE"));
     }
+
+    @Test
+    void searchAfterPassesCursorAndCapsPageSize() throws Exception {
+        String path = AppConstants.ApiPath.API_BASE + AppConstants.ApiPath.AUDIT_EVENTS_CURSOR;
+        when(auditService.searchAfter(any(), any(), any(), any(), any(), any(), any(), any(), any(), anyInt()))
+                .thenReturn(new AuditEventCursorPageDto(List.of(), "next-token"));
+
+        mockMvc.perform(get(path)
+                        .param("actorId", "alice")
+                        .param("cursor", "prev-token")
+                        .param("size", "100000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nextCursor").value("next-token"))
+                .andExpect(jsonPath("$.content").isEmpty());
+
+        verify(auditService).searchAfter(eq("alice"), any(), any(), any(), any(), any(), any(), eq(Map.of()), eq("prev-token"),
+                eq(AppConstants.Audit.CURSOR_MAX_SIZE));
+    }
+
+    @Test
+    void exportStreamsGzipAttachmentWithRequestedFormat() throws Exception {
+        String path = AppConstants.ApiPath.API_BASE + AppConstants.ApiPath.AUDIT_EVENTS_EXPORT;
+        when(auditService.export(any(), any(), any(), any(), any(), any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(9);
+            out.write("id\r\n".getBytes(StandardCharsets.UTF_8));
+            return 0L;
+        });
+
+        MvcResult started = mockMvc.perform(get(path)
+                        .param("outcome", "DENIED")
+                        .param("format", "csv")
+                        .param("gzip", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/gzip"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"audit-events.csv.gz\""))
+                .andReturn();
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("id\r\n");
+        }
+        verify(auditService).export(any(), any(), any(), any(), eq("DENIED"), any(), any(), any(), eq(AuditExportFormat.CSV), any());
+    }
+
+    @Test
+    void rollupsParsesGranularityAndGroupBy() throws Exception {
+        String path = AppConstants.ApiPath.API_BASE + AppConstants.ApiPath.AUDIT_ROLLUPS;
+        Instant from = Instant.parse("2024-01-01T00:00:00Z");
+        Instant to = Instant.parse("2024-01-08T00:00:00Z");
+        when(rollupService.rollups(any(), any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(List.of(new AuditRollupDto(from, "LOGIN", null, AppConstants.Audit.OUTCOME_DENIED, null, 7L)));
+
+        mockMvc.perform(get(path)
+                        .param("from", from.toString())
+                        .param("to", to.toString())
+                        .param("granularity", "day")
+                        .param("groupBy", "action", "outcome")
+                        .param("actorType", "USER"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].action").value("LOGIN"))
+                .andExpect(jsonPath("$[0].count").value(7));
+
+        verify(rollupService).rollups(eq(from), eq(to), eq(AuditRollupService.Granularity.DAY),
+                eq(Set.of(AuditRollupService.Dimension.ACTION, AuditRollupService.Dimension.OUTCOME)),
+                any(), any(), any(), eq("USER"));
+    }
 }
@@ -0,0 +1,7 @@
+-- V15__outbox_lane_fanout_index.sql
+-- Le corsie di pubblicazione prelevano anche gli eventi con fan-out (routes) che hanno tra le destinazioni
+-- un topic della corsia. Gli eventi con fan-out hanno topic NULL: questo indice parziale affianca
+-- idx_outbox_pending_topic, così la query di corsia non scorre l'intero backlog per trovarli.
+
+CREATE INDEX IF NOT EXISTS idx_outbox_pending_fanout
+    ON outbox_events (occurred_at, id) WHERE published = false AND dead_letter = false AND routes IS NOT NULL;
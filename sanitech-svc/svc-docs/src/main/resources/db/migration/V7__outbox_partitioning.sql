@@ -0,0 +1,66 @@
+-- V7__outbox_partitioning.sql
+-- Converte outbox_events in tabella partizionata per mese su occurred_at.
+-- Le partizioni con soli eventi pubblicati più vecchie della retention vengono eliminate
+-- (o staccate per archiviazione) dal job OutboxRetentionJob della libreria outbox.
+-- Gli eventi già pubblicati non vengono migrati: servono solo quelli ancora da inviare.
+
+ALTER TABLE outbox_events RENAME TO outbox_events_legacy;
+ALTER TABLE outbox_events_legacy RENAME CONSTRAINT outbox_events_pkey TO outbox_events_legacy_pkey;
+ALTER INDEX IF EXISTS idx_outbox_unpublished RENAME TO idx_outbox_unpublished_legacy;
+ALTER INDEX IF EXISTS idx_outbox_actor RENAME TO idx_outbox_actor_legacy;
+ALTER SEQUENCE outbox_events_id_seq OWNED BY NONE;
+
+CREATE TABLE outbox_events (
+    id             BIGINT       NOT NULL DEFAULT nextval('outbox_events_id_seq'),
+    aggregate_type VARCHAR(64)  NOT NULL,
+    aggregate_id   VARCHAR(64)  NOT NULL,
+    event_type     VARCHAR(64)  NOT NULL,
+    topic          VARCHAR(128),
+    actor_type     VARCHAR(32),
+    actor_id       VARCHAR(128),
+    actor_name     VARCHAR(256),
+    payload        JSONB        NOT NULL,
+    occurred_at    TIMESTAMPTZ  NOT NULL DEFAULT NOW(),
+    published      BOOLEAN      NOT NULL DEFAULT FALSE,
+    published_at   TIMESTAMPTZ,
+    PRIMARY KEY (id, occurred_at)
+) PARTITION BY RANGE (occurred_at);
+
+ALTER SEQUENCE outbox_events_id_seq OWNED BY outbox_events.id;
+
+COMMENT ON COLUMN outbox_events.topic IS 'Topic Kafka di destinazione. Se NULL, usa il default configurato.';
+COMMENT ON COLUMN outbox_events.actor_type IS 'Tipo di attore (es. ADMIN, DOCTOR, PATIENT, SYSTEM)';
+COMMENT ON COLUMN outbox_events.actor_id IS 'Identificativo univoco dell''attore (es. email, userId)';
+COMMENT ON COLUMN outbox_events.actor_name IS 'Nome visualizzabile dell''attore';
+
+-- Partizione di default: raccoglie eventi fuori dai range mensili (es. eventi legacy).
+CREATE TABLE outbox_events_default PARTITION OF outbox_events DEFAULT;
+
+-- Partizioni del mese corrente e del successivo; le seguenti sono create dal job di retention.
+DO $$
+DECLARE
+    month_start DATE := date_trunc('month', NOW())::date;
+BEGIN
+    FOR i IN 0..1 LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF outbox_events FOR VALUES FROM (%L) TO (%L)',
+                       'outbox_events_' || to_char(month_start + make_interval(months => i), 'YYYYMM'),
+                       month_start + make_interval(months => i),
+                       month_start + make_interval(months => i + 1));
+    END LOOP;
+END $$;
+
+-- Indice parziale: contiene solo gli eventi da pubblicare e resta piccolo
+-- indipendentemente dal volume storico (niente voci morte da saltare in lockBatch).
+CREATE INDEX IF NOT EXISTS idx_outbox_unpublished ON outbox_events (occurred_at, id) WHERE published = false;
+
+-- Indice per query di audit filtrate per attore
+CREATE INDEX IF NOT EXISTS idx_outbox_actor ON outbox_events (actor_type, actor_id);
+
+INSERT INTO outbox_events (id, aggregate_type, aggregate_id, event_type, topic, actor_type, actor_id, actor_name,
+                           payload, occurred_at, published, published_at)
+SELECT id, aggregate_type, aggregate_id, event_type, topic, actor_type, actor_id, actor_name,
+       payload, occurred_at, published, published_at
+FROM outbox_events_legacy
+WHERE published = false;
+
+DROP TABLE outbox_events_legacy;
@@ -11,12 +11,15 @@ import org.junit.jupiter.api.Test;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -59,10 +62,86 @@ class OutboxKafkaPublisherTest {
         publisher.publishBatch();
 
         verify(sender).sendSync(props.getPublisher().getTopic(), evt, props.getPublisher().getSendTimeoutMs());
-        verify(repo).markPublished(eq(List.of(1L)), any());
+        verify(repo).markPublished(eq(List.of(1L)), any(), any(), any());
         assertThat(evt.isPublished()).isFalse();
 
         double count = registry.find("sanitech.outbox.published").counter().count();
         assertThat(count).isEqualTo(1.0);
     }
+
+    @Test
+    void publishBatch_pipelined_marksOnlyAcknowledgedEvents() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setTopic("docs.events");
+        props.getPublisher().setSendMode(OutboxProperties.SendMode.PIPELINED);
+
+        OutboxEvent ok = OutboxEvent.builder().id(1L).aggregateType("DOCUMENT").aggregateId("1")
+                .eventType("DOCUMENT_UPLOADED").build();
+        OutboxEvent ko = OutboxEvent.builder().id(2L).aggregateType("DOCUMENT").aggregateId("2")
+                .eventType("DOCUMENT_UPLOADED").build();
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+
+        when(repo.lockBatch(100)).thenReturn(List.of(ok, ko));
+        when(sender.sendAsync("docs.events", ok)).thenReturn(CompletableFuture.completedFuture(null));
+        when(sender.sendAsync("docs.events", ko)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, registry);
+        publisher.publishBatch();
+
+        verify(sender, never()).sendSync(any(), any(), anyLong());
+        verify(repo).markPublished(eq(List.of(1L)), any(), any(), any());
+        assertThat(registry.find("sanitech.outbox.published").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("sanitech.outbox.topic.failed").tag("topic", "docs.events").counter().count()).isEqualTo(1.0);
+        // Un invio fallito non annulla il batch: il contatore storico dei batch falliti resta fermo.
+        assertThat(registry.find("sanitech.outbox.failed").counter()).isNull();
+    }
+
+    @Test
+    void publishBatch_recordsPhaseTimersAndPerTopicCounters() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setTopic("docs.events");
+
+        OutboxEvent uploaded = OutboxEvent.builder().id(1L).aggregateType("DOCUMENT").aggregateId("1")
+                .eventType("DOCUMENT_UPLOADED").build();
+        OutboxEvent audited = OutboxEvent.builder().id(2L).aggregateType("DOCUMENT").aggregateId("2")
+                .eventType("DOCUMENT_DELETED").topic("audits.events").build();
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+        when(repo.lockBatch(100)).thenReturn(List.of(uploaded, audited));
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, registry);
+        publisher.publishBatch();
+
+        assertThat(registry.get("sanitech.outbox.topic.published")
+                .tag("topic", "docs.events").tag("event_type", "DOCUMENT_UPLOADED").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("sanitech.outbox.topic.published")
+                .tag("topic", "audits.events").tag("event_type", "DOCUMENT_DELETED").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("sanitech.outbox.published").counter().count()).isEqualTo(2.0);
+        assertThat(registry.get("sanitech.outbox.batch.lock").timer().count()).isEqualTo(1);
+        assertThat(registry.get("sanitech.outbox.batch.send").timer().count()).isEqualTo(1);
+        assertThat(registry.get("sanitech.outbox.batch.mark").timer().count()).isEqualTo(1);
+    }
 }
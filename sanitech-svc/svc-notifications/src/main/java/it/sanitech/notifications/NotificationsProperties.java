@@ -42,6 +42,17 @@ public class NotificationsProperties {
          * Numero massimo di notifiche EMAIL PENDING processate per ciclo.
          */
         private int batchSize = 50;
+
+        /**
+         * Invii SMTP contemporanei verso il relay (virtual thread per notifica).
+         */
+        private int concurrency = 8;
+
+        /**
+         * Durata (ms) della presa in carico di un batch: deve superare il tempo di invio, retry compresi;
+         * scaduta, le notifiche non ancora registrate tornano prelevabili.
+         */
+        private long leaseMs = 300_000;
     }
 
     @Getter
@@ -1,18 +1,20 @@
 package it.sanitech.notifications.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import it.sanitech.notifications.repositories.entities.NotificationChannel;
 import it.sanitech.notifications.repositories.entities.RecipientType;
 import it.sanitech.notifications.services.NotificationService;
 import it.sanitech.notifications.services.dto.create.NotificationCreateDto;
-import lombok.RequiredArgsConstructor;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.consumer.OutboxRetryableTopic;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Consumer Kafka per eventi di cambio stato account (attivazione/disattivazione).
  *
@@ -25,7 +27,6 @@ import org.springframework.stereotype.Component;
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "sanitech.notifications.account-status-consumer", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class AccountStatusEmailConsumer {
 
@@ -33,37 +34,37 @@ public class AccountStatusEmailConsumer {
     private static final String EVENT_TYPE_ACCOUNT_DISABLED = "ACCOUNT_DISABLED_EMAIL_REQUESTED";
 
     private final NotificationService notificationService;
-    private final ObjectMapper objectMapper;
+    private final OutboxEventDispatcher dispatcher;
+
+    public AccountStatusEmailConsumer(NotificationService notificationService, OutboxEventDispatchers dispatchers) {
+        this.notificationService = notificationService;
+        this.dispatcher = dispatchers.builder("notifications-account-status")
+                .on(EVENT_TYPE_ACCOUNT_ENABLED, AccountStatusPayload.class,
+                        (payload, ctx) -> processAccountStatusEvent(payload, true))
+                .on(EVENT_TYPE_ACCOUNT_DISABLED, AccountStatusPayload.class,
+                        (payload, ctx) -> processAccountStatusEvent(payload, false))
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .build();
+    }
 
+    @OutboxRetryableTopic(
+            retryTopicSuffix = "-${sanitech.notifications.account-status-consumer.group-id:svc-notifications-account-status}-retry",
+            dltTopicSuffix = "-${sanitech.notifications.account-status-consumer.group-id:svc-notifications-account-status}-dlt"
+    )
     @KafkaListener(
             topics = "${sanitech.notifications.account-status-consumer.topic:notifications.events}",
             groupId = "${sanitech.notifications.account-status-consumer.group-id:svc-notifications-account-status}"
     )
-    public void onMessage(ConsumerRecord<String, String> record) {
-        try {
-            JsonNode payload = objectMapper.readTree(record.value());
-            String eventType = payload.path("eventType").asText(null);
-
-            if (EVENT_TYPE_ACCOUNT_ENABLED.equals(eventType)) {
-                processAccountStatusEvent(payload.path("payload"), true);
-            } else if (EVENT_TYPE_ACCOUNT_DISABLED.equals(eventType)) {
-                processAccountStatusEvent(payload.path("payload"), false);
-            } else {
-                log.debug("Evento ignorato: {}", eventType);
-            }
-
-        } catch (Exception ex) {
-            log.error("Errore processamento evento da notifications.events (offset={}): {}",
-                    record.offset(), ex.getMessage(), ex);
-        }
+    public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+        return dispatcher.dispatchAsync(record);
     }
 
-    private void processAccountStatusEvent(JsonNode payload, boolean enabled) {
-        String recipientTypeStr = payload.path("recipientType").asText(null);
-        String recipientId = payload.path("recipientId").asText(null);
-        String email = payload.path("email").asText(null);
-        String firstName = payload.path("firstName").asText(null);
-        String lastName = payload.path("lastName").asText(null);
+    private void processAccountStatusEvent(AccountStatusPayload payload, boolean enabled) {
+        String recipientTypeStr = payload.recipientType();
+        String recipientId = payload.recipientId();
+        String email = payload.email();
+        String firstName = payload.firstName();
+        String lastName = payload.lastName();
 
         if (email == null || email.isBlank()) {
             log.warn("Evento cambio stato account senza email, ignorato.");
@@ -150,4 +151,10 @@ public class AccountStatusEmailConsumer {
         name = name.trim();
         return name.isEmpty() ? "Utente" : name;
     }
+
+    /**
+     * Payload di {@code ACCOUNT_ENABLED_EMAIL_REQUESTED} e {@code ACCOUNT_DISABLED_EMAIL_REQUESTED}.
+     */
+    record AccountStatusPayload(String recipientType, String recipientId, String email,
+                                String firstName, String lastName) { }
 }
@@ -1,18 +1,20 @@
 package it.sanitech.notifications.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import it.sanitech.notifications.repositories.entities.NotificationChannel;
 import it.sanitech.notifications.repositories.entities.RecipientType;
 import it.sanitech.notifications.services.NotificationService;
 import it.sanitech.notifications.services.dto.create.NotificationCreateDto;
-import lombok.RequiredArgsConstructor;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.consumer.OutboxRetryableTopic;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Consumer Kafka per eventi di richiesta email di attivazione.
  *
@@ -24,44 +26,41 @@ import org.springframework.stereotype.Component;
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "sanitech.notifications.activation-consumer", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class ActivationEmailConsumer {
 
     private static final String EVENT_TYPE_ACTIVATION_EMAIL = "ACTIVATION_EMAIL_REQUESTED";
 
     private final NotificationService notificationService;
-    private final ObjectMapper objectMapper;
+    private final OutboxEventDispatcher dispatcher;
+
+    public ActivationEmailConsumer(NotificationService notificationService, OutboxEventDispatchers dispatchers) {
+        this.notificationService = notificationService;
+        this.dispatcher = dispatchers.builder("notifications-activation")
+                .on(EVENT_TYPE_ACTIVATION_EMAIL, ActivationPayload.class,
+                        (payload, ctx) -> processActivationEmailEvent(payload))
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .build();
+    }
 
+    @OutboxRetryableTopic(
+            retryTopicSuffix = "-${sanitech.notifications.activation-consumer.group-id:svc-notifications-activation}-retry",
+            dltTopicSuffix = "-${sanitech.notifications.activation-consumer.group-id:svc-notifications-activation}-dlt"
+    )
     @KafkaListener(
             topics = "${sanitech.notifications.activation-consumer.topic:notifications.events}",
             groupId = "${sanitech.notifications.activation-consumer.group-id:svc-notifications-activation}"
     )
-    public void onMessage(ConsumerRecord<String, String> record) {
-        try {
-            JsonNode payload = objectMapper.readTree(record.value());
-            String eventType = payload.path("eventType").asText(null);
-
-            if (!EVENT_TYPE_ACTIVATION_EMAIL.equals(eventType)) {
-                log.debug("Evento ignorato: {}", eventType);
-                return;
-            }
-
-            JsonNode eventPayload = payload.path("payload");
-            processActivationEmailEvent(eventPayload);
-
-        } catch (Exception ex) {
-            log.error("Errore processamento evento da notifications.events (offset={}): {}",
-                    record.offset(), ex.getMessage(), ex);
-        }
+    public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+        return dispatcher.dispatchAsync(record);
     }
 
-    private void processActivationEmailEvent(JsonNode payload) {
-        String recipientTypeStr = payload.path("recipientType").asText(null);
-        String recipientId = payload.path("recipientId").asText(null);
-        String email = payload.path("email").asText(null);
-        String firstName = payload.path("firstName").asText(null);
-        String lastName = payload.path("lastName").asText(null);
+    private void processActivationEmailEvent(ActivationPayload payload) {
+        String recipientTypeStr = payload.recipientType();
+        String recipientId = payload.recipientId();
+        String email = payload.email();
+        String firstName = payload.firstName();
+        String lastName = payload.lastName();
 
         if (email == null || email.isBlank()) {
             log.warn("Evento ACTIVATION_EMAIL_REQUESTED senza email, ignorato.");
@@ -123,4 +122,10 @@ public class ActivationEmailConsumer {
                 Il team Sanitech
                 """, name);
     }
+
+    /**
+     * Payload di {@code ACTIVATION_EMAIL_REQUESTED}.
+     */
+    record ActivationPayload(String recipientType, String recipientId, String email,
+                             String firstName, String lastName) { }
 }
@@ -1,12 +1,12 @@
 package it.sanitech.notifications.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import it.sanitech.notifications.repositories.entities.NotificationChannel;
 import it.sanitech.notifications.repositories.entities.RecipientType;
 import it.sanitech.notifications.services.NotificationService;
 import it.sanitech.notifications.services.dto.create.NotificationCreateDto;
-import lombok.RequiredArgsConstructor;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.consumer.OutboxRetryableTopic;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -15,6 +15,7 @@ import org.springframework.stereotype.Component;
 
 import java.text.NumberFormat;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Consumer Kafka per eventi di sollecito pagamento.
@@ -27,46 +28,43 @@ import java.util.Locale;
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "sanitech.notifications.payment-reminder-consumer", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class PaymentReminderConsumer {
 
     private static final String EVENT_TYPE_PAYMENT_REMINDER = "PAYMENT_REMINDER_REQUESTED";
 
     private final NotificationService notificationService;
-    private final ObjectMapper objectMapper;
+    private final OutboxEventDispatcher dispatcher;
+
+    public PaymentReminderConsumer(NotificationService notificationService, OutboxEventDispatchers dispatchers) {
+        this.notificationService = notificationService;
+        this.dispatcher = dispatchers.builder("notifications-payment-reminder")
+                .on(EVENT_TYPE_PAYMENT_REMINDER, PaymentReminderPayload.class,
+                        (payload, ctx) -> processPaymentReminderEvent(payload))
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .build();
+    }
 
+    @OutboxRetryableTopic(
+            retryTopicSuffix = "-${sanitech.notifications.payment-reminder-consumer.group-id:svc-notifications-payment-reminder}-retry",
+            dltTopicSuffix = "-${sanitech.notifications.payment-reminder-consumer.group-id:svc-notifications-payment-reminder}-dlt"
+    )
     @KafkaListener(
             topics = "${sanitech.notifications.payment-reminder-consumer.topic:notifications.events}",
             groupId = "${sanitech.notifications.payment-reminder-consumer.group-id:svc-notifications-payment-reminder}"
     )
-    public void onMessage(ConsumerRecord<String, String> record) {
-        try {
-            JsonNode payload = objectMapper.readTree(record.value());
-            String eventType = payload.path("eventType").asText(null);
-
-            if (!EVENT_TYPE_PAYMENT_REMINDER.equals(eventType)) {
-                log.debug("Evento ignorato: {}", eventType);
-                return;
-            }
-
-            JsonNode eventPayload = payload.path("payload");
-            processPaymentReminderEvent(eventPayload);
-
-        } catch (Exception ex) {
-            log.error("Errore processamento evento da notifications.events (offset={}): {}",
-                    record.offset(), ex.getMessage(), ex);
-        }
+    public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+        return dispatcher.dispatchAsync(record);
     }
 
-    private void processPaymentReminderEvent(JsonNode payload) {
-        String recipientId = payload.path("recipientId").asText(null);
-        String email = payload.path("email").asText(null);
-        String patientName = payload.path("patientName").asText(null);
-        Long paymentId = payload.path("paymentId").asLong(0);
-        long amountCents = payload.path("amountCents").asLong(0);
-        String currency = payload.path("currency").asText("EUR");
-        String description = payload.path("description").asText(null);
+    private void processPaymentReminderEvent(PaymentReminderPayload payload) {
+        String recipientId = payload.recipientId();
+        String email = payload.email();
+        String patientName = payload.patientName();
+        Long paymentId = payload.paymentId();
+        long amountCents = payload.amountCents();
+        String currency = payload.currency() != null ? payload.currency() : "EUR";
+        String description = payload.description();
 
         if (email == null || email.isBlank()) {
             log.warn("Evento PAYMENT_REMINDER_REQUESTED senza email, ignorato.");
@@ -126,4 +124,10 @@ public class PaymentReminderConsumer {
         }
         return formatter.format(amount);
     }
+
+    /**
+     * Payload di {@code PAYMENT_REMINDER_REQUESTED}.
+     */
+    record PaymentReminderPayload(String recipientId, String email, String patientName, long paymentId,
+                                  long amountCents, String currency, String description) { }
 }
@@ -1,24 +1,26 @@
 package it.sanitech.notifications.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import it.sanitech.notifications.repositories.entities.NotificationChannel;
 import it.sanitech.notifications.repositories.entities.RecipientType;
 import it.sanitech.notifications.services.NotificationService;
 import it.sanitech.notifications.services.dto.create.NotificationCreateDto;
-import lombok.RequiredArgsConstructor;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.consumer.OutboxRetryableTopic;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.Locale;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Consumer Kafka per eventi di completamento prestazioni sanitarie.
@@ -30,7 +32,8 @@ import java.util.Set;
  *   <li>{@code ADMISSION_DISCHARGED} — paziente dimesso da ricovero</li>
  *   <li>{@code APPOINTMENT_COMPLETED} — visita in presenza completata</li>
  * </ul>
- * Per ciascun evento invia due email: una al paziente e una al medico.
+ * Per ciascun evento invia due email: una al paziente e una al medico, create nella stessa
+ * transazione: un errore sulla seconda non lascia la prima già salvata, che il retry duplicherebbe.
  * </p>
  *
  * <p>
@@ -40,7 +43,6 @@ import java.util.Set;
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "sanitech.notifications.service-completion-consumer", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class ServiceCompletionEmailConsumer {
 
@@ -48,54 +50,49 @@ public class ServiceCompletionEmailConsumer {
     private static final String EVENT_TYPE_ADMISSION_DISCHARGED = "ADMISSION_DISCHARGED";
     private static final String EVENT_TYPE_APPOINTMENT_COMPLETED = "APPOINTMENT_COMPLETED";
 
-    private static final Set<String> SUPPORTED_EVENT_TYPES = Set.of(
-            EVENT_TYPE_TELEVISIT_ENDED,
-            EVENT_TYPE_ADMISSION_DISCHARGED,
-            EVENT_TYPE_APPOINTMENT_COMPLETED
-    );
-
     private final NotificationService notificationService;
-    private final ObjectMapper objectMapper;
+    private final OutboxEventDispatcher dispatcher;
+
+    public ServiceCompletionEmailConsumer(NotificationService notificationService,
+                                          OutboxEventDispatchers dispatchers,
+                                          PlatformTransactionManager txManager) {
+        this.notificationService = notificationService;
+        // Gli handler girano sul thread del dispatcher (anche in parallelo): transazione per evento.
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        this.dispatcher = dispatchers.builder("notifications-service-completion")
+                .on(EVENT_TYPE_TELEVISIT_ENDED, TelevisitEnded.class,
+                        (payload, ctx) -> tx.executeWithoutResult(status -> processTelevisitEnded(payload)))
+                .on(EVENT_TYPE_ADMISSION_DISCHARGED, AdmissionDischarged.class,
+                        (payload, ctx) -> tx.executeWithoutResult(status -> processAdmissionDischarged(payload)))
+                .on(EVENT_TYPE_APPOINTMENT_COMPLETED, AppointmentCompleted.class,
+                        (payload, ctx) -> tx.executeWithoutResult(status -> processAppointmentCompleted(payload)))
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .build();
+    }
 
+    @OutboxRetryableTopic(
+            retryTopicSuffix = "-${sanitech.notifications.service-completion-consumer.group-id:svc-notifications-service-completion}-retry",
+            dltTopicSuffix = "-${sanitech.notifications.service-completion-consumer.group-id:svc-notifications-service-completion}-dlt"
+    )
     @KafkaListener(
             topics = "${sanitech.notifications.service-completion-consumer.topic:notifications.events}",
             groupId = "${sanitech.notifications.service-completion-consumer.group-id:svc-notifications-service-completion}"
     )
-    public void onMessage(ConsumerRecord<String, String> record) {
-        try {
-            JsonNode envelope = objectMapper.readTree(record.value());
-            String eventType = getTextOrNull(envelope, "eventType");
-
-            if (eventType == null || !SUPPORTED_EVENT_TYPES.contains(eventType)) {
-                log.debug("Evento ignorato: {}", eventType);
-                return;
-            }
-
-            JsonNode payload = envelope.path("payload");
-
-            switch (eventType) {
-                case EVENT_TYPE_TELEVISIT_ENDED -> processTelevisitEnded(payload);
-                case EVENT_TYPE_ADMISSION_DISCHARGED -> processAdmissionDischarged(payload);
-                case EVENT_TYPE_APPOINTMENT_COMPLETED -> processAppointmentCompleted(payload);
-            }
-
-        } catch (Exception ex) {
-            log.error("Errore processamento evento da notifications.events (offset={}): {}",
-                    record.offset(), ex.getMessage(), ex);
-        }
+    public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+        return dispatcher.dispatchAsync(record);
     }
 
     // ──────────────────────────────────────────────
     // Televisita completata
     // ──────────────────────────────────────────────
 
-    private void processTelevisitEnded(JsonNode payload) {
-        String patientName = getTextOrNull(payload, "patientName");
-        String patientEmail = getTextOrNull(payload, "patientEmail");
-        String doctorName = getTextOrNull(payload, "doctorName");
-        String doctorEmail = getTextOrNull(payload, "doctorEmail");
-        String roomName = getTextOrNull(payload, "roomName");
-        String department = getTextOrNull(payload, "department");
+    private void processTelevisitEnded(TelevisitEnded payload) {
+        String patientName = payload.patientName();
+        String patientEmail = payload.patientEmail();
+        String doctorName = payload.doctorName();
+        String doctorEmail = payload.doctorEmail();
+        String roomName = payload.roomName();
+        String department = payload.department();
 
         // Email al paziente
         if (patientEmail != null && !patientEmail.isBlank()) {
@@ -158,14 +155,14 @@ public class ServiceCompletionEmailConsumer {
     // Ricovero — paziente dimesso
     // ──────────────────────────────────────────────
 
-    private void processAdmissionDischarged(JsonNode payload) {
-        String patientName = getTextOrNull(payload, "patientName");
-        String patientEmail = getTextOrNull(payload, "patientEmail");
-        String doctorName = getTextOrNull(payload, "doctorName");
-        String doctorEmail = getTextOrNull(payload, "doctorEmail");
-        String departmentCode = getTextOrNull(payload, "departmentCode");
-        String admittedAtStr = getTextOrNull(payload, "admittedAt");
-        String dischargedAtStr = getTextOrNull(payload, "dischargedAt");
+    private void processAdmissionDischarged(AdmissionDischarged payload) {
+        String patientName = payload.patientName();
+        String patientEmail = payload.patientEmail();
+        String doctorName = payload.doctorName();
+        String doctorEmail = payload.doctorEmail();
+        String departmentCode = payload.departmentCode();
+        String admittedAtStr = payload.admittedAt();
+        String dischargedAtStr = payload.dischargedAt();
 
         String admittedFormatted = formatInstant(admittedAtStr);
         String dischargedFormatted = formatInstant(dischargedAtStr);
@@ -241,14 +238,14 @@ public class ServiceCompletionEmailConsumer {
     // Visita in presenza completata
     // ──────────────────────────────────────────────
 
-    private void processAppointmentCompleted(JsonNode payload) {
-        String patientName = getTextOrNull(payload, "patientName");
-        String patientEmail = getTextOrNull(payload, "patientEmail");
-        String doctorName = getTextOrNull(payload, "doctorName");
-        String doctorEmail = getTextOrNull(payload, "doctorEmail");
-        String departmentCode = getTextOrNull(payload, "departmentCode");
-        String mode = getTextOrNull(payload, "mode");
-        String completedAtStr = getTextOrNull(payload, "completedAt");
+    private void processAppointmentCompleted(AppointmentCompleted payload) {
+        String patientName = payload.patientName();
+        String patientEmail = payload.patientEmail();
+        String doctorName = payload.doctorName();
+        String doctorEmail = payload.doctorEmail();
+        String departmentCode = payload.departmentCode();
+        String mode = payload.mode();
+        String completedAtStr = payload.completedAt();
 
         String completedFormatted = formatInstant(completedAtStr);
         String modeLabel = "TELEVISIT".equals(mode) ? "Televisita" : "In presenza";
@@ -333,12 +330,6 @@ public class ServiceCompletionEmailConsumer {
         notificationService.create(dto);
     }
 
-    private String getTextOrNull(JsonNode node, String field) {
-        if (node == null) return null;
-        JsonNode fieldNode = node.get(field);
-        return fieldNode != null && !fieldNode.isNull() ? fieldNode.asText() : null;
-    }
-
     private String formatInstant(String isoDateTime) {
         if (isoDateTime == null || isoDateTime.isBlank()) {
             return "Data non disponibile";
@@ -361,4 +352,17 @@ public class ServiceCompletionEmailConsumer {
             }
         }
     }
+
+    // ──────────────────────────────────────────────
+    // Payload
+    // ──────────────────────────────────────────────
+
+    record TelevisitEnded(String patientName, String patientEmail, String doctorName, String doctorEmail,
+                          String roomName, String department) { }
+
+    record AdmissionDischarged(String patientName, String patientEmail, String doctorName, String doctorEmail,
+                               String departmentCode, String admittedAt, String dischargedAt) { }
+
+    record AppointmentCompleted(String patientName, String patientEmail, String doctorName, String doctorEmail,
+                                String departmentCode, String mode, String completedAt) { }
 }
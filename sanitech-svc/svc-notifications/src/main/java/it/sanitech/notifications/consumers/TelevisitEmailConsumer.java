@@ -1,25 +1,28 @@
 package it.sanitech.notifications.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import it.sanitech.notifications.clients.DirectoryClient;
 import it.sanitech.notifications.clients.DirectoryClient.PersonInfo;
 import it.sanitech.notifications.repositories.entities.NotificationChannel;
 import it.sanitech.notifications.repositories.entities.RecipientType;
 import it.sanitech.notifications.services.NotificationService;
 import it.sanitech.notifications.services.dto.create.NotificationCreateDto;
-import lombok.RequiredArgsConstructor;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.consumer.OutboxRetryableTopic;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Consumer Kafka per eventi di creazione televisita.
@@ -28,11 +31,12 @@ import java.util.Locale;
  * Ascolta il topic {@code audits.events} e processa gli eventi
  * {@code TELEVISIT_SESSION.CREATED} per inviare email di notifica
  * sia al medico che al paziente con il link per la videochiamata.
+ * Le due notifiche sono create nella stessa transazione, dopo le ricerche in anagrafica:
+ * un errore sulla seconda non lascia la prima già salvata, che il retry duplicherebbe.
  * </p>
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "sanitech.notifications.televisit-consumer", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class TelevisitEmailConsumer {
 
@@ -41,39 +45,43 @@ public class TelevisitEmailConsumer {
 
     private final NotificationService notificationService;
     private final DirectoryClient directoryClient;
-    private final ObjectMapper objectMapper;
+    private final OutboxEventDispatcher dispatcher;
+    private final TransactionTemplate tx;
 
     @Value("${sanitech.televisit.room-base-url:https://meet.sanitech.it/room/}")
     private String roomBaseUrl;
 
+    public TelevisitEmailConsumer(NotificationService notificationService,
+                                  DirectoryClient directoryClient,
+                                  OutboxEventDispatchers dispatchers,
+                                  PlatformTransactionManager txManager) {
+        this.notificationService = notificationService;
+        this.directoryClient = directoryClient;
+        this.tx = new TransactionTemplate(txManager);
+        this.dispatcher = dispatchers.builder("notifications-televisit")
+                .on(AGGREGATE_TYPE_TELEVISIT, EVENT_TYPE_CREATED, TelevisitCreated.class,
+                        (payload, ctx) -> processTelevisitCreated(payload))
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .build();
+    }
+
+    @OutboxRetryableTopic(
+            retryTopicSuffix = "-${sanitech.notifications.televisit-consumer.group-id:svc-notifications-televisit}-retry",
+            dltTopicSuffix = "-${sanitech.notifications.televisit-consumer.group-id:svc-notifications-televisit}-dlt"
+    )
     @KafkaListener(
             topics = "${sanitech.notifications.televisit-consumer.topic:audits.events}",
             groupId = "${sanitech.notifications.televisit-consumer.group-id:svc-notifications-televisit}"
     )
-    public void onMessage(ConsumerRecord<String, String> record) {
-        try {
-            JsonNode event = objectMapper.readTree(record.value());
-            String aggregateType = event.path("aggregateType").asText(null);
-            String eventType = event.path("eventType").asText(null);
-
-            if (!AGGREGATE_TYPE_TELEVISIT.equals(aggregateType) || !EVENT_TYPE_CREATED.equals(eventType)) {
-                return;
-            }
-
-            JsonNode payload = event.path("payload");
-            processTelevisitCreated(payload);
-
-        } catch (Exception ex) {
-            log.error("Errore processamento evento televisita (offset={}): {}",
-                    record.offset(), ex.getMessage(), ex);
-        }
+    public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+        return dispatcher.dispatchAsync(record);
     }
 
-    private void processTelevisitCreated(JsonNode payload) {
-        String roomName = payload.path("roomName").asText(null);
-        String doctorFullName = payload.path("doctorSubject").asText(null);
-        String patientFullName = payload.path("patientSubject").asText(null);
-        String scheduledAtStr = payload.path("scheduledAt").asText(null);
+    private void processTelevisitCreated(TelevisitCreated payload) {
+        String roomName = payload.roomName();
+        String doctorFullName = payload.doctorSubject();
+        String patientFullName = payload.patientSubject();
+        String scheduledAtStr = payload.scheduledAt();
 
         if (roomName == null || doctorFullName == null || patientFullName == null) {
             log.warn("Evento TELEVISIT_SESSION.CREATED incompleto, ignorato. roomName={}, doctor={}, patient={}",
@@ -84,21 +92,25 @@ public class TelevisitEmailConsumer {
         String roomUrl = roomBaseUrl + roomName;
         String formattedDate = formatScheduledAt(scheduledAtStr);
 
-        // Invia email al medico
+        // Ricerche in anagrafica fuori dalla transazione: nessuna connessione al DB trattenuta durante le chiamate.
         PersonInfo doctor = directoryClient.findByFullName(doctorFullName, true);
-        if (doctor != null && doctor.email() != null) {
-            sendDoctorEmail(doctor, patientFullName, formattedDate, roomUrl);
-        } else {
-            log.warn("Impossibile inviare email al medico: lookup fallito per {}", doctorFullName);
-        }
-
-        // Invia email al paziente
         PersonInfo patient = directoryClient.findByFullName(patientFullName, false);
-        if (patient != null && patient.email() != null) {
-            sendPatientEmail(patient, doctorFullName, formattedDate, roomUrl);
-        } else {
-            log.warn("Impossibile inviare email al paziente: lookup fallito per {}", patientFullName);
-        }
+
+        tx.executeWithoutResult(status -> {
+            // Invia email al medico
+            if (doctor != null && doctor.email() != null) {
+                sendDoctorEmail(doctor, patientFullName, formattedDate, roomUrl);
+            } else {
+                log.warn("Impossibile inviare email al medico: lookup fallito per {}", doctorFullName);
+            }
+
+            // Invia email al paziente
+            if (patient != null && patient.email() != null) {
+                sendPatientEmail(patient, doctorFullName, formattedDate, roomUrl);
+            } else {
+                log.warn("Impossibile inviare email al paziente: lookup fallito per {}", patientFullName);
+            }
+        });
     }
 
     private void sendDoctorEmail(PersonInfo doctor, String patientFullName, String scheduledAt, String roomUrl) {
@@ -190,4 +202,9 @@ public class TelevisitEmailConsumer {
             return isoDateTime;
         }
     }
+
+    /**
+     * Payload di {@code TELEVISIT_SESSION/CREATED}.
+     */
+    record TelevisitCreated(String roomName, String doctorSubject, String patientSubject, String scheduledAt) { }
 }
@@ -6,9 +6,11 @@ import it.sanitech.notifications.repositories.entities.RecipientType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -19,23 +21,61 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
     Page<Notification> findByRecipientTypeAndRecipientId(RecipientType recipientType, String recipientId, Pageable pageable);
 
     /**
-     * Estrae e blocca un batch di notifiche EMAIL in stato PENDING per l'invio.
+     * Estrae e blocca un batch di notifiche EMAIL da inviare: in stato PENDING o SENDING con lease scaduto
+     * (presa in carico da un'esecuzione interrotta).
      *
      * <p>
      * La clausola {@code FOR UPDATE SKIP LOCKED} consente più istanze del servizio in parallelo:
-     * ogni istanza "prende" record diversi evitando doppie elaborazioni.
+     * ogni istanza "prende" record diversi evitando doppie elaborazioni. Il lock dura solo
+     * la transazione di presa in carico, non l'invio.
      * </p>
      */
     @Query(value = """
             SELECT *
             FROM notifications
-            WHERE status = 'PENDING'
-              AND channel = 'EMAIL'
+            WHERE channel = 'EMAIL'
+              AND (status = 'PENDING' OR (status = 'SENDING' AND lease_until < NOW()))
             ORDER BY created_at ASC
             LIMIT :limit
             FOR UPDATE SKIP LOCKED
             """, nativeQuery = true)
-    List<Notification> lockPendingEmailBatch(@Param("limit") int limit);
+    List<Notification> lockDispatchableEmailBatch(@Param("limit") int limit);
+
+    /**
+     * Registra l'invio riuscito delle notifiche ancora in carico con il lease indicato.
+     *
+     * <p>
+     * Query nativa con {@code RETURNING}: restituisce gli id effettivamente aggiornati nello stesso round trip,
+     * così il chiamante pubblica l'esito solo per quelli.
+     * </p>
+     *
+     * @return id delle notifiche aggiornate (meno di {@code ids} se nel frattempo un lease è scaduto ed è stato ripreso)
+     */
+    @Query(value = """
+            UPDATE notifications
+            SET status = 'SENT', sent_at = :sentAt, error_message = NULL, lease_until = NULL
+            WHERE id IN (:ids)
+              AND status = 'SENDING'
+              AND lease_until = :lease
+            RETURNING id
+            """, nativeQuery = true)
+    List<Long> markSent(@Param("ids") List<Long> ids, @Param("sentAt") Instant sentAt, @Param("lease") Instant lease);
+
+    /**
+     * Registra l'invio fallito di una notifica ancora in carico con il lease indicato.
+     *
+     * @return 1 se aggiornata, 0 se nel frattempo il lease è scaduto ed è stata ripresa
+     */
+    @Modifying
+    @Query("""
+            UPDATE Notification n
+            SET n.status = it.sanitech.notifications.repositories.entities.NotificationStatus.FAILED,
+                n.errorMessage = :error, n.leaseUntil = null
+            WHERE n.id = :id
+              AND n.status = it.sanitech.notifications.repositories.entities.NotificationStatus.SENDING
+              AND n.leaseUntil = :lease
+            """)
+    int markFailed(@Param("id") Long id, @Param("error") String error, @Param("lease") Instant lease);
 
     long countByStatus(NotificationStatus status);
 
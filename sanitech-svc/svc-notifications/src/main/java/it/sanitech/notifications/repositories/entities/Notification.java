@@ -72,6 +72,12 @@ public class Notification {
     @Column(name = "error_message", length = 400)
     private String errorMessage;
 
+    /**
+     * Scadenza della presa in carico (stato SENDING): oltre, un'altra esecuzione del dispatcher può riprenderla.
+     */
+    @Column(name = "lease_until")
+    private Instant leaseUntil;
+
     @PrePersist
     void prePersist() {
         if (createdAt == null) {
@@ -86,6 +92,14 @@ public class Notification {
         }
     }
 
+    /**
+     * Prende in carico la notifica per l'invio fino a {@code leaseUntil}.
+     */
+    public void markSending(Instant leaseUntil) {
+        this.status = NotificationStatus.SENDING;
+        this.leaseUntil = leaseUntil;
+    }
+
     public void markSent(Instant when) {
         this.status = NotificationStatus.SENT;
         this.sentAt = when == null ? Instant.now() : when;
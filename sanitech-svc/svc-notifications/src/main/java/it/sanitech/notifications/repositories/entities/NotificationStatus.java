@@ -5,6 +5,7 @@ package it.sanitech.notifications.repositories.entities;
  *
  * <ul>
  *   <li>PENDING — in coda (EMAIL non ancora inviata)</li>
+ *   <li>SENDING — EMAIL presa in carico dal dispatcher, in invio fino alla scadenza del lease</li>
  *   <li>SENT — consegnata / disponibile in-app</li>
  *   <li>FAILED — invio fallito</li>
  *   <li>READ — letta dall'utente</li>
@@ -13,6 +14,7 @@ package it.sanitech.notifications.repositories.entities;
  */
 public enum NotificationStatus {
     PENDING,
+    SENDING,
     SENT,
     FAILED,
     READ,
@@ -6,53 +6,143 @@ import it.sanitech.notifications.repositories.entities.Notification;
 import it.sanitech.notifications.repositories.entities.NotificationStatus;
 import it.sanitech.notifications.utilities.AppConstants;
 import it.sanitech.outbox.core.DomainEventPublisher;
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * Dispatcher schedulato per l'invio delle notifiche EMAIL.
  *
  * <p>
- * Legge le notifiche {@link NotificationStatus#PENDING} e le invia via SMTP.
- * La selezione avviene con lock pessimista (SKIP LOCKED) per supportare più repliche in parallelo.
+ * Ogni ciclo procede in tre fasi, senza tenere lock né connessioni al DB durante le conversazioni SMTP:
+ * <ol>
+ *   <li><b>presa in carico</b>: in una transazione breve blocca un batch di notifiche {@link NotificationStatus#PENDING}
+ *       (SKIP LOCKED, per più repliche in parallelo) e le porta a {@link NotificationStatus#SENDING} con un lease;</li>
+ *   <li><b>invio</b>: fuori transazione, su virtual thread, con al più {@code sanitech.notifications.dispatcher.concurrency}
+ *       invii contemporanei verso il relay;</li>
+ *   <li><b>esito</b>: in una seconda transazione breve registra SENT (un solo update per il batch) o FAILED e
+ *       pubblica gli eventi di audit.</li>
+ * </ol>
+ * Se il servizio si ferma tra presa in carico ed esito, allo scadere del lease le notifiche tornano prelevabili;
+ * gli update di esito valgono solo per il lease con cui sono state prese, così un'esecuzione in ritardo non
+ * sovrascrive quella che le ha riprese.
  * </p>
  */
+@Slf4j
 @Component
-@RequiredArgsConstructor
 public class NotificationDispatcher {
 
     private static final String AGGREGATE_TYPE = "NOTIFICATION";
+    private static final int ERROR_MESSAGE_MAX_LENGTH = 400;
 
     private final NotificationRepository repository;
     private final NotificationsProperties properties;
     private final SmtpEmailSender emailSender;
     private final DomainEventPublisher domainEventPublisher;
+    private final TransactionTemplate tx;
+
+    public NotificationDispatcher(NotificationRepository repository,
+                                  NotificationsProperties properties,
+                                  SmtpEmailSender emailSender,
+                                  DomainEventPublisher domainEventPublisher,
+                                  PlatformTransactionManager txManager) {
+        this.repository = repository;
+        this.properties = properties;
+        this.emailSender = emailSender;
+        this.domainEventPublisher = domainEventPublisher;
+        this.tx = new TransactionTemplate(txManager);
+    }
 
     /**
      * Esegue periodicamente il dispatch delle notifiche email PENDING.
      */
     @Scheduled(fixedDelayString = "${sanitech.notifications.dispatcher.delay-ms:2000}")
-    @Transactional
     public void dispatchPendingEmails() {
-        List<Notification> batch = repository.lockPendingEmailBatch(properties.getDispatcher().getBatchSize());
-
-        for (Notification n : batch) {
-            try {
-                emailSender.send(
-                        properties.getMail().getFrom(),
-                        n.getToAddress(),
-                        n.getSubject(),
-                        n.getBody()
-                );
+        NotificationsProperties.Dispatcher config = properties.getDispatcher();
+        // Millisecondi: il lease fa da token negli update di esito e deve confrontarsi esatto con il valore su DB.
+        Instant lease = Instant.now().plusMillis(config.getLeaseMs()).truncatedTo(ChronoUnit.MILLIS);
+
+        List<Notification> batch = tx.execute(status -> claim(config.getBatchSize(), lease));
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+
+        List<Outcome> outcomes = send(batch, Math.max(1, config.getConcurrency()));
+        tx.executeWithoutResult(status -> record(outcomes, lease));
+    }
+
+    private List<Notification> claim(int batchSize, Instant lease) {
+        List<Notification> batch = repository.lockDispatchableEmailBatch(batchSize);
+        batch.forEach(n -> n.markSending(lease));
+        // Le modifiche (SENDING) vengono persistite al commit, che rilascia i lock.
+        return batch;
+    }
+
+    private List<Outcome> send(List<Notification> batch, int concurrency) {
+        Semaphore relay = new Semaphore(concurrency);
+        List<Future<Outcome>> futures = new ArrayList<>(batch.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Notification n : batch) {
+                futures.add(executor.submit(() -> {
+                    relay.acquireUninterruptibly();
+                    try {
+                        return sendOne(n);
+                    } finally {
+                        relay.release();
+                    }
+                }));
+            }
+        }
+        // La chiusura dell'executor attende tutti gli invii: i future sono già completati.
+        return futures.stream().map(Future::resultNow).toList();
+    }
+
+    private Outcome sendOne(Notification n) {
+        try {
+            emailSender.send(
+                    properties.getMail().getFrom(),
+                    n.getToAddress(),
+                    n.getSubject(),
+                    n.getBody()
+            );
+            return new Outcome(n, null);
+        } catch (Exception ex) {
+            // Dopo i retry configurati, se fallisce marchiamo FAILED (no loop infinito).
+            return new Outcome(n, ex);
+        }
+    }
 
-                n.markSent(Instant.now());
+    /**
+     * Registra gli esiti e pubblica gli eventi di audit solo per le notifiche effettivamente aggiornate:
+     * quelle riprese da un'altra esecuzione dopo la scadenza del lease avranno l'esito di quest'ultima.
+     */
+    private void record(List<Outcome> outcomes, Instant lease) {
+        Instant sentAt = Instant.now();
+        List<Long> sentIds = outcomes.stream().filter(Outcome::sent).map(o -> o.notification().getId()).toList();
+        Set<Long> recorded = sentIds.isEmpty() ? Set.of() : Set.copyOf(repository.markSent(sentIds, sentAt, lease));
+        if (recorded.size() < sentIds.size()) {
+            log.warn("Notifiche: {} esiti di invio non registrati, presa in carico scaduta.", sentIds.size() - recorded.size());
+        }
 
+        for (Outcome outcome : outcomes) {
+            Notification n = outcome.notification();
+            if (outcome.sent()) {
+                if (!recorded.contains(n.getId())) {
+                    continue;
+                }
                 domainEventPublisher.publish(
                         AGGREGATE_TYPE,
                         String.valueOf(n.getId()),
@@ -60,14 +150,15 @@ public class NotificationDispatcher {
                         Map.of(
                                 "id", n.getId(),
                                 "channel", n.getChannel().name(),
-                                "sentAt", String.valueOf(n.getSentAt())
+                                "sentAt", String.valueOf(sentAt)
                         ),
                         AppConstants.Outbox.TOPIC_AUDITS_EVENTS
                 );
-
-            } catch (Exception ex) {
-                // Dopo i retry configurati, se fallisce marchiamo FAILED (no loop infinito).
-                n.markFailed(ex.getMessage());
+            } else {
+                if (repository.markFailed(n.getId(), truncate(outcome.error().getMessage()), lease) != 1) {
+                    log.warn("Notifiche: esito di invio fallito per {} non registrato, presa in carico scaduta.", n.getId());
+                    continue;
+                }
 
                 domainEventPublisher.publish(
                         AGGREGATE_TYPE,
@@ -75,12 +166,27 @@ public class NotificationDispatcher {
                         "NOTIFICATION_FAILED",
                         Map.of(
                                 "id", n.getId(),
-                                "reason", ex.getClass().getSimpleName()
+                                "reason", outcome.error().getClass().getSimpleName()
                         ),
                         AppConstants.Outbox.TOPIC_AUDITS_EVENTS
                 );
             }
         }
-        // Le modifiche (SENT/FAILED) vengono persistite al commit della transazione.
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > ERROR_MESSAGE_MAX_LENGTH
+                ? message.substring(0, ERROR_MESSAGE_MAX_LENGTH)
+                : message;
+    }
+
+    /**
+     * Esito dell'invio di una notifica: {@code error} valorizzato se fallito.
+     */
+    private record Outcome(Notification notification, Exception error) {
+
+        boolean sent() {
+            return error == null;
+        }
     }
 }
@@ -0,0 +1,6 @@
+-- V12__notification_dispatch_lease.sql
+-- Dispatch email in tre fasi: le notifiche prese in carico passano a SENDING con una scadenza (lease_until).
+-- Se la replica che le ha prese si ferma prima di registrarne l'esito, scaduto il lease tornano prelevabili.
+
+ALTER TABLE notifications
+    ADD COLUMN IF NOT EXISTS lease_until TIMESTAMPTZ;
@@ -0,0 +1,137 @@
+package it.sanitech.notifications.outbox;
+
+import it.sanitech.notifications.consumers.PaymentReminderConsumer;
+import it.sanitech.outbox.admin.ConsumerDeadLetterService;
+import it.sanitech.outbox.admin.ConsumerDeadLetterTopicDto;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.kafka.annotation.RetryTopicConfigurationProvider;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.retrytopic.DestinationTopic;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test unitario del replay dei topic di dead letter dei consumer.
+ */
+class ConsumerDeadLetterServiceTest {
+
+    private static final String MAIN = "notifications.events";
+    private static final String DLT = MAIN + "-svc-notifications-payment-reminder-dlt";
+    private static final String RETRY = MAIN + "-svc-notifications-payment-reminder-retry-0";
+    private static final TopicPartition TP = new TopicPartition(DLT, 0);
+
+    private final List<ProducerRecord<String, byte[]>> sent = new ArrayList<>();
+
+    @Test
+    void replay_republishes_on_first_retry_topic_without_retry_headers() {
+        MockConsumer<String, byte[]> consumer = deadLetterConsumer(3);
+        ConsumerDeadLetterService service = service(consumer);
+
+        int replayed = service.replay(DLT, 2);
+
+        assertThat(replayed).isEqualTo(2);
+        assertThat(sent).extracting(ProducerRecord::topic).containsOnly(RETRY);
+        assertThat(sent).extracting(ProducerRecord::key).containsExactly("k0", "k1");
+        assertThat(sent.get(0).headers()).extracting(Header::key).containsExactly(OutboxConstants.HEADER_EVENT_TYPE);
+    }
+
+    @Test
+    void list_reports_pending_messages_and_unknown_topics_are_rejected() {
+        ConsumerDeadLetterService service = service(deadLetterConsumer(3));
+
+        assertThat(service.listTopics()).containsExactly(new ConsumerDeadLetterTopicDto(DLT, RETRY, 3));
+        assertThatThrownBy(() -> service.replay("notifications.events", null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void dead_letter_and_replay_topics_match_the_ones_spring_kafka_creates_for_the_listener() throws Exception {
+        RetryTopicConfiguration configuration = retryConfiguration();
+        List<DestinationTopic.Properties> destinations = configuration.getDestinationTopicProperties();
+
+        List<String> retryTopics = destinations.stream()
+                .filter(DestinationTopic.Properties::isRetryTopic)
+                .map(properties -> MAIN + properties.suffix())
+                .toList();
+        List<String> deadLetterTopics = destinations.stream()
+                .filter(DestinationTopic.Properties::isDltTopic)
+                .map(properties -> MAIN + properties.suffix())
+                .toList();
+
+        assertThat(deadLetterTopics).containsExactly(DLT);
+        assertThat(retryTopics).first().isEqualTo(RETRY);
+    }
+
+    /**
+     * Configurazione di retry che spring-kafka ricava dall'annotazione del listener reale,
+     * con i valori di default delle property.
+     */
+    private static RetryTopicConfiguration retryConfiguration() throws Exception {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        StandardEnvironment environment = new StandardEnvironment();
+        beanFactory.addEmbeddedValueResolver(environment::resolvePlaceholders);
+        beanFactory.registerSingleton(OutboxConstants.CONSUMER_RETRY_TEMPLATE, mock(KafkaOperations.class));
+
+        return new RetryTopicConfigurationProvider(beanFactory).findRetryConfigurationFor(
+                new String[]{MAIN},
+                PaymentReminderConsumer.class.getMethod("onMessage", ConsumerRecord.class),
+                PaymentReminderConsumer.class,
+                null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConsumerDeadLetterService service(MockConsumer<String, byte[]> consumer) {
+        ConsumerFactory<String, byte[]> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer(eq(DLT + ".replay"), any(), any())).thenReturn(consumer);
+        KafkaTemplate<String, byte[]> template = mock(KafkaTemplate.class);
+        when(template.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(null);
+        });
+        return new ConsumerDeadLetterService(consumerFactory, template, mock(KafkaListenerEndpointRegistry.class),
+                List.of(DLT), 100);
+    }
+
+    private static MockConsumer<String, byte[]> deadLetterConsumer(int records) {
+        MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(DLT, List.of(new PartitionInfo(DLT, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(TP, 0L));
+        consumer.updateEndOffsets(Map.of(TP, (long) records));
+        consumer.schedulePollTask(() -> {
+            for (int i = 0; i < records; i++) {
+                ConsumerRecord<String, byte[]> record =
+                        new ConsumerRecord<>(DLT, 0, i, "k" + i, "{}".getBytes(StandardCharsets.UTF_8));
+                record.headers().add(OutboxConstants.HEADER_EVENT_TYPE, "PAYMENT_REMINDER_REQUESTED".getBytes(StandardCharsets.UTF_8));
+                record.headers().add("retry_topic-attempts", new byte[]{0, 0, 0, 4});
+                record.headers().add("kafka_dlt-exception-message", "smtp down".getBytes(StandardCharsets.UTF_8));
+                consumer.addRecord(record);
+            }
+        });
+        return consumer;
+    }
+}
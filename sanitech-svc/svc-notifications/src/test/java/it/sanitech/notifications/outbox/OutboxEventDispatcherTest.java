@@ -0,0 +1,261 @@
+package it.sanitech.notifications.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.sanitech.outbox.codec.JacksonEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
+import it.sanitech.outbox.consumer.OutboxEventContext;
+import it.sanitech.outbox.consumer.OutboxEventDecodingException;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.persistence.OutboxEvent;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test unitario del dispatcher tipizzato degli eventi outbox.
+ */
+class OutboxEventDispatcherTest {
+
+    record Reminder(String email, long amountCents, String currency) { }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OutboxEventDispatchers dispatchers = new OutboxEventDispatchers(
+            new OutboxEnvelopeCodecs(List.of(JacksonEnvelopeCodec.json(objectMapper), JacksonEnvelopeCodec.smile(objectMapper))),
+            objectMapper, meterRegistry);
+
+    @Test
+    void dispatch_binds_payload_and_header() {
+        List<Reminder> payloads = new ArrayList<>();
+        List<OutboxEventContext> contexts = new ArrayList<>();
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (payload, ctx) -> {
+                    payloads.add(payload);
+                    contexts.add(ctx);
+                })
+                .build();
+
+        boolean handled = dispatcher.dispatch(json("""
+                {"aggregateType":"PAYMENT","aggregateId":"7","eventType":"PAYMENT_REMINDER_REQUESTED",
+                 "actor":{"type":"SYSTEM","id":"system","name":null},"occurredAt":"2026-01-01T10:00:00Z",
+                 "payload":{"email":"a@b.it","amountCents":"1500","extra":{"x":1}}}"""));
+
+        assertThat(handled).isTrue();
+        assertThat(payloads).containsExactly(new Reminder("a@b.it", 1500, null));
+        assertThat(contexts.get(0).aggregateId()).isEqualTo("7");
+        assertThat(contexts.get(0).occurredAt()).isEqualTo(Instant.parse("2026-01-01T10:00:00Z"));
+        assertThat(meterRegistry.get("sanitech.outbox.consumer.handle").tag("outcome", "success").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void dispatch_routes_by_aggregate_type_with_wildcard_fallback() {
+        List<String> calls = new ArrayList<>();
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .on("TELEVISIT_SESSION", "ENDED", Reminder.class, (p, ctx) -> calls.add("televisit"))
+                .on("ENDED", Reminder.class, (p, ctx) -> calls.add("any"))
+                .build();
+
+        dispatcher.dispatch(json("{\"aggregateType\":\"TELEVISIT_SESSION\",\"eventType\":\"ENDED\",\"payload\":{}}"));
+        dispatcher.dispatch(json("{\"aggregateType\":\"ADMISSION\",\"eventType\":\"ENDED\",\"payload\":{}}"));
+
+        assertThat(calls).containsExactly("televisit", "any");
+    }
+
+    @Test
+    void dispatch_buffers_payload_preceding_header_and_defaults_missing_payload() {
+        List<Reminder> payloads = new ArrayList<>();
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .on("PAYMENT", "PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> payloads.add(p))
+                .build();
+
+        dispatcher.dispatch(json("""
+                {"payload":{"email":"x@y.it","amountCents":10},"eventType":"PAYMENT_REMINDER_REQUESTED",
+                 "aggregateType":"PAYMENT"}"""));
+        dispatcher.dispatch(json("{\"aggregateType\":\"PAYMENT\",\"eventType\":\"PAYMENT_REMINDER_REQUESTED\"}"));
+
+        assertThat(payloads).containsExactly(new Reminder("x@y.it", 10, null), new Reminder(null, 0, null));
+    }
+
+    @Test
+    void dispatch_skips_unregistered_events_and_logs_malformed_envelopes() {
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> { })
+                .build();
+
+        assertThat(dispatcher.dispatch(json("{\"eventType\":\"OTHER\",\"payload\":{\"email\":[1,2]}}"))).isFalse();
+        assertThat(dispatcher.dispatch(json("not-json"))).isFalse();
+
+        assertThat(meterRegistry.get("sanitech.outbox.consumer.skipped").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("sanitech.outbox.consumer.decode.errors").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void dispatch_decodes_binary_envelopes_from_content_type_header() throws Exception {
+        OutboxEnvelopeCodec smile = JacksonEnvelopeCodec.smile(objectMapper);
+        byte[] value = smile.encode(OutboxEvent.builder()
+                .id(1L)
+                .aggregateType("PAYMENT")
+                .aggregateId("1")
+                .eventType("PAYMENT_REMINDER_REQUESTED")
+                .payload(objectMapper.readTree("{\"email\":\"s@m.it\",\"amountCents\":5}"))
+                .build());
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("notifications.events", 0, 0L, "k", value);
+        record.headers().add(OutboxConstants.HEADER_CONTENT_TYPE, smile.contentType().getBytes(StandardCharsets.UTF_8));
+
+        List<Reminder> payloads = new ArrayList<>();
+        dispatchers.builder("test")
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> payloads.add(p))
+                .build()
+                .dispatch(record);
+
+        assertThat(payloads).containsExactly(new Reminder("s@m.it", 5, null));
+    }
+
+    @Test
+    void record_filter_discards_unrouted_events_from_headers_only() {
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .on("PAYMENT", "PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> { })
+                .build();
+
+        ConsumerRecord<Object, Object> other = headers("OTHER", "PAYMENT");
+        ConsumerRecord<Object, Object> otherAggregate = headers("PAYMENT_REMINDER_REQUESTED", "INVOICE");
+        ConsumerRecord<Object, Object> routed = headers("PAYMENT_REMINDER_REQUESTED", "PAYMENT");
+        ConsumerRecord<Object, Object> legacy = new ConsumerRecord<>("notifications.events", 0, 0L, "k", new byte[0]);
+
+        assertThat(dispatcher.recordFilter().filter(other)).isTrue();
+        assertThat(dispatcher.recordFilter().filter(otherAggregate)).isTrue();
+        assertThat(dispatcher.recordFilter().filter(routed)).isFalse();
+        assertThat(dispatcher.recordFilter().filter(legacy)).isFalse();
+        assertThat(meterRegistry.get("sanitech.outbox.consumer.skipped").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void dispatch_skips_events_rejected_by_headers_without_decoding() {
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> { })
+                .build();
+
+        ConsumerRecord<String, byte[]> record = json("not-json");
+        record.headers().add(OutboxConstants.HEADER_EVENT_TYPE, "OTHER".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(dispatcher.dispatch(record)).isFalse();
+        assertThat(meterRegistry.get("sanitech.outbox.consumer.decode.errors").counter().count()).isZero();
+    }
+
+    @Test
+    void rethrow_policy_propagates_handler_errors() {
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> {
+                    throw new IllegalStateException("smtp down");
+                })
+                .build();
+
+        assertThatThrownBy(() -> dispatcher.dispatch(json("{\"eventType\":\"PAYMENT_REMINDER_REQUESTED\",\"payload\":{}}")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("smtp down");
+    }
+
+    @Test
+    void rethrow_policy_marks_decode_errors_as_not_retryable() {
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> { })
+                .build();
+
+        assertThatThrownBy(() -> dispatcher.dispatch(json("not-json")))
+                .isInstanceOf(OutboxEventDecodingException.class);
+    }
+
+    @Test
+    void parallel_dispatch_keeps_key_order_and_runs_keys_concurrently() throws Exception {
+        CountDownLatch otherKeyStarted = new CountDownLatch(1);
+        List<String> calls = new CopyOnWriteArrayList<>();
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .parallel(8)
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> {
+                    String key = (String) ctx.record().key();
+                    if (key.equals("a") && p.amountCents() == 0) {
+                        // Sequenziale andrebbe in stallo: il messaggio di "b" arriva dopo.
+                        assertThat(otherKeyStarted.await(5, TimeUnit.SECONDS)).isTrue();
+                    }
+                    if (key.equals("b")) {
+                        otherKeyStarted.countDown();
+                    }
+                    calls.add(key + p.amountCents());
+                })
+                .build();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(dispatcher.dispatchAsync(reminder("a", i)));
+        }
+        futures.add(dispatcher.dispatchAsync(reminder("b", 0)));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        assertThat(calls).containsSubsequence("a0", "a1", "a2");
+        assertThat(calls.indexOf("b0")).isLessThan(calls.indexOf("a0"));
+    }
+
+    @Test
+    void parallel_dispatch_fails_the_future_and_continues_with_the_same_key() throws Exception {
+        List<Long> handled = new CopyOnWriteArrayList<>();
+        OutboxEventDispatcher dispatcher = dispatchers.builder("test")
+                .parallel(2)
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .on("PAYMENT_REMINDER_REQUESTED", Reminder.class, (p, ctx) -> {
+                    if (p.amountCents() == 0) {
+                        throw new IllegalStateException("smtp down");
+                    }
+                    handled.add(p.amountCents());
+                })
+                .build();
+
+        CompletableFuture<Void> failed = dispatcher.dispatchAsync(reminder("a", 0));
+        CompletableFuture<Void> next = dispatcher.dispatchAsync(reminder("a", 1));
+        next.get(5, TimeUnit.SECONDS);
+
+        assertThat(failed).isCompletedExceptionally();
+        assertThat(handled).containsExactly(1L);
+    }
+
+    @Test
+    void duplicate_registration_is_rejected() {
+        assertThatThrownBy(() -> dispatchers.builder("test")
+                .on("E", Reminder.class, (p, ctx) -> { })
+                .on(null, "E", Reminder.class, (p, ctx) -> { }))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static ConsumerRecord<Object, Object> headers(String eventType, String aggregateType) {
+        ConsumerRecord<Object, Object> record = new ConsumerRecord<>("notifications.events", 0, 0L, "k", new byte[0]);
+        record.headers().add(OutboxConstants.HEADER_EVENT_TYPE, eventType.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(OutboxConstants.HEADER_AGGREGATE_TYPE, aggregateType.getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+
+    private static ConsumerRecord<String, byte[]> reminder(String key, long amountCents) {
+        String envelope = "{\"eventType\":\"PAYMENT_REMINDER_REQUESTED\",\"payload\":{\"amountCents\":" + amountCents + "}}";
+        return new ConsumerRecord<>("notifications.events", 0, amountCents, key, envelope.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ConsumerRecord<String, byte[]> json(String envelope) {
+        return new ConsumerRecord<>("notifications.events", 0, 0L, "k", envelope.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,20 +3,30 @@ package it.sanitech.notifications.outbox;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import it.sanitech.outbox.codec.JacksonEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodec;
+import it.sanitech.outbox.codec.OutboxEnvelopeCodecs;
 import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
 import it.sanitech.outbox.publisher.OutboxKafkaPublisher;
 import it.sanitech.outbox.publisher.OutboxKafkaSender;
+import it.sanitech.outbox.utilities.OutboxConstants;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -60,10 +70,166 @@ class OutboxKafkaPublisherTest {
         publisher.publishBatch();
 
         verify(sender).sendSync(props.getPublisher().getTopic(), evt, props.getPublisher().getSendTimeoutMs());
-        verify(repo).markPublished(eq(List.of(1L)), any());
+        verify(repo).markPublished(eq(List.of(1L)), eq(evt.getOccurredAt()), eq(evt.getOccurredAt()), any());
         assertThat(evt.isPublished()).isFalse();
 
         assertThat(meterRegistry.find("sanitech.outbox.published").counter()).isNotNull();
         assertThat(meterRegistry.find("sanitech.outbox.published").counter().count()).isEqualTo(1.0);
     }
+
+    @Test
+    void publishBatch_adaptive_backs_off_while_idle_until_woken_up() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setFixedDelayMs(60000);
+        props.getPublisher().getAdaptive().setEnabled(true);
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+        when(repo.lockBatch(100)).thenReturn(List.of());
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, null);
+        publisher.publishBatch();
+        publisher.publishBatch();
+        verify(repo, times(1)).lockBatch(100);
+
+        publisher.wakeUp();
+        publisher.publishBatch();
+        verify(repo, times(2)).lockBatch(100);
+    }
+
+    @Test
+    void publishBatch_claims_the_single_shard_only_with_fast_path_and_skips_the_cycle_when_busy() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+        when(repo.lockBatch(100)).thenReturn(List.of());
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, null);
+        publisher.publishBatch();
+        verify(repo, never()).tryLockShard(anyInt(), anyInt());
+        verify(repo, times(1)).lockBatch(100);
+
+        props.getPublisher().getFastPath().setEnabled(true);
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 0)).thenReturn(false);
+        publisher.publishBatch();
+        verify(repo, times(1)).lockBatch(100);
+
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 0)).thenReturn(true);
+        publisher.publishBatch();
+        verify(repo, times(2)).lockBatch(100);
+    }
+
+    @Test
+    void publishIds_publishes_only_the_committed_events() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setTopic("notifications.events");
+
+        OutboxEvent evt = OutboxEvent.builder()
+                .id(7L)
+                .aggregateType("NOTIFICATION")
+                .aggregateId("7")
+                .eventType("NOTIFICATION_CREATED")
+                .build();
+
+        when(tx.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        when(repo.findShardsByIds(List.of(7L), 1)).thenReturn(List.of(0));
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 0)).thenReturn(true);
+        when(repo.lockByIds(List.of(7L), 1, List.of(0))).thenReturn(List.of(evt));
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, new SimpleMeterRegistry());
+
+        assertThat(publisher.publishIds(List.of(7L))).isEqualTo(1);
+        verify(sender).sendSync("notifications.events", evt, props.getPublisher().getSendTimeoutMs());
+        verify(repo).markPublished(eq(List.of(7L)), any(), any(), any());
+        verify(repo, never()).lockBatch(anyInt());
+    }
+
+    @Test
+    void publishIds_leaves_events_of_busy_shards_and_lane_topics_to_the_workers() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setWorkers(4);
+        props.getPublisher().setShards(16);
+        OutboxProperties.Lane urgent = new OutboxProperties.Lane();
+        urgent.setName("urgent");
+        urgent.setTopics(List.of("notifications.urgent"));
+        props.getPublisher().setLanes(List.of(urgent));
+
+        when(tx.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        when(repo.findShardsByIds(List.of(7L, 8L), 16)).thenReturn(List.of(3, 5));
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 3)).thenReturn(false);
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 5)).thenReturn(true);
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, new SimpleMeterRegistry());
+
+        assertThat(publisher.publishIds(List.of(7L, 8L))).isZero();
+        // Lo shard 3 è in lavorazione su un worker: il fast path blocca solo le righe dello shard 5, fuori dalle corsie.
+        verify(repo).lockByIdsExcluding(List.of(7L, 8L), List.of("notifications.urgent"), 16, List.of(5));
+    }
+
+    @Test
+    void envelopeCodecs_decodeByContentTypeHeader() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        OutboxEnvelopeCodecs codecs = new OutboxEnvelopeCodecs(List.of(
+                JacksonEnvelopeCodec.json(mapper),
+                JacksonEnvelopeCodec.smile(mapper),
+                JacksonEnvelopeCodec.cbor(mapper)));
+
+        OutboxEvent evt = OutboxEvent.builder()
+                .id(9L)
+                .aggregateType("APPOINTMENT")
+                .aggregateId("9")
+                .eventType("APPOINTMENT_COMPLETED")
+                .payload(mapper.createObjectNode().put("notificationType", "APPOINTMENT_COMPLETED"))
+                .published(false)
+                .build();
+
+        OutboxEnvelopeCodec smile = codecs.forContentType(JacksonEnvelopeCodec.SMILE);
+        byte[] encoded = smile.encode(evt);
+        byte[] json = codecs.forContentType(JacksonEnvelopeCodec.JSON).encode(evt);
+        assertThat(encoded.length).isLessThan(json.length);
+
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("notifications.events", 0, 0L, "9", encoded);
+        record.headers().add(OutboxConstants.HEADER_CONTENT_TYPE, smile.contentType().getBytes(StandardCharsets.UTF_8));
+        assertThat(codecs.decode(record)).isEqualTo(mapper.readTree(json));
+
+        // Messaggi senza header (prodotti prima dei codec) restano JSON.
+        ConsumerRecord<String, byte[]> legacy = new ConsumerRecord<>("notifications.events", 0, 1L, "9", json);
+        assertThat(codecs.decode(legacy).path("payload").path("notificationType").asText())
+                .isEqualTo("APPOINTMENT_COMPLETED");
+    }
 }
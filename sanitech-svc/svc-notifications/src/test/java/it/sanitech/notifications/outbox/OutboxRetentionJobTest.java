@@ -0,0 +1,188 @@
+package it.sanitech.notifications.outbox;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.sanitech.outbox.autoconfigure.OutboxProperties;
+import it.sanitech.outbox.retention.OutboxRetentionJob;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test unitario del job di retention outbox: DDL delle partizioni, lock e purge a blocchi.
+ */
+class OutboxRetentionJobTest {
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final String HAS_DEFAULT = "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table";
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final TransactionTemplate tx = new TransactionTemplate(mock(PlatformTransactionManager.class));
+    private final OutboxProperties props = new OutboxProperties();
+
+    private final YearMonth current = YearMonth.now(ZoneOffset.UTC);
+    private final String expired = "outbox_events_" + current.minusMonths(3).format(SUFFIX);
+    private final String kept = "outbox_events_" + current.format(SUFFIX);
+    private final Instant cutoff = Instant.now().minus(7, ChronoUnit.DAYS);
+
+    private OutboxRetentionJob job() {
+        return new OutboxRetentionJob(jdbc, tx, props, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void ensureFuturePartitions_creates_current_and_premade_months_with_bounded_lock_wait() {
+        props.getRetention().setPremakeMonths(1);
+        props.getRetention().setDdlLockTimeoutMs(1500);
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(true);
+
+        job().ensureFuturePartitions();
+
+        verify(jdbc, times(2)).execute("SET LOCAL lock_timeout = '1500ms'");
+        verify(jdbc).execute("CREATE TABLE IF NOT EXISTS " + kept + " PARTITION OF outbox_events FOR VALUES FROM ('"
+                + current.atDay(1) + "') TO ('" + current.plusMonths(1).atDay(1) + "')");
+        verify(jdbc).execute(startsWith("CREATE TABLE IF NOT EXISTS outbox_events_" + current.plusMonths(1).format(SUFFIX) + " "));
+    }
+
+    @Test
+    void ensureFuturePartitions_moves_rows_of_the_month_out_of_the_default_partition() {
+        props.getRetention().setPremakeMonths(0);
+        String from = current.atDay(1).toString();
+        String to = current.plusMonths(1).atDay(1).toString();
+        String range = " WHERE occurred_at >= '" + from + "' AND occurred_at < '" + to + "'";
+        when(jdbc.queryForObject(startsWith(HAS_DEFAULT), eq(Boolean.class))).thenReturn(true);
+        when(jdbc.queryForObject(startsWith("SELECT pg_try_advisory_xact_lock"), eq(Boolean.class), any())).thenReturn(true);
+        when(jdbc.queryForObject(startsWith("SELECT to_regclass"), eq(Boolean.class), eq(kept), eq(from), eq(to))).thenReturn(true);
+        when(jdbc.update(startsWith("INSERT INTO " + kept))).thenReturn(4);
+
+        job().ensureFuturePartitions();
+
+        var order = inOrder(jdbc);
+        order.verify(jdbc).execute("SET LOCAL lock_timeout = '3000ms'");
+        order.verify(jdbc).execute("ALTER TABLE outbox_events DETACH PARTITION outbox_events_default");
+        order.verify(jdbc).execute("CREATE TABLE " + kept + " PARTITION OF outbox_events FOR VALUES FROM ('"
+                + from + "') TO ('" + to + "')");
+        order.verify(jdbc).update("INSERT INTO " + kept + " SELECT * FROM outbox_events_default" + range);
+        order.verify(jdbc).update("DELETE FROM outbox_events_default" + range);
+        order.verify(jdbc).execute("ALTER TABLE outbox_events ATTACH PARTITION outbox_events_default DEFAULT");
+        verify(jdbc, never()).execute(startsWith("CREATE TABLE IF NOT EXISTS"));
+    }
+
+    @Test
+    void ensureFuturePartitions_goes_on_with_the_next_month_when_one_fails() {
+        props.getRetention().setPremakeMonths(1);
+        String next = "outbox_events_" + current.plusMonths(1).format(SUFFIX);
+        when(jdbc.queryForObject(startsWith("SELECT pg_try_advisory_xact_lock"), eq(Boolean.class), any())).thenReturn(true);
+        doThrow(new IllegalStateException("lock timeout"))
+                .when(jdbc).execute(startsWith("CREATE TABLE IF NOT EXISTS " + kept + " "));
+
+        job().ensureFuturePartitions();
+
+        verify(jdbc).execute(startsWith("CREATE TABLE IF NOT EXISTS " + next + " "));
+    }
+
+    @Test
+    void removeExpiredPartitions_with_default_partition_detaches_then_drops_in_one_locked_transaction() {
+        when(jdbc.queryForList(anyString(), eq(String.class))).thenReturn(List.of("outbox_events_default", expired, kept));
+        when(jdbc.queryForObject(startsWith(HAS_DEFAULT), eq(Boolean.class))).thenReturn(true);
+        when(jdbc.queryForObject(contains("WHERE published = false"), eq(Boolean.class))).thenReturn(false);
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(true);
+
+        job().removeExpiredPartitions(cutoff);
+
+        var order = inOrder(jdbc);
+        order.verify(jdbc).execute("SET LOCAL lock_timeout = '3000ms'");
+        order.verify(jdbc).execute("ALTER TABLE outbox_events DETACH PARTITION " + expired);
+        order.verify(jdbc).execute("DROP TABLE IF EXISTS " + expired);
+        verify(jdbc, never()).execute(contains("DETACH PARTITION " + kept));
+        verify(jdbc, never()).execute(contains("outbox_events_default"));
+        verify(jdbc, never()).execute(any(ConnectionCallback.class));
+    }
+
+    @Test
+    void removeExpiredPartitions_without_default_partition_detaches_concurrently_outside_transaction() throws Exception {
+        props.getRetention().setMode(OutboxProperties.RetentionMode.DETACH);
+        when(jdbc.queryForList(anyString(), eq(String.class))).thenReturn(List.of(expired));
+        when(jdbc.queryForObject(startsWith(HAS_DEFAULT), eq(Boolean.class))).thenReturn(false);
+        when(jdbc.queryForObject(contains("WHERE published = false"), eq(Boolean.class))).thenReturn(false);
+
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        ResultSet lock = mock(ResultSet.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(contains("pg_try_advisory_lock"))).thenReturn(lock);
+        when(lock.next()).thenReturn(true);
+        when(lock.getBoolean(1)).thenReturn(true);
+        when(jdbc.execute(any(ConnectionCallback.class))).thenAnswer(invocation ->
+                invocation.<ConnectionCallback<?>>getArgument(0).doInConnection(connection));
+
+        job().removeExpiredPartitions(cutoff);
+
+        var order = inOrder(connection, statement);
+        order.verify(connection).setAutoCommit(true);
+        order.verify(statement).execute("ALTER TABLE outbox_events DETACH PARTITION " + expired + " CONCURRENTLY");
+        order.verify(statement).execute("ALTER TABLE " + expired + " RENAME TO outbox_archive_" + expired.substring(expired.length() - 6));
+        order.verify(statement).execute(contains("pg_advisory_unlock"));
+        verify(jdbc, never()).execute(startsWith("ALTER TABLE"));
+    }
+
+    @Test
+    void removeExpiredPartitions_keeps_partitions_with_pending_events() {
+        when(jdbc.queryForList(anyString(), eq(String.class))).thenReturn(List.of(expired));
+        when(jdbc.queryForObject(startsWith(HAS_DEFAULT), eq(Boolean.class))).thenReturn(true);
+        when(jdbc.queryForObject(contains("WHERE published = false"), eq(Boolean.class))).thenReturn(true);
+
+        job().removeExpiredPartitions(cutoff);
+
+        verify(jdbc, never()).execute(anyString());
+    }
+
+    @Test
+    void ddl_is_skipped_when_another_instance_holds_the_maintenance_lock() {
+        when(jdbc.queryForList(anyString(), eq(String.class))).thenReturn(List.of(expired));
+        when(jdbc.queryForObject(startsWith(HAS_DEFAULT), eq(Boolean.class))).thenReturn(true);
+        when(jdbc.queryForObject(contains("WHERE published = false"), eq(Boolean.class))).thenReturn(false);
+        when(jdbc.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(false);
+
+        OutboxRetentionJob job = job();
+        job.ensureFuturePartitions();
+        job.removeExpiredPartitions(cutoff);
+
+        verify(jdbc, never()).execute(anyString());
+    }
+
+    @Test
+    void purgePublished_deletes_in_batches_until_a_short_batch() {
+        props.getRetention().setPurgeBatchSize(100);
+        when(jdbc.update(startsWith("DELETE FROM outbox_events_default"), any(Timestamp.class), anyInt())).thenReturn(100, 100, 7);
+
+        job().purgePublished("outbox_events_default", cutoff);
+
+        verify(jdbc, times(3)).update(startsWith("DELETE FROM outbox_events_default"), any(Timestamp.class), eq(100));
+    }
+}
@@ -0,0 +1,123 @@
+package it.sanitech.notifications.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import it.sanitech.notifications.NotificationsProperties;
+import it.sanitech.notifications.repositories.NotificationRepository;
+import it.sanitech.notifications.repositories.entities.Notification;
+import it.sanitech.notifications.repositories.entities.NotificationChannel;
+import it.sanitech.notifications.repositories.entities.NotificationStatus;
+import it.sanitech.notifications.repositories.entities.RecipientType;
+import it.sanitech.outbox.core.DomainEventPublisher;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.mail.MailSendException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class NotificationDispatcherTest {
+
+    private final NotificationRepository repository = Mockito.mock(NotificationRepository.class);
+    private final SmtpEmailSender emailSender = Mockito.mock(SmtpEmailSender.class);
+    private final DomainEventPublisher publisher = Mockito.mock(DomainEventPublisher.class);
+    private final NotificationsProperties properties = new NotificationsProperties();
+    private final NotificationDispatcher dispatcher = new NotificationDispatcher(
+            repository, properties, emailSender, publisher, Mockito.mock(PlatformTransactionManager.class));
+
+    @Test
+    void dispatchClaimsSendsConcurrentlyAndRecordsOutcomesByLease() throws Exception {
+        properties.getDispatcher().setConcurrency(2);
+        Notification first = email(1L, "a@sanitech.it");
+        Notification second = email(2L, "b@sanitech.it");
+        Notification failing = email(3L, "fail@sanitech.it");
+        when(repository.lockDispatchableEmailBatch(anyInt())).thenReturn(List.of(first, second, failing));
+        when(repository.markSent(anyList(), any(), any())).thenReturn(List.of(1L, 2L));
+        when(repository.markFailed(eq(3L), anyString(), any())).thenReturn(1);
+
+        // I primi due invii si attendono a vicenda: in sequenza il test andrebbe in stallo.
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            String to = invocation.getArgument(1);
+            if (to.startsWith("fail")) {
+                throw new MailSendException("relay down");
+            }
+            bothStarted.countDown();
+            assertThat(bothStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            return null;
+        }).when(emailSender).send(anyString(), anyString(), anyString(), anyString());
+
+        dispatcher.dispatchPendingEmails();
+
+        assertThat(first.getStatus()).isEqualTo(NotificationStatus.SENDING);
+        Instant lease = first.getLeaseUntil();
+        assertThat(lease).isAfter(Instant.now());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Long>> sent = ArgumentCaptor.forClass(List.class);
+        verify(repository).markSent(sent.capture(), any(Instant.class), eq(lease));
+        assertThat(sent.getValue()).containsExactly(1L, 2L);
+        verify(repository).markFailed(3L, "relay down", lease);
+        verify(publisher).publish(eq("NOTIFICATION"), eq("1"), eq("NOTIFICATION_SENT"), anyMap(), anyString());
+        verify(publisher).publish(eq("NOTIFICATION"), eq("3"), eq("NOTIFICATION_FAILED"), anyMap(), anyString());
+    }
+
+    @Test
+    void dispatchPublishesOutcomesOnlyForNotificationsStillHeldByTheLease() {
+        Notification kept = email(1L, "a@sanitech.it");
+        Notification retaken = email(2L, "b@sanitech.it");
+        Notification failing = email(3L, "fail@sanitech.it");
+        when(repository.lockDispatchableEmailBatch(anyInt())).thenReturn(List.of(kept, retaken, failing));
+        // Le notifiche 2 e 3 sono state riprese da un'altra esecuzione dopo la scadenza del lease.
+        when(repository.markSent(anyList(), any(), any())).thenReturn(List.of(1L));
+        when(repository.markFailed(eq(3L), anyString(), any())).thenReturn(0);
+        doAnswer(invocation -> {
+            if (invocation.<String>getArgument(1).startsWith("fail")) {
+                throw new MailSendException("relay down");
+            }
+            return null;
+        }).when(emailSender).send(anyString(), anyString(), anyString(), anyString());
+
+        dispatcher.dispatchPendingEmails();
+
+        verify(publisher).publish(eq("NOTIFICATION"), eq("1"), eq("NOTIFICATION_SENT"), anyMap(), anyString());
+        verify(publisher, never()).publish(eq("NOTIFICATION"), eq("2"), anyString(), anyMap(), anyString());
+        verify(publisher, never()).publish(eq("NOTIFICATION"), eq("3"), anyString(), anyMap(), anyString());
+    }
+
+    @Test
+    void dispatchWithoutPendingEmailsDoesNotRecordAnything() {
+        when(repository.lockDispatchableEmailBatch(anyInt())).thenReturn(List.of());
+
+        dispatcher.dispatchPendingEmails();
+
+        verify(repository, never()).markSent(anyList(), any(), any());
+        verify(publisher, never()).publish(anyString(), anyString(), anyString(), anyMap(), anyString());
+    }
+
+    private static Notification email(Long id, String to) {
+        return Notification.builder()
+                .id(id)
+                .recipientType(RecipientType.PATIENT)
+                .recipientId("p" + id)
+                .channel(NotificationChannel.EMAIL)
+                .toAddress(to)
+                .subject("Subject")
+                .body("Body")
+                .status(NotificationStatus.PENDING)
+                .build();
+    }
+}
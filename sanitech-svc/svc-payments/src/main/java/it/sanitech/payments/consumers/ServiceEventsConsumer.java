@@ -1,20 +1,22 @@
 package it.sanitech.payments.consumers;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import it.sanitech.outbox.consumer.OutboxEventDispatcher;
+import it.sanitech.outbox.consumer.OutboxEventDispatchers;
+import it.sanitech.outbox.consumer.OutboxRetryableTopic;
 import it.sanitech.payments.properties.ServiceDefaultsProperties;
 import it.sanitech.payments.repositories.ServicePerformedRepository;
 import it.sanitech.payments.repositories.entities.*;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Consumer Kafka per eventi di prestazioni sanitarie completate.
@@ -32,13 +34,18 @@ import java.time.Instant;
  * I payload arrivano già arricchiti con dati anagrafici (nome, email) dai produttori,
  * che chiamano svc-directory prima di pubblicare l'evento.
  * </p>
+ *
+ * <p>
+ * Il routing per {@code (aggregateType, eventType)} e la conversione dei payload nei record
+ * tipizzati sono delegati a {@link OutboxEventDispatcher}.
+ * </p>
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 @ConditionalOnProperty(prefix = "sanitech.service-events-consumer", name = "enabled", havingValue = "true", matchIfMissing = true)
 public class ServiceEventsConsumer {
 
+    private static final String CONSUMER_NAME = "payments-service-events";
     private static final String EVENT_TYPE_TELEVISIT_ENDED = "ENDED";
     private static final String EVENT_TYPE_ADMISSION_DISCHARGED = "ADMISSION_DISCHARGED";
     private static final String EVENT_TYPE_APPOINTMENT_COMPLETED = "APPOINTMENT_COMPLETED";
@@ -48,54 +55,45 @@ public class ServiceEventsConsumer {
 
     private final ServicePerformedRepository repository;
     private final ServiceDefaultsProperties serviceDefaults;
-    private final ObjectMapper objectMapper;
+    private final OutboxEventDispatcher dispatcher;
+
+    public ServiceEventsConsumer(ServicePerformedRepository repository,
+                                 ServiceDefaultsProperties serviceDefaults,
+                                 OutboxEventDispatchers dispatchers,
+                                 PlatformTransactionManager txManager) {
+        this.repository = repository;
+        this.serviceDefaults = serviceDefaults;
+        // Gli handler girano sul thread del dispatcher (anche in parallelo): transazione per evento.
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        this.dispatcher = dispatchers.builder(CONSUMER_NAME)
+                .on(AGGREGATE_TYPE_TELEVISIT, EVENT_TYPE_TELEVISIT_ENDED, TelevisitEnded.class,
+                        (payload, ctx) -> tx.executeWithoutResult(status -> processTelevisitEnded(payload)))
+                .on(AGGREGATE_TYPE_ADMISSION, EVENT_TYPE_ADMISSION_DISCHARGED, AdmissionDischarged.class,
+                        (payload, ctx) -> tx.executeWithoutResult(status -> processAdmissionDischarged(payload)))
+                .on(AGGREGATE_TYPE_APPOINTMENT, EVENT_TYPE_APPOINTMENT_COMPLETED, AppointmentCompleted.class,
+                        (payload, ctx) -> tx.executeWithoutResult(status -> processAppointmentCompleted(payload)))
+                .failurePolicy(OutboxEventDispatcher.FailurePolicy.RETHROW)
+                .build();
+    }
 
+    @OutboxRetryableTopic(
+            retryTopicSuffix = "-${sanitech.service-events-consumer.group-id:svc-payments-service-events}-retry",
+            dltTopicSuffix = "-${sanitech.service-events-consumer.group-id:svc-payments-service-events}-dlt"
+    )
     @KafkaListener(
             topics = "${sanitech.service-events-consumer.topic:payments.events}",
             groupId = "${sanitech.service-events-consumer.group-id:svc-payments-service-events}"
     )
-    @Transactional
-    public void onMessage(ConsumerRecord<String, String> record) {
-        try {
-            JsonNode envelope = objectMapper.readTree(record.value());
-
-            String eventType = getTextOrNull(envelope, "eventType");
-            String aggregateType = getTextOrNull(envelope, "aggregateType");
-
-            if (aggregateType == null || eventType == null) {
-                return;
-            }
-
-            // Processa evento televisita completata
-            if (AGGREGATE_TYPE_TELEVISIT.equals(aggregateType) && EVENT_TYPE_TELEVISIT_ENDED.equals(eventType)) {
-                processTelevisitEnded(envelope);
-                return;
-            }
-
-            // Processa evento ricovero dimesso
-            if (AGGREGATE_TYPE_ADMISSION.equals(aggregateType) && EVENT_TYPE_ADMISSION_DISCHARGED.equals(eventType)) {
-                processAdmissionDischarged(envelope);
-                return;
-            }
-
-            // Processa evento visita in presenza completata
-            if (AGGREGATE_TYPE_APPOINTMENT.equals(aggregateType) && EVENT_TYPE_APPOINTMENT_COMPLETED.equals(eventType)) {
-                processAppointmentCompleted(envelope);
-            }
-
-        } catch (Exception ex) {
-            log.error("Errore processamento evento da payments.events (offset={}): {}",
-                    record.offset(), ex.getMessage(), ex);
-        }
+    public CompletableFuture<Void> onMessage(ConsumerRecord<String, byte[]> record) {
+        return dispatcher.dispatchAsync(record);
     }
 
     /**
      * Processa l'evento di una televisita completata.
      * Crea una prestazione di tipo MEDICAL_VISIT con importo default 100 EUR.
      */
-    private void processTelevisitEnded(JsonNode envelope) {
-        JsonNode payload = envelope.path("payload");
-        Long sourceId = payload.path("sourceId").asLong(0);
+    private void processTelevisitEnded(TelevisitEnded payload) {
+        long sourceId = payload.sourceId();
 
         if (sourceId == 0) {
             log.warn("Evento TELEVISIT_ENDED senza sourceId, ignorato.");
@@ -107,27 +105,20 @@ public class ServiceEventsConsumer {
             return;
         }
 
-        String department = getTextOrNull(payload, "department");
-        String patientSubject = getTextOrNull(payload, "patientSubject");
-        Long patientId = payload.path("patientId").asLong(0);
-        String patientName = getTextOrNull(payload, "patientName");
-        String patientEmail = getTextOrNull(payload, "patientEmail");
-        Long doctorId = payload.has("doctorId") && !payload.path("doctorId").isNull() ? payload.path("doctorId").asLong() : null;
-        String doctorName = getTextOrNull(payload, "doctorName");
-        String roomName = getTextOrNull(payload, "roomName");
+        String roomName = payload.roomName();
 
         ServicePerformed service = ServicePerformed.builder()
                 .serviceType(ServiceType.MEDICAL_VISIT)
                 .paymentType(PaymentType.VISITA)
                 .sourceType(ServiceSourceType.TELEVISIT)
                 .sourceId(sourceId)
-                .patientId(patientId)
-                .patientSubject(patientSubject)
-                .patientName(patientName)
-                .patientEmail(patientEmail)
-                .doctorId(doctorId)
-                .doctorName(doctorName)
-                .departmentCode(department)
+                .patientId(payload.patientId())
+                .patientSubject(payload.patientSubject())
+                .patientName(payload.patientName())
+                .patientEmail(payload.patientEmail())
+                .doctorId(payload.doctorId())
+                .doctorName(payload.doctorName())
+                .departmentCode(payload.department())
                 .description("Visita medica - Televisita #" + sourceId + (roomName != null ? " (" + roomName + ")" : ""))
                 .amountCents(serviceDefaults.getMedicalVisitAmountCents())
                 .currency("EUR")
@@ -144,9 +135,8 @@ public class ServiceEventsConsumer {
      * Processa l'evento di un paziente dimesso.
      * Crea una prestazione di tipo HOSPITALIZATION con importo calcolato in base ai giorni.
      */
-    private void processAdmissionDischarged(JsonNode envelope) {
-        JsonNode payload = envelope.path("payload");
-        Long sourceId = payload.path("sourceId").asLong(0);
+    private void processAdmissionDischarged(AdmissionDischarged payload) {
+        long sourceId = payload.sourceId();
 
         if (sourceId == 0) {
             log.warn("Evento ADMISSION_DISCHARGED senza sourceId, ignorato.");
@@ -158,14 +148,9 @@ public class ServiceEventsConsumer {
             return;
         }
 
-        Long patientId = payload.path("patientId").asLong(0);
-        Long attendingDoctorId = payload.has("attendingDoctorId") ? payload.path("attendingDoctorId").asLong() : null;
-        String department = getTextOrNull(payload, "departmentCode");
-        String dischargedAtStr = getTextOrNull(payload, "dischargedAt");
-        String admittedAtStr = getTextOrNull(payload, "admittedAt");
-        String patientName = getTextOrNull(payload, "patientName");
-        String patientEmail = getTextOrNull(payload, "patientEmail");
-        String doctorName = getTextOrNull(payload, "doctorName");
+        String department = payload.departmentCode();
+        String dischargedAtStr = payload.dischargedAt();
+        String admittedAtStr = payload.admittedAt();
 
         int daysCount = 1;
         Instant admittedAt = null;
@@ -189,11 +174,11 @@ public class ServiceEventsConsumer {
                 .paymentType(PaymentType.RICOVERO)
                 .sourceType(ServiceSourceType.ADMISSION)
                 .sourceId(sourceId)
-                .patientId(patientId)
-                .patientName(patientName)
-                .patientEmail(patientEmail)
-                .doctorId(attendingDoctorId)
-                .doctorName(doctorName)
+                .patientId(payload.patientId())
+                .patientName(payload.patientName())
+                .patientEmail(payload.patientEmail())
+                .doctorId(payload.attendingDoctorId())
+                .doctorName(payload.doctorName())
                 .departmentCode(department)
                 .description("Ricovero ospedaliero - " + daysCount + " giorni" + (department != null ? " (" + department + ")" : ""))
                 .amountCents(amountCents)
@@ -213,9 +198,8 @@ public class ServiceEventsConsumer {
      * Processa l'evento di una visita in presenza completata.
      * Crea una prestazione di tipo MEDICAL_VISIT con importo default 100 EUR.
      */
-    private void processAppointmentCompleted(JsonNode envelope) {
-        JsonNode payload = envelope.path("payload");
-        Long sourceId = payload.path("sourceId").asLong(0);
+    private void processAppointmentCompleted(AppointmentCompleted payload) {
+        long sourceId = payload.sourceId();
 
         if (sourceId == 0) {
             log.warn("Evento APPOINTMENT_COMPLETED senza sourceId, ignorato.");
@@ -227,33 +211,25 @@ public class ServiceEventsConsumer {
             return;
         }
 
-        Long patientId = payload.path("patientId").asLong(0);
-        Long doctorId = payload.has("doctorId") && !payload.path("doctorId").isNull() ? payload.path("doctorId").asLong() : null;
-        String department = getTextOrNull(payload, "departmentCode");
-        String mode = getTextOrNull(payload, "mode");
-        String completedAtStr = getTextOrNull(payload, "completedAt");
-        String patientName = getTextOrNull(payload, "patientName");
-        String patientEmail = getTextOrNull(payload, "patientEmail");
-        String doctorName = getTextOrNull(payload, "doctorName");
-
+        String completedAtStr = payload.completedAt();
         Instant completedAt = Instant.now();
         if (completedAtStr != null) {
             try { completedAt = Instant.parse(completedAtStr); } catch (Exception e) { log.debug("Impossibile parsare completedAt: {}", completedAtStr); }
         }
 
-        String modeLabel = "TELEVISIT".equals(mode) ? "Televisita" : "In presenza";
+        String modeLabel = "TELEVISIT".equals(payload.mode()) ? "Televisita" : "In presenza";
 
         ServicePerformed service = ServicePerformed.builder()
                 .serviceType(ServiceType.MEDICAL_VISIT)
                 .paymentType(PaymentType.VISITA)
                 .sourceType(ServiceSourceType.APPOINTMENT)
                 .sourceId(sourceId)
-                .patientId(patientId)
-                .patientName(patientName)
-                .patientEmail(patientEmail)
-                .doctorId(doctorId)
-                .doctorName(doctorName)
-                .departmentCode(department)
+                .patientId(payload.patientId())
+                .patientName(payload.patientName())
+                .patientEmail(payload.patientEmail())
+                .doctorId(payload.doctorId())
+                .doctorName(payload.doctorName())
+                .departmentCode(payload.departmentCode())
                 .description("Visita medica (" + modeLabel + ") - Appuntamento #" + sourceId)
                 .amountCents(serviceDefaults.getMedicalVisitAmountCents())
                 .currency("EUR")
@@ -266,9 +242,24 @@ public class ServiceEventsConsumer {
         log.info("Prestazione creata per appuntamento id={}, importo={}c", sourceId, service.getAmountCents());
     }
 
-    private String getTextOrNull(JsonNode node, String field) {
-        if (node == null) return null;
-        JsonNode fieldNode = node.get(field);
-        return fieldNode != null && !fieldNode.isNull() ? fieldNode.asText() : null;
-    }
+    /**
+     * Payload di {@code TELEVISIT_SESSION/ENDED}; le date restano stringhe per un parsing tollerante.
+     */
+    record TelevisitEnded(long sourceId, String department, String patientSubject, long patientId,
+                          String patientName, String patientEmail, Long doctorId, String doctorName,
+                          String roomName) { }
+
+    /**
+     * Payload di {@code ADMISSION/ADMISSION_DISCHARGED}.
+     */
+    record AdmissionDischarged(long sourceId, long patientId, Long attendingDoctorId, String departmentCode,
+                               String dischargedAt, String admittedAt, String patientName,
+                               String patientEmail, String doctorName) { }
+
+    /**
+     * Payload di {@code APPOINTMENT/APPOINTMENT_COMPLETED}.
+     */
+    record AppointmentCompleted(long sourceId, long patientId, Long doctorId, String departmentCode, String mode,
+                                String completedAt, String patientName, String patientEmail,
+                                String doctorName) { }
 }
@@ -2,6 +2,7 @@ package it.sanitech.payments.services;
 
 import io.github.resilience4j.bulkhead.annotation.Bulkhead;
 import it.sanitech.commons.exception.NotFoundException;
+import it.sanitech.outbox.core.DomainEvent;
 import it.sanitech.outbox.core.DomainEventPublisher;
 import it.sanitech.payments.repositories.ServicePerformedRepository;
 import it.sanitech.payments.repositories.entities.ServicePerformed;
@@ -24,6 +25,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -266,6 +268,7 @@ public class ServicePerformedService {
     @Transactional
     public Map<String, Integer> sendBulkReminders(List<Long> ids, Authentication auth) {
         List<ServicePerformed> services = repository.findByIdIn(ids);
+        List<DomainEvent> reminders = new ArrayList<>(services.size());
         int sent = 0;
         int skipped = 0;
 
@@ -287,20 +290,22 @@ public class ServicePerformedService {
                 payload.put("currency", service.getCurrency());
                 payload.put("description", service.getDescription());
 
-                domainEventPublisher.publish(
+                reminders.add(DomainEvent.of(
                         AppConstants.Outbox.AGGREGATE_TYPE_SERVICE,
                         String.valueOf(service.getId()),
                         AppConstants.Outbox.EVT_SERVICE_REMINDER_REQUESTED,
                         payload,
-                        AppConstants.Outbox.TOPIC_NOTIFICATIONS_EVENTS,
-                        auth
-                );
+                        AppConstants.Outbox.TOPIC_NOTIFICATIONS_EVENTS
+                ));
                 sent++;
             } else {
                 skipped++;
             }
         }
 
+        // Un solo batch di INSERT outbox per tutti i solleciti.
+        domainEventPublisher.publishAll(reminders, auth);
+
         Map<String, Integer> result = new HashMap<>();
         result.put("sent", sent);
         result.put("skipped", skipped);
@@ -13,10 +13,14 @@ import org.springframework.transaction.support.TransactionTemplate;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,10 +60,54 @@ class OutboxKafkaPublisherTest {
         publisher.publishBatch();
 
         verify(sender).sendSync(props.getPublisher().getTopic(), evt, props.getPublisher().getSendTimeoutMs());
-        verify(repo).markPublished(eq(List.of(1L)), any());
+        verify(repo).markPublished(eq(List.of(1L)), any(), any(), any());
         assertThat(evt.isPublished()).isFalse();
 
         double count = meter.find("sanitech.outbox.published").counter().count();
         assertThat(count).isGreaterThanOrEqualTo(1.0);
     }
+
+    @Test
+    void publishBatch_recordsFailureAndKeepsPublishingOtherAggregates() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+        SimpleMeterRegistry meter = new SimpleMeterRegistry();
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setSendTimeoutMs(1000);
+        props.getPublisher().setTopic("payments.events");
+        props.getPublisher().getRetry().setMaxAttempts(3);
+
+        OutboxEvent poison = OutboxEvent.newUnpublished(AppConstants.Outbox.AGGREGATE_TYPE_PAYMENT, "10",
+                AppConstants.Outbox.EVT_CREATED, "{\"a\":1}");
+        poison.setId(1L);
+        poison.setAttempts(2);
+        OutboxEvent sameAggregate = OutboxEvent.newUnpublished(AppConstants.Outbox.AGGREGATE_TYPE_PAYMENT, "10",
+                AppConstants.Outbox.EVT_CREATED, "{\"a\":2}");
+        sameAggregate.setId(2L);
+        OutboxEvent healthy = OutboxEvent.newUnpublished(AppConstants.Outbox.AGGREGATE_TYPE_PAYMENT, "11",
+                AppConstants.Outbox.EVT_CREATED, "{\"a\":3}");
+        healthy.setId(3L);
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+        when(repo.lockBatch(100)).thenReturn(List.of(poison, sameAggregate, healthy));
+        doThrow(new IllegalStateException("RecordTooLargeException"))
+                .when(sender).sendSync("payments.events", poison, 1000);
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, meter);
+        publisher.publishBatch();
+
+        // Terzo fallimento su tre tentativi: l'evento viene parcheggiato senza bloccare l'aggregato 11.
+        verify(repo).recordFailure(eq(1L), any(), eq(3), isNull(), contains("RecordTooLargeException"), eq(true));
+        verify(sender, never()).sendSync("payments.events", sameAggregate, 1000);
+        verify(repo).markPublished(eq(List.of(3L)), any(), any(), any());
+        assertThat(meter.find("sanitech.outbox.dead_lettered").counter().count()).isEqualTo(1.0);
+    }
 }
@@ -5,6 +5,7 @@ import it.sanitech.commons.security.SecurityUtils;
 import it.sanitech.commons.utilities.PageableUtils;
 import it.sanitech.commons.utilities.SortUtils;
 import it.sanitech.outbox.core.DomainEventPublisher;
+import it.sanitech.outbox.core.TopicRoute;
 import it.sanitech.scheduling.clients.DirectoryClient;
 import it.sanitech.scheduling.repositories.AppointmentRepository;
 import it.sanitech.scheduling.repositories.SlotRepository;
@@ -29,6 +30,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -216,50 +218,37 @@ public class AppointmentService {
         String doctorName = doctorInfo != null ? doctorInfo.fullName() : null;
         String doctorEmail = doctorInfo != null ? doctorInfo.email() : null;
 
-        // 1. Evento audit
-        events.publish("APPOINTMENT", String.valueOf(saved.getId()), "APPOINTMENT_COMPLETED",
-                Map.of(
-                        "appointmentId", saved.getId(),
-                        "patientId", saved.getPatientId(),
-                        "doctorId", saved.getDoctorId(),
-                        "departmentCode", saved.getDepartmentCode(),
-                        "mode", saved.getMode().name(),
-                        "completedAt", saved.getCompletedAt().toString()
-                ),
-                AppConstants.Outbox.TOPIC_AUDITS_EVENTS, auth);
-
-        // 2. Evento payments (payload arricchito per fatturazione)
-        Map<String, Object> paymentsPayload = new HashMap<>();
-        paymentsPayload.put("sourceId", saved.getId());
-        paymentsPayload.put("sourceType", "APPOINTMENT");
-        paymentsPayload.put("patientId", saved.getPatientId());
-        paymentsPayload.put("patientName", patientName);
-        paymentsPayload.put("patientEmail", patientEmail);
-        paymentsPayload.put("doctorId", saved.getDoctorId());
-        paymentsPayload.put("doctorName", doctorName);
-        paymentsPayload.put("departmentCode", saved.getDepartmentCode());
-        paymentsPayload.put("mode", saved.getMode().name());
-        paymentsPayload.put("startAt", saved.getStartAt().toString());
-        paymentsPayload.put("endAt", saved.getEndAt().toString());
-        paymentsPayload.put("completedAt", saved.getCompletedAt().toString());
-
-        events.publish("APPOINTMENT", String.valueOf(saved.getId()), "APPOINTMENT_COMPLETED",
-                paymentsPayload, AppConstants.Outbox.TOPIC_PAYMENTS_EVENTS, auth);
-
-        // 3. Evento notifications (email a medico e paziente)
-        Map<String, Object> notificationsPayload = new HashMap<>();
-        notificationsPayload.put("notificationType", "APPOINTMENT_COMPLETED");
-        notificationsPayload.put("sourceId", saved.getId());
-        notificationsPayload.put("departmentCode", saved.getDepartmentCode());
-        notificationsPayload.put("mode", saved.getMode().name());
-        notificationsPayload.put("patientName", patientName);
-        notificationsPayload.put("patientEmail", patientEmail);
-        notificationsPayload.put("doctorName", doctorName);
-        notificationsPayload.put("doctorEmail", doctorEmail);
-        notificationsPayload.put("completedAt", saved.getCompletedAt().toString());
-
-        events.publish("APPOINTMENT", String.valueOf(saved.getId()), "APPOINTMENT_COMPLETED",
-                notificationsPayload, AppConstants.Outbox.TOPIC_NOTIFICATIONS_EVENTS, auth);
+        // Un'unica riga outbox: audit, payments e notifications ricevono ciascuno la propria proiezione.
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("appointmentId", saved.getId());
+        payload.put("sourceId", saved.getId());
+        payload.put("sourceType", "APPOINTMENT");
+        payload.put("notificationType", "APPOINTMENT_COMPLETED");
+        payload.put("patientId", saved.getPatientId());
+        payload.put("patientName", patientName);
+        payload.put("patientEmail", patientEmail);
+        payload.put("doctorId", saved.getDoctorId());
+        payload.put("doctorName", doctorName);
+        payload.put("doctorEmail", doctorEmail);
+        payload.put("departmentCode", saved.getDepartmentCode());
+        payload.put("mode", saved.getMode().name());
+        payload.put("startAt", saved.getStartAt().toString());
+        payload.put("endAt", saved.getEndAt().toString());
+        payload.put("completedAt", saved.getCompletedAt().toString());
+
+        events.publishToTopics("APPOINTMENT", String.valueOf(saved.getId()), "APPOINTMENT_COMPLETED", payload, List.of(
+                // 1. audit
+                TopicRoute.projected(AppConstants.Outbox.TOPIC_AUDITS_EVENTS,
+                        "appointmentId", "patientId", "doctorId", "departmentCode", "mode", "completedAt"),
+                // 2. payments (payload arricchito per fatturazione)
+                TopicRoute.projected(AppConstants.Outbox.TOPIC_PAYMENTS_EVENTS,
+                        "sourceId", "sourceType", "patientId", "patientName", "patientEmail", "doctorId", "doctorName",
+                        "departmentCode", "mode", "startAt", "endAt", "completedAt"),
+                // 3. notifications (email a medico e paziente)
+                TopicRoute.projected(AppConstants.Outbox.TOPIC_NOTIFICATIONS_EVENTS,
+                        "notificationType", "sourceId", "departmentCode", "mode", "patientName", "patientEmail",
+                        "doctorName", "doctorEmail", "completedAt")
+        ), auth);
 
         return appointmentMapper.toDto(saved);
     }
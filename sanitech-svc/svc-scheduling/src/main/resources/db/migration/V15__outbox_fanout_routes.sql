@@ -0,0 +1,11 @@
+-- V15__outbox_fanout_routes.sql
+-- Fan-out multi-topic da una sola riga outbox: routes contiene {topic: [campi] | null}
+-- (proiezione del payload per topic, null = payload intero); delivered_topics registra
+-- i topic già confermati dal broker, così un nuovo tentativo invia solo quelli mancanti.
+
+ALTER TABLE outbox_events
+    ADD COLUMN IF NOT EXISTS routes           JSONB,
+    ADD COLUMN IF NOT EXISTS delivered_topics JSONB;
+
+COMMENT ON COLUMN outbox_events.routes IS 'Fan-out: {topic: [campi del payload] | null}. Se valorizzato, la colonna topic è ignorata';
+COMMENT ON COLUMN outbox_events.delivered_topics IS 'Topic del fan-out già consegnati (consegna parziale)';
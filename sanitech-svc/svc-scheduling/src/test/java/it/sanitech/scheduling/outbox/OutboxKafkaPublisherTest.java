@@ -7,16 +7,21 @@ import it.sanitech.outbox.persistence.OutboxEvent;
 import it.sanitech.outbox.persistence.OutboxRepository;
 import it.sanitech.outbox.publisher.OutboxKafkaPublisher;
 import it.sanitech.outbox.publisher.OutboxKafkaSender;
+import it.sanitech.outbox.utilities.OutboxConstants;
 import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -61,7 +66,106 @@ class OutboxKafkaPublisherTest {
         publisher.publishBatch();
 
         verify(sender).sendSync(props.getPublisher().getTopic(), evt, props.getPublisher().getSendTimeoutMs());
-        verify(repo).markPublished(eq(List.of(1L)), any());
+        verify(repo).markPublished(eq(List.of(1L)), any(), any(), any());
         assertThat(evt.isPublished()).isFalse();
     }
+
+    @Test
+    void publishShard_does_not_mark_events_following_a_failure_of_the_same_aggregate() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setTopic("scheduling.events");
+        props.getPublisher().setSendMode(OutboxProperties.SendMode.PIPELINED);
+
+        OutboxEvent booked = OutboxEvent.builder().id(1L).aggregateType("APPOINTMENT").aggregateId("10")
+                .eventType("APPOINTMENT_BOOKED").build();
+        OutboxEvent cancelled = OutboxEvent.builder().id(2L).aggregateType("APPOINTMENT").aggregateId("10")
+                .eventType("APPOINTMENT_CANCELLED").build();
+        OutboxEvent other = OutboxEvent.builder().id(3L).aggregateType("APPOINTMENT").aggregateId("11")
+                .eventType("APPOINTMENT_BOOKED").build();
+
+        when(tx.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 3)).thenReturn(true);
+        when(repo.lockShardBatch(16, 3, 100)).thenReturn(List.of(booked, cancelled, other));
+        when(sender.sendAsync("scheduling.events", booked)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("timeout")));
+        when(sender.sendAsync("scheduling.events", cancelled)).thenReturn(CompletableFuture.completedFuture(null));
+        when(sender.sendAsync("scheduling.events", other)).thenReturn(CompletableFuture.completedFuture(null));
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, new SimpleMeterRegistry());
+        int published = publisher.publishShard(3, 16);
+
+        assertThat(published).isEqualTo(1);
+        verify(repo).markPublished(eq(List.of(3L)), any(), any(), any());
+        // L'evento successivo dello stesso aggregato parte solo dopo l'ACK del precedente.
+        verify(sender, never()).sendAsync("scheduling.events", cancelled);
+    }
+
+    @Test
+    void publishShard_skips_shard_claimed_by_another_worker() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        when(tx.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        when(repo.tryLockShard(OutboxConstants.SHARD_LOCK_NAMESPACE, 0)).thenReturn(false);
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, new OutboxProperties(), null);
+
+        assertThat(publisher.publishShard(0, 16)).isZero();
+        verify(repo, never()).lockShardBatch(anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void lanes_publish_their_topics_apart_from_the_main_publisher() {
+        OutboxRepository repo = mock(OutboxRepository.class);
+        OutboxKafkaSender sender = mock(OutboxKafkaSender.class);
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+
+        OutboxProperties props = new OutboxProperties();
+        props.getPublisher().setEnabled(true);
+        props.getPublisher().setBatchSize(100);
+        props.getPublisher().setTopic("scheduling.events");
+        OutboxProperties.Lane urgent = new OutboxProperties.Lane();
+        urgent.setName("urgent");
+        urgent.setTopics(List.of("notifications.events"));
+        urgent.setBatchSize(20);
+        props.getPublisher().setLanes(List.of(urgent));
+
+        OutboxEvent reminder = OutboxEvent.builder().id(5L).aggregateType("APPOINTMENT").aggregateId("12")
+                .eventType("APPOINTMENT_BOOKED").topic("notifications.events").build();
+
+        doAnswer(invocation -> {
+            java.util.function.Consumer<?> callback = invocation.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(tx).executeWithoutResult(any());
+        when(tx.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        when(repo.tryLockShard(OutboxConstants.LANE_LOCK_NAMESPACE, 2)).thenReturn(true);
+        when(repo.lockLaneShardBatch(List.of("notifications.events"), 16, 2, 20)).thenReturn(List.of(reminder));
+
+        OutboxKafkaPublisher publisher = new OutboxKafkaPublisher(tx, repo, sender, props, new SimpleMeterRegistry());
+
+        assertThat(publisher.publishLaneShard(0, 2, 16)).isEqualTo(1);
+        verify(sender).sendSync("notifications.events", reminder, props.getPublisher().getSendTimeoutMs());
+        verify(repo).markPublished(eq(List.of(5L)), any(), any(), any());
+
+        // Il publisher principale non preleva i topic della corsia.
+        publisher.publishBatch();
+        verify(repo).lockBatchExcluding(List.of("notifications.events"), 100);
+        verify(repo, never()).lockBatch(anyInt());
+    }
 }